@@ -13,6 +13,9 @@ public class BrokerApp {
     
     private ZookeeperClient zookeeperClient;
     private ZkController controller;
+    private LogManager logManager;
+    private SocketServer socketServer;
+    private final MetadataCache metadataCache = new MetadataCache();
     private int brokerId;
     private String zkAddress;
     
@@ -30,7 +33,9 @@ public class BrokerApp {
         displayStartupInfo(zkAddress, brokerId);
         
         try {
-            setupZookeeperClient();
+            Config config = createConfig();
+            setupZookeeperClient(config);
+            setupSocketServer(config);
             setupController();
             registerBrokerWithZookeeper();
             displayCurrentClusterState();
@@ -57,19 +62,44 @@ public class BrokerApp {
         System.out.println("=== Enhanced Broker Demo Application ===");
         System.out.println("ZooKeeper Address: " + zkAddress);
         System.out.println("Broker ID: " + brokerId);
-        System.out.println("Features: Controller Election, Topic Management");
+        System.out.println("Features: Controller Election, Topic Management, Produce/Fetch/ListOffsets/Metadata");
         System.out.println("=============================================");
     }
     
-    private void setupZookeeperClient() throws Exception {
+    private Config createConfig() throws Exception {
         String hostAddress = InetAddress.getLocalHost().getHostAddress();
         int brokerPort = 9092 + brokerId;
-        
-        Config config = new Config(brokerId, hostAddress, brokerPort, zkAddress, Arrays.asList("/tmp/broker-" + brokerId));
+
+        return new Config(brokerId, hostAddress, brokerPort, zkAddress, Arrays.asList("/tmp/broker-" + brokerId));
+    }
+
+    private void setupZookeeperClient(Config config) throws Exception {
         zookeeperClient = new ZookeeperClient(config);
         zookeeperClient.registerSelf();
     }
+
+    //Serves produce, fetch, offset and metadata requests on the
+    // advertised port.
+    private void setupSocketServer(Config config) throws Exception {
+        logManager = new LogManager(config, new LogConfig());
+        logManager.startup();
+        refreshMetadataCache();
+        zookeeperClient.subscribeBrokerChangeListener((parentPath, currentChildren) -> refreshMetadataCache());
+        socketServer = new SocketServer(config, logManager, metadataCache);
+        socketServer.startup();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            socketServer.shutdown();
+            logManager.shutdown();
+        }));
+        System.out.println("Listening for clients on port " + config.getPort());
+    }
     
+    //Metadata requests are answered from the cache, so it is refreshed on
+    // every broker and topic change.
+    private void refreshMetadataCache() throws Exception {
+        metadataCache.update(zookeeperClient.getAllBrokers(), zookeeperClient.getAllTopics());
+    }
+
     private void setupController() {
         controller = new ZkController(zookeeperClient, brokerId);
         controller.startup();
@@ -131,6 +161,7 @@ public class BrokerApp {
         zookeeperClient.subscribeTopicChangeListener(new IZkChildListener() {
             @Override
             public void handleChildChange(String parentPath, List<String> currentChildren) throws Exception {
+                refreshMetadataCache();
                 System.out.println("\n=== TOPIC CHANGE DETECTED ===");
                 System.out.println("Parent Path: " + parentPath);
                 System.out.println("Current Topics: " + currentChildren);
@@ -0,0 +1,80 @@
+package com.dist.common;
+
+import java.nio.ByteBuffer;
+
+public class ByteUtils {
+
+    /**
+     * Writes a non-negative int using 7 bits per byte, the high bit of
+     * every byte telling whether more bytes follow. Small values, which
+     * is what lengths and offset deltas mostly are, take a single byte.
+     */
+    public static void writeUnsignedVarint(int value, ByteBuffer buffer) {
+        while ((value & 0xffffff80) != 0) {
+            buffer.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    public static int readUnsignedVarint(ByteBuffer buffer) {
+        int value = 0;
+        int shift = 0;
+        int b;
+        while (((b = buffer.get()) & 0x80) != 0) {
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+            if (shift > 28) {
+                throw new IllegalArgumentException("Varint is too long");
+            }
+        }
+        return value | (b << shift);
+    }
+
+    public static int sizeOfUnsignedVarint(int value) {
+        int bytes = 1;
+        while ((value & 0xffffff80) != 0) {
+            bytes++;
+            value >>>= 7;
+        }
+        return bytes;
+    }
+
+    /**
+     * Writes a long which can be negative, zigzag encoded so that small
+     * negative values, like timestamp deltas, are small varints too.
+     */
+    public static void writeVarlong(long value, ByteBuffer buffer) {
+        long v = (value << 1) ^ (value >> 63);
+        while ((v & 0xffffffffffffff80L) != 0L) {
+            buffer.put((byte) ((v & 0x7f) | 0x80));
+            v >>>= 7;
+        }
+        buffer.put((byte) v);
+    }
+
+    public static long readVarlong(ByteBuffer buffer) {
+        long value = 0L;
+        int shift = 0;
+        long b;
+        while (((b = buffer.get()) & 0x80) != 0) {
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+            if (shift > 63) {
+                throw new IllegalArgumentException("Varlong is too long");
+            }
+        }
+        value |= b << shift;
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public static int sizeOfVarlong(long value) {
+        long v = (value << 1) ^ (value >> 63);
+        int bytes = 1;
+        while ((v & 0xffffffffffffff80L) != 0L) {
+            bytes++;
+            v >>>= 7;
+        }
+        return bytes;
+    }
+}
@@ -3,6 +3,11 @@ package com.dist.common;
 import java.util.List;
 
 public class Config {
+    public enum NetworkMode {
+        SELECTOR, //a few network threads multiplex the connections.
+        THREAD_PER_CONNECTION //a platform thread per connection, blocking IO.
+    }
+
     private final int brokerId;
     private final String hostName;
     private final int port;
@@ -10,6 +15,12 @@ public class Config {
     private final List<String> logDirs;
     private int zkSessionTimeoutMs = 6000;
     private int zkConnectionTimeoutMs = 6000;
+    //threads doing the socket IO of the client connections.
+    private int numNetworkThreads = 3;
+    //threads running the requests against the logs.
+    private int numIoThreads = 8;
+    private int socketRequestMaxBytes = 100 * 1024 * 1024;
+    private NetworkMode networkMode = NetworkMode.SELECTOR;
 
     public Config(int brokerId, String hostName, int port, String zkConnect, List<String> logDirs) {
         this.brokerId = brokerId;
@@ -51,5 +62,40 @@ public class Config {
     public int getZkConnectionTimeoutMs() {
         return zkConnectionTimeoutMs;
     }
-}
 
+    public int getNumNetworkThreads() {
+        return numNetworkThreads;
+    }
+
+    public Config setNumNetworkThreads(int numNetworkThreads) {
+        this.numNetworkThreads = numNetworkThreads;
+        return this;
+    }
+
+    public int getNumIoThreads() {
+        return numIoThreads;
+    }
+
+    public Config setNumIoThreads(int numIoThreads) {
+        this.numIoThreads = numIoThreads;
+        return this;
+    }
+
+    public int getSocketRequestMaxBytes() {
+        return socketRequestMaxBytes;
+    }
+
+    public Config setSocketRequestMaxBytes(int socketRequestMaxBytes) {
+        this.socketRequestMaxBytes = socketRequestMaxBytes;
+        return this;
+    }
+
+    public NetworkMode getNetworkMode() {
+        return networkMode;
+    }
+
+    public Config setNetworkMode(NetworkMode networkMode) {
+        this.networkMode = networkMode;
+        return this;
+    }
+}
@@ -0,0 +1,18 @@
+package com.dist.simplekafka;
+
+/**
+ * An error code returned by the broker for a partition, see
+ * {@link Errors}.
+ */
+public class ApiException extends RuntimeException {
+    private final short error;
+
+    public ApiException(short error, String message) {
+        super(message + " (error code " + error + ")");
+        this.error = error;
+    }
+
+    public short getError() {
+        return error;
+    }
+}
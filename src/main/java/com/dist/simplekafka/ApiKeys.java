@@ -0,0 +1,27 @@
+package com.dist.simplekafka;
+
+/**
+ * The requests the broker serves, see {@link RequestHeader}. Every API
+ * has a version, bumped when its format changes, so a broker can keep
+ * serving older clients.
+ */
+public final class ApiKeys {
+    public static final short Produce = 0;
+    public static final short Fetch = 1;
+    public static final short ListOffsets = 2;
+    public static final short Metadata = 3;
+
+    //the latest version of every API, by API key.
+    private static final short[] LatestVersions = {0, 0, 0, 0};
+
+    private ApiKeys() {
+    }
+
+    public static short latestVersion(short apiKey) {
+        return LatestVersions[apiKey];
+    }
+
+    public static boolean isSupported(short apiKey, short version) {
+        return apiKey >= 0 && apiKey < LatestVersions.length && version >= 0 && version <= LatestVersions[apiKey];
+    }
+}
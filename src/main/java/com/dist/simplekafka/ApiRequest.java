@@ -0,0 +1,28 @@
+package com.dist.simplekafka;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The body of a request, after the {@link RequestHeader}. Requests are
+ * encoded by hand into a buffer sized up front, so encoding is a few
+ * bounds checked puts.
+ */
+public interface ApiRequest {
+
+    short apiKey();
+
+    int sizeInBytes();
+
+    void writeTo(ByteBuffer buffer);
+
+    //The whole request frame, with the size prefix and the header.
+    default ByteBuffer toFrame(int correlationId, String clientId) {
+        RequestHeader header = new RequestHeader(apiKey(), ApiKeys.latestVersion(apiKey()), correlationId, clientId);
+        int size = header.sizeInBytes() + sizeInBytes();
+        ByteBuffer buffer = ByteBuffer.allocate(4 + size);
+        buffer.putInt(size);
+        header.writeTo(buffer);
+        writeTo(buffer);
+        return buffer.flip();
+    }
+}
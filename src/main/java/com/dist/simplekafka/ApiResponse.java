@@ -0,0 +1,22 @@
+package com.dist.simplekafka;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The body of a response, after the correlation ID of the request it
+ * answers, see {@link RequestHeader}.
+ */
+interface ApiResponse {
+
+    int sizeInBytes();
+
+    void writeTo(ByteBuffer buffer);
+
+    //The whole response frame, a fetch response overrides this to send
+    // the records from the segment files.
+    default NetworkSend toSend(int correlationId) {
+        ByteBuffer buffer = Protocol.responseFrame(correlationId, sizeInBytes(), 0);
+        writeTo(buffer);
+        return new NetworkSend(buffer.flip());
+    }
+}
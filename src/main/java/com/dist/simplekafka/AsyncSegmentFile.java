@@ -0,0 +1,177 @@
+package com.dist.simplekafka;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Writes and reads a segment with an {@link AsynchronousFileChannel}, so
+ * the caller only issues the operation and gets a future completed by
+ * the channel's thread pool once the disk is done with it. A slow disk
+ * then delays the futures instead of blocking request threads.
+ * At most maxOutstanding operations are in flight per segment, further
+ * ones wait in a queue and are issued as earlier ones complete, which
+ * bounds the queue depth a degraded disk sees.
+ * Blocking calls, size, truncation, flushes and zero copy transfers use
+ * a regular channel on the same file.
+ */
+class AsyncSegmentFile implements SegmentFile {
+    private final File file;
+    private final ChannelSegmentFile channelFile;
+    private final AsynchronousFileChannel asyncChannel;
+    private final Semaphore outstanding;
+    private final Queue<Runnable> waiting = new ConcurrentLinkedQueue<>();
+
+    AsyncSegmentFile(File file, int maxOutstanding) throws IOException {
+        Path path = file.toPath();
+        this.file = file;
+        this.channelFile = new ChannelSegmentFile(file, FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE));
+        this.asyncChannel = AsynchronousFileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.outstanding = new Semaphore(maxOutstanding);
+    }
+
+    @Override
+    public CompletableFuture<Void> writeAsync(long position, ByteBuffer src) {
+        CompletableFuture<Void> written = new CompletableFuture<>();
+        issue(() -> write(position, src, written));
+        return written;
+    }
+
+    @Override
+    public CompletableFuture<ByteBuffer> readAsync(long position, int size) {
+        CompletableFuture<ByteBuffer> read = new CompletableFuture<>();
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        issue(() -> read(position, buffer, read));
+        return read;
+    }
+
+    //Writes the remaining bytes, continuing after short writes.
+    private void write(long position, ByteBuffer src, CompletableFuture<Void> written) {
+        asyncChannel.write(src, position, null, new CompletionHandler<Integer, Void>() {
+            @Override
+            public void completed(Integer bytes, Void attachment) {
+                if (src.hasRemaining()) {
+                    asyncChannel.write(src, position + bytes, null, this);
+                    return;
+                }
+                complete();
+                written.complete(null);
+            }
+
+            @Override
+            public void failed(Throwable error, Void attachment) {
+                complete();
+                written.completeExceptionally(error);
+            }
+        });
+    }
+
+    //Fills the buffer, continuing after short reads.
+    private void read(long position, ByteBuffer dst, CompletableFuture<ByteBuffer> read) {
+        asyncChannel.read(dst, position, null, new CompletionHandler<Integer, Void>() {
+            @Override
+            public void completed(Integer bytes, Void attachment) {
+                if (bytes < 0) {
+                    failed(new CorruptRecordException("Unexpected end of " + file + " at position " + position), null);
+                    return;
+                }
+                if (dst.hasRemaining()) {
+                    asyncChannel.read(dst, position + bytes, null, this);
+                    return;
+                }
+                complete();
+                read.complete(dst.flip());
+            }
+
+            @Override
+            public void failed(Throwable error, Void attachment) {
+                complete();
+                read.completeExceptionally(error);
+            }
+        });
+    }
+
+    //Runs the operation once it is within maxOutstanding.
+    private void issue(Runnable operation) {
+        waiting.add(operation);
+        issueWaiting();
+    }
+
+    private void complete() {
+        outstanding.release();
+        issueWaiting();
+    }
+
+    private void issueWaiting() {
+        while (!waiting.isEmpty() && outstanding.tryAcquire()) {
+            Runnable operation = waiting.poll();
+            if (operation == null) {
+                outstanding.release(); //taken by another thread meanwhile.
+            } else {
+                operation.run();
+            }
+        }
+    }
+
+    //Blocking calls, e.g. from recovery, go straight to the channel.
+    @Override
+    public void write(long position, ByteBuffer src) throws IOException {
+        channelFile.write(position, src);
+    }
+
+    @Override
+    public void read(long position, ByteBuffer dst) throws IOException {
+        channelFile.read(position, dst);
+    }
+
+    @Override
+    public ByteBuffer read(long position, int size) throws IOException {
+        return channelFile.read(position, size);
+    }
+
+    @Override
+    public long size() throws IOException {
+        return channelFile.size();
+    }
+
+    @Override
+    public void truncate(long size) throws IOException {
+        channelFile.truncate(size);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        channelFile.flush();
+    }
+
+    @Override
+    public FileChannel channel() {
+        return channelFile.channel();
+    }
+
+    @Override
+    public void writeOut() {
+        //completed writes are in the file.
+    }
+
+    @Override
+    public boolean requiresOrderedWrites() {
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        asyncChannel.close();
+        channelFile.close();
+    }
+}
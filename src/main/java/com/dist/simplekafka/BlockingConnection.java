@@ -0,0 +1,89 @@
+package com.dist.simplekafka;
+
+import org.apache.log4j.Logger;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A client connection of the {@link SocketServer} in thread per
+ * connection mode. Its thread reads a request frame, runs it against the
+ * logs and writes the response, all with blocking IO, so the requests of
+ * a connection are handled one at a time in order like with a
+ * {@link Processor}.
+ * Runs on a platform thread for now. On a virtual thread, which is
+ * unmounted from its carrier thread while blocked on the socket, an idle
+ * connection would cost a small heap allocated stack instead.
+ */
+class BlockingConnection implements Runnable {
+    private static final Logger logger = Logger.getLogger(BlockingConnection.class);
+
+    private final SocketChannel channel;
+    private final RequestHandler handler;
+    private final int maxRequestBytes;
+    private final ByteBuffer size = ByteBuffer.allocate(4);
+
+    BlockingConnection(SocketChannel channel, RequestHandler handler, int maxRequestBytes) {
+        this.channel = channel;
+        this.handler = handler;
+        this.maxRequestBytes = maxRequestBytes;
+    }
+
+    @Override
+    public void run() {
+        try {
+            channel.socket().setTcpNoDelay(true);
+            while (true) {
+                size.clear();
+                if (!readFully(size, true)) {
+                    return; //closed by the client.
+                }
+                int requestSize = size.getInt(0);
+                if (requestSize <= 0 || requestSize > maxRequestBytes) {
+                    throw new IOException("Invalid request size " + requestSize + " from " + channel);
+                }
+                ByteBuffer request = ByteBuffer.allocate(requestSize);
+                readFully(request, false);
+                NetworkSend response;
+                try {
+                    response = handler.handle(request.flip());
+                } catch (RuntimeException e) {
+                    logger.warn("Failed to handle a request from " + channel + ", closing it", e);
+                    return;
+                }
+                if (!response.writeTo(channel)) {
+                    throw new IOException("Incomplete response to " + channel);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            if (channel.isOpen()) {
+                logger.debug("Closing connection " + channel + " after an error", e);
+            }
+        } finally {
+            close();
+        }
+    }
+
+    void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            //nothing to do.
+        }
+    }
+
+    //Returns false if the client closed the connection between requests.
+    private boolean readFully(ByteBuffer buffer, boolean atFrameStart) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                if (atFrameStart && buffer.position() == 0) {
+                    return false;
+                }
+                throw new EOFException("Connection " + channel + " closed in the middle of a request");
+            }
+        }
+        return true;
+    }
+}
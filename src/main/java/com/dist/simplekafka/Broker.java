@@ -7,7 +7,7 @@ public final class Broker {
     private final String host; //key=value;
     private final int port;
 
-    Broker(int id, String host, int port) {
+    public Broker(int id, String host, int port) {
         this.id = id;
         this.host = host;
         this.port = port;
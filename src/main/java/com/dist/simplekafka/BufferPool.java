@@ -0,0 +1,132 @@
+package com.dist.simplekafka;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The memory of the batches of a producer, capped at totalMemory bytes so
+ * the memory of a client stays bounded however fast it produces. Buffers
+ * of poolableSize, the batch size, are kept for reuse once freed, so a
+ * steady producer doesn't allocate. A record bigger than a batch gets a
+ * buffer of its own, which is counted against the total, but not pooled.
+ * Allocations block while the memory is in use, in the order they come,
+ * so a big allocation isn't starved by small ones.
+ */
+class BufferPool {
+    private final long totalMemory;
+    private final int poolableSize;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Deque<ByteBuffer> free = new ArrayDeque<>();
+    private final Deque<Condition> waiters = new ArrayDeque<>();
+    //memory neither in use nor in the free buffers.
+    private long nonPooledAvailableMemory;
+
+    BufferPool(long totalMemory, int poolableSize) {
+        this.totalMemory = totalMemory;
+        this.poolableSize = poolableSize;
+        this.nonPooledAvailableMemory = totalMemory;
+    }
+
+    /**
+     * A buffer with at least size bytes, waiting up to maxWaitMs for
+     * buffers in use to be freed.
+     * @throws TimeoutException if the memory is not freed in time.
+     */
+    ByteBuffer allocate(int size, long maxWaitMs) throws InterruptedException, TimeoutException {
+        if (size > totalMemory) {
+            throw new IllegalArgumentException("Can't allocate " + size + " bytes from a pool of " + totalMemory);
+        }
+        lock.lock();
+        try {
+            if (size == poolableSize && !free.isEmpty() && waiters.isEmpty()) {
+                return free.pollFirst();
+            }
+            if (waiters.isEmpty() && availableMemory() >= size) {
+                return allocateNonPooled(size);
+            }
+            Condition moreMemory = lock.newCondition();
+            waiters.addLast(moreMemory);
+            try {
+                long remainingNs = TimeUnit.MILLISECONDS.toNanos(maxWaitMs);
+                while (waiters.peekFirst() != moreMemory || availableMemory() < size) {
+                    if (remainingNs <= 0) {
+                        throw new TimeoutException("Failed to allocate " + size + " bytes within " + maxWaitMs
+                                + "ms, the pool of " + totalMemory + " bytes is in use");
+                    }
+                    remainingNs = moreMemory.awaitNanos(remainingNs);
+                }
+                if (size == poolableSize && !free.isEmpty()) {
+                    return free.pollFirst();
+                }
+                return allocateNonPooled(size);
+            } finally {
+                waiters.remove(moreMemory);
+                signalNextWaiter();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //Returns the buffer to the pool, it must not be used afterwards.
+    void deallocate(ByteBuffer buffer) {
+        lock.lock();
+        try {
+            if (buffer.capacity() == poolableSize) {
+                free.addLast(buffer.clear());
+            } else {
+                nonPooledAvailableMemory += buffer.capacity();
+            }
+            signalNextWaiter();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long availableMemory() {
+        lock.lock();
+        try {
+            return nonPooledAvailableMemory + (long) free.size() * poolableSize;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //Allocations waiting for memory, the accumulator sends its batches
+    // right away while there are any.
+    int queued() {
+        lock.lock();
+        try {
+            return waiters.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long totalMemory() {
+        return totalMemory;
+    }
+
+    //Takes memory from the free buffers if needed. Called with the lock
+    // held and enough memory available.
+    private ByteBuffer allocateNonPooled(int size) {
+        while (nonPooledAvailableMemory < size) {
+            free.pollLast();
+            nonPooledAvailableMemory += poolableSize;
+        }
+        nonPooledAvailableMemory -= size;
+        return ByteBuffer.allocate(size);
+    }
+
+    private void signalNextWaiter() {
+        Condition next = waiters.peekFirst();
+        if (next != null) {
+            next.signal();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.dist.simplekafka;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads and writes a segment with positional {@link FileChannel} calls,
+ * copying through heap buffers. Every read is a syscall.
+ */
+class ChannelSegmentFile implements SegmentFile {
+    private final File file;
+    private final FileChannel channel;
+
+    ChannelSegmentFile(File file, FileChannel channel) {
+        this.file = file;
+        this.channel = channel;
+    }
+
+    @Override
+    public void write(long position, ByteBuffer src) throws IOException {
+        long written = 0;
+        while (src.hasRemaining()) {
+            written += channel.write(src, position + written);
+        }
+    }
+
+    @Override
+    public void read(long position, ByteBuffer dst) throws IOException {
+        long filePosition = position;
+        while (dst.hasRemaining()) {
+            int read = channel.read(dst, filePosition);
+            if (read < 0) {
+                throw new CorruptRecordException("Unexpected end of " + file + " at position " + position);
+            }
+            filePosition += read;
+        }
+    }
+
+    @Override
+    public ByteBuffer read(long position, int size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        read(position, buffer);
+        buffer.flip();
+        return buffer;
+    }
+
+    @Override
+    public long size() throws IOException {
+        return channel.size();
+    }
+
+    @Override
+    public void truncate(long size) throws IOException {
+        channel.truncate(size);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        channel.force(true);
+    }
+
+    @Override
+    public FileChannel channel() {
+        return channel;
+    }
+
+    @Override
+    public void writeOut() {
+        //writes go straight to the channel.
+    }
+
+    @Override
+    public boolean requiresOrderedWrites() {
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
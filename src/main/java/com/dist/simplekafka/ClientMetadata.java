@@ -0,0 +1,143 @@
+package com.dist.simplekafka;
+
+import org.apache.log4j.Logger;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The partitions of the topics a client uses and the addresses of the
+ * brokers, from {@link MetadataRequest}s to the bootstrap brokers or the
+ * brokers already known. The leader of a partition is its first replica,
+ * see {@link MetadataResponse.TopicMetadata#leader}.
+ * A client waits for the metadata of a topic the first time it uses it,
+ * and asks for an update when it can't reach a leader, at most once per
+ * retryBackoffMs.
+ */
+class ClientMetadata {
+    private static final Logger logger = Logger.getLogger(ClientMetadata.class);
+
+    private final NetworkClient client;
+    private final List<InetSocketAddress> bootstrapServers;
+    private final long retryBackoffMs;
+    private final Map<String, List<PartitionReplicas>> topics = new ConcurrentHashMap<>();
+    //topics asked for, which the brokers may not know yet.
+    private final Set<String> wantedTopics = ConcurrentHashMap.newKeySet();
+    private volatile Map<Integer, InetSocketAddress> brokers = Map.of();
+    private final AtomicBoolean updating = new AtomicBoolean();
+    private volatile long lastUpdateAttemptMs = 0;
+
+    ClientMetadata(NetworkClient client, List<InetSocketAddress> bootstrapServers, long retryBackoffMs) {
+        this.client = client;
+        this.bootstrapServers = bootstrapServers;
+        this.retryBackoffMs = retryBackoffMs;
+    }
+
+    //Includes the topic in the next updates, see requestUpdate.
+    void addTopic(String topic) {
+        wantedTopics.add(topic);
+    }
+
+    //null if the topic is not known yet.
+    List<PartitionReplicas> partitions(String topic) {
+        return topics.get(topic);
+    }
+
+    //The address of the leader of the partition, null if not known.
+    InetSocketAddress leader(TopicPartition topicPartition) {
+        List<PartitionReplicas> partitions = topics.get(topicPartition.topic());
+        if (partitions == null) {
+            return null;
+        }
+        for (PartitionReplicas partition : partitions) {
+            if (partition.getPartitionId() == topicPartition.partition()) {
+                return brokers.get(MetadataResponse.TopicMetadata.leader(partition));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The partitions of the topic, asking for them till the brokers know
+     * the topic.
+     * @throws TimeoutException if the topic is not known within maxWaitMs.
+     */
+    List<PartitionReplicas> awaitPartitions(String topic, long maxWaitMs) throws InterruptedException, TimeoutException {
+        long deadline = System.currentTimeMillis() + maxWaitMs;
+        while (true) {
+            List<PartitionReplicas> partitions = topics.get(topic);
+            if (partitions != null) {
+                return partitions;
+            }
+            long remainingMs = deadline - System.currentTimeMillis();
+            if (remainingMs <= 0) {
+                throw new TimeoutException("Topic " + topic + " not present in metadata after " + maxWaitMs + "ms");
+            }
+            addTopic(topic);
+            try {
+                update(client.send(anyBroker(), new MetadataRequest(new ArrayList<>(wantedTopics))).get(remainingMs, TimeUnit.MILLISECONDS));
+            } catch (ExecutionException e) {
+                logger.debug("Failed to fetch the metadata of " + topic, e.getCause());
+            }
+            if (!topics.containsKey(topic)) {
+                Thread.sleep(Math.min(retryBackoffMs, Math.max(0, deadline - System.currentTimeMillis())));
+            }
+        }
+    }
+
+    //Asks for the metadata of the topics in the background.
+    void requestUpdate() {
+        long now = System.currentTimeMillis();
+        if (now - lastUpdateAttemptMs < retryBackoffMs || !updating.compareAndSet(false, true)) {
+            return;
+        }
+        lastUpdateAttemptMs = now;
+        client.send(anyBroker(), new MetadataRequest(new ArrayList<>(wantedTopics)))
+                .whenComplete((response, error) -> {
+                    try {
+                        if (error != null) {
+                            logger.debug("Failed to update the metadata", error);
+                        } else {
+                            update(response);
+                        }
+                    } finally {
+                        updating.set(false);
+                    }
+                });
+    }
+
+    private void update(ByteBuffer responseBuffer) {
+        MetadataResponse response = MetadataResponse.parse(responseBuffer);
+        Map<Integer, InetSocketAddress> addresses = new HashMap<>();
+        for (Broker broker : response.brokers()) {
+            InetSocketAddress known = brokers.get(broker.id());
+            boolean unchanged = known != null && known.getHostString().equals(broker.host()) && known.getPort() == broker.port();
+            addresses.put(broker.id(), unchanged ? known : new InetSocketAddress(broker.host(), broker.port()));
+        }
+        brokers = addresses;
+        for (MetadataResponse.TopicMetadata topic : response.topics()) {
+            if (topic.error == Errors.None) {
+                topics.put(topic.topic, topic.partitions);
+            }
+        }
+    }
+
+    //A known broker, or a bootstrap one till the first update.
+    private InetSocketAddress anyBroker() {
+        List<InetSocketAddress> candidates = brokers.isEmpty()
+                ? bootstrapServers
+                : new ArrayList<>(brokers.values());
+        return candidates.get(ThreadLocalRandom.current().nextInt(candidates.size()));
+    }
+}
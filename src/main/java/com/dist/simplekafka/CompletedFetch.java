@@ -0,0 +1,72 @@
+package com.dist.simplekafka;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+/**
+ * The records of a partition in a fetch response, waiting for a poll.
+ * The batches stay in the response buffer as received, and are checked
+ * and decoded one at a time as the records are polled, so the fetched
+ * bytes are only copied for the records the application takes, and the
+ * network thread doesn't decode at all.
+ * The first batch can start before the fetch offset, its earlier records
+ * are skipped.
+ */
+class CompletedFetch {
+    final TopicPartition topicPartition;
+    private final ByteBuffer records;
+    private final int sizeInBytes;
+    private Iterator<Log.Message> batch;
+
+    CompletedFetch(TopicPartition topicPartition, ByteBuffer records) {
+        this.topicPartition = topicPartition;
+        this.records = records.duplicate();
+        this.sizeInBytes = records.remaining();
+    }
+
+    //The offset after the last record, from the header of the last batch.
+    static long nextOffset(ByteBuffer records) {
+        long nextOffset = -1;
+        int position = records.position();
+        while (records.limit() - position >= RecordBatch.HeaderSize) {
+            int size = RecordBatch.LogOverhead + records.getInt(position + RecordBatch.LengthOffset);
+            if (size > records.limit() - position) {
+                break; //a partial batch is not returned.
+            }
+            nextOffset = records.getLong(position + RecordBatch.BaseOffsetOffset)
+                    + records.getInt(position + RecordBatch.LastOffsetDeltaOffset) + 1;
+            position += size;
+        }
+        return nextOffset;
+    }
+
+    int sizeInBytes() {
+        return sizeInBytes;
+    }
+
+    //The next record at or after the offset, null once all are read.
+    Log.Message next(long offset) {
+        while (true) {
+            while (batch != null && batch.hasNext()) {
+                Log.Message message = batch.next();
+                if (message.offset >= offset) {
+                    return message;
+                }
+            }
+            if (records.remaining() < RecordBatch.HeaderSize) {
+                return null;
+            }
+            int size = RecordBatch.LogOverhead + records.getInt(records.position() + RecordBatch.LengthOffset);
+            if (size > records.remaining()) {
+                return null;
+            }
+            RecordBatch recordBatch = new RecordBatch(records.slice(records.position(), size));
+            //a corrupt batch fails every poll, rather than being skipped.
+            if (recordBatch.lastOffset() >= offset) {
+                recordBatch.ensureValid();
+                batch = recordBatch.iterator();
+            }
+            records.position(records.position() + size);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.dist.simplekafka;
+
+/**
+ * Compresses the records of a batch. The codec id is stored in the batch
+ * attributes, so readers find the codec with
+ * {@link CompressionCodecs#forId(int)}. Ids 1 to 7 are available, 0 means
+ * the records are not compressed.
+ */
+public interface CompressionCodec {
+
+    int id();
+
+    String name();
+
+    byte[] compress(byte[] data, int offset, int length);
+
+    //The batch stores the uncompressed size, so codecs don't need to.
+    byte[] decompress(byte[] data, int offset, int length, int uncompressedSize);
+}
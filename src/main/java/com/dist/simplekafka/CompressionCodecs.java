@@ -0,0 +1,37 @@
+package com.dist.simplekafka;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+public class CompressionCodecs {
+    public static final int NoCompression = 0;
+    public static final int MaxCodecId = 7; //3 bits in the batch attributes.
+
+    public static final CompressionCodec Deflate = new DeflateCodec();
+    public static final CompressionCodec Lz = new LzCodec();
+
+    private static final ConcurrentMap<Integer, CompressionCodec> codecs = new ConcurrentHashMap<>();
+
+    static {
+        register(Deflate);
+        register(Lz);
+    }
+
+    public static void register(CompressionCodec codec) {
+        if (codec.id() <= NoCompression || codec.id() > MaxCodecId) {
+            throw new IllegalArgumentException("Codec id should be between 1 and " + MaxCodecId);
+        }
+        CompressionCodec existing = codecs.putIfAbsent(codec.id(), codec);
+        if (existing != null && existing != codec) {
+            throw new IllegalArgumentException("Codec id " + codec.id() + " is already used by " + existing.name());
+        }
+    }
+
+    public static CompressionCodec forId(int id) {
+        CompressionCodec codec = codecs.get(id);
+        if (codec == null) {
+            throw new CorruptRecordException("Unknown compression codec " + id);
+        }
+        return codec;
+    }
+}
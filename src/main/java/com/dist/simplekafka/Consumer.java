@@ -0,0 +1,118 @@
+package com.dist.simplekafka;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Reads the records of the assigned partitions from their leaders. The
+ * {@link Fetcher} thread keeps a fetch in flight to every leader and
+ * queues the records of each partition, up to a bound, ahead of the
+ * polls, so a poll mostly takes records already fetched, and the
+ * application rather than the fetch round trips sets the pace.
+ * The records are decoded from the fetched batches as they are polled.
+ * A partition starts from its earliest or latest offset, see
+ * {@link ConsumerConfig#setAutoOffsetReset}, unless seeked to an offset.
+ * Positions are kept in memory only, there are no consumer groups.
+ * Meant to be used from a single thread.
+ */
+public class Consumer implements Closeable {
+    private final ConsumerConfig config;
+    private final NetworkClient client;
+    private final ClientMetadata metadata;
+    private final Fetcher fetcher;
+    private final Thread fetcherThread;
+
+    public Consumer(ConsumerConfig config) throws IOException {
+        this.config = config;
+        //one fetch per leader, the brokers don't hold fetches, so the other
+        // requests don't wait long behind them.
+        this.client = new NetworkClient(config.getClientId(), 1, config.getRequestTimeoutMs());
+        this.metadata = new ClientMetadata(client, config.getBootstrapServers(), config.getRetryBackoffMs());
+        this.fetcher = new Fetcher(config, metadata, client);
+        this.fetcherThread = new Thread(fetcher, "consumer-fetcher-" + config.getClientId());
+        this.fetcherThread.setDaemon(true);
+        this.fetcherThread.start();
+    }
+
+    /**
+     * The partitions of the topic, waiting up to requestTimeoutMs for its
+     * metadata.
+     * @throws TimeoutException if the brokers don't know the topic.
+     */
+    public List<TopicPartition> partitionsFor(String topic) throws InterruptedException, TimeoutException {
+        List<TopicPartition> topicPartitions = new ArrayList<>();
+        for (PartitionReplicas partition : metadata.awaitPartitions(topic, config.getRequestTimeoutMs())) {
+            topicPartitions.add(new TopicPartition(topic, partition.getPartitionId()));
+        }
+        return topicPartitions;
+    }
+
+    //Replaces the assigned partitions, keeping the positions of those
+    // assigned before.
+    public void assign(Collection<TopicPartition> topicPartitions) {
+        fetcher.assign(topicPartitions);
+    }
+
+    public Set<TopicPartition> assignment() {
+        return fetcher.assignment();
+    }
+
+    //The next poll returns the records of the partition from the offset.
+    public void seek(TopicPartition topicPartition, long offset) {
+        if (offset < 0) {
+            throw new IllegalArgumentException("Invalid offset " + offset);
+        }
+        fetcher.seek(topicPartition, offset);
+    }
+
+    //The offset of the next record polled from the partition, -1 till it
+    // is looked up.
+    public long position(TopicPartition topicPartition) {
+        return fetcher.position(topicPartition);
+    }
+
+    /**
+     * Up to maxPollRecords of the records fetched, waiting up to timeoutMs
+     * for a fetch if none are.
+     * @return the records, in offset order within a partition, empty if
+     * none came in time.
+     */
+    public List<ConsumerRecord> poll(long timeoutMs) {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        try {
+            while (true) {
+                long seenFetches = fetcher.fetchCount();
+                List<ConsumerRecord> records = fetcher.drain(config.getMaxPollRecords());
+                long remainingMs = deadline - System.currentTimeMillis();
+                if (!records.isEmpty() || remainingMs <= 0) {
+                    return records;
+                }
+                fetcher.awaitFetched(seenFetches, remainingMs);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return List.of();
+        }
+    }
+
+    //Fetched bytes of the partition waiting to be polled.
+    int bufferedBytes(TopicPartition topicPartition) {
+        return fetcher.bufferedBytes(topicPartition);
+    }
+
+    @Override
+    public void close() {
+        fetcher.initiateClose();
+        try {
+            fetcherThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        client.close();
+    }
+}
@@ -0,0 +1,122 @@
+package com.dist.simplekafka;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class ConsumerConfig {
+    //brokers asked for the metadata, any one of the cluster will do.
+    private final List<InetSocketAddress> bootstrapServers;
+    private String clientId = "consumer";
+    //where a partition without a position starts, ListOffsetsRequest.Earliest
+    // or ListOffsetsRequest.Latest. Also used when the position is out of range.
+    private long autoOffsetReset = ListOffsetsRequest.Earliest;
+    //bytes of a fetch request, over all its partitions...
+    private int fetchMaxBytes = 8 * 1024 * 1024;
+    //...and of a partition in it.
+    private int maxPartitionFetchBytes = 1024 * 1024;
+    //fetched bytes of a partition waiting for poll, no fetch is sent for
+    // the partition while it has this many.
+    private int maxBufferedBytesPerPartition = 2 * 1024 * 1024;
+    //the brokers return fetches right away, so a fetch that returns nothing
+    // is sent again after this long.
+    private long fetchBackoffMs = 10;
+    private int maxPollRecords = 500;
+    private long requestTimeoutMs = TimeUnit.SECONDS.toMillis(30);
+    private long retryBackoffMs = 100;
+
+    public ConsumerConfig(List<InetSocketAddress> bootstrapServers) {
+        if (bootstrapServers.isEmpty()) {
+            throw new IllegalArgumentException("bootstrapServers cannot be empty");
+        }
+        this.bootstrapServers = bootstrapServers;
+    }
+
+    public List<InetSocketAddress> getBootstrapServers() {
+        return bootstrapServers;
+    }
+
+    public String getClientId() {
+        return clientId;
+    }
+
+    public ConsumerConfig setClientId(String clientId) {
+        this.clientId = clientId;
+        return this;
+    }
+
+    public long getAutoOffsetReset() {
+        return autoOffsetReset;
+    }
+
+    public ConsumerConfig setAutoOffsetReset(long autoOffsetReset) {
+        if (autoOffsetReset != ListOffsetsRequest.Earliest && autoOffsetReset != ListOffsetsRequest.Latest) {
+            throw new IllegalArgumentException("autoOffsetReset must be ListOffsetsRequest.Earliest or Latest");
+        }
+        this.autoOffsetReset = autoOffsetReset;
+        return this;
+    }
+
+    public int getFetchMaxBytes() {
+        return fetchMaxBytes;
+    }
+
+    public ConsumerConfig setFetchMaxBytes(int fetchMaxBytes) {
+        this.fetchMaxBytes = fetchMaxBytes;
+        return this;
+    }
+
+    public int getMaxPartitionFetchBytes() {
+        return maxPartitionFetchBytes;
+    }
+
+    public ConsumerConfig setMaxPartitionFetchBytes(int maxPartitionFetchBytes) {
+        this.maxPartitionFetchBytes = maxPartitionFetchBytes;
+        return this;
+    }
+
+    public int getMaxBufferedBytesPerPartition() {
+        return maxBufferedBytesPerPartition;
+    }
+
+    public ConsumerConfig setMaxBufferedBytesPerPartition(int maxBufferedBytesPerPartition) {
+        this.maxBufferedBytesPerPartition = maxBufferedBytesPerPartition;
+        return this;
+    }
+
+    public long getFetchBackoffMs() {
+        return fetchBackoffMs;
+    }
+
+    public ConsumerConfig setFetchBackoffMs(long fetchBackoffMs) {
+        this.fetchBackoffMs = fetchBackoffMs;
+        return this;
+    }
+
+    public int getMaxPollRecords() {
+        return maxPollRecords;
+    }
+
+    public ConsumerConfig setMaxPollRecords(int maxPollRecords) {
+        this.maxPollRecords = maxPollRecords;
+        return this;
+    }
+
+    public long getRequestTimeoutMs() {
+        return requestTimeoutMs;
+    }
+
+    public ConsumerConfig setRequestTimeoutMs(long requestTimeoutMs) {
+        this.requestTimeoutMs = requestTimeoutMs;
+        return this;
+    }
+
+    public long getRetryBackoffMs() {
+        return retryBackoffMs;
+    }
+
+    public ConsumerConfig setRetryBackoffMs(long retryBackoffMs) {
+        this.retryBackoffMs = retryBackoffMs;
+        return this;
+    }
+}
@@ -0,0 +1,51 @@
+package com.dist.simplekafka;
+
+//A record returned by Consumer.poll, with its position in the log.
+public final class ConsumerRecord {
+    private final TopicPartition topicPartition;
+    private final long offset;
+    private final long timestamp;
+    private final byte[] key;
+    private final byte[] value;
+
+    public ConsumerRecord(TopicPartition topicPartition, long offset, long timestamp, byte[] key, byte[] value) {
+        this.topicPartition = topicPartition;
+        this.offset = offset;
+        this.timestamp = timestamp;
+        this.key = key;
+        this.value = value;
+    }
+
+    public TopicPartition topicPartition() {
+        return topicPartition;
+    }
+
+    public String topic() {
+        return topicPartition.topic();
+    }
+
+    public int partition() {
+        return topicPartition.partition();
+    }
+
+    public long offset() {
+        return offset;
+    }
+
+    public long timestamp() {
+        return timestamp;
+    }
+
+    public byte[] key() {
+        return key;
+    }
+
+    public byte[] value() {
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return topicPartition + "@" + offset;
+    }
+}
@@ -0,0 +1,8 @@
+package com.dist.simplekafka;
+
+public class CorruptRecordException extends RuntimeException {
+
+    public CorruptRecordException(String message) {
+        super(message);
+    }
+}
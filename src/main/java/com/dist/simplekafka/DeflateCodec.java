@@ -0,0 +1,79 @@
+package com.dist.simplekafka;
+
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compression with the JDK's zlib Deflater. Slower than {@link LzCodec},
+ * but gives a better compression ratio.
+ */
+class DeflateCodec implements CompressionCodec {
+    static final int Id = 1;
+
+    private final int level;
+
+    DeflateCodec() {
+        this(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    DeflateCodec(int level) {
+        this.level = level;
+    }
+
+    @Override
+    public int id() {
+        return Id;
+    }
+
+    @Override
+    public String name() {
+        return "deflate";
+    }
+
+    @Override
+    public byte[] compress(byte[] data, int offset, int length) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(data, offset, length);
+            deflater.finish();
+            byte[] output = new byte[length + length / 1000 + 64];
+            int compressed = 0;
+            while (!deflater.finished()) {
+                if (compressed == output.length) {
+                    output = Arrays.copyOf(output, output.length * 2);
+                }
+                compressed += deflater.deflate(output, compressed, output.length - compressed);
+            }
+            return Arrays.copyOf(output, compressed);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public byte[] decompress(byte[] data, int offset, int length, int uncompressedSize) {
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(data, offset, length);
+            byte[] output = new byte[uncompressedSize];
+            int inflated = 0;
+            while (inflated < uncompressedSize) {
+                int n = inflater.inflate(output, inflated, uncompressedSize - inflated);
+                if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+                    break;
+                }
+                inflated += n;
+            }
+            if (inflated != uncompressedSize) {
+                throw new CorruptRecordException("Expected " + uncompressedSize + " bytes after decompression, got " + inflated);
+            }
+            return output;
+        } catch (DataFormatException e) {
+            throw new CorruptRecordException("Invalid deflate data: " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package com.dist.simplekafka;
+
+import com.sun.nio.file.ExtendedOpenOption;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes and reads a segment with O_DIRECT, bypassing the page cache, for
+ * write once logs whose pages would otherwise push hotter data out of it.
+ * Direct IO needs block aligned positions, sizes and buffer addresses, so
+ * appends are copied into an aligned staging buffer and written out in
+ * whole blocks. Writing out the tail pads the last block with zeroes,
+ * which is rewritten once more bytes are appended, and the file is
+ * trimmed to the segment size when it stops being appended to.
+ * The staging buffer holds the most recent bytes, so tailing readers are
+ * served from memory; older bytes are read from the file with aligned
+ * direct reads.
+ * Appends have to be sequential, see {@link #requiresOrderedWrites()}.
+ * The channel for zero copy transfers is a regular one, as sendfile does
+ * not work on O_DIRECT file descriptors.
+ */
+class DirectSegmentFile implements SegmentFile {
+    private static final int DefaultBlockSize = 4096;
+
+    private final File file;
+    private final FileChannel directChannel;
+    private final FileChannel channel;
+    private final int blockSize;
+    private final ByteBuffer staging;
+    private long stagingStart = -1; //block aligned file position of the
+    // first staged byte, -1 till the position of the next append is known.
+    private long end; //end of the bytes appended so far.
+    private long writtenOut; //bytes up to here are in the file.
+
+    DirectSegmentFile(File file, int bufferSize) throws IOException {
+        Path path = file.toPath();
+        this.file = file;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.directChannel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                ExtendedOpenOption.DIRECT);
+        this.blockSize = blockSize(path);
+        this.staging = alignedBuffer((int) Math.max(alignUp(bufferSize), blockSize));
+    }
+
+    //Whether the file system of the directory supports O_DIRECT.
+    static boolean isSupported(File dir) {
+        try {
+            Path probe = Files.createTempFile(dir.toPath(), "direct", ".probe");
+            try (FileChannel channel = FileChannel.open(probe, StandardOpenOption.WRITE, ExtendedOpenOption.DIRECT)) {
+                //a block is written too, as accepting the open does not
+                // mean the file system accepts direct writes.
+                int blockSize = blockSize(probe);
+                channel.write(ByteBuffer.allocateDirect(2 * blockSize).alignedSlice(blockSize).slice(0, blockSize), 0);
+                return true;
+            } finally {
+                Files.deleteIfExists(probe);
+            }
+        } catch (IOException | UnsupportedOperationException e) {
+            return false;
+        }
+    }
+
+    //The staging buffer is appended to in file order, so the log has to
+    // write batches one at a time in offset order.
+    @Override
+    public boolean requiresOrderedWrites() {
+        return true;
+    }
+
+    @Override
+    public synchronized void write(long position, ByteBuffer src) throws IOException {
+        if (stagingStart < 0 || position != end) {
+            reposition(position);
+        }
+        while (src.hasRemaining()) {
+            int stagingPosition = (int) (end - stagingStart);
+            if (stagingPosition == staging.capacity()) {
+                writeOutStaged();
+                stagingStart = end;
+                continue;
+            }
+            int length = Math.min(src.remaining(), staging.capacity() - stagingPosition);
+            staging.put(stagingPosition, src, src.position(), length);
+            src.position(src.position() + length);
+            end += length;
+        }
+    }
+
+    //Appends continue from a new position, after a reopen or a truncate.
+    // The block holding the position is read back so the next write of
+    // the block keeps the bytes before it.
+    private void reposition(long position) throws IOException {
+        if (end > writtenOut) {
+            throw new IllegalStateException("Direct writes to " + file + " must be sequential, expected position "
+                    + end + " but was " + position);
+        }
+        stagingStart = alignDown(position);
+        zero(0, staging.capacity());
+        if (position > stagingStart) {
+            ByteBuffer block = staging.duplicate();
+            block.limit(blockSize);
+            readDirect(stagingStart, block);
+        }
+        end = position;
+        writtenOut = position;
+    }
+
+    @Override
+    public void read(long position, ByteBuffer dst) throws IOException {
+        int length = dst.remaining();
+        int fromFile = length;
+        synchronized (this) {
+            if (stagingStart >= 0 && position + length > stagingStart) {
+                fromFile = (int) Math.max(0, stagingStart - position);
+                long stagedPosition = position + fromFile;
+                int stagedLength = length - fromFile;
+                if (stagedPosition + stagedLength > end) {
+                    throw new CorruptRecordException("Unexpected end of " + file + " at position " + position);
+                }
+                dst.put(dst.position() + fromFile, staging, (int) (stagedPosition - stagingStart), stagedLength);
+            }
+        }
+        //bytes before the staged ones are already in the file.
+        readAligned(position, dst.slice(dst.position(), fromFile));
+        dst.position(dst.position() + length);
+    }
+
+    @Override
+    public ByteBuffer read(long position, int size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        read(position, buffer);
+        buffer.flip();
+        return buffer;
+    }
+
+    //Reads the aligned blocks covering the remaining space of dst.
+    private void readAligned(long position, ByteBuffer dst) throws IOException {
+        if (!dst.hasRemaining()) {
+            return;
+        }
+        long alignedStart = alignDown(position);
+        int skip = (int) (position - alignedStart);
+        ByteBuffer blocks = alignedBuffer((int) alignUp(skip + dst.remaining()));
+        readDirect(alignedStart, blocks);
+        if (blocks.position() < skip + dst.remaining()) {
+            throw new CorruptRecordException("Unexpected end of " + file + " at position " + position);
+        }
+        blocks.flip().position(skip).limit(skip + dst.remaining());
+        dst.put(blocks);
+    }
+
+    //Reads till the buffer is full or the end of the file.
+    private void readDirect(long position, ByteBuffer blocks) throws IOException {
+        long filePosition = position;
+        while (blocks.hasRemaining()) {
+            int read = directChannel.read(blocks, filePosition);
+            if (read <= 0 || read % blockSize != 0) {
+                return; //only the last block of the file can be partial.
+            }
+            filePosition += read;
+        }
+    }
+
+    //Writes the staged bytes not yet in the file, padding the last block.
+    private void writeOutStaged() throws IOException {
+        if (end <= writtenOut) {
+            return;
+        }
+        long from = alignDown(writtenOut);
+        int paddedEnd = (int) (alignUp(end) - stagingStart);
+        zero((int) (end - stagingStart), paddedEnd);
+        ByteBuffer blocks = staging.duplicate();
+        blocks.position((int) (from - stagingStart)).limit(paddedEnd);
+        long filePosition = from;
+        while (blocks.hasRemaining()) {
+            filePosition += directChannel.write(blocks, filePosition);
+        }
+        writtenOut = end;
+    }
+
+    @Override
+    public synchronized void writeOut() throws IOException {
+        writeOutStaged();
+    }
+
+    @Override
+    public synchronized long size() throws IOException {
+        writeOutStaged();
+        return channel.size();
+    }
+
+    @Override
+    public synchronized void truncate(long size) throws IOException {
+        writeOutStaged();
+        channel.truncate(size);
+        if (size < end) {
+            stagingStart = -1; //the next append reloads its block.
+            end = size;
+            writtenOut = size;
+        }
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        writeOutStaged();
+        directChannel.force(true);
+    }
+
+    @Override
+    public FileChannel channel() {
+        return channel;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            writeOutStaged();
+        } finally {
+            directChannel.close();
+            channel.close();
+        }
+    }
+
+    private void zero(int from, int to) {
+        for (int i = from; i < to; i++) {
+            staging.put(i, (byte) 0);
+        }
+    }
+
+    private ByteBuffer alignedBuffer(int size) {
+        return ByteBuffer.allocateDirect(size + blockSize).alignedSlice(blockSize).slice(0, size);
+    }
+
+    private long alignDown(long position) {
+        return position - position % blockSize;
+    }
+
+    private long alignUp(long position) {
+        return alignDown(position + blockSize - 1);
+    }
+
+    private static int blockSize(Path path) {
+        try {
+            return (int) Files.getFileStore(path).getBlockSize();
+        } catch (IOException | UnsupportedOperationException e) {
+            return DefaultBlockSize;
+        }
+    }
+}
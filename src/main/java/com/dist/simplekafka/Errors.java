@@ -0,0 +1,32 @@
+package com.dist.simplekafka;
+
+/**
+ * Error codes of the responses of the broker, see {@link RequestHandler}.
+ */
+final class Errors {
+    static final short None = 0;
+    static final short Unknown = -1;
+    static final short OffsetOutOfRange = 1;
+    static final short CorruptMessage = 2;
+    static final short UnknownTopicOrPartition = 3;
+    static final short InvalidTopic = 17;
+
+    private Errors() {
+    }
+
+    static short forException(Throwable e) {
+        if (e instanceof OffsetOutOfRangeException) {
+            return OffsetOutOfRange;
+        }
+        if (e instanceof CorruptRecordException) {
+            return CorruptMessage;
+        }
+        if (e instanceof UnknownTopicOrPartitionException) {
+            return UnknownTopicOrPartition;
+        }
+        if (e instanceof InvalidTopicException) {
+            return InvalidTopic;
+        }
+        return Unknown;
+    }
+}
@@ -0,0 +1,81 @@
+package com.dist.simplekafka;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the records of several partitions:
+ *   int maxBytes, [int count]{topic, int partition, long fetchOffset,
+ *   int partitionMaxBytes}
+ * Each partition returns up to partitionMaxBytes from the batch containing
+ * fetchOffset, and the response up to maxBytes in total. The first
+ * partition with records returns at least one batch however big, so a
+ * consumer always makes progress.
+ */
+public class FetchRequest implements ApiRequest {
+    private final int maxBytes;
+    private final List<PartitionData> partitions;
+
+    public FetchRequest(int maxBytes, List<PartitionData> partitions) {
+        this.maxBytes = maxBytes;
+        this.partitions = partitions;
+    }
+
+    public static FetchRequest parse(ByteBuffer buffer) {
+        int maxBytes = buffer.getInt();
+        int count = buffer.getInt();
+        List<PartitionData> partitions = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            TopicPartition topicPartition = new TopicPartition(Protocol.readString(buffer), buffer.getInt());
+            partitions.add(new PartitionData(topicPartition, buffer.getLong(), buffer.getInt()));
+        }
+        return new FetchRequest(maxBytes, partitions);
+    }
+
+    public int maxBytes() {
+        return maxBytes;
+    }
+
+    public List<PartitionData> partitions() {
+        return partitions;
+    }
+
+    @Override
+    public short apiKey() {
+        return ApiKeys.Fetch;
+    }
+
+    @Override
+    public int sizeInBytes() {
+        int size = 4 + 4;
+        for (PartitionData partition : partitions) {
+            size += Protocol.sizeOf(partition.topicPartition.topic()) + 4 + 8 + 4;
+        }
+        return size;
+    }
+
+    @Override
+    public void writeTo(ByteBuffer buffer) {
+        buffer.putInt(maxBytes);
+        buffer.putInt(partitions.size());
+        for (PartitionData partition : partitions) {
+            Protocol.writeString(partition.topicPartition.topic(), buffer);
+            buffer.putInt(partition.topicPartition.partition());
+            buffer.putLong(partition.fetchOffset);
+            buffer.putInt(partition.maxBytes);
+        }
+    }
+
+    public static class PartitionData {
+        public final TopicPartition topicPartition;
+        public final long fetchOffset;
+        public final int maxBytes;
+
+        public PartitionData(TopicPartition topicPartition, long fetchOffset, int maxBytes) {
+            this.topicPartition = topicPartition;
+            this.fetchOffset = fetchOffset;
+            this.maxBytes = maxBytes;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.dist.simplekafka;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The records of each partition of a {@link FetchRequest}:
+ *   [int count]{topic, int partition, short error, long lastOffset,
+ *   bytes records}
+ * lastOffset is the last offset of the log, for the consumer to tell how
+ * far behind it is. The records are complete record batches as stored,
+ * the first one can start before the fetch offset.
+ * The broker sends the records of a log from its segment files with zero
+ * copy, see {@link FileRegion}, so a partition holds either a region or,
+ * once parsed by the client, a view of the response buffer.
+ */
+public class FetchResponse implements ApiResponse {
+    private final List<PartitionResponse> responses;
+
+    public FetchResponse(List<PartitionResponse> responses) {
+        this.responses = responses;
+    }
+
+    public static FetchResponse parse(ByteBuffer buffer) {
+        int count = buffer.getInt();
+        List<PartitionResponse> responses = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            TopicPartition topicPartition = new TopicPartition(Protocol.readString(buffer), buffer.getInt());
+            short error = buffer.getShort();
+            long lastOffset = buffer.getLong();
+            responses.add(new PartitionResponse(topicPartition, error, lastOffset, Protocol.readBytes(buffer)));
+        }
+        return new FetchResponse(responses);
+    }
+
+    public List<PartitionResponse> responses() {
+        return responses;
+    }
+
+    @Override
+    public int sizeInBytes() {
+        int size = 4;
+        for (PartitionResponse response : responses) {
+            size += headerSize(response) + response.recordsSize();
+        }
+        return size;
+    }
+
+    @Override
+    public void writeTo(ByteBuffer buffer) {
+        buffer.putInt(responses.size());
+        for (PartitionResponse response : responses) {
+            writeHeader(response, buffer);
+            if (response.records != null) {
+                buffer.put(response.records.duplicate());
+            }
+        }
+    }
+
+    /**
+     * The partition headers and records in buffers go in a single buffer
+     * up to the next region, which is sent from its segment file.
+     */
+    @Override
+    public NetworkSend toSend(int correlationId) {
+        NetworkSend.Builder send = new NetworkSend.Builder();
+        int regionBytes = 0;
+        for (PartitionResponse response : responses) {
+            if (response.region != null) {
+                regionBytes += (int) response.region.size();
+            }
+        }
+        int size = sizeInBytes();
+        ByteBuffer buffer = Protocol.responseFrame(correlationId, size - regionBytes, regionBytes);
+        buffer.putInt(responses.size());
+        for (PartitionResponse response : responses) {
+            writeHeader(response, buffer);
+            if (response.region != null) {
+                send.add(buffer.duplicate().flip());
+                send.add(response.region);
+                buffer = buffer.slice();
+            } else if (response.records != null) {
+                buffer.put(response.records.duplicate());
+            }
+        }
+        return send.add(buffer.flip()).build();
+    }
+
+    private static int headerSize(PartitionResponse response) {
+        return Protocol.sizeOf(response.topicPartition.topic()) + 4 + 2 + 8 + 4;
+    }
+
+    private static void writeHeader(PartitionResponse response, ByteBuffer buffer) {
+        Protocol.writeString(response.topicPartition.topic(), buffer);
+        buffer.putInt(response.topicPartition.partition());
+        buffer.putShort(response.error);
+        buffer.putLong(response.lastOffset);
+        buffer.putInt(response.recordsSize());
+    }
+
+    public static class PartitionResponse {
+        public final TopicPartition topicPartition;
+        public final short error;
+        public final long lastOffset;
+        public final ByteBuffer records;
+        final FileRegion region;
+
+        public PartitionResponse(TopicPartition topicPartition, short error, long lastOffset, ByteBuffer records) {
+            this(topicPartition, error, lastOffset, records, null);
+        }
+
+        PartitionResponse(TopicPartition topicPartition, short error, long lastOffset, FileRegion region) {
+            this(topicPartition, error, lastOffset, null, region);
+        }
+
+        private PartitionResponse(TopicPartition topicPartition, short error, long lastOffset,
+                                  ByteBuffer records, FileRegion region) {
+            this.topicPartition = topicPartition;
+            this.error = error;
+            this.lastOffset = lastOffset;
+            this.records = records;
+            this.region = region;
+        }
+
+        int recordsSize() {
+            if (region != null) {
+                return (int) region.size();
+            }
+            return records == null ? 0 : records.remaining();
+        }
+    }
+}
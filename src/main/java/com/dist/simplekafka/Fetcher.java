@@ -0,0 +1,386 @@
+package com.dist.simplekafka;
+
+import org.apache.log4j.Logger;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The thread of a {@link Consumer} fetching the records of its partitions
+ * ahead of the polls. A fetch request is kept in flight to every leader,
+ * for all its partitions with room in their queue, and the next one is
+ * sent as soon as the response comes, so the fetches of the brokers
+ * overlap with each other and with the processing of the records.
+ * The fetched records of a partition wait in its queue, as
+ * {@link CompletedFetch}es, for the polls. A partition is not fetched
+ * while it has maxBufferedBytesPerPartition queued, so the memory of a
+ * consumer slower than the brokers stays bounded.
+ * A partition without a position gets one from the leader with a
+ * {@link ListOffsetsRequest}, and gets a new one if its position is out
+ * of range.
+ */
+class Fetcher implements Runnable {
+    private static final Logger logger = Logger.getLogger(Fetcher.class);
+
+    private final ConsumerConfig config;
+    private final ClientMetadata metadata;
+    private final NetworkClient client;
+    private final Map<TopicPartition, PartitionState> partitions = new ConcurrentHashMap<>();
+    //leaders with a fetch request in flight.
+    private final Set<InetSocketAddress> inFlightFetches = ConcurrentHashMap.newKeySet();
+    private final Map<InetSocketAddress, Long> backoffUntilMs = new ConcurrentHashMap<>();
+    private final Object wakeups = new Object();
+    private boolean wakeupPending = false;
+    private final Object fetched = new Object();
+    private long fetchCount = 0;
+    private int nextPartition = 0; //polling thread only.
+    private volatile boolean running = true;
+
+    Fetcher(ConsumerConfig config, ClientMetadata metadata, NetworkClient client) {
+        this.config = config;
+        this.metadata = metadata;
+        this.client = client;
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            runOnce();
+        }
+    }
+
+    void initiateClose() {
+        running = false;
+        wakeup();
+    }
+
+    //Keeps the positions of the partitions already assigned.
+    void assign(Collection<TopicPartition> assigned) {
+        Set<TopicPartition> wanted = new HashSet<>(assigned);
+        for (TopicPartition topicPartition : new ArrayList<>(partitions.keySet())) {
+            if (!wanted.contains(topicPartition)) {
+                PartitionState removed = partitions.remove(topicPartition);
+                synchronized (removed) {
+                    removed.seek(-1); //drops the fetches in flight.
+                }
+            }
+        }
+        for (TopicPartition topicPartition : wanted) {
+            metadata.addTopic(topicPartition.topic());
+            partitions.putIfAbsent(topicPartition, new PartitionState());
+        }
+        wakeup();
+    }
+
+    Set<TopicPartition> assignment() {
+        return new HashSet<>(partitions.keySet());
+    }
+
+    void seek(TopicPartition topicPartition, long offset) {
+        PartitionState state = stateOf(topicPartition);
+        synchronized (state) {
+            state.seek(offset);
+        }
+        wakeup();
+    }
+
+    //-1 till the partition has a position.
+    long position(TopicPartition topicPartition) {
+        PartitionState state = stateOf(topicPartition);
+        synchronized (state) {
+            return state.position;
+        }
+    }
+
+    int bufferedBytes(TopicPartition topicPartition) {
+        PartitionState state = stateOf(topicPartition);
+        synchronized (state) {
+            return state.bufferedBytes;
+        }
+    }
+
+    /**
+     * Up to maxRecords of the fetched records, decoded from the queues of
+     * the partitions, starting from a different partition every time so
+     * none is starved.
+     */
+    List<ConsumerRecord> drain(int maxRecords) {
+        List<ConsumerRecord> records = new ArrayList<>();
+        List<Map.Entry<TopicPartition, PartitionState>> entries = new ArrayList<>(partitions.entrySet());
+        boolean freed = false;
+        for (int i = 0; i < entries.size() && records.size() < maxRecords; i++) {
+            Map.Entry<TopicPartition, PartitionState> entry = entries.get((nextPartition + i) % entries.size());
+            PartitionState state = entry.getValue();
+            synchronized (state) {
+                while (records.size() < maxRecords && !state.completed.isEmpty()) {
+                    CompletedFetch completed = state.completed.peekFirst();
+                    Log.Message message;
+                    try {
+                        message = completed.next(state.position);
+                    } catch (RuntimeException e) {
+                        if (records.isEmpty()) {
+                            throw e;
+                        }
+                        return records; //the next poll fails.
+                    }
+                    if (message == null) {
+                        state.completed.pollFirst();
+                        state.bufferedBytes -= completed.sizeInBytes();
+                        freed = true;
+                        continue;
+                    }
+                    records.add(new ConsumerRecord(entry.getKey(), message.offset, message.timestamp,
+                            message.key, message.value));
+                    state.position = message.offset + 1;
+                }
+            }
+        }
+        nextPartition++;
+        if (freed) {
+            wakeup(); //the partitions may have room for another fetch.
+        }
+        return records;
+    }
+
+    //Counts the fetches returning records, for a poll to wait for the next.
+    long fetchCount() {
+        synchronized (fetched) {
+            return fetchCount;
+        }
+    }
+
+    void awaitFetched(long seenCount, long timeoutMs) throws InterruptedException {
+        synchronized (fetched) {
+            if (fetchCount == seenCount && timeoutMs > 0) {
+                fetched.wait(timeoutMs);
+            }
+        }
+    }
+
+    private void runOnce() {
+        long now = System.currentTimeMillis();
+        Map<InetSocketAddress, List<TopicPartition>> toReset = new HashMap<>();
+        Map<InetSocketAddress, List<FetchRequest.PartitionData>> toFetch = new HashMap<>();
+        Map<TopicPartition, Integer> generations = new HashMap<>();
+        boolean unknownLeader = false;
+        for (Map.Entry<TopicPartition, PartitionState> entry : partitions.entrySet()) {
+            TopicPartition topicPartition = entry.getKey();
+            PartitionState state = entry.getValue();
+            InetSocketAddress leader = metadata.leader(topicPartition);
+            if (leader == null) {
+                unknownLeader = true;
+                continue;
+            }
+            if (backoffUntilMs.getOrDefault(leader, 0L) > now) {
+                continue;
+            }
+            synchronized (state) {
+                if (state.fetchPosition < 0) {
+                    if (!state.resetting) {
+                        state.resetting = true;
+                        toReset.computeIfAbsent(leader, l -> new ArrayList<>()).add(topicPartition);
+                        generations.put(topicPartition, state.generation);
+                    }
+                } else if (state.bufferedBytes < config.getMaxBufferedBytesPerPartition()
+                        && !inFlightFetches.contains(leader)) {
+                    toFetch.computeIfAbsent(leader, l -> new ArrayList<>()).add(new FetchRequest.PartitionData(
+                            topicPartition, state.fetchPosition, config.getMaxPartitionFetchBytes()));
+                    generations.put(topicPartition, state.generation);
+                }
+            }
+        }
+        if (unknownLeader) {
+            metadata.requestUpdate();
+        }
+        toReset.forEach((leader, topicPartitions) -> resetPositions(leader, topicPartitions, generations));
+        toFetch.forEach((leader, fetches) -> fetch(leader, fetches, generations));
+        awaitWakeup(unknownLeader ? config.getRetryBackoffMs() : backoffRemainingMs(now));
+    }
+
+    private void fetch(InetSocketAddress leader, List<FetchRequest.PartitionData> fetches,
+                       Map<TopicPartition, Integer> generations) {
+        inFlightFetches.add(leader);
+        client.send(leader, new FetchRequest(config.getFetchMaxBytes(), fetches)).whenComplete((response, error) -> {
+            if (error != null) {
+                logger.debug("Failed to fetch from " + leader, error);
+                metadata.requestUpdate(); //the leader may have moved.
+                backoff(leader, config.getRetryBackoffMs());
+            } else {
+                try {
+                    if (!complete(leader, FetchResponse.parse(response), generations)) {
+                        //nothing new, the broker doesn't wait for records.
+                        backoff(leader, config.getFetchBackoffMs());
+                    }
+                } catch (RuntimeException e) { //a malformed response.
+                    logger.warn("Invalid fetch response from " + leader, e);
+                    backoff(leader, config.getRetryBackoffMs());
+                }
+            }
+            inFlightFetches.remove(leader);
+            wakeup();
+        });
+    }
+
+    //Queues the records of the partitions, returns true if any had new ones.
+    private boolean complete(InetSocketAddress leader, FetchResponse response, Map<TopicPartition, Integer> generations) {
+        boolean hasRecords = false;
+        for (FetchResponse.PartitionResponse partition : response.responses()) {
+            TopicPartition topicPartition = partition.topicPartition;
+            PartitionState state = partitions.get(topicPartition);
+            Integer generation = generations.get(topicPartition);
+            if (state == null || generation == null) {
+                continue; //no longer assigned.
+            }
+            synchronized (state) {
+                if (state.generation != generation) {
+                    continue; //fetched before a seek.
+                }
+                if (partition.error == Errors.None) {
+                    long nextOffset = CompletedFetch.nextOffset(partition.records);
+                    if (nextOffset > state.fetchPosition) {
+                        state.completed.addLast(new CompletedFetch(topicPartition, partition.records));
+                        state.bufferedBytes += partition.records.remaining();
+                        state.fetchPosition = nextOffset;
+                        hasRecords = true;
+                    }
+                } else if (partition.error == Errors.OffsetOutOfRange) {
+                    logger.info("Offset " + state.fetchPosition + " of " + topicPartition
+                            + " is out of range, resetting it");
+                    state.seek(-1);
+                } else {
+                    logger.debug("Failed to fetch " + topicPartition + " from " + leader + ", error " + partition.error);
+                    metadata.requestUpdate();
+                }
+            }
+        }
+        if (hasRecords) {
+            synchronized (fetched) {
+                fetchCount++;
+                fetched.notifyAll();
+            }
+        }
+        return hasRecords;
+    }
+
+    private void resetPositions(InetSocketAddress leader, List<TopicPartition> topicPartitions,
+                                Map<TopicPartition, Integer> generations) {
+        List<ListOffsetsRequest.PartitionData> lookups = new ArrayList<>(topicPartitions.size());
+        for (TopicPartition topicPartition : topicPartitions) {
+            lookups.add(new ListOffsetsRequest.PartitionData(topicPartition, config.getAutoOffsetReset()));
+        }
+        client.send(leader, new ListOffsetsRequest(lookups)).whenComplete((response, error) -> {
+            Map<TopicPartition, Long> offsets = new HashMap<>();
+            if (error != null) {
+                logger.debug("Failed to list offsets from " + leader, error);
+                metadata.requestUpdate();
+            } else {
+                try {
+                    for (ListOffsetsResponse.PartitionResponse partition : ListOffsetsResponse.parse(response).responses()) {
+                        if (partition.error == Errors.None) {
+                            offsets.put(partition.topicPartition, partition.offset);
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    logger.warn("Invalid list offsets response from " + leader, e);
+                }
+            }
+            for (TopicPartition topicPartition : topicPartitions) {
+                PartitionState state = partitions.get(topicPartition);
+                if (state == null) {
+                    continue;
+                }
+                synchronized (state) {
+                    if (state.generation != generations.get(topicPartition)) {
+                        continue;
+                    }
+                    Long offset = offsets.get(topicPartition);
+                    if (offset != null) {
+                        state.seek(offset);
+                    } else {
+                        state.resetting = false;
+                    }
+                }
+            }
+            if (offsets.size() < topicPartitions.size()) {
+                backoff(leader, config.getRetryBackoffMs());
+            }
+            wakeup();
+        });
+    }
+
+    private void backoff(InetSocketAddress leader, long backoffMs) {
+        backoffUntilMs.merge(leader, System.currentTimeMillis() + backoffMs, Math::max);
+    }
+
+    //Till the first leader out of its backoff, forever if none is in one.
+    private long backoffRemainingMs(long now) {
+        long remainingMs = Long.MAX_VALUE;
+        for (Map.Entry<InetSocketAddress, Long> entry : backoffUntilMs.entrySet()) {
+            if (entry.getValue() <= now) {
+                backoffUntilMs.remove(entry.getKey(), entry.getValue());
+            } else {
+                remainingMs = Math.min(remainingMs, entry.getValue() - now);
+            }
+        }
+        return remainingMs;
+    }
+
+    private PartitionState stateOf(TopicPartition topicPartition) {
+        PartitionState state = partitions.get(topicPartition);
+        if (state == null) {
+            throw new IllegalStateException(topicPartition + " is not assigned");
+        }
+        return state;
+    }
+
+    void wakeup() {
+        synchronized (wakeups) {
+            wakeupPending = true;
+            wakeups.notify();
+        }
+    }
+
+    private void awaitWakeup(long timeoutMs) {
+        synchronized (wakeups) {
+            try {
+                if (!wakeupPending && timeoutMs > 0) {
+                    wakeups.wait(timeoutMs == Long.MAX_VALUE ? 0 : timeoutMs);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                running = false;
+            }
+            wakeupPending = false;
+        }
+    }
+
+    //Guarded by its own monitor, shared by the fetcher, the network thread
+    // and the polling thread.
+    private static class PartitionState {
+        long position = -1; //offset of the next record polled.
+        long fetchPosition = -1; //offset of the next fetch, past the queued records.
+        int generation = 0; //changed by a seek, so fetches sent before it are dropped.
+        boolean resetting = false;
+        final Deque<CompletedFetch> completed = new ArrayDeque<>();
+        int bufferedBytes = 0;
+
+        //-1 to look the position up again.
+        void seek(long offset) {
+            position = offset;
+            fetchPosition = offset;
+            generation++;
+            resetting = false;
+            completed.clear();
+            bufferedBytes = 0;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.dist.simplekafka;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A range of bytes of a segment file holding complete record batches,
+ * from the batch containing firstOffset up to the batch ending at
+ * lastOffset. The bytes are sent with {@link FileChannel#transferTo}, so
+ * they go from the page cache to a socket without being copied to the
+ * Java heap, and the receiver gets the batches exactly as stored.
+ * A region can be transferred in several calls to a non blocking target,
+ * it keeps track of the bytes transferred so far.
+ */
+public class FileRegion {
+    private final FileChannel channel;
+    private final long position;
+    private final long size;
+    private final long firstOffset;
+    private final long lastOffset;
+    private long transferred = 0;
+
+    FileRegion(FileChannel channel, long position, long size, long firstOffset, long lastOffset) {
+        this.channel = channel;
+        this.position = position;
+        this.size = size;
+        this.firstOffset = firstOffset;
+        this.lastOffset = lastOffset;
+    }
+
+    static FileRegion empty(long nextOffset) {
+        return new FileRegion(null, 0, 0, nextOffset, nextOffset - 1);
+    }
+
+    /**
+     * Transfers as many of the remaining bytes as the target accepts.
+     * @return bytes transferred by this call.
+     * @throws IOException if the segment file was truncated under the
+     * region, so the rest of it can never be sent.
+     */
+    public long transferTo(WritableByteChannel target) throws IOException {
+        long total = 0;
+        while (transferred < size) {
+            long n = channel.transferTo(position + transferred, size - transferred, target);
+            if (n <= 0) {
+                if (position + transferred >= channel.size()) {
+                    //retention, truncation or compaction shrank the segment.
+                    throw new IOException("Segment file is shorter than the region being sent, it ends at "
+                            + channel.size() + " instead of " + (position + size));
+                }
+                break; //a non blocking target is full.
+            }
+            transferred += n;
+            total += n;
+        }
+        return total;
+    }
+
+    //Copies the region to the heap, for readers which can't send it with
+    // zero copy. Transfers made so far don't matter.
+    ByteBuffer read() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) size);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Segment file is shorter than the region being read, it ends at "
+                        + channel.size() + " instead of " + (position + size));
+            }
+        }
+        return buffer.flip();
+    }
+
+    public boolean isComplete() {
+        return transferred == size;
+    }
+
+    public long position() {
+        return position;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public long transferred() {
+        return transferred;
+    }
+
+    //Offset the caller asked for. The first batch can start before it.
+    public long firstOffset() {
+        return firstOffset;
+    }
+
+    //Last offset of the last batch, the next read starts after it.
+    public long lastOffset() {
+        return lastOffset;
+    }
+}
@@ -0,0 +1,362 @@
+package com.dist.simplekafka;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A {@link StorageEngine} keeping a partition in off-heap memory, for
+ * ephemeral topics and for tests which don't need real files.
+ * Batches are encoded exactly like in a {@link Log} and copied into
+ * direct buffer chunks of {@link LogConfig#getMemoryChunkBytes()}, the
+ * in-memory counterpart of segments. Retention by bytes drops the oldest
+ * chunks as appends go past it, so the memory used stays bounded.
+ * Nothing is durable, flush does nothing and the messages are gone once
+ * the log is closed.
+ * Appends and truncation take a write lock and reads a read lock. Copying
+ * a batch into memory is cheap enough that appends don't need the
+ * concurrent reservations of {@link Log}.
+ */
+public class InMemoryLog implements StorageEngine {
+    private final LogConfig config;
+    //chunks keyed by the offset of their first batch, like Log.segments.
+    private final NavigableMap<Long, Chunk> chunks = new TreeMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private long nextOffset = Log.InitialOffset;
+    private long size = 0;
+
+    public InMemoryLog() {
+        this(new LogConfig());
+    }
+
+    public InMemoryLog(LogConfig config) {
+        this.config = config;
+    }
+
+    @Override
+    public long append(byte[] key, byte[] value) {
+        if (config.getCompressionCodec() != null) {
+            return append(List.of(new Log.Message(key, value)));
+        }
+        return appendBatch(RecordBatch.encodeForAppend(key, value));
+    }
+
+    @Override
+    public long append(List<Log.Message> messages) {
+        return appendBatch(RecordBatch.encodeForAppend(messages, config.getCompressionCodec()));
+    }
+
+    //Checked like in a Log, see RecordBatch#ensureValidRecords().
+    @Override
+    public long appendRecordBatch(ByteBuffer encodedBatch) {
+        ByteBuffer batch = encodedBatch.slice();
+        new RecordBatch(batch).ensureValidRecords();
+        return appendBatch(batch);
+    }
+
+    private long appendBatch(ByteBuffer batch) {
+        int batchSize = batch.remaining();
+        int offsetCount = RecordBatch.offsetCount(batch);
+        lock.writeLock().lock();
+        try {
+            long baseOffset = nextOffset;
+            batch.putLong(batch.position() + RecordBatch.BaseOffsetOffset, baseOffset);
+            Map.Entry<Long, Chunk> last = chunks.lastEntry();
+            Chunk chunk = last == null ? null : last.getValue();
+            if (chunk == null || !chunk.hasRoomFor(batchSize)) {
+                chunk = new Chunk(baseOffset, Math.max(config.getMemoryChunkBytes(), batchSize));
+                chunks.put(baseOffset, chunk);
+            }
+            chunk.append(baseOffset, baseOffset + offsetCount - 1, batch);
+            size += batchSize;
+            nextOffset = baseOffset + offsetCount;
+            applyRetention();
+            return baseOffset;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    //Drops the oldest chunks beyond retentionBytes, never the newest one.
+    private void applyRetention() {
+        long retentionBytes = config.getRetentionBytes();
+        while (retentionBytes >= 0 && chunks.size() > 1
+                && size - chunks.firstEntry().getValue().size() >= retentionBytes) {
+            size -= chunks.pollFirstEntry().getValue().size();
+        }
+    }
+
+    @Override
+    public List<Log.Message> read(long startOffset, long maxOffset) {
+        lock.readLock().lock();
+        try {
+            if (startOffset > nextOffset) {
+                throw new OffsetOutOfRangeException(startOffset);
+            }
+            List<Log.Message> messages = new ArrayList<>();
+            Long from = chunks.floorKey(startOffset);
+            Map<Long, Chunk> readable = from == null ? chunks : chunks.tailMap(from, true);
+            for (Chunk chunk : readable.values()) {
+                for (int i = chunk.batchContaining(startOffset); i < chunk.batches; i++) {
+                    if (chunk.baseOffsets[i] > maxOffset) {
+                        return messages;
+                    }
+                    for (Log.Message message : chunk.batch(i)) {
+                        if (message.offset >= startOffset && message.offset <= maxOffset) {
+                            messages.add(message);
+                        }
+                    }
+                }
+            }
+            return messages;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //Like a region of a Log, the batches come from a single chunk.
+    @Override
+    public ByteBuffer readBatches(long startOffset, int maxBytes) {
+        lock.readLock().lock();
+        try {
+            if (startOffset > nextOffset) {
+                throw new OffsetOutOfRangeException(startOffset);
+            }
+            Long from = chunks.floorKey(startOffset);
+            Map<Long, Chunk> readable = from == null ? chunks : chunks.tailMap(from, true);
+            for (Chunk chunk : readable.values()) {
+                int first = chunk.batchContaining(startOffset);
+                if (first < chunk.batches) {
+                    return chunk.batches(first, maxBytes);
+                }
+            }
+            return ByteBuffer.allocate(0);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Log.Message readSingleMessage(long offset) {
+        lock.readLock().lock();
+        try {
+            Map.Entry<Long, Chunk> entry = chunks.floorEntry(offset);
+            if (entry == null || offset >= nextOffset) {
+                throw new OffsetOutOfRangeException(offset);
+            }
+            Chunk chunk = entry.getValue();
+            int i = chunk.batchContaining(offset);
+            if (i < chunk.batches) {
+                for (Log.Message message : chunk.batch(i)) {
+                    if (message.offset == offset) {
+                        return message;
+                    }
+                }
+            }
+            throw new OffsetOutOfRangeException(offset);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void truncateTo(long offset) {
+        lock.writeLock().lock();
+        try {
+            if (offset >= nextOffset || chunks.isEmpty()) {
+                return;
+            }
+            //the first chunk is emptied instead of removed, so the log
+            // keeps its start offset.
+            NavigableMap<Long, Chunk> removed = chunks.tailMap(Math.max(offset, chunks.firstKey() + 1), true);
+            for (Chunk chunk : removed.values()) {
+                size -= chunk.size();
+            }
+            removed.clear();
+            Chunk last = chunks.lastEntry().getValue();
+            size -= last.size();
+            last.truncateTo(offset);
+            size += last.size();
+            nextOffset = last.nextOffset();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void flush() {
+        //nothing to make durable.
+    }
+
+    @Override
+    public long lastOffset() {
+        lock.readLock().lock();
+        try {
+            return nextOffset - 1;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public long logStartOffset() {
+        lock.readLock().lock();
+        try {
+            return chunks.isEmpty() ? nextOffset : chunks.firstKey();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //Batches are skipped by their largest timestamp, there is no time
+    // index.
+    @Override
+    public long offsetForTime(long timestamp) {
+        lock.readLock().lock();
+        try {
+            for (Chunk chunk : chunks.values()) {
+                for (int i = 0; i < chunk.batches; i++) {
+                    if (chunk.maxTimestamp(i) < timestamp) {
+                        continue;
+                    }
+                    for (Log.Message message : chunk.batch(i)) {
+                        if (message.timestamp >= timestamp) {
+                            return message.offset;
+                        }
+                    }
+                }
+            }
+            return nextOffset;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //The direct buffers are freed once garbage collected.
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            chunks.clear();
+            size = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * A direct buffer holding a sequence of batches, with the offsets and
+     * position of every batch to find the one containing an offset with a
+     * binary search.
+     */
+    private static class Chunk {
+        final long baseOffset;
+        final ByteBuffer buffer;
+        long[] baseOffsets = new long[16];
+        long[] lastOffsets = new long[16];
+        int[] positions = new int[16];
+        int batches = 0;
+        int end = 0;
+
+        Chunk(long baseOffset, int capacity) {
+            this.baseOffset = baseOffset;
+            this.buffer = ByteBuffer.allocateDirect(capacity);
+        }
+
+        boolean hasRoomFor(int batchSize) {
+            return end + batchSize <= buffer.capacity();
+        }
+
+        //The position of the batch buffer is left unchanged.
+        void append(long batchBaseOffset, long batchLastOffset, ByteBuffer batch) {
+            if (batches == baseOffsets.length) {
+                baseOffsets = Arrays.copyOf(baseOffsets, batches * 2);
+                lastOffsets = Arrays.copyOf(lastOffsets, batches * 2);
+                positions = Arrays.copyOf(positions, batches * 2);
+            }
+            int batchSize = batch.remaining();
+            buffer.put(end, batch, batch.position(), batchSize);
+            baseOffsets[batches] = batchBaseOffset;
+            lastOffsets[batches] = batchLastOffset;
+            positions[batches] = end;
+            batches++;
+            end += batchSize;
+        }
+
+        //The first batch with a last offset at or after the offset,
+        // batches if there is none.
+        int batchContaining(long offset) {
+            int low = 0;
+            int high = batches;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (lastOffsets[mid] < offset) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        //A copy, so readers don't depend on the chunk after the lock is
+        // released.
+        RecordBatch batch(int i) {
+            ByteBuffer copy = ByteBuffer.allocate(batchEnd(i) - positions[i]);
+            copy.put(0, buffer, positions[i], copy.capacity());
+            return new RecordBatch(copy);
+        }
+
+        //Copies the batches from first on, up to maxBytes but at least one.
+        ByteBuffer batches(int first, int maxBytes) {
+            int last = first;
+            while (last + 1 < batches && batchEnd(last + 1) - positions[first] <= maxBytes) {
+                last++;
+            }
+            ByteBuffer copy = ByteBuffer.allocate(batchEnd(last) - positions[first]);
+            copy.put(0, buffer, positions[first], copy.capacity());
+            return copy;
+        }
+
+        long maxTimestamp(int i) {
+            return buffer.getLong(positions[i] + RecordBatch.MaxTimestampOffset);
+        }
+
+        private int batchEnd(int i) {
+            return i + 1 < batches ? positions[i + 1] : end;
+        }
+
+        //Drops the batches from the one containing the offset onwards.
+        void truncateTo(long offset) {
+            int first = batchContaining(offset);
+            if (first < batches) {
+                end = positions[first];
+                batches = first;
+            }
+        }
+
+        long nextOffset() {
+            return batches == 0 ? baseOffset : lastOffsets[batches - 1] + 1;
+        }
+
+        int size() {
+            return end;
+        }
+    }
+}
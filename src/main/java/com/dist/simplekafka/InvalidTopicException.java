@@ -0,0 +1,8 @@
+package com.dist.simplekafka;
+
+public class InvalidTopicException extends RuntimeException {
+
+    public InvalidTopicException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,268 @@
+package com.dist.simplekafka;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Point lookups by key for a sealed segment, stored next to it in a
+ * .keyindex file and memory mapped read-only:
+ *   1. 4 byte number of Bloom filter hash functions K
+ *   2. 4 byte number of Bloom filter words W
+ *   3. W 8 byte words of Bloom filter bits
+ *   4. 4 byte number of entries N
+ *   5. N entries of an 8 byte key hash and the 4 byte offset, relative to
+ *      the base offset, of the latest message with a key with that hash,
+ *      sorted by hash
+ * The Bloom filter rules out a segment without reading its entries, with
+ * about 1% false positives at 10 bits per key. Keys are not stored, so a
+ * different key with the same 64 bit hash can shadow a key, the caller
+ * checks the key of the message found.
+ * The file is written once, to a temporary file renamed in place.
+ */
+class KeyIndex {
+    static final String KeyIndexFileSuffix = ".keyindex";
+    private static final String TempFileSuffix = ".tmp";
+    private static final int BitsPerKey = 10;
+    private static final int HashFunctions = 7; //BitsPerKey * ln 2
+    private static final int EntrySize = 12;
+
+    private final File file;
+    private final long baseOffset;
+    private final MappedByteBuffer mmap;
+    private final int hashFunctions;
+    private final int bloomWords;
+    private final int entriesPosition;
+    private final int entries;
+
+    private KeyIndex(File file, long baseOffset) throws IOException {
+        this.file = file;
+        this.baseOffset = baseOffset;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            this.mmap = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (mmap.capacity() < 12) {
+            throw new CorruptRecordException("Key index " + file + " is corrupt");
+        }
+        this.hashFunctions = mmap.getInt(0);
+        this.bloomWords = mmap.getInt(4);
+        if (hashFunctions < 1 || bloomWords < 1 || 12 + bloomWords * 8L > mmap.capacity()) {
+            throw new CorruptRecordException("Key index " + file + " is corrupt");
+        }
+        this.entriesPosition = 8 + bloomWords * 8 + 4;
+        this.entries = mmap.getInt(entriesPosition - 4);
+        if (entries < 0 || entriesPosition + (long) entries * EntrySize != mmap.capacity()) {
+            throw new CorruptRecordException("Key index " + file + " is corrupt");
+        }
+    }
+
+    static File indexFile(File dir, long baseOffset) {
+        return new File(dir, String.format("%020d", baseOffset) + KeyIndexFileSuffix);
+    }
+
+    /**
+     * Opens the key index of a segment.
+     * @return null if there is no valid index file.
+     */
+    static KeyIndex open(File file, long baseOffset) throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            return new KeyIndex(file, baseOffset);
+        } catch (CorruptRecordException e) {
+            Files.deleteIfExists(file.toPath());
+            return null;
+        }
+    }
+
+    boolean mightContain(byte[] key) {
+        long hash = hash(key);
+        long bits = bloomWords * 64L;
+        for (int i = 0; i < hashFunctions; i++) {
+            long bit = Math.floorMod(bloomProbe(hash, i), bits);
+            if ((mmap.getLong(8 + (int) (bit >>> 6) * 8) & (1L << (bit & 63))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The offset of the latest message whose key has the same hash as the
+     * given key, with a binary search over the entries.
+     * @return -1 if there is none.
+     */
+    long lookup(byte[] key) {
+        long hash = hash(key);
+        int low = 0;
+        int high = entries - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midHash = mmap.getLong(entriesPosition + mid * EntrySize);
+            if (midHash < hash) {
+                low = mid + 1;
+            } else if (midHash > hash) {
+                high = mid - 1;
+            } else {
+                return baseOffset + mmap.getInt(entriesPosition + mid * EntrySize + 8);
+            }
+        }
+        return -1;
+    }
+
+    int entries() {
+        return entries;
+    }
+
+    File file() {
+        return file;
+    }
+
+    void delete() throws IOException {
+        Files.deleteIfExists(file.toPath());
+    }
+
+    //A 64 bit FNV-1a hash with the murmur3 finalizer to spread the bits.
+    static long hash(byte[] key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    //Double hashing, the i-th probe of the Bloom filter.
+    private static long bloomProbe(long hash, int i) {
+        return (hash >>> 32) + i * (hash & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Collects the keys of a segment in offset order and writes its index.
+     */
+    static class Builder {
+        private final long baseOffset;
+        private long[] hashes = new long[1024];
+        private int[] offsets = new int[1024];
+        private int size = 0;
+
+        Builder(long baseOffset) {
+            this.baseOffset = baseOffset;
+        }
+
+        void add(byte[] key, long offset) {
+            if (size == hashes.length) {
+                hashes = java.util.Arrays.copyOf(hashes, size * 2);
+                offsets = java.util.Arrays.copyOf(offsets, size * 2);
+            }
+            hashes[size] = hash(key);
+            offsets[size] = (int) (offset - baseOffset);
+            size++;
+        }
+
+        KeyIndex write(File file) throws IOException {
+            sort(0, size - 1);
+            int unique = dedupe();
+            int bloomWords = Math.max(1, (int) (((long) unique * BitsPerKey + 63) / 64));
+            long bits = bloomWords * 64L;
+            ByteBuffer buffer = ByteBuffer.allocate(8 + bloomWords * 8 + 4 + unique * EntrySize);
+            buffer.putInt(HashFunctions);
+            buffer.putInt(bloomWords);
+            for (int i = 0; i < unique; i++) {
+                for (int probe = 0; probe < HashFunctions; probe++) {
+                    long bit = Math.floorMod(bloomProbe(hashes[i], probe), bits);
+                    int index = 8 + (int) (bit >>> 6) * 8;
+                    buffer.putLong(index, buffer.getLong(index) | (1L << (bit & 63)));
+                }
+            }
+            buffer.position(8 + bloomWords * 8);
+            buffer.putInt(unique);
+            for (int i = 0; i < unique; i++) {
+                buffer.putLong(hashes[i]);
+                buffer.putInt(offsets[i]);
+            }
+            buffer.flip();
+            File tempFile = LogSegment.withSuffix(file, TempFileSuffix);
+            try (FileChannel channel = FileChannel.open(tempFile.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return new KeyIndex(file, baseOffset);
+        }
+
+        //Keeps the latest offset of every hash, entries are sorted by hash
+        // and then by offset.
+        private int dedupe() {
+            int unique = 0;
+            for (int i = 0; i < size; i++) {
+                if (unique > 0 && hashes[unique - 1] == hashes[i]) {
+                    offsets[unique - 1] = offsets[i];
+                } else {
+                    hashes[unique] = hashes[i];
+                    offsets[unique] = offsets[i];
+                    unique++;
+                }
+            }
+            return unique;
+        }
+
+        //Quicksort of the parallel arrays by hash and then offset.
+        private void sort(int low, int high) {
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                long pivotHash = hashes[mid];
+                int pivotOffset = offsets[mid];
+                int i = low;
+                int j = high;
+                while (i <= j) {
+                    while (compare(i, pivotHash, pivotOffset) < 0) {
+                        i++;
+                    }
+                    while (compare(j, pivotHash, pivotOffset) > 0) {
+                        j--;
+                    }
+                    if (i <= j) {
+                        swap(i++, j--);
+                    }
+                }
+                //recurse into the smaller part to bound the stack depth.
+                if (j - low < high - i) {
+                    sort(low, j);
+                    low = i;
+                } else {
+                    sort(i, high);
+                    high = j;
+                }
+            }
+        }
+
+        private int compare(int i, long hash, int offset) {
+            int byHash = Long.compare(hashes[i], hash);
+            return byHash != 0 ? byHash : Integer.compare(offsets[i], offset);
+        }
+
+        private void swap(int i, int j) {
+            long hash = hashes[i];
+            hashes[i] = hashes[j];
+            hashes[j] = hash;
+            int offset = offsets[i];
+            offsets[i] = offsets[j];
+            offsets[j] = offset;
+        }
+    }
+}
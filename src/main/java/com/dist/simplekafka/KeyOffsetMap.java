@@ -0,0 +1,127 @@
+package com.dist.simplekafka;
+
+import java.nio.ByteBuffer;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Latest offset for every key, used by the log cleaner. To fit millions of
+ * keys in a fixed amount of memory, keys are not stored, only their 16
+ * byte MD5 digest. The table is an open addressing hash table with linear
+ * probing in a single direct buffer. Every slot is
+ *   1. 16 byte key digest
+ *   2. 8 byte offset + 1, 0 marks an empty slot
+ * A digest collision makes two keys look the same, which is unlikely
+ * enough to be ignored, as Kafka's cleaner does.
+ * Not thread safe, the cleaner thread owns it.
+ */
+class KeyOffsetMap {
+    private static final int DigestSize = 16;
+    private static final int SlotSize = DigestSize + 8;
+    private static final double MaxLoadFactor = 0.9;
+
+    private final ByteBuffer slots;
+    private final int capacity;
+    private final int maxEntries;
+    private final MessageDigest digest;
+    private final byte[] keyDigest = new byte[DigestSize];
+    private int entries = 0;
+
+    KeyOffsetMap(int memory) {
+        this.capacity = memory / SlotSize;
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Need at least " + SlotSize + " bytes for the offset map");
+        }
+        this.maxEntries = (int) (capacity * MaxLoadFactor);
+        this.slots = ByteBuffer.allocateDirect(capacity * SlotSize);
+        try {
+            this.digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return false if the key is new and the map is already full.
+     */
+    boolean put(byte[] key, long offset) {
+        hash(key);
+        int slot = findSlot();
+        if (isEmpty(slot)) {
+            if (entries >= maxEntries) {
+                return false;
+            }
+            int position = slot * SlotSize;
+            for (int i = 0; i < DigestSize; i++) {
+                slots.put(position + i, keyDigest[i]);
+            }
+            entries++;
+        }
+        slots.putLong(slot * SlotSize + DigestSize, offset + 1);
+        return true;
+    }
+
+    /**
+     * @return the latest offset of the key or -1 if it is not in the map.
+     */
+    long get(byte[] key) {
+        hash(key);
+        int slot = findSlot();
+        return isEmpty(slot) ? -1 : storedOffset(slot) - 1;
+    }
+
+    void clear() {
+        for (int position = 0; position < capacity * SlotSize; position += 8) {
+            slots.putLong(position, 0);
+        }
+        entries = 0;
+    }
+
+    int size() {
+        return entries;
+    }
+
+    boolean isFull() {
+        return entries >= maxEntries;
+    }
+
+    //The slot holding keyDigest, or the empty slot where it belongs. There
+    // is always an empty slot as the map is never filled completely.
+    private int findSlot() {
+        int slot = ((keyDigest[0] & 0xff) << 24 | (keyDigest[1] & 0xff) << 16
+                | (keyDigest[2] & 0xff) << 8 | (keyDigest[3] & 0xff)) & 0x7fffffff;
+        slot %= capacity;
+        while (!isEmpty(slot) && !digestMatches(slot)) {
+            slot = slot + 1 == capacity ? 0 : slot + 1;
+        }
+        return slot;
+    }
+
+    private boolean isEmpty(int slot) {
+        return storedOffset(slot) == 0;
+    }
+
+    private long storedOffset(int slot) {
+        return slots.getLong(slot * SlotSize + DigestSize);
+    }
+
+    private boolean digestMatches(int slot) {
+        int position = slot * SlotSize;
+        for (int i = 0; i < DigestSize; i++) {
+            if (slots.get(position + i) != keyDigest[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void hash(byte[] key) {
+        digest.update(key);
+        try {
+            digest.digest(keyDigest, 0, DigestSize);
+        } catch (DigestException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
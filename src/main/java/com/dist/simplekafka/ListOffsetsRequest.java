@@ -0,0 +1,72 @@
+package com.dist.simplekafka;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Looks up an offset of each of the given partitions by timestamp:
+ *   [int count]{topic, int partition, long timestamp}
+ * {@link #Latest} asks for the offset the next append gets, and
+ * {@link #Earliest} for the first offset still in the log, e.g. for a
+ * consumer to start from either end. Any other timestamp gives the first
+ * offset with a timestamp at or after it, see {@link Log#offsetForTime}.
+ */
+public class ListOffsetsRequest implements ApiRequest {
+    public static final long Latest = -1;
+    public static final long Earliest = -2;
+
+    private final List<PartitionData> partitions;
+
+    public ListOffsetsRequest(List<PartitionData> partitions) {
+        this.partitions = partitions;
+    }
+
+    public static ListOffsetsRequest parse(ByteBuffer buffer) {
+        int count = buffer.getInt();
+        List<PartitionData> partitions = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            TopicPartition topicPartition = new TopicPartition(Protocol.readString(buffer), buffer.getInt());
+            partitions.add(new PartitionData(topicPartition, buffer.getLong()));
+        }
+        return new ListOffsetsRequest(partitions);
+    }
+
+    public List<PartitionData> partitions() {
+        return partitions;
+    }
+
+    @Override
+    public short apiKey() {
+        return ApiKeys.ListOffsets;
+    }
+
+    @Override
+    public int sizeInBytes() {
+        int size = 4;
+        for (PartitionData partition : partitions) {
+            size += Protocol.sizeOf(partition.topicPartition.topic()) + 4 + 8;
+        }
+        return size;
+    }
+
+    @Override
+    public void writeTo(ByteBuffer buffer) {
+        buffer.putInt(partitions.size());
+        for (PartitionData partition : partitions) {
+            Protocol.writeString(partition.topicPartition.topic(), buffer);
+            buffer.putInt(partition.topicPartition.partition());
+            buffer.putLong(partition.timestamp);
+        }
+    }
+
+    public static class PartitionData {
+        public final TopicPartition topicPartition;
+        public final long timestamp;
+
+        public PartitionData(TopicPartition topicPartition, long timestamp) {
+            this.topicPartition = topicPartition;
+            this.timestamp = timestamp;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.dist.simplekafka;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The offsets found for a {@link ListOffsetsRequest}:
+ *   [int count]{topic, int partition, short error, long offset}
+ */
+public class ListOffsetsResponse implements ApiResponse {
+    private final List<PartitionResponse> responses;
+
+    public ListOffsetsResponse(List<PartitionResponse> responses) {
+        this.responses = responses;
+    }
+
+    public static ListOffsetsResponse parse(ByteBuffer buffer) {
+        int count = buffer.getInt();
+        List<PartitionResponse> responses = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            TopicPartition topicPartition = new TopicPartition(Protocol.readString(buffer), buffer.getInt());
+            responses.add(new PartitionResponse(topicPartition, buffer.getShort(), buffer.getLong()));
+        }
+        return new ListOffsetsResponse(responses);
+    }
+
+    public List<PartitionResponse> responses() {
+        return responses;
+    }
+
+    @Override
+    public int sizeInBytes() {
+        int size = 4;
+        for (PartitionResponse response : responses) {
+            size += Protocol.sizeOf(response.topicPartition.topic()) + 4 + 2 + 8;
+        }
+        return size;
+    }
+
+    @Override
+    public void writeTo(ByteBuffer buffer) {
+        buffer.putInt(responses.size());
+        for (PartitionResponse response : responses) {
+            Protocol.writeString(response.topicPartition.topic(), buffer);
+            buffer.putInt(response.topicPartition.partition());
+            buffer.putShort(response.error);
+            buffer.putLong(response.offset);
+        }
+    }
+
+    public static class PartitionResponse {
+        public final TopicPartition topicPartition;
+        public final short error;
+        public final long offset;
+
+        public PartitionResponse(TopicPartition topicPartition, short error, long offset) {
+            this.topicPartition = topicPartition;
+            this.error = error;
+            this.offset = offset;
+        }
+    }
+}
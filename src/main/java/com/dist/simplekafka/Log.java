@@ -1,150 +1,1221 @@
 package com.dist.simplekafka;
 
+import com.dist.common.Utils;
+import org.apache.log4j.Logger;
+
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReentrantLock;
 
-public class Log {
-    private static final int MessageSizeLength = 4; //we can store a
-    // MessageSet instead of a single message.
-    private static final int KeySizeLength = 4;
-    private static final int KeyOffset = KeySizeLength;
-    private static final int ValueSizeLength = 4;
-    private final AtomicLong nextOffset =
-            new AtomicLong(1); //initialize from the file at startup.
+public class Log implements StorageEngine {
+    private static final Logger logger = Logger.getLogger(Log.class);
+    static final long InitialOffset = 1;
+    static final String RecoveryPointCheckpointFile = "recovery-point-offset-checkpoint";
+    //a log being moved is copied to <name>.future in the target dir, the
+    // original is renamed to <name>.delete when the move is done.
+    static final String FutureDirSuffix = ".future";
+    static final String DeleteDirSuffix = ".delete";
+    //background copy passes before the cut-over of a move.
+    private static final int MaxMoveCopyPasses = 5;
+    //spinning only helps if the thread we wait for can run meanwhile.
+    private static final int SpinTries = Runtime.getRuntime().availableProcessors() > 1 ? 100 : 0;
+
+    private volatile File dir; //changes when the log is moved.
+    private final LogConfig config;
+    //Readable up to this offset. Advanced in offset order as concurrent
+    // appends finish writing. Initialized from the segments at startup.
+    private final AtomicLong nextOffset = new AtomicLong(InitialOffset);
 
-    private final Map<Long, Long> offsetIndex = new ConcurrentHashMap<>();
-    private final Lock lock = new ReentrantLock(); //lock for log.append.
-    // reads don't need locks
+    //segments keyed by their base offset. floorEntry gives a log(n)
+    // search for the segment containing an offset.
+    private final ConcurrentNavigableMap<Long, LogSegment> segments = new ConcurrentSkipListMap<>();
+    private volatile LogSegment activeSegment;
+    private final Lock lock = new ReentrantLock(); //lock for segment roll
+    // and delete. appends reserve space in the active segment without
+    // it and reads don't need locks
+    private volatile Throwable failure; //a failed append leaves a gap, so
+    // no appends are taken after it.
 
+    private volatile OffsetCheckpoint recoveryPointCheckpoint;
+    //All the messages before this offset are flushed to disk. Only the
+    // messages after it need to be validated after a crash.
+    private volatile long recoveryPoint;
+    private final LogFlusher flusher;
+    //the most recent batches, null if disabled.
+    private final TailCache tailCache;
+    //with IoMode.ASYNC, batches written but not published yet, as an
+    // earlier batch is still being written.
+    private final ConcurrentNavigableMap<Long, WrittenBatch> writtenBatches = new ConcurrentSkipListMap<>();
+    private final Lock publishLock = new ReentrantLock();
+    //builds the key indexes of sealed segments, null if disabled.
+    private final ExecutorService keyIndexBuilder;
+    //preallocates the file of the next segment, null if disabled.
+    private final ExecutorService segmentPreallocator;
+    //the file ready for the next segment, null till it is preallocated.
+    private volatile File nextSegmentFile;
+    private volatile boolean closing = false;
+    //bytes of the batches published since the log was opened, to place
+    // logs by their bytes-in rate.
+    private final LongAdder bytesAppended = new LongAdder();
+    private final Lock moveLock = new ReentrantLock();
 
-    private final FileChannel channel;
+    public Log(File dir) throws IOException {
+        this(dir, new LogConfig());
+    }
 
-    public Log(File file) throws IOException {
-        channel = openChannel(file);
+    public Log(File dir, LogConfig config) throws IOException {
+        this.dir = dir;
+        this.config = config;
+        this.recoveryPointCheckpoint = new OffsetCheckpoint(new File(dir, RecoveryPointCheckpointFile));
+        this.tailCache = config.getTailCacheBytes() > 0 ? new TailCache(config.getTailCacheBytes()) : null;
+        this.keyIndexBuilder = config.isKeyIndexEnabled() ? Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "key-index-builder-" + dir.getName());
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+        this.segmentPreallocator = config.isPreallocate() ? Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "segment-preallocator-" + dir.getName());
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+        dir.mkdirs();
+        loadSegments();
+        this.flusher = new LogFlusher(this, config);
+        if (config.getFlushPolicy() == LogConfig.FlushPolicy.GROUP_COMMIT) {
+            flusher.start();
+        }
     }
 
+    @Override
     public List<Message> read(long startOffset, long maxOffset) throws IOException {
         List<Message> messages = new ArrayList<>();
-        for (long i = startOffset; i <= maxOffset; i++) {
-            messages.add(readSingleMessage(i)); //This can be optimized to
-            // read all the messages in one read.
+        try {
+            reader(startOffset, maxOffset, Integer.MAX_VALUE).forEachRemaining(messages::add);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
         }
         return messages;
     }
 
+    /**
+     * Streams the messages from startOffset to maxOffset, reading the
+     * segments in large chunks, or from the tail cache if it holds
+     * startOffset. Stops after maxBytes worth of batches, returning at
+     * least one batch.
+     */
+    public LogReader reader(long startOffset, long maxOffset, int maxBytes) {
+        if (startOffset > lastOffset() + 1) {
+            throw new OffsetOutOfRangeException(startOffset);
+        }
+        long upTo = Math.min(maxOffset, lastOffset());
+        if (tailCache != null && startOffset <= upTo && startOffset >= logStartOffset()) {
+            List<RecordBatch> cached = tailCache.read(startOffset, upTo, maxBytes);
+            if (cached != null) {
+                return new LogReader(cached, startOffset, upTo);
+            }
+        }
+        Long from = segments.floorKey(startOffset);
+        if (from == null) {
+            from = segments.firstKey();
+        }
+        return new LogReader(segments.tailMap(from).values(), startOffset, upTo, maxBytes, LogReader.DefaultChunkSize);
+    }
+
+    /**
+     * The stored batches from the one containing startOffset, as a region
+     * of a segment file to be sent with zero copy. A region does not span
+     * segments, the next one starts after its lastOffset. It holds up to
+     * maxBytes of batches, but at least one batch.
+     * @return an empty region if there are no messages after startOffset.
+     */
+    @Override
+    public FileRegion fileRegion(long startOffset, int maxBytes) throws IOException {
+        long lastOffset = lastOffset();
+        if (startOffset > lastOffset + 1) {
+            throw new OffsetOutOfRangeException(startOffset);
+        }
+        Long from = segments.floorKey(startOffset);
+        if (from == null) {
+            from = segments.firstKey();
+        }
+        //a compacted segment can have nothing left after startOffset.
+        for (LogSegment segment : segments.tailMap(from).values()) {
+            FileRegion region = segment.region(startOffset, maxBytes);
+            if (region != null) {
+                return region;
+            }
+        }
+        return FileRegion.empty(lastOffset + 1);
+    }
+
+    //The batches of fileRegion, copied to the heap.
+    @Override
+    public ByteBuffer readBatches(long startOffset, int maxBytes) throws IOException {
+        return fileRegion(startOffset, maxBytes).read();
+    }
+
+    @Override
     public long lastOffset() {
         return nextOffset.get() - 1;
     }
 
+    /**
+     * The offset of the first message with a timestamp at or after the
+     * given one, to replay the log from a point in time. Segments are
+     * skipped by their largest timestamp, kept in memory, and the time
+     * index of the segment narrows the search to a few batches.
+     * @return the offset the next append gets if there is no such message.
+     */
+    @Override
+    public long offsetForTime(long timestamp) throws IOException {
+        for (LogSegment segment : segments.values()) {
+            long offset = segment.findOffsetForTime(timestamp);
+            if (offset >= 0) {
+                return offset;
+            }
+        }
+        return lastOffset() + 1;
+    }
+
+    /**
+     * The latest message with the given key, for logs used as a keyed
+     * store. Segments are checked newest first, and with key indexes
+     * enabled a sealed segment costs a Bloom filter check and, if the key
+     * might be in it, a binary search and a read. The active segment and
+     * segments whose index is not built yet are scanned.
+     * @return null if no message has the key.
+     */
+    public Message findLatest(byte[] key) throws IOException {
+        long lastOffset = lastOffset();
+        for (LogSegment segment : segments.descendingMap().values()) {
+            if (segment.baseOffset() > lastOffset) {
+                continue;
+            }
+            Message message = segment.findLatest(key);
+            if (message != null) {
+                return message;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads messages from startOffset without blocking on the disk, for
+     * {@link LogConfig.IoMode#ASYNC}; with other modes the read is made
+     * on the caller thread. Like {@link #fileRegion(long, int)}, a read
+     * does not span segments: it returns the messages of up to maxBytes
+     * of batches of the segment containing startOffset, and the next read
+     * continues after the last message returned.
+     * @return future of the messages, empty if there are none after
+     * startOffset.
+     */
+    public CompletableFuture<List<Message>> readAsync(long startOffset, long maxOffset, int maxBytes) {
+        if (startOffset > lastOffset() + 1) {
+            return CompletableFuture.failedFuture(new OffsetOutOfRangeException(startOffset));
+        }
+        long upTo = Math.min(maxOffset, lastOffset());
+        if (startOffset > upTo) {
+            return CompletableFuture.completedFuture(List.of());
+        }
+        if (tailCache != null && startOffset >= logStartOffset()) {
+            List<RecordBatch> cached = tailCache.read(startOffset, upTo, maxBytes);
+            if (cached != null) {
+                return CompletableFuture.completedFuture(messagesIn(cached, startOffset, upTo));
+            }
+        }
+        Long from = segments.floorKey(startOffset);
+        if (from == null) {
+            from = segments.firstKey();
+        }
+        return readAsync(segments.tailMap(from).values().iterator(), startOffset, upTo, maxBytes);
+    }
+
+    //A compacted segment can have nothing left after startOffset, the
+    // read moves on to the next one.
+    private CompletableFuture<List<Message>> readAsync(Iterator<LogSegment> segments, long startOffset,
+                                                       long upTo, int maxBytes) {
+        if (!segments.hasNext()) {
+            return CompletableFuture.completedFuture(List.of());
+        }
+        return segments.next().readAsync(startOffset, maxBytes).thenCompose(batches -> batches.isEmpty()
+                ? readAsync(segments, startOffset, upTo, maxBytes)
+                : CompletableFuture.completedFuture(messagesIn(batches, startOffset, upTo)));
+    }
+
+    private static List<Message> messagesIn(List<RecordBatch> batches, long startOffset, long upTo) {
+        List<Message> messages = new ArrayList<>();
+        for (RecordBatch batch : batches) {
+            for (Message message : batch) {
+                if (message.offset >= startOffset && message.offset <= upTo) {
+                    messages.add(message);
+                }
+            }
+        }
+        return messages;
+    }
+
+    @Override
+    public long logStartOffset() {
+        return segments.firstKey();
+    }
+
     static class Message {
+        public final long offset; //-1 till the message is appended.
+        public final long timestamp; //milliseconds since the epoch.
         public final byte[] key;
         public final byte[] value;
 
+        //Timestamped with the current time.
         public Message(byte[] key, byte[] value) {
+            this(-1, key, value);
+        }
+
+        public Message(long offset, byte[] key, byte[] value) {
+            this(offset, System.currentTimeMillis(), key, value);
+        }
+
+        public Message(long offset, long timestamp, byte[] key, byte[] value) {
+            this.offset = offset;
+            this.timestamp = timestamp;
             this.key = key;
             this.value = value;
         }
 
     }
 
-    private FileChannel openChannel(File file) throws IOException {
-        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
-        return randomAccessFile.getChannel();
+    @Override
+    public long append(byte[] key, byte[] value) throws IOException {
+        return append(encode(key, value));
     }
 
-    public long append(byte[] key, byte[] value) throws IOException {
-       //Complete writing to file.
+    /**
+     * Appends all the messages as a single record batch. Whether the
+     * messages are synced to disk before returning depends on the flush
+     * policy of the log.
+     * @return offset of the first message.
+     */
+    @Override
+    public long append(List<Message> messages) throws IOException {
+        return append(encode(messages));
+    }
+
+    /**
+     * Appends a batch encoded by the producer, possibly compressed, as is.
+     * Only the base offset is assigned, written into the given buffer, the
+     * records are not compressed again. They are checked first, see
+     * {@link RecordBatch#ensureValidRecords()}.
+     * @return offset of the first message.
+     * @throws CorruptRecordException if the batch is malformed.
+     */
+    @Override
+    public long appendRecordBatch(ByteBuffer encodedBatch) throws IOException {
+        ByteBuffer batch = encodedBatch.slice();
+        new RecordBatch(batch).ensureValidRecords();
+        return append(batch);
+    }
+
+    private long append(ByteBuffer batch) throws IOException {
+        int offsetCount = RecordBatch.offsetCount(batch);
+        long baseOffset = isAsyncIo() ? await(appendBatchAsync(batch)) : appendBatch(batch, null);
+        switch (config.getFlushPolicy()) {
+            case ALWAYS:
+                flush();
+                break;
+            case GROUP_COMMIT:
+                await(flusher.whenDurable(baseOffset + offsetCount - 1, baseOffset));
+                break;
+            default:
+                break; //left to the OS, or the next flush.
+        }
+        return baseOffset;
+    }
+
+    public CompletableFuture<Long> appendAsync(byte[] key, byte[] value) throws IOException {
+        return appendAsync(encode(key, value));
+    }
+
+    /**
+     * Appends the messages without waiting for them to be synced.
+     * @return future completed with the offset of the first message once
+     * all the messages are durable on disk. Concurrent appends are made
+     * durable by a single group commit.
+     */
+    public CompletableFuture<Long> appendAsync(List<Message> messages) throws IOException {
+        return appendAsync(encode(messages));
+    }
+
+    private CompletableFuture<Long> appendAsync(ByteBuffer batch) throws IOException {
+        int offsetCount = RecordBatch.offsetCount(batch);
+        if (isAsyncIo()) {
+            return appendBatchAsync(batch)
+                    .thenCompose(baseOffset -> flusher.whenDurable(baseOffset + offsetCount - 1, baseOffset));
+        }
+        long baseOffset = appendBatch(batch, null);
+        return flusher.whenDurable(baseOffset + offsetCount - 1, baseOffset);
+    }
+
+    /**
+     * With {@link LogConfig.IoMode#ASYNC}, the appending thread only
+     * reserves space and issues the write, see {@link #appendBatch}. The
+     * write is made from a copy, as the encoding buffer is reused by the
+     * thread's next append.
+     * @return future of the base offset, completed once the batch is
+     * written and published.
+     */
+    private CompletableFuture<Long> appendBatchAsync(ByteBuffer encoded) throws IOException {
+        ByteBuffer batch = ByteBuffer.allocate(encoded.remaining());
+        batch.put(encoded.duplicate()).flip();
+        CompletableFuture<Long> published = new CompletableFuture<>();
+        appendBatch(batch, published);
+        return published;
+    }
+
+    private boolean isAsyncIo() {
+        return config.getIoMode() == LogConfig.IoMode.ASYNC;
+    }
+
+    /**
+     * Appenders encode their batch in parallel, reserve offsets and file
+     * position with a single atomic step on the active segment, and write
+     * at their position in parallel. Publishing the batch to readers
+     * happens in offset order, so a batch waits for the ones before it to
+     * finish their writes. Segments which need ordered writes, like
+     * direct IO ones, are written only once it is the batch's turn.
+     * The batch is written straight from the given buffer, which the
+     * append path reuses, so appending allocates nothing.
+     * Given a published future, the write is only issued and the future
+     * completed once the batch is published, see {@link #publishWritten()}.
+     * @return the base offset assigned to the batch.
+     */
+    private long appendBatch(ByteBuffer batch, CompletableFuture<Long> published) throws IOException {
+        int size = batch.remaining();
+        int offsetCount = RecordBatch.offsetCount(batch);
+        while (true) {
+            ensureNotFailed();
+            LogSegment segment = activeSegment;
+            if (segment.isTimeToRoll(System.currentTimeMillis()) && segment.seal()) {
+                roll(segment);
+                continue;
+            }
+            long reservation = segment.reserve(offsetCount, size);
+            if (reservation == LogSegment.Roll) {
+                roll(segment);
+                continue;
+            }
+            if (reservation == LogSegment.Sealed) {
+                awaitRoll(segment);
+                continue;
+            }
+            long position = LogSegment.reservedPosition(reservation);
+            long baseOffset = segment.reservedOffset(reservation);
+            long lastOffset = baseOffset + offsetCount - 1;
+            int start = batch.position();
+            batch.putLong(start + RecordBatch.BaseOffsetOffset, baseOffset);
+            if (published != null) {
+                WrittenBatch written = new WrittenBatch(segment, baseOffset, lastOffset, position, batch, published);
+                segment.writeAsync(position, batch.duplicate()).whenComplete((ignored, error) -> onWritten(written, error));
+                return baseOffset;
+            }
+            try {
+                boolean ordered = segment.requiresOrderedWrites();
+                if (ordered) {
+                    awaitTurn(baseOffset);
+                }
+                segment.write(position, batch);
+                batch.position(start);
+                if (!ordered) {
+                    awaitTurn(baseOffset);
+                }
+                segment.publish(baseOffset, lastOffset, RecordBatch.maxTimestamp(batch), size, position);
+                if (tailCache != null) {
+                    tailCache.append(baseOffset, lastOffset, batch);
+                }
+                nextOffset.set(lastOffset + 1);
+                bytesAppended.add(size);
+            } catch (IOException | RuntimeException e) {
+                failure = e;
+                throw e;
+            }
+            if (flusher.countsAppends()) {
+                flusher.onAppend(RecordBatch.recordCount(batch), size);
+            }
+            return baseOffset;
+        }
+    }
+
+    //Compressed with the codec of the log. The offset is assigned once
+    // the batch is reserved space in the log.
+    private ByteBuffer encode(List<Message> messages) {
+        return RecordBatch.encodeForAppend(messages, config.getCompressionCodec());
+    }
+
+    private ByteBuffer encode(byte[] key, byte[] value) {
+        if (config.getCompressionCodec() != null) {
+            return encode(List.of(new Message(key, value)));
+        }
+        return RecordBatch.encodeForAppend(key, value);
+    }
+
+    //Waits till all the batches before this offset are published.
+    private void awaitTurn(long offset) throws IOException {
+        int spins = 0;
+        while (nextOffset.get() != offset) {
+            ensureNotFailed();
+            backoff(spins++);
+        }
+    }
+
+    //Waits till the sealed segment is rolled, or unsealed by truncateTo.
+    private void awaitRoll(LogSegment sealed) throws IOException {
+        int spins = 0;
+        while (activeSegment == sealed && sealed.isSealed()) {
+            ensureNotFailed();
+            backoff(spins++);
+        }
+    }
+
+    private static void backoff(int spins) {
+        if (spins < SpinTries) {
+            Thread.onSpinWait();
+        } else if (spins < SpinTries + 100) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(10_000);
+        }
+    }
+
+    private void ensureNotFailed() throws IOException {
+        Throwable cause = failure;
+        if (cause != null) {
+            throw new IOException("Log " + dir + " is not accepting appends after a failed append", cause);
+        }
+    }
+
+    private void onWritten(WrittenBatch batch, Throwable error) {
+        if (error != null && failure == null) {
+            failure = error;
+        }
+        writtenBatches.put(batch.baseOffset, batch);
+        publishWritten();
+    }
+
+    /**
+     * Publishes the written batches of async appends in offset order. Run
+     * by the thread completing a write, it publishes every batch which is
+     * next in order, including ones whose writes completed earlier and
+     * were waiting for this one. A thread finding another one publishing
+     * leaves its batch to it; the recheck after unlocking makes sure a
+     * batch added meanwhile is not left behind. After a failed write,
+     * all the pending batches are failed.
+     */
+    private void publishWritten() {
+        do {
+            if (!publishLock.tryLock()) {
+                return;
+            }
+            List<WrittenBatch> completed = new ArrayList<>();
+            try {
+                WrittenBatch batch;
+                while (failure == null && (batch = writtenBatches.remove(nextOffset.get())) != null) {
+                    try {
+                        int size = batch.buffer.remaining();
+                        batch.segment.publish(batch.baseOffset, batch.lastOffset,
+                                RecordBatch.maxTimestamp(batch.buffer), size, batch.position);
+                        if (tailCache != null) {
+                            tailCache.append(batch.baseOffset, batch.lastOffset, batch.buffer);
+                        }
+                        nextOffset.set(batch.lastOffset + 1);
+                        bytesAppended.add(size);
+                        if (flusher.countsAppends()) {
+                            flusher.onAppend(RecordBatch.recordCount(batch.buffer), size);
+                        }
+                    } catch (RuntimeException e) {
+                        failure = e;
+                    }
+                    completed.add(batch);
+                }
+                if (failure != null) {
+                    completed.addAll(writtenBatches.values());
+                    writtenBatches.clear();
+                }
+            } finally {
+                publishLock.unlock();
+            }
+            for (WrittenBatch batch : completed) {
+                if (batch.lastOffset < nextOffset.get()) {
+                    batch.published.complete(batch.baseOffset);
+                } else {
+                    batch.published.completeExceptionally(new IOException("Log " + dir
+                            + " is not accepting appends after a failed append", failure));
+                }
+            }
+        } while (writtenBatches.containsKey(nextOffset.get()) || (failure != null && !writtenBatches.isEmpty()));
+    }
+
+    //A batch written by an async append, waiting to be published.
+    private static class WrittenBatch {
+        final LogSegment segment;
+        final long baseOffset;
+        final long lastOffset;
+        final long position;
+        final ByteBuffer buffer;
+        final CompletableFuture<Long> published;
+
+        WrittenBatch(LogSegment segment, long baseOffset, long lastOffset, long position, ByteBuffer buffer,
+                     CompletableFuture<Long> published) {
+            this.segment = segment;
+            this.baseOffset = baseOffset;
+            this.lastOffset = lastOffset;
+            this.position = position;
+            this.buffer = buffer;
+            this.published = published;
+        }
+    }
+
+    private long await(CompletableFuture<Long> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for " + dir);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+
+    @Override
+    public Message readSingleMessage(long offset) throws IOException {
+        Map.Entry<Long, LogSegment> entry = segments.floorEntry(offset);
+        if (entry == null || offset > lastOffset()) {
+            throw new OffsetOutOfRangeException(offset);
+        }
+        RecordBatch cached = tailCache == null ? null : tailCache.read(offset);
+        if (cached != null) {
+            for (Message message : cached) {
+                if (message.offset == offset) {
+                    return message;
+                }
+            }
+        }
+        return entry.getValue().read(offset);
+    }
+
+    /**
+     * Share of the reads served by the tail cache, see
+     * {@link LogConfig#setTailCacheBytes(int)}. 0 if it is disabled.
+     */
+    public double tailCacheHitRatio() {
+        return tailCache == null ? 0 : tailCache.hitRatio();
+    }
+
+    /**
+     * Deletes the oldest segments which are either older than retentionMs,
+     * going by the largest timestamp in the segment, or are beyond
+     * retentionBytes. The active segment is never deleted.
+     * As retention works on whole segments, deleting is just removing the
+     * files, however many messages they contain.
+     * Compacted logs are left to the log cleaner.
+     */
+    public int deleteOldSegments() throws IOException {
+        if (config.getCleanupPolicy() != LogConfig.CleanupPolicy.DELETE) {
+            return 0;
+        }
         lock.lock();
         try {
-            long position = channel.position();
-            long offset = nextOffset.getAndIncrement();
-            //Complete writing to file.
-            //we need to write key and value to the file.
-            writeToFile(key, value);
-            //sync..
-            offsetIndex.put(offset, position);
-            return offset;
+            long now = System.currentTimeMillis();
+            long sizeAfterDeletion = size();
+            int deleted = 0;
+            for (LogSegment segment : segments.values()) {
+                if (segment == activeSegment()) {
+                    break;
+                }
+                boolean breachesRetentionMs = config.getRetentionMs() >= 0
+                        && now - segment.largestTimestamp() > config.getRetentionMs();
+                boolean breachesRetentionBytes = config.getRetentionBytes() >= 0
+                        && sizeAfterDeletion - segment.size() >= config.getRetentionBytes();
+                if (!breachesRetentionMs && !breachesRetentionBytes) {
+                    break;
+                }
+                segments.remove(segment.baseOffset());
+                segment.delete();
+                sizeAfterDeletion -= segment.size();
+                deleted++;
+            }
+            return deleted;
         } finally {
             lock.unlock();
         }
     }
 
+    /**
+     * Syncs all the messages appended so far to disk and checkpoints the
+     * recovery point, so that a restart only needs to validate the
+     * messages appended after this flush.
+     */
+    @Override
+    public synchronized void flush() throws IOException {
+        //everything before the published offset is written, and is in
+        // one of the segments listed after reading it.
+        long flushOffset = nextOffset.get();
+        if (flushOffset <= recoveryPoint) {
+            return;
+        }
+        Long firstUnflushed = segments.floorKey(recoveryPoint);
+        List<LogSegment> unflushed = new ArrayList<>(firstUnflushed == null ? segments.values()
+                : segments.tailMap(firstUnflushed).values());
+        for (LogSegment segment : unflushed) {
+            segment.flush();
+        }
+        recoveryPoint = flushOffset;
+        recoveryPointCheckpoint.write(flushOffset);
+    }
 
-    public Message readSingleMessage(long offset) throws IOException {
-        Long filePosition = offsetIndex.get(offset);
-        int messageSize = readLength(filePosition);
-        ByteBuffer message = readMessage(filePosition, messageSize);
-
-        byte[] keyBytes = readKey(message);
-        byte[] messageBytes = readMessageValue(message);
-
-        return new Message(keyBytes, messageBytes);
-    }
-
-    private byte[] readMessageValue(ByteBuffer message) {
-        int messageSize = message.getInt();
-        byte[] messageBytes = new byte[messageSize];
-        message.get(messageBytes);
-        return messageBytes;
-    }
-
-    private byte[] readKey(ByteBuffer message) {
-        int keySize = message.getInt();
-        byte[] key = new byte[keySize];
-        message.get(key);
-        return key;
-    }
-
-    private ByteBuffer readMessage(long fileLocation, int recordSize) throws IOException {
-        ByteBuffer records = ByteBuffer.allocate(recordSize);
-        channel.read(records, fileLocation + MessageSizeLength);
-        records.flip();
-        return records;
-    }
-
-    private int readLength(long fileLocation) throws IOException {
-        ByteBuffer length = ByteBuffer.allocate(MessageSizeLength);
-        channel.read(length, fileLocation);
-        length.flip();
-        return length.getInt();
-    }
-
-    //   1. 4 byte total message length
-    //   2. 4 byte key length, containing length K
-    //   3. K byte key
-    //   4. 4 byte payload length, containing length V
-    //   5. V byte payload
-    private int writeToFile(byte[] key, byte[] value) throws IOException {
-        int messageSize = KeySizeLength +
-                key.length +
-                ValueSizeLength +
-                value.length;
-        ByteBuffer buffer =
-                ByteBuffer.allocate(MessageSizeLength + messageSize);
-
-        buffer.putInt(messageSize);
-        buffer.putInt(key.length);
-        buffer.put(key);
-        buffer.putInt(value.length);
-        buffer.put(value);
-        buffer.flip();
-        int written = 0;
-        while (written < sizeInBytes(buffer))
-            written += channel.write(buffer);
-        return written;
-    }
-
-    private int sizeInBytes(ByteBuffer buffer) {
-        return buffer.limit();
+    /**
+     * Truncates the segment containing offset and deletes the ones after
+     * it. The first segment is truncated rather than deleted, so the log
+     * keeps its start offset. Mapped segments are unmapped before they
+     * are truncated, as the file can't shrink under a mapping which is
+     * written to, and are mapped again afterwards.
+     * Appenders don't take the lock, so the active segment is sealed and
+     * the batches reserved in it are published first. Appends wait till
+     * the truncated segment takes appends again.
+     */
+    @Override
+    public synchronized void truncateTo(long offset) throws IOException {
+        LogSegment sealed = sealActiveSegment();
+        lock.lock();
+        try {
+            if (offset > lastOffset()) {
+                sealed.unseal();
+                return;
+            }
+            long firstOffset = segments.firstKey();
+            for (LogSegment segment : new ArrayList<>(segments.tailMap(Math.max(offset, firstOffset + 1)).values())) {
+                segments.remove(segment.baseOffset());
+                segment.delete();
+            }
+            LogSegment last = segments.lastEntry().getValue();
+            last.seal(); //a segment loaded as inactive is not sealed yet.
+            last.truncateTo(offset);
+            if (tailCache != null) {
+                tailCache.truncateTo(offset);
+            }
+            if (config.isPreallocate()) {
+                LogSegment.preallocate(last.file(), config.getSegmentBytes());
+            }
+            activeSegment = last;
+            nextOffset.set(last.nextOffset());
+            updateMappings();
+            if (recoveryPoint > last.nextOffset()) {
+                recoveryPoint = last.nextOffset();
+                recoveryPointCheckpoint.write(recoveryPoint);
+            }
+            last.unseal();
+            logger.info("Truncated " + dir + " to offset " + last.nextOffset());
+        } catch (IOException | RuntimeException e) {
+            failure = e;
+            throw e;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long recoveryPoint() {
+        return recoveryPoint;
+    }
+
+    public long size() {
+        long size = 0;
+        for (LogSegment segment : segments.values()) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    public int numberOfSegments() {
+        return segments.size();
+    }
+
+    public File dir() {
+        return dir;
+    }
+
+    public long bytesAppended() {
+        return bytesAppended.sum();
+    }
+
+    /**
+     * Moves the log to another parent directory, e.g. on another disk,
+     * while it keeps taking appends and reads. The sealed segments are
+     * copied to a .future directory in the background, in passes till no
+     * new segments turned up. Appends are held up only for the cut-over:
+     * the active segment is sealed and copied along with the segments
+     * changed meanwhile, and the original segments are closed. Renaming
+     * the original directory to .delete marks the move as done, see
+     * {@link LogManager}, then the .future directory is renamed in place
+     * and its segments opened. Reads of the closed segments in flight
+     * during the cut-over fail and can be retried.
+     * A failed copy leaves the log where it was.
+     */
+    public void moveTo(File parentDir) throws IOException {
+        if (!moveLock.tryLock()) {
+            throw new IllegalStateException("Log " + dir + " is already being moved");
+        }
+        try {
+            File source = dir;
+            File target = new File(parentDir, source.getName());
+            if (target.getCanonicalFile().equals(source.getCanonicalFile())) {
+                return;
+            }
+            if (target.exists()) {
+                throw new IOException("Can't move " + source + " to " + target + " which already exists");
+            }
+            File futureDir = new File(parentDir, source.getName() + FutureDirSuffix);
+            if (futureDir.exists()) {
+                Utils.rm(futureDir); //left by an earlier failed move.
+            }
+            if (!futureDir.mkdirs()) {
+                throw new IOException("Failed to create " + futureDir);
+            }
+            Map<Long, LogSegment> copied = new HashMap<>();
+            try {
+                for (int pass = 0; pass < MaxMoveCopyPasses; pass++) {
+                    if (copySegments(inactiveSegments(), futureDir, copied) == 0) {
+                        break;
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                Utils.rm(futureDir);
+                throw e;
+            }
+            completeMove(futureDir, target, copied);
+            logger.info("Moved " + source + " to " + target);
+        } finally {
+            moveLock.unlock();
+        }
+    }
+
+    //Copies the segments which are not copied yet, or which the cleaner
+    // replaced since, and drops the copies of deleted segments.
+    private int copySegments(List<LogSegment> sources, File futureDir, Map<Long, LogSegment> copied)
+            throws IOException {
+        int count = 0;
+        for (LogSegment segment : sources) {
+            if (closing) {
+                throw new IOException("Log " + dir + " was closed while being moved");
+            }
+            if (copied.get(segment.baseOffset()) == segment) {
+                continue;
+            }
+            try {
+                segment.copyTo(futureDir);
+            } catch (IOException e) {
+                if (segments.get(segment.baseOffset()) == segment) {
+                    throw e;
+                }
+                continue; //deleted or replaced meanwhile.
+            }
+            copied.put(segment.baseOffset(), segment);
+            count++;
+        }
+        Iterator<Long> copies = copied.keySet().iterator();
+        while (copies.hasNext()) {
+            long baseOffset = copies.next();
+            if (!segments.containsKey(baseOffset)) {
+                LogSegment.deleteFiles(futureDir, baseOffset);
+                copies.remove();
+            }
+        }
+        return count;
+    }
+
+    private synchronized void completeMove(File futureDir, File target, Map<Long, LogSegment> copied)
+            throws IOException {
+        LogSegment sealed = sealActiveSegment();
+        lock.lock();
+        try {
+            File source = dir;
+            try {
+                sealed.onBecomeInactive();
+                flush();
+                copySegments(new ArrayList<>(segments.values()), futureDir, copied);
+                new OffsetCheckpoint(new File(futureDir, RecoveryPointCheckpointFile)).write(recoveryPoint);
+            } catch (IOException | RuntimeException e) {
+                Utils.rm(futureDir);
+                //appends go on in a new segment in the original dir.
+                LogSegment segment = LogSegment.create(source, sealed.nextSegmentOffset(), config);
+                segments.put(segment.baseOffset(), segment);
+                updateMappings();
+                activeSegment = segment;
+                throw e;
+            }
+            File deleteDir = new File(source.getParentFile(), source.getName() + DeleteDirSuffix);
+            try {
+                //closed before the renames, as closing writes the indexes
+                // by their path.
+                for (LogSegment segment : segments.values()) {
+                    segment.close();
+                }
+                Files.move(source.toPath(), deleteDir.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                Files.move(futureDir.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                for (LogSegment segment : new ArrayList<>(segments.values())) {
+                    LogSegment moved = LogSegment.open(LogSegment.logFile(target, segment.baseOffset()), config);
+                    moved.recover(Long.MAX_VALUE); //flushed before the copy.
+                    segments.put(moved.baseOffset(), moved);
+                }
+                dir = target;
+                recoveryPointCheckpoint = new OffsetCheckpoint(new File(target, RecoveryPointCheckpointFile));
+                LogSegment active = segments.lastEntry().getValue();
+                active.deleteKeyIndex(); //it is appended to again.
+                if (config.isPreallocate()) {
+                    LogSegment.preallocate(active.file(), config.getSegmentBytes());
+                }
+                updateMappings();
+                activeSegment = active;
+            } catch (IOException | RuntimeException e) {
+                //the move is completed or undone when the log dirs are
+                // loaded after a restart, going by the .delete dir.
+                failure = e;
+                if (!deleteDir.exists()) {
+                    Utils.rm(futureDir);
+                }
+                throw e;
+            }
+            Utils.rm(deleteDir);
+            for (LogSegment segment : inactiveSegments()) {
+                if (!segment.hasKeyIndex()) {
+                    scheduleKeyIndexBuild(segment);
+                }
+            }
+            schedulePreallocation();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    LogConfig config() {
+        return config;
+    }
+
+    //All the segments except the active one, oldest first. These are not
+    // appended to anymore.
+    List<LogSegment> inactiveSegments() {
+        List<LogSegment> inactive = new ArrayList<>(segments.values());
+        inactive.remove(activeSegment());
+        return inactive;
+    }
+
+    /**
+     * Replaces a segment with its cleaned copy written by the log cleaner.
+     * The cleaned files are first renamed to .swap, which marks the copy
+     * as complete, then the original is deleted and the .swap suffix
+     * removed. A crash in between is completed when the log is loaded.
+     * An empty copy is just deleted along with the original.
+     */
+    void replaceSegment(LogSegment original, LogSegment cleaned) throws IOException {
+        lock.lock();
+        try {
+            if (segments.get(original.baseOffset()) != original) {
+                cleaned.delete(); //deleted by retention meanwhile.
+                return;
+            }
+            cleaned.onBecomeInactive();
+            cleaned.flush();
+            cleaned.changeFileSuffixes(LogSegment.CleanedFileSuffix, LogSegment.SwapFileSuffix);
+            if (cleaned.size() == 0) {
+                segments.remove(original.baseOffset());
+                cleaned.delete();
+            } else {
+                segments.put(original.baseOffset(), cleaned);
+            }
+            original.delete();
+            if (cleaned.size() > 0) {
+                cleaned.changeFileSuffixes(LogSegment.SwapFileSuffix, "");
+                scheduleKeyIndexBuild(cleaned);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closing = true; //skips queued background work, stops moves.
+        moveLock.lock();
+        try {
+            closeLog();
+        } finally {
+            moveLock.unlock();
+        }
+    }
+
+    private void closeLog() throws IOException {
+        try {
+            flusher.shutdown();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        for (ExecutorService executor : new ExecutorService[] {keyIndexBuilder, segmentPreallocator}) {
+            if (executor != null) {
+                executor.shutdown();
+                try {
+                    executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        lock.lock();
+        try {
+            for (LogSegment segment : segments.values()) {
+                segment.close();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private LogSegment activeSegment() {
+        return activeSegment;
+    }
+
+    //Stops appends to the active segment and waits till the batches
+    // reserved in it are published, so no appender writes to the log.
+    private LogSegment sealActiveSegment() throws IOException {
+        LogSegment sealed = activeSegment;
+        while (!sealed.seal()) {
+            awaitRoll(sealed); //sealed by an appender rolling it.
+            sealed = activeSegment;
+        }
+        awaitTurn(sealed.nextSegmentOffset());
+        return sealed;
+    }
+
+    //Called by the appender which sealed the segment, once all the
+    // batches reserved in it are published.
+    private void roll(LogSegment sealed) throws IOException {
+        long nextSegmentOffset = sealed.nextSegmentOffset();
+        awaitTurn(nextSegmentOffset);
+        lock.lock();
+        try {
+            sealed.onBecomeInactive();
+            LogSegment segment = LogSegment.create(dir, nextSegmentOffset, config, takeNextSegmentFile());
+            segments.put(segment.baseOffset(), segment);
+            updateMappings(); //before appends to the new segment start.
+            activeSegment = segment;
+            scheduleKeyIndexBuild(sealed);
+            schedulePreallocation();
+        } catch (IOException | RuntimeException e) {
+            failure = e;
+            throw e;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void loadSegments() throws IOException {
+        if (!config.isPreallocate()) {
+            Files.deleteIfExists(LogSegment.nextSegmentFile(dir).toPath());
+        }
+        Set<Long> swapped = completeSwaps();
+        File[] files = dir.listFiles((d, name) -> name.endsWith(LogSegment.LogFileSuffix));
+        if (files != null) {
+            for (File file : files) {
+                LogSegment segment = LogSegment.open(file, config);
+                segments.put(segment.baseOffset(), segment);
+            }
+        }
+        if (segments.isEmpty()) {
+            LogSegment segment = LogSegment.create(dir, InitialOffset, config);
+            segments.put(segment.baseOffset(), segment);
+        }
+        recoverSegments(recoveryPointCheckpoint.read(InitialOffset), swapped);
+        activeSegment = segments.lastEntry().getValue();
+        nextOffset.set(activeSegment.nextOffset());
+        updateMappings();
+        activeSegment.deleteKeyIndex(); //it is appended to again.
+        for (LogSegment segment : inactiveSegments()) {
+            if (!segment.hasKeyIndex()) {
+                scheduleKeyIndexBuild(segment);
+            }
+        }
+        if (config.isPreallocate()) {
+            //recovery trimmed the file to the end of the segment.
+            LogSegment.preallocate(activeSegment.file(), config.getSegmentBytes());
+            schedulePreallocation();
+        }
+    }
+
+    /**
+     * Creates the file of the next segment at its full size in the
+     * background, so a roll only renames it instead of creating and
+     * growing a file on the append path.
+     */
+    private void schedulePreallocation() {
+        if (segmentPreallocator == null) {
+            return;
+        }
+        File logDir = dir;
+        segmentPreallocator.execute(() -> {
+            if (closing) {
+                return;
+            }
+            File file = LogSegment.nextSegmentFile(logDir);
+            try {
+                LogSegment.preallocate(file, config.getSegmentBytes());
+                nextSegmentFile = file;
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Failed to preallocate " + file, e); //the roll creates the file.
+            }
+        });
+    }
+
+    //Null if the file is not ready yet, e.g. as segments roll faster than
+    // they are preallocated, or is left in the dir the log moved from.
+    private File takeNextSegmentFile() {
+        File file = nextSegmentFile;
+        nextSegmentFile = null;
+        return file != null && file.getParentFile().equals(dir) ? file : null;
+    }
+
+    //Key indexes are built off the append path, one segment at a time. A
+    // failed build leaves the segment to be scanned.
+    private void scheduleKeyIndexBuild(LogSegment segment) {
+        if (keyIndexBuilder == null) {
+            return;
+        }
+        keyIndexBuilder.execute(() -> {
+            if (closing || segments.get(segment.baseOffset()) != segment) {
+                return;
+            }
+            try {
+                segment.buildKeyIndex();
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Failed to build the key index of " + segment.file(), e);
+            }
+        });
+    }
+
+    //Keeps the newest mappedSegments segments mapped with IoMode.MMAP.
+    // Older segments are read far less often and go back to the channel.
+    private void updateMappings() throws IOException {
+        if (config.getIoMode() != LogConfig.IoMode.MMAP) {
+            return;
+        }
+        int newer = 0;
+        for (LogSegment segment : segments.descendingMap().values()) {
+            if (newer < config.getMappedSegments()) {
+                segment.map(newer++ == 0); //the newest is the active one.
+            } else {
+                segment.unmap();
+            }
+        }
+    }
+
+    //Segments which are completely before the recovery point were flushed
+    // and are trusted as is. From the segment containing the recovery
+    // point onwards, messages are validated and the log is truncated at
+    // the first invalid message. Wherever a segment is truncated, the
+    // segments after it are deleted, so offsets stay contiguous.
+    private void recoverSegments(long checkpointedRecoveryPoint, Set<Long> swapped) throws IOException {
+        Long recoverFrom = segments.floorKey(checkpointedRecoveryPoint);
+        if (recoverFrom == null) {
+            recoverFrom = segments.firstKey();
+        }
+        boolean truncated = false;
+        for (LogSegment segment : new ArrayList<>(segments.values())) {
+            if (truncated) {
+                logger.warn("Deleting segment " + segment.file() + " after a truncated segment");
+                segments.remove(segment.baseOffset());
+                segment.delete();
+            } else {
+                if (segment.baseOffset() < recoverFrom) {
+                    //the index of a swapped in segment might be missing.
+                    truncated = segment.recover(swapped.contains(segment.baseOffset())
+                            ? segment.baseOffset() : Long.MAX_VALUE);
+                } else {
+                    truncated = segment.recover(Math.max(segment.baseOffset(), checkpointedRecoveryPoint));
+                }
+                if (truncated) {
+                    logger.warn("Truncated invalid messages at the end of " + segment.file()
+                            + " at offset " + segment.nextOffset());
+                }
+            }
+        }
+        recoveryPoint = Math.min(checkpointedRecoveryPoint, segments.lastEntry().getValue().nextOffset());
+    }
+
+    /**
+     * Finishes segment replacements by the log cleaner interrupted by a
+     * crash. Partially written .cleaned files are deleted. A .log.swap
+     * file is a complete cleaned segment, it replaces the original whose
+     * index is rebuilt during recovery.
+     * @return base offsets of the swapped in segments.
+     */
+    private Set<Long> completeSwaps() throws IOException {
+        Set<Long> swapped = new HashSet<>();
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return swapped;
+        }
+        String logSwapSuffix = LogSegment.LogFileSuffix + LogSegment.SwapFileSuffix;
+        String indexSwapSuffix = OffsetIndex.IndexFileSuffix + LogSegment.SwapFileSuffix;
+        String timeIndexSwapSuffix = TimeIndex.TimeIndexFileSuffix + LogSegment.SwapFileSuffix;
+        for (File file : files) {
+            if (file.getName().endsWith(LogSegment.CleanedFileSuffix)) {
+                Files.delete(file.toPath());
+            }
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(logSwapSuffix)) {
+                File logFile = new File(dir, name.substring(0, name.length() - LogSegment.SwapFileSuffix.length()));
+                long baseOffset = LogSegment.baseOffsetOf(logFile);
+                Files.deleteIfExists(KeyIndex.indexFile(dir, baseOffset).toPath());
+                for (File indexFile : List.of(OffsetIndex.indexFile(dir, baseOffset), TimeIndex.indexFile(dir, baseOffset))) {
+                    Files.deleteIfExists(indexFile.toPath());
+                    Files.deleteIfExists(LogSegment.withSuffix(indexFile, LogSegment.SwapFileSuffix).toPath());
+                }
+                Files.move(file.toPath(), logFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                logger.info("Completed swap of cleaned segment " + logFile);
+                swapped.add(baseOffset);
+            }
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if ((name.endsWith(indexSwapSuffix) || name.endsWith(timeIndexSwapSuffix)) && file.exists()) {
+                File indexFile = new File(dir, name.substring(0, name.length() - LogSegment.SwapFileSuffix.length()));
+                Files.move(file.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        return swapped;
     }
 }
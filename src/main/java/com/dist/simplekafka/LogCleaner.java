@@ -0,0 +1,231 @@
+package com.dist.simplekafka;
+
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Compacts the logs with the COMPACT cleanup policy, so that only the
+ * latest message for every key is kept. A single background thread picks
+ * the log with the highest share of dirty bytes, the bytes appended since
+ * it was last cleaned, and cleans it in two passes over the inactive
+ * segments:
+ *   1. Read the dirty part of the log and record the latest offset of
+ *      every key in a {@link KeyOffsetMap}, till the map is full.
+ *   2. Copy every segment before the end of the mapped part, keeping only
+ *      the messages which are the latest for their key, and swap the copy
+ *      in for the segment.
+ * Retained messages keep their offsets, so a cleaned log has gaps in its
+ * offsets. The offset up to which the log is clean is checkpointed in the
+ * log directory. Reads and writes of the cleaner are throttled to
+ * cleanerIoMaxBytesPerSecond.
+ */
+class LogCleaner {
+    private static final Logger logger = Logger.getLogger(LogCleaner.class);
+    static final String CleanerCheckpointFile = "cleaner-offset-checkpoint";
+
+    private final Supplier<Collection<Log>> logs;
+    private final LogConfig config;
+    private final Throttler throttler;
+    private final Object backoff = new Object();
+    private KeyOffsetMap offsetMap; //allocated on first use.
+    private Thread thread;
+    private volatile boolean running = true;
+
+    LogCleaner(Supplier<Collection<Log>> logs, LogConfig config) {
+        this.logs = logs;
+        this.config = config;
+        this.throttler = new Throttler(config.getCleanerIoMaxBytesPerSecond());
+    }
+
+    synchronized void startup() {
+        thread = new Thread(this::run, "log-cleaner");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void shutdown() throws InterruptedException {
+        running = false;
+        synchronized (backoff) {
+            backoff.notifyAll();
+        }
+        Thread cleanerThread;
+        synchronized (this) {
+            cleanerThread = thread;
+        }
+        //not interrupted, that would close the file channel it is reading.
+        if (cleanerThread != null) {
+            cleanerThread.join();
+        }
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                if (!cleanDirtiestLog()) {
+                    synchronized (backoff) {
+                        if (running) {
+                            backoff.wait(config.getCleanerBackoffMs());
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return true if a log was cleaned.
+     */
+    boolean cleanDirtiestLog() throws InterruptedException {
+        Log dirtiest = null;
+        double maxDirtyRatio = config.getMinCleanableDirtyRatio();
+        for (Log log : logs.get()) {
+            if (log.config().getCleanupPolicy() != LogConfig.CleanupPolicy.COMPACT) {
+                continue;
+            }
+            try {
+                double dirtyRatio = dirtyRatio(log);
+                if (dirtyRatio > 0 && dirtyRatio >= maxDirtyRatio) {
+                    dirtiest = log;
+                    maxDirtyRatio = dirtyRatio;
+                }
+            } catch (IOException e) {
+                logger.error("Error reading cleaner checkpoint of " + log.dir(), e);
+            }
+        }
+        if (dirtiest == null) {
+            return false;
+        }
+        try {
+            clean(dirtiest);
+        } catch (IOException | RuntimeException e) {
+            logger.error("Error cleaning log " + dirtiest.dir(), e);
+            return false;
+        }
+        return true;
+    }
+
+    double dirtyRatio(Log log) throws IOException {
+        long firstDirtyOffset = firstDirtyOffset(log);
+        long cleanBytes = 0;
+        long dirtyBytes = 0;
+        for (LogSegment segment : log.inactiveSegments()) {
+            if (segment.nextOffset() <= firstDirtyOffset) {
+                cleanBytes += segment.size();
+            } else {
+                dirtyBytes += segment.size();
+            }
+        }
+        return dirtyBytes == 0 ? 0 : (double) dirtyBytes / (cleanBytes + dirtyBytes);
+    }
+
+    /**
+     * Cleans the inactive segments of the log.
+     * @return the offset up to which the log is now clean.
+     */
+    long clean(Log log) throws IOException, InterruptedException {
+        List<LogSegment> segments = log.inactiveSegments();
+        long firstDirtyOffset = firstDirtyOffset(log);
+        if (segments.isEmpty()) {
+            return firstDirtyOffset;
+        }
+        KeyOffsetMap map = offsetMap();
+        map.clear();
+        long endOffset = buildOffsetMap(segments, firstDirtyOffset, map);
+        if (endOffset <= firstDirtyOffset) {
+            return firstDirtyOffset; //nothing dirty, or not a single key fits in the map.
+        }
+        long sizeBefore = log.size();
+        for (LogSegment segment : segments) {
+            if (segment.baseOffset() >= endOffset) {
+                break;
+            }
+            cleanSegment(log, segment, map, endOffset);
+        }
+        new OffsetCheckpoint(new File(log.dir(), CleanerCheckpointFile)).write(endOffset);
+        logger.info("Cleaned " + log.dir() + " up to offset " + endOffset + " with " + map.size()
+                + " keys, size " + sizeBefore + " -> " + log.size() + " bytes");
+        return endOffset;
+    }
+
+    //Maps keys from firstDirtyOffset onwards.
+    // Returns the first offset which is not mapped.
+    private long buildOffsetMap(List<LogSegment> segments, long firstDirtyOffset, KeyOffsetMap map)
+            throws IOException, InterruptedException {
+        long endOffset = firstDirtyOffset;
+        for (LogSegment segment : segments) {
+            if (segment.nextOffset() <= firstDirtyOffset) {
+                continue;
+            }
+            for (long position = 0; position < segment.size(); ) {
+                RecordBatch batch = segment.readBatch(position);
+                for (Log.Message message : batch) {
+                    if (message.offset < firstDirtyOffset) {
+                        continue;
+                    }
+                    if (!map.put(message.key, message.offset)) {
+                        return message.offset;
+                    }
+                    endOffset = message.offset + 1;
+                }
+                position += batch.sizeInBytes();
+                throttler.maybeThrottle(batch.sizeInBytes());
+            }
+            endOffset = Math.max(endOffset, segment.nextOffset());
+        }
+        return endOffset;
+    }
+
+    //A message is retained if it is the latest one for its key, or if it
+    // is after the mapped offsets.
+    private void cleanSegment(Log log, LogSegment segment, KeyOffsetMap map, long endOffset)
+            throws IOException, InterruptedException {
+        LogSegment cleaned = LogSegment.createCleaned(log.dir(), segment.baseOffset(), log.config());
+        try {
+            for (long position = 0; position < segment.size(); ) {
+                RecordBatch batch = segment.readBatch(position);
+                List<Log.Message> retained = new ArrayList<>();
+                for (Log.Message message : batch) {
+                    if (message.offset >= endOffset || map.get(message.key) <= message.offset) {
+                        retained.add(message);
+                    }
+                }
+                if (retained.size() == batch.recordCount()) {
+                    cleaned.append(batch); //copied as is, without compressing it again.
+                } else if (!retained.isEmpty()) {
+                    CompressionCodec codec = batch.isCompressed()
+                            ? CompressionCodecs.forId(batch.compressionCodecId()) : null;
+                    cleaned.append(RecordBatch.withOffsets(retained, codec));
+                }
+                position += batch.sizeInBytes();
+                throttler.maybeThrottle(batch.sizeInBytes());
+            }
+            //time based retention and rolling look at the original age.
+            cleaned.setLastModified(segment.lastModified());
+        } catch (IOException | RuntimeException | InterruptedException e) {
+            cleaned.delete();
+            throw e;
+        }
+        log.replaceSegment(segment, cleaned);
+    }
+
+    private long firstDirtyOffset(Log log) throws IOException {
+        long checkpointed = new OffsetCheckpoint(new File(log.dir(), CleanerCheckpointFile)).read(Log.InitialOffset);
+        return Math.max(checkpointed, log.logStartOffset());
+    }
+
+    private KeyOffsetMap offsetMap() {
+        if (offsetMap == null) {
+            offsetMap = new KeyOffsetMap(config.getCleanerDedupeBufferSize());
+        }
+        return offsetMap;
+    }
+}
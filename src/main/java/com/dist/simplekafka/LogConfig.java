@@ -0,0 +1,382 @@
+package com.dist.simplekafka;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+public class LogConfig {
+    public enum FlushPolicy {
+        NONE, //leave it to the OS, only appendAsync waits for a flush.
+        GROUP_COMMIT, //append waits for the next group commit.
+        ALWAYS //every append is synced before returning.
+    }
+
+    public enum CleanupPolicy {
+        DELETE, //old segments are deleted by retention.
+        COMPACT //only the latest message for every key is kept.
+    }
+
+    public enum Storage {
+        FILE, //segment files, see Log.
+        MEMORY //off-heap memory, lost on restart, see InMemoryLog.
+    }
+
+    public enum IoMode {
+        CHANNEL, //positional FileChannel reads and writes.
+        MMAP, //the newest segments are memory mapped.
+        DIRECT, //O_DIRECT writes and reads, bypassing the page cache.
+        ASYNC //AsynchronousFileChannel writes and reads, callers don't block on the disk.
+    }
+
+    private int segmentBytes = 1024 * 1024 * 1024;
+    private long segmentMs = TimeUnit.DAYS.toMillis(7);
+    private long retentionBytes = -1; //-1 means no size based retention.
+    private long retentionMs = TimeUnit.DAYS.toMillis(7);
+    private long retentionCheckIntervalMs = TimeUnit.MINUTES.toMillis(5);
+    private int indexIntervalBytes = 4096;
+    private int maxIndexSize = 10 * 1024 * 1024;
+    private FlushPolicy flushPolicy = FlushPolicy.NONE;
+    //group commit window, a flush happens when any of these is reached.
+    private long flushIntervalMessages = 10_000;
+    private long flushIntervalBytes = 1024 * 1024;
+    private long flushIntervalMs = 5;
+    private CompressionCodec compressionCodec = null; //null stores records uncompressed.
+    private CleanupPolicy cleanupPolicy = CleanupPolicy.DELETE;
+    //a log is compacted once this share of it was appended since the
+    // last compaction.
+    private double minCleanableDirtyRatio = 0.5;
+    private int cleanerDedupeBufferSize = 16 * 1024 * 1024;
+    private double cleanerIoMaxBytesPerSecond = Double.MAX_VALUE;
+    private long cleanerBackoffMs = TimeUnit.SECONDS.toMillis(15);
+    private IoMode ioMode = IoMode.CHANNEL;
+    //with MMAP, the active segment and the ones before it up to this
+    // many segments are mapped.
+    private int mappedSegments = 2;
+    //with DIRECT, appends are staged in a buffer of this size per segment,
+    // which also serves the reads of the most recent bytes.
+    private int directBufferSize = 1024 * 1024;
+    //with ASYNC, disk operations in flight per segment, more are queued.
+    private int asyncMaxOutstanding = 32;
+    //bytes of the most recent batches kept in memory per log for tailing
+    // readers, 0 disables the cache.
+    private int tailCacheBytes = 0;
+    //sealed segments get a key index in the background, for findLatest.
+    private boolean keyIndexEnabled = false;
+    //segment files are created at segmentBytes, the next one ahead of
+    // the roll by a background thread.
+    private boolean preallocate = false;
+    private Storage storage = Storage.FILE;
+    //with MEMORY storage, batches are kept in direct buffers of this size.
+    private int memoryChunkBytes = 1024 * 1024;
+
+    public int getSegmentBytes() {
+        return segmentBytes;
+    }
+
+    public LogConfig setSegmentBytes(int segmentBytes) {
+        this.segmentBytes = segmentBytes;
+        return this;
+    }
+
+    public long getSegmentMs() {
+        return segmentMs;
+    }
+
+    public LogConfig setSegmentMs(long segmentMs) {
+        this.segmentMs = segmentMs;
+        return this;
+    }
+
+    public long getRetentionBytes() {
+        return retentionBytes;
+    }
+
+    public LogConfig setRetentionBytes(long retentionBytes) {
+        this.retentionBytes = retentionBytes;
+        return this;
+    }
+
+    public long getRetentionMs() {
+        return retentionMs;
+    }
+
+    public LogConfig setRetentionMs(long retentionMs) {
+        this.retentionMs = retentionMs;
+        return this;
+    }
+
+    public long getRetentionCheckIntervalMs() {
+        return retentionCheckIntervalMs;
+    }
+
+    public LogConfig setRetentionCheckIntervalMs(long retentionCheckIntervalMs) {
+        this.retentionCheckIntervalMs = retentionCheckIntervalMs;
+        return this;
+    }
+
+    public int getIndexIntervalBytes() {
+        return indexIntervalBytes;
+    }
+
+    public LogConfig setIndexIntervalBytes(int indexIntervalBytes) {
+        this.indexIntervalBytes = indexIntervalBytes;
+        return this;
+    }
+
+    public int getMaxIndexSize() {
+        return maxIndexSize;
+    }
+
+    public LogConfig setMaxIndexSize(int maxIndexSize) {
+        this.maxIndexSize = maxIndexSize;
+        return this;
+    }
+
+    public FlushPolicy getFlushPolicy() {
+        return flushPolicy;
+    }
+
+    public LogConfig setFlushPolicy(FlushPolicy flushPolicy) {
+        this.flushPolicy = flushPolicy;
+        return this;
+    }
+
+    public long getFlushIntervalMessages() {
+        return flushIntervalMessages;
+    }
+
+    public LogConfig setFlushIntervalMessages(long flushIntervalMessages) {
+        this.flushIntervalMessages = flushIntervalMessages;
+        return this;
+    }
+
+    public long getFlushIntervalBytes() {
+        return flushIntervalBytes;
+    }
+
+    public LogConfig setFlushIntervalBytes(long flushIntervalBytes) {
+        this.flushIntervalBytes = flushIntervalBytes;
+        return this;
+    }
+
+    public long getFlushIntervalMs() {
+        return flushIntervalMs;
+    }
+
+    public LogConfig setFlushIntervalMs(long flushIntervalMs) {
+        this.flushIntervalMs = flushIntervalMs;
+        return this;
+    }
+
+    public CompressionCodec getCompressionCodec() {
+        return compressionCodec;
+    }
+
+    public LogConfig setCompressionCodec(CompressionCodec compressionCodec) {
+        this.compressionCodec = compressionCodec;
+        return this;
+    }
+
+    public CleanupPolicy getCleanupPolicy() {
+        return cleanupPolicy;
+    }
+
+    public LogConfig setCleanupPolicy(CleanupPolicy cleanupPolicy) {
+        this.cleanupPolicy = cleanupPolicy;
+        return this;
+    }
+
+    public double getMinCleanableDirtyRatio() {
+        return minCleanableDirtyRatio;
+    }
+
+    public LogConfig setMinCleanableDirtyRatio(double minCleanableDirtyRatio) {
+        this.minCleanableDirtyRatio = minCleanableDirtyRatio;
+        return this;
+    }
+
+    public int getCleanerDedupeBufferSize() {
+        return cleanerDedupeBufferSize;
+    }
+
+    public LogConfig setCleanerDedupeBufferSize(int cleanerDedupeBufferSize) {
+        this.cleanerDedupeBufferSize = cleanerDedupeBufferSize;
+        return this;
+    }
+
+    public double getCleanerIoMaxBytesPerSecond() {
+        return cleanerIoMaxBytesPerSecond;
+    }
+
+    public LogConfig setCleanerIoMaxBytesPerSecond(double cleanerIoMaxBytesPerSecond) {
+        this.cleanerIoMaxBytesPerSecond = cleanerIoMaxBytesPerSecond;
+        return this;
+    }
+
+    public long getCleanerBackoffMs() {
+        return cleanerBackoffMs;
+    }
+
+    public LogConfig setCleanerBackoffMs(long cleanerBackoffMs) {
+        this.cleanerBackoffMs = cleanerBackoffMs;
+        return this;
+    }
+
+    public IoMode getIoMode() {
+        return ioMode;
+    }
+
+    public LogConfig setIoMode(IoMode ioMode) {
+        this.ioMode = ioMode;
+        return this;
+    }
+
+    public int getMappedSegments() {
+        return mappedSegments;
+    }
+
+    public LogConfig setMappedSegments(int mappedSegments) {
+        this.mappedSegments = mappedSegments;
+        return this;
+    }
+
+    public int getDirectBufferSize() {
+        return directBufferSize;
+    }
+
+    public LogConfig setDirectBufferSize(int directBufferSize) {
+        this.directBufferSize = directBufferSize;
+        return this;
+    }
+
+    public int getAsyncMaxOutstanding() {
+        return asyncMaxOutstanding;
+    }
+
+    public LogConfig setAsyncMaxOutstanding(int asyncMaxOutstanding) {
+        this.asyncMaxOutstanding = asyncMaxOutstanding;
+        return this;
+    }
+
+    public int getTailCacheBytes() {
+        return tailCacheBytes;
+    }
+
+    public LogConfig setTailCacheBytes(int tailCacheBytes) {
+        this.tailCacheBytes = tailCacheBytes;
+        return this;
+    }
+
+    public boolean isKeyIndexEnabled() {
+        return keyIndexEnabled;
+    }
+
+    public LogConfig setKeyIndexEnabled(boolean keyIndexEnabled) {
+        this.keyIndexEnabled = keyIndexEnabled;
+        return this;
+    }
+
+    public boolean isPreallocate() {
+        return preallocate;
+    }
+
+    public LogConfig setPreallocate(boolean preallocate) {
+        this.preallocate = preallocate;
+        return this;
+    }
+
+    public Storage getStorage() {
+        return storage;
+    }
+
+    public LogConfig setStorage(Storage storage) {
+        this.storage = storage;
+        return this;
+    }
+
+    public int getMemoryChunkBytes() {
+        return memoryChunkBytes;
+    }
+
+    public LogConfig setMemoryChunkBytes(int memoryChunkBytes) {
+        this.memoryChunkBytes = memoryChunkBytes;
+        return this;
+    }
+
+    /**
+     * The config as properties named after its fields, to be stored with
+     * the logs. The compression codec is stored by id.
+     */
+    public Properties toProperties() {
+        Properties props = new Properties();
+        props.setProperty("segmentBytes", String.valueOf(segmentBytes));
+        props.setProperty("segmentMs", String.valueOf(segmentMs));
+        props.setProperty("retentionBytes", String.valueOf(retentionBytes));
+        props.setProperty("retentionMs", String.valueOf(retentionMs));
+        props.setProperty("retentionCheckIntervalMs", String.valueOf(retentionCheckIntervalMs));
+        props.setProperty("indexIntervalBytes", String.valueOf(indexIntervalBytes));
+        props.setProperty("maxIndexSize", String.valueOf(maxIndexSize));
+        props.setProperty("flushPolicy", String.valueOf(flushPolicy));
+        props.setProperty("flushIntervalMessages", String.valueOf(flushIntervalMessages));
+        props.setProperty("flushIntervalBytes", String.valueOf(flushIntervalBytes));
+        props.setProperty("flushIntervalMs", String.valueOf(flushIntervalMs));
+        if (compressionCodec != null) {
+            props.setProperty("compressionCodec", String.valueOf(compressionCodec.id()));
+        }
+        props.setProperty("cleanupPolicy", String.valueOf(cleanupPolicy));
+        props.setProperty("minCleanableDirtyRatio", String.valueOf(minCleanableDirtyRatio));
+        props.setProperty("cleanerDedupeBufferSize", String.valueOf(cleanerDedupeBufferSize));
+        props.setProperty("cleanerIoMaxBytesPerSecond", String.valueOf(cleanerIoMaxBytesPerSecond));
+        props.setProperty("cleanerBackoffMs", String.valueOf(cleanerBackoffMs));
+        props.setProperty("ioMode", String.valueOf(ioMode));
+        props.setProperty("mappedSegments", String.valueOf(mappedSegments));
+        props.setProperty("directBufferSize", String.valueOf(directBufferSize));
+        props.setProperty("asyncMaxOutstanding", String.valueOf(asyncMaxOutstanding));
+        props.setProperty("tailCacheBytes", String.valueOf(tailCacheBytes));
+        props.setProperty("keyIndexEnabled", String.valueOf(keyIndexEnabled));
+        props.setProperty("preallocate", String.valueOf(preallocate));
+        props.setProperty("storage", String.valueOf(storage));
+        props.setProperty("memoryChunkBytes", String.valueOf(memoryChunkBytes));
+        return props;
+    }
+
+    /**
+     * Reads a config written by {@link #toProperties()}. Missing
+     * properties keep their defaults. A custom compression codec has to
+     * be registered with {@link CompressionCodecs} before it is read.
+     */
+    public static LogConfig fromProperties(Properties props) {
+        LogConfig config = new LogConfig();
+        config.segmentBytes = Integer.parseInt(valueOf(props, "segmentBytes", config.segmentBytes));
+        config.segmentMs = Long.parseLong(valueOf(props, "segmentMs", config.segmentMs));
+        config.retentionBytes = Long.parseLong(valueOf(props, "retentionBytes", config.retentionBytes));
+        config.retentionMs = Long.parseLong(valueOf(props, "retentionMs", config.retentionMs));
+        config.retentionCheckIntervalMs = Long.parseLong(valueOf(props, "retentionCheckIntervalMs", config.retentionCheckIntervalMs));
+        config.indexIntervalBytes = Integer.parseInt(valueOf(props, "indexIntervalBytes", config.indexIntervalBytes));
+        config.maxIndexSize = Integer.parseInt(valueOf(props, "maxIndexSize", config.maxIndexSize));
+        config.flushPolicy = FlushPolicy.valueOf(valueOf(props, "flushPolicy", config.flushPolicy));
+        config.flushIntervalMessages = Long.parseLong(valueOf(props, "flushIntervalMessages", config.flushIntervalMessages));
+        config.flushIntervalBytes = Long.parseLong(valueOf(props, "flushIntervalBytes", config.flushIntervalBytes));
+        config.flushIntervalMs = Long.parseLong(valueOf(props, "flushIntervalMs", config.flushIntervalMs));
+        String codecId = props.getProperty("compressionCodec");
+        config.compressionCodec = codecId == null ? null : CompressionCodecs.forId(Integer.parseInt(codecId));
+        config.cleanupPolicy = CleanupPolicy.valueOf(valueOf(props, "cleanupPolicy", config.cleanupPolicy));
+        config.minCleanableDirtyRatio = Double.parseDouble(valueOf(props, "minCleanableDirtyRatio", config.minCleanableDirtyRatio));
+        config.cleanerDedupeBufferSize = Integer.parseInt(valueOf(props, "cleanerDedupeBufferSize", config.cleanerDedupeBufferSize));
+        config.cleanerIoMaxBytesPerSecond = Double.parseDouble(valueOf(props, "cleanerIoMaxBytesPerSecond", config.cleanerIoMaxBytesPerSecond));
+        config.cleanerBackoffMs = Long.parseLong(valueOf(props, "cleanerBackoffMs", config.cleanerBackoffMs));
+        config.ioMode = IoMode.valueOf(valueOf(props, "ioMode", config.ioMode));
+        config.mappedSegments = Integer.parseInt(valueOf(props, "mappedSegments", config.mappedSegments));
+        config.directBufferSize = Integer.parseInt(valueOf(props, "directBufferSize", config.directBufferSize));
+        config.asyncMaxOutstanding = Integer.parseInt(valueOf(props, "asyncMaxOutstanding", config.asyncMaxOutstanding));
+        config.tailCacheBytes = Integer.parseInt(valueOf(props, "tailCacheBytes", config.tailCacheBytes));
+        config.keyIndexEnabled = Boolean.parseBoolean(valueOf(props, "keyIndexEnabled", config.keyIndexEnabled));
+        config.preallocate = Boolean.parseBoolean(valueOf(props, "preallocate", config.preallocate));
+        config.storage = Storage.valueOf(valueOf(props, "storage", config.storage));
+        config.memoryChunkBytes = Integer.parseInt(valueOf(props, "memoryChunkBytes", config.memoryChunkBytes));
+        return config;
+    }
+
+    private static String valueOf(Properties props, String name, Object defaultValue) {
+        return props.getProperty(name, String.valueOf(defaultValue));
+    }
+}
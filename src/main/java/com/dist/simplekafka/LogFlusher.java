@@ -0,0 +1,231 @@
+package com.dist.simplekafka;
+
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Group commit for a log. Instead of an fsync per append, appends are
+ * collected till flushIntervalMessages, flushIntervalBytes or
+ * flushIntervalMs is reached and then a single flush makes all of them
+ * durable. Callers waiting for durability get a future which completes
+ * once a flush covers their offset.
+ * Appends are only counted with the GROUP_COMMIT flush policy. The
+ * counters are lock free and the flusher thread is signalled only when a
+ * window starts or a threshold is crossed. With the NONE flush policy, the
+ * flusher only runs when someone is waiting for durability, and flushes
+ * right away.
+ */
+class LogFlusher {
+    private static final Logger logger = Logger.getLogger(LogFlusher.class);
+
+    private final Log log;
+    private final LogConfig config;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition flushDue = lock.newCondition();
+    private final PriorityQueue<DurableAppend> waiters =
+            new PriorityQueue<>(Comparator.comparingLong(w -> w.lastOffset));
+    private final LongAdder unflushedMessages = new LongAdder();
+    private final LongAdder unflushedBytes = new LongAdder();
+    private final AtomicLong firstUnflushedAppendMs = new AtomicLong(-1);
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private Thread thread;
+    private volatile boolean running = true;
+
+    LogFlusher(Log log, LogConfig config) {
+        this.log = log;
+        this.config = config;
+    }
+
+    /**
+     * @return true if appends need to be reported with onAppend.
+     */
+    boolean countsAppends() {
+        return config.getFlushPolicy() == LogConfig.FlushPolicy.GROUP_COMMIT;
+    }
+
+    void onAppend(int messages, int bytes) {
+        unflushedMessages.add(messages);
+        unflushedBytes.add(bytes);
+        //the first append of a window arms the flushIntervalMs timer.
+        boolean windowStarted = firstUnflushedAppendMs.get() < 0
+                && firstUnflushedAppendMs.compareAndSet(-1, System.currentTimeMillis());
+        if (windowStarted || (isSizeThresholdReached() && flushRequested.compareAndSet(false, true))) {
+            signal();
+        }
+    }
+
+    private void signal() {
+        lock.lock();
+        try {
+            flushDue.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return a future completed with result once lastOffset is flushed.
+     */
+    CompletableFuture<Long> whenDurable(long lastOffset, long result) {
+        CompletableFuture<Long> future = new CompletableFuture<>();
+        lock.lock();
+        try {
+            if (!running) {
+                future.completeExceptionally(new IOException("Log " + log.dir() + " is closed"));
+                return future;
+            }
+            if (lastOffset < log.recoveryPoint()) {
+                future.complete(result);
+                return future;
+            }
+            startIfNeeded();
+            waiters.add(new DurableAppend(lastOffset, result, future));
+            flushDue.signal();
+        } finally {
+            lock.unlock();
+        }
+        return future;
+    }
+
+    void start() {
+        lock.lock();
+        try {
+            startIfNeeded();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void shutdown() throws InterruptedException {
+        Thread flusherThread;
+        lock.lock();
+        try {
+            running = false;
+            flushDue.signal();
+            flusherThread = thread;
+        } finally {
+            lock.unlock();
+        }
+        if (flusherThread != null) {
+            flusherThread.join();
+        }
+    }
+
+    private void startIfNeeded() {
+        if (thread == null && running) {
+            thread = new Thread(this::run, "log-flusher-" + log.dir().getName());
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private void run() {
+        while (awaitFlushDue()) {
+            try {
+                log.flush();
+                completeWaiters(null);
+            } catch (IOException e) {
+                logger.error("Error flushing log " + log.dir(), e);
+                completeWaiters(e);
+            }
+        }
+        //complete whoever is still waiting with a final flush.
+        try {
+            log.flush();
+            completeWaiters(null);
+        } catch (IOException e) {
+            completeWaiters(e);
+        }
+    }
+
+    //Waits till the next group commit is due and resets the counters for
+    // the next window. Returns false once shut down.
+    private boolean awaitFlushDue() {
+        lock.lock();
+        try {
+            long now = System.currentTimeMillis();
+            while (running && !isFlushDue(now)) {
+                long firstAppendMs = firstUnflushedAppendMs.get();
+                if (firstAppendMs < 0) {
+                    flushDue.await();
+                } else {
+                    long waitMs = firstAppendMs + config.getFlushIntervalMs() - now;
+                    flushDue.await(Math.max(1, waitMs), TimeUnit.MILLISECONDS);
+                }
+                now = System.currentTimeMillis();
+            }
+            //appends counted after the reset but flushed now only make the
+            // next window a bit shorter.
+            unflushedMessages.reset();
+            unflushedBytes.reset();
+            firstUnflushedAppendMs.set(-1);
+            flushRequested.set(false);
+            return running;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean isFlushDue(long now) {
+        if (!countsAppends()) {
+            return !waiters.isEmpty();
+        }
+        long firstAppendMs = firstUnflushedAppendMs.get();
+        return isSizeThresholdReached()
+                || (firstAppendMs >= 0 && now - firstAppendMs >= config.getFlushIntervalMs())
+                //waiting for appends flushed by someone else.
+                || (!waiters.isEmpty() && waiters.peek().lastOffset < log.recoveryPoint());
+    }
+
+    private boolean isSizeThresholdReached() {
+        return unflushedMessages.sum() >= config.getFlushIntervalMessages()
+                || unflushedBytes.sum() >= config.getFlushIntervalBytes();
+    }
+
+    private void completeWaiters(IOException error) {
+        List<DurableAppend> completed = new ArrayList<>();
+        lock.lock();
+        try {
+            long recoveryPoint = log.recoveryPoint();
+            while (!waiters.isEmpty() && (error != null || waiters.peek().lastOffset < recoveryPoint)) {
+                completed.add(waiters.poll());
+            }
+        } finally {
+            lock.unlock();
+        }
+        for (DurableAppend append : completed) {
+            if (error == null) {
+                append.future.complete(append.result);
+            } else {
+                append.future.completeExceptionally(error);
+            }
+        }
+    }
+
+    private static class DurableAppend {
+        final long lastOffset;
+        final long result;
+        final CompletableFuture<Long> future;
+
+        DurableAppend(long lastOffset, long result, CompletableFuture<Long> future) {
+            this.lastOffset = lastOffset;
+            this.result = result;
+            this.future = future;
+        }
+    }
+}
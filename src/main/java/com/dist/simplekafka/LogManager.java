@@ -0,0 +1,408 @@
+package com.dist.simplekafka;
+
+import com.dist.common.Config;
+import com.dist.common.Utils;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Owns all the partition logs of a broker. Each partition gets its own
+ * directory named topic-partition under one of the log dirs. A background
+ * thread periodically applies retention to all the logs, and the log
+ * cleaner compacts the ones whose cleanup policy is COMPACT.
+ * With several log dirs, typically one per disk, a new log goes to the
+ * dir taking the fewest bytes per second, so busy partitions are spread
+ * over the disks, skipping dirs without room for a segment. A log can be
+ * moved to another dir while it is in use, see {@link #moveLog}.
+ * Topics can override the log config, e.g. to keep an ephemeral topic
+ * in memory with {@link LogConfig.Storage#MEMORY}, before the partitions
+ * of the topic are created. In-memory logs have no directory and are gone after a restart. The overrides are stored as
+ * topic.config files in every log dir and are read before the logs are
+ * loaded, so a log is reopened with the config of its topic.
+ */
+public class LogManager {
+    private static final Logger logger = Logger.getLogger(LogManager.class);
+    static final long RateSampleIntervalMs = 1000;
+    static final String TopicConfigSuffix = ".config";
+    //topic-partition has to fit in a file name of 255 bytes.
+    static final int MaxTopicLength = 249;
+    private static final Pattern LegalTopicChars = Pattern.compile("[a-zA-Z0-9._-]+");
+
+    private final List<File> logDirs = new ArrayList<>();
+    private final LogConfig logConfig;
+    private final ConcurrentMap<String, Log> logs = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, InMemoryLog> memoryLogs = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LogConfig> topicConfigs = new ConcurrentHashMap<>();
+    //bytes appended per second to each log over the last sample interval.
+    private final ConcurrentMap<String, Double> bytesInRates = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Long> lastBytesAppended = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler =
+            Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "log-retention");
+                thread.setDaemon(true);
+                return thread;
+            });
+    private final ExecutorService mover = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "log-mover");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final LogCleaner cleaner;
+
+    public LogManager(Config config, LogConfig logConfig) throws IOException {
+        for (String logDir : config.getLogDirs()) {
+            logDirs.add(new File(logDir));
+        }
+        this.logConfig = logConfig;
+        this.cleaner = new LogCleaner(this::allLogs, logConfig);
+        loadTopicConfigs();
+        loadLogs();
+    }
+
+    public void startup() {
+        long interval = logConfig.getRetentionCheckIntervalMs();
+        scheduler.scheduleWithFixedDelay(this::cleanupLogs, interval, interval, TimeUnit.MILLISECONDS);
+        scheduler.scheduleAtFixedRate(this::sampleBytesInRates, RateSampleIntervalMs, RateSampleIntervalMs,
+                TimeUnit.MILLISECONDS);
+        //always running, as a topic can be set to COMPACT at any time. It
+        // skips the logs of other topics.
+        cleaner.startup();
+    }
+
+    /**
+     * Sets the config of a topic, before any of its partitions is
+     * created. Open logs keep the config and the engine they were created
+     * with, so the config of a topic with partitions can't be changed.
+     * @throws IllegalStateException if the topic already has partitions.
+     */
+    public void setTopicConfig(String topic, LogConfig config) throws IOException {
+        validateTopic(topic);
+        synchronized (logs) { //partitions are created holding it.
+            if (hasPartitions(topic)) {
+                throw new IllegalStateException("Topic " + topic
+                        + " already has partitions, its config can only be set before they are created");
+            }
+            for (File logDir : logDirs) {
+                writeTopicConfig(new File(logDir, topic + TopicConfigSuffix), config);
+            }
+            topicConfigs.put(topic, config);
+        }
+    }
+
+    private boolean hasPartitions(String topic) {
+        return logs.keySet().stream().anyMatch(name -> topicOf(name).equals(topic))
+                || memoryLogs.keySet().stream().anyMatch(name -> topicOf(name).equals(topic));
+    }
+
+    /**
+     * The storage of a partition, with the engine configured for its
+     * topic.
+     */
+    public StorageEngine getOrCreateStorage(String topic, int partition) throws IOException {
+        validate(topic, partition);
+        StorageEngine storage = getStorage(topic, partition);
+        if (storage != null) {
+            return storage;
+        }
+        synchronized (logs) {
+            LogConfig config = configOf(topic);
+            if (config.getStorage() == LogConfig.Storage.MEMORY) {
+                return memoryLogs.computeIfAbsent(logName(topic, partition), name -> new InMemoryLog(config));
+            }
+            return getOrCreateLog(topic, partition);
+        }
+    }
+
+    public StorageEngine getStorage(String topic, int partition) {
+        String name = logName(topic, partition);
+        StorageEngine log = memoryLogs.get(name);
+        return log != null ? log : logs.get(name);
+    }
+
+    public Log getOrCreateLog(String topic, int partition) throws IOException {
+        validate(topic, partition);
+        String name = logName(topic, partition);
+        Log log = logs.get(name);
+        if (log != null) {
+            return log;
+        }
+        synchronized (logs) {
+            LogConfig config = configOf(topic);
+            if (config.getStorage() != LogConfig.Storage.FILE) {
+                throw new IllegalArgumentException("Topic " + topic + " is not stored in files");
+            }
+            log = logs.get(name);
+            if (log == null) {
+                log = new Log(new File(chooseLogDir(), name), config);
+                logs.put(name, log);
+            }
+            return log;
+        }
+    }
+
+    public Log getLog(String topic, int partition) {
+        return logs.get(logName(topic, partition));
+    }
+
+    public Collection<Log> allLogs() {
+        return logs.values();
+    }
+
+    public List<File> logDirs() {
+        return logDirs;
+    }
+
+    /**
+     * Moves the log of a partition to another log dir in the background,
+     * e.g. off a disk which is filling up or taking too much traffic.
+     * The log keeps serving appends and reads meanwhile, see
+     * {@link Log#moveTo(File)}. Moves run one at a time.
+     * @return future completed once the log is in the target dir.
+     */
+    public CompletableFuture<Void> moveLog(String topic, int partition, File targetDir) {
+        Log log = getLog(topic, partition);
+        if (log == null) {
+            throw new IllegalArgumentException("No log for " + logName(topic, partition));
+        }
+        if (!logDirs.contains(targetDir)) {
+            throw new IllegalArgumentException(targetDir + " is not one of the log dirs " + logDirs);
+        }
+        return CompletableFuture.runAsync(() -> {
+            try {
+                log.moveTo(targetDir);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, mover);
+    }
+
+    public void shutdown() {
+        scheduler.shutdown();
+        mover.shutdown(); //a move in progress is stopped by closing its log.
+        try {
+            cleaner.shutdown();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Log log : logs.values()) {
+            try {
+                log.close();
+            } catch (IOException e) {
+                logger.error("Error closing log " + log.dir(), e);
+            }
+        }
+        for (InMemoryLog log : memoryLogs.values()) {
+            log.close();
+        }
+    }
+
+    void cleanupLogs() {
+        for (Log log : logs.values()) {
+            try {
+                int deleted = log.deleteOldSegments();
+                if (deleted > 0) {
+                    logger.info("Deleted " + deleted + " segments from " + log.dir());
+                }
+            } catch (IOException e) {
+                logger.error("Error applying retention to " + log.dir(), e);
+            }
+        }
+    }
+
+    //Samples the bytes-in rate of the logs, for placing new logs.
+    void sampleBytesInRates() {
+        for (Map.Entry<String, Log> entry : logs.entrySet()) {
+            long bytes = entry.getValue().bytesAppended();
+            Long last = lastBytesAppended.put(entry.getKey(), bytes);
+            bytesInRates.put(entry.getKey(), (bytes - (last == null ? 0 : last)) * 1000.0 / RateSampleIntervalMs);
+        }
+    }
+
+    /**
+     * The log dir for a new log. Of the dirs with room for at least a
+     * segment, the one with the lowest bytes-in rate of its logs, then the
+     * one with the fewest logs, then the one with the most free space.
+     */
+    File chooseLogDir() {
+        Map<File, Double> rates = new HashMap<>();
+        Map<File, Integer> counts = new HashMap<>();
+        for (Map.Entry<String, Log> entry : logs.entrySet()) {
+            File logDir = entry.getValue().dir().getParentFile();
+            rates.merge(logDir, bytesInRates.getOrDefault(entry.getKey(), 0.0), Double::sum);
+            counts.merge(logDir, 1, Integer::sum);
+        }
+        List<File> candidates = new ArrayList<>();
+        for (File logDir : logDirs) {
+            if (logDir.getUsableSpace() >= logConfig.getSegmentBytes()) {
+                candidates.add(logDir);
+            }
+        }
+        if (candidates.isEmpty()) {
+            candidates = logDirs; //let the append fail on a full disk.
+        }
+        return candidates.stream()
+                .min(Comparator.comparingDouble((File logDir) -> rates.getOrDefault(logDir, 0.0))
+                        .thenComparingInt(logDir -> counts.getOrDefault(logDir, 0))
+                        .thenComparing(Comparator.comparingLong(File::getUsableSpace).reversed()))
+                .get();
+    }
+
+    private void loadLogs() throws IOException {
+        for (File logDir : logDirs) {
+            logDir.mkdirs();
+        }
+        completeMoves();
+        for (File logDir : logDirs) {
+            File[] dirs = logDir.listFiles(File::isDirectory);
+            if (dirs == null) {
+                continue;
+            }
+            for (File dir : dirs) {
+                if (logs.containsKey(dir.getName())) {
+                    logger.error("Ignoring " + dir + ", the log is already loaded from another log dir");
+                    continue;
+                }
+                LogConfig config = configOf(topicOf(dir.getName()));
+                if (config.getStorage() != LogConfig.Storage.FILE) {
+                    logger.error("Ignoring " + dir + ", its topic is not stored in files");
+                    continue;
+                }
+                logs.put(dir.getName(), new Log(dir, config));
+            }
+        }
+    }
+
+    //Every log dir has a copy of the topic configs, the first one read wins.
+    private void loadTopicConfigs() throws IOException {
+        for (File logDir : logDirs) {
+            File[] files = logDir.listFiles(file -> file.isFile() && file.getName().endsWith(TopicConfigSuffix));
+            for (File file : files == null ? new File[0] : files) {
+                String name = file.getName();
+                String topic = name.substring(0, name.length() - TopicConfigSuffix.length());
+                if (!topicConfigs.containsKey(topic)) {
+                    topicConfigs.put(topic, readTopicConfig(file));
+                }
+            }
+        }
+    }
+
+    //Written to a temporary file, synced and renamed, like OffsetCheckpoint.
+    private static void writeTopicConfig(File file, LogConfig config) throws IOException {
+        File tmp = new File(file.getAbsolutePath() + ".tmp");
+        try (FileOutputStream os = new FileOutputStream(tmp)) {
+            config.toProperties().store(os, null);
+            os.flush();
+            os.getFD().sync();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static LogConfig readTopicConfig(File file) throws IOException {
+        Properties props = new Properties();
+        try (FileInputStream is = new FileInputStream(file)) {
+            props.load(is);
+        }
+        return LogConfig.fromProperties(props);
+    }
+
+    /**
+     * Finishes log moves interrupted by a crash, see
+     * {@link Log#moveTo(File)}. Once the original dir of a log is renamed
+     * to .delete, its .future copy is complete and is renamed in place.
+     * Otherwise the copy is deleted and the log stays where it was.
+     */
+    private void completeMoves() throws IOException {
+        Set<String> committed = new HashSet<>();
+        List<File> deleteDirs = new ArrayList<>();
+        List<File> futureDirs = new ArrayList<>();
+        for (File logDir : logDirs) {
+            File[] dirs = logDir.listFiles(File::isDirectory);
+            for (File dir : dirs == null ? new File[0] : dirs) {
+                String name = dir.getName();
+                if (name.endsWith(Log.DeleteDirSuffix)) {
+                    committed.add(name.substring(0, name.length() - Log.DeleteDirSuffix.length()));
+                    deleteDirs.add(dir);
+                } else if (name.endsWith(Log.FutureDirSuffix)) {
+                    futureDirs.add(dir);
+                }
+            }
+        }
+        for (File futureDir : futureDirs) {
+            String name = futureDir.getName();
+            File target = new File(futureDir.getParentFile(), name.substring(0, name.length() - Log.FutureDirSuffix.length()));
+            if (committed.contains(target.getName()) && !target.exists()) {
+                Files.move(futureDir.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                logger.info("Completed move of log " + target);
+            } else {
+                Utils.rm(futureDir);
+            }
+        }
+        for (File deleteDir : deleteDirs) {
+            Utils.rm(deleteDir);
+        }
+    }
+
+    private LogConfig configOf(String topic) {
+        return topicConfigs.getOrDefault(topic, logConfig);
+    }
+
+    /**
+     * Topic names come from clients and become file names, so they are
+     * limited to letters, digits, '.', '_' and '-', and can not be '.' or
+     * '..', which would resolve outside the log dir.
+     */
+    static void validateTopic(String topic) {
+        if (topic == null || topic.isEmpty()) {
+            throw new InvalidTopicException("Topic name is empty");
+        }
+        if (topic.length() > MaxTopicLength) {
+            throw new InvalidTopicException("Topic name is longer than " + MaxTopicLength + " characters");
+        }
+        if (topic.equals(".") || topic.equals("..")) {
+            throw new InvalidTopicException("Topic name can not be '" + topic + "'");
+        }
+        if (!LegalTopicChars.matcher(topic).matches()) {
+            throw new InvalidTopicException("Topic name " + topic + " has characters other than [a-zA-Z0-9._-]");
+        }
+    }
+
+    private static void validate(String topic, int partition) {
+        validateTopic(topic);
+        if (partition < 0) {
+            throw new UnknownTopicOrPartitionException("Partition " + partition + " of " + topic + " is negative");
+        }
+    }
+
+    private static String logName(String topic, int partition) {
+        return topic + "-" + partition;
+    }
+
+    private static String topicOf(String logName) {
+        int separator = logName.lastIndexOf('-');
+        return separator < 0 ? logName : logName.substring(0, separator);
+    }
+}
@@ -0,0 +1,205 @@
+package com.dist.simplekafka;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Streams the messages of a range of offsets. Instead of a read per
+ * batch, the segment files are read in chunks of chunkSize bytes and all
+ * the batches in a chunk are parsed from memory, so a catch up read costs
+ * a syscall per chunk and holds a single chunk of the log in memory.
+ * Messages are decoded lazily as the iterator is advanced.
+ * Reading stops after maxBytes of batches, but the first batch is always
+ * returned, however large it is, so that a reader always makes progress.
+ * Memory mapped segments are not copied into the chunk, their batches are
+ * read as slices of the mapping. Batches from the log's tail cache are
+ * read from memory as they are.
+ * Read errors are thrown as {@link UncheckedIOException}.
+ */
+public class LogReader implements Iterator<Log.Message> {
+    static final int DefaultChunkSize = 64 * 1024;
+
+    private final Iterator<LogSegment> segments;
+    private final Iterator<RecordBatch> cachedBatches;
+    private final long startOffset;
+    private final long maxOffset;
+    private long bytesRemaining;
+    private ByteBuffer chunk;
+
+    private LogSegment segment;
+    private boolean mapped;
+    private long position; //file position of the end of the chunk.
+    private long segmentEnd;
+    private Iterator<Log.Message> batch = Collections.emptyIterator();
+    private Log.Message next;
+    private boolean done;
+
+    LogReader(Iterable<LogSegment> segments, long startOffset, long maxOffset, int maxBytes, int chunkSize) {
+        this.segments = segments.iterator();
+        this.cachedBatches = null;
+        this.startOffset = startOffset;
+        this.maxOffset = maxOffset;
+        this.bytesRemaining = maxBytes;
+        this.chunk = ByteBuffer.allocate(Math.max(chunkSize, RecordBatch.HeaderSize));
+        this.chunk.flip(); //empty till the first read.
+    }
+
+    //Reads batches already in memory, limited to maxBytes by the caller.
+    LogReader(List<RecordBatch> batches, long startOffset, long maxOffset) {
+        this.segments = Collections.emptyIterator();
+        this.cachedBatches = batches.iterator();
+        this.startOffset = startOffset;
+        this.maxOffset = maxOffset;
+        this.bytesRemaining = Long.MAX_VALUE;
+        this.chunk = null;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null && !done) {
+            try {
+                next = advance();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            done = next == null;
+        }
+        return next != null;
+    }
+
+    @Override
+    public Log.Message next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Log.Message message = next;
+        next = null;
+        return message;
+    }
+
+    public Stream<Log.Message> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this,
+                Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    private Log.Message advance() throws IOException {
+        while (true) {
+            while (batch.hasNext()) {
+                Log.Message message = batch.next();
+                if (message.offset > maxOffset) {
+                    return null;
+                }
+                if (message.offset >= startOffset) {
+                    return message;
+                }
+            }
+            RecordBatch nextBatch = nextBatch();
+            if (nextBatch == null) {
+                return null;
+            }
+            batch = nextBatch.iterator();
+        }
+    }
+
+    private RecordBatch nextBatch() throws IOException {
+        if (cachedBatches != null) {
+            return cachedBatches.hasNext() ? accept(cachedBatches.next()) : null;
+        }
+        if (bytesRemaining <= 0) {
+            return null;
+        }
+        while (true) {
+            if (segment == null && !nextSegment()) {
+                return null;
+            }
+            if (mapped) {
+                if (position >= segmentEnd) {
+                    segment = null;
+                    continue;
+                }
+                RecordBatch recordBatch = segment.readBatch(position);
+                position += recordBatch.sizeInBytes();
+                return accept(recordBatch);
+            }
+            int batchSize = batchSizeInChunk();
+            if (batchSize > 0 && chunk.remaining() >= batchSize) {
+                ByteBuffer batchBuffer = chunk.slice();
+                batchBuffer.limit(batchSize);
+                chunk.position(chunk.position() + batchSize);
+                RecordBatch recordBatch = new RecordBatch(batchBuffer);
+                recordBatch.ensureValid();
+                return accept(recordBatch);
+            }
+            if (position >= segmentEnd) {
+                segment = null; //nothing more in this segment.
+                continue;
+            }
+            fillChunk(batchSize);
+        }
+    }
+
+    private RecordBatch accept(RecordBatch recordBatch) {
+        if (recordBatch.baseOffset() > maxOffset) {
+            return null;
+        }
+        bytesRemaining -= recordBatch.sizeInBytes();
+        return recordBatch;
+    }
+
+    //Size of the batch at the start of the chunk, or -1 if its header is
+    // not in the chunk yet.
+    private int batchSizeInChunk() {
+        if (chunk.remaining() < RecordBatch.LogOverhead) {
+            return -1;
+        }
+        return RecordBatch.LogOverhead + chunk.getInt(chunk.position() + RecordBatch.LengthOffset);
+    }
+
+    //Keeps the unparsed bytes and reads as much as fits after them. The
+    // chunk is grown for batches larger than it.
+    private void fillChunk(int batchSize) throws IOException {
+        if (batchSize > chunk.capacity()) {
+            ByteBuffer larger = ByteBuffer.allocate(batchSize);
+            larger.put(chunk);
+            chunk = larger;
+        } else {
+            chunk.compact();
+        }
+        int toRead = (int) Math.min(chunk.remaining(), segmentEnd - position);
+        ByteBuffer target = chunk.slice();
+        target.limit(toRead);
+        segment.readFully(position, target);
+        chunk.position(chunk.position() + toRead);
+        position += toRead;
+        chunk.flip();
+    }
+
+    private boolean nextSegment() throws IOException {
+        while (segments.hasNext()) {
+            LogSegment candidate = segments.next();
+            if (candidate.baseOffset() > maxOffset) {
+                return false;
+            }
+            long end = candidate.size();
+            long start = candidate.positionOf(Math.max(startOffset, candidate.baseOffset()));
+            if (start < end) {
+                segment = candidate;
+                mapped = candidate.isMapped();
+                position = start;
+                segmentEnd = end;
+                chunk.clear().flip();
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,782 @@
+package com.dist.simplekafka;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A single file of the log. Segments are named by the offset of the first
+ * message they contain, so a partition directory looks like
+ * 00000000000000000001.log, 00000000000001048577.log ...
+ * Each log file has a sparse offset index file with the same name and an
+ * .index suffix, and a sparse time index with a .timeindex suffix.
+ * Sealed segments can also have a {@link KeyIndex} with a .keyindex
+ * suffix, for lookups by key.
+ * Only the last (active) segment is appended to, older segments are
+ * read-only and can be deleted as a whole when retention kicks in.
+ * The file is a sequence of {@link RecordBatch}es.
+ *
+ * Concurrent appenders reserve their offsets and file position with a
+ * single compare and set on a packed long:
+ *   bit 63      sealed, no more reservations in this segment
+ *   bits 32-62  next offset relative to the base offset
+ *   bits 0-31   next file position
+ * They then write at their position in parallel, and the log publishes
+ * the written batches in offset order.
+ *
+ * With {@link LogConfig.IoMode#MMAP} the newest segments are memory
+ * mapped, see {@link MappedSegmentFile}. With {@link LogConfig.IoMode#DIRECT}
+ * segments bypass the page cache, see {@link DirectSegmentFile}. With
+ * {@link LogConfig.IoMode#ASYNC} writes and reads can be issued without
+ * waiting for the disk, see {@link AsyncSegmentFile}.
+ */
+class LogSegment {
+    static final String LogFileSuffix = ".log";
+    //files of a segment being written by the log cleaner.
+    static final String CleanedFileSuffix = ".cleaned";
+    //files of a cleaned segment about to replace the original.
+    static final String SwapFileSuffix = ".swap";
+    //a file preallocated for the next segment, till the log rolls to it.
+    static final String PreallocatedFileSuffix = ".preallocated";
+
+    //returned by reserve when the segment is already sealed.
+    static final long Sealed = -1;
+    //returned by reserve to the caller which sealed the segment. It has to
+    // roll the log to a new segment.
+    static final long Roll = -2;
+    private static final long SealedBit = 1L << 63;
+    private static final long PositionMask = 0xFFFFFFFFL;
+
+    private volatile File file;
+    private volatile SegmentFile segmentFile;
+    private final long baseOffset;
+    private final long created;
+    private final int indexIntervalBytes;
+    private final int segmentBytes;
+    private final long segmentMs;
+    private final OffsetIndex offsetIndex;
+    private final TimeIndex timeIndex;
+    private final AtomicLong reservations = new AtomicLong();
+    private volatile long nextOffset;
+    private volatile long size;
+    private int bytesSinceLastIndexEntry = 0;
+    //the largest timestamp in the segment and the batch holding it.
+    private volatile long maxTimestamp = RecordBatch.NoTimestamp;
+    private long offsetOfMaxTimestamp;
+    //null till built for a sealed segment, see buildKeyIndex.
+    private volatile KeyIndex keyIndex;
+    private boolean deleted = false;
+
+    private LogSegment(File file, File indexFile, File timeIndexFile, long baseOffset, long created,
+                       LogConfig config) throws IOException {
+        this.file = file;
+        this.baseOffset = baseOffset;
+        this.created = created;
+        this.indexIntervalBytes = config.getIndexIntervalBytes();
+        this.segmentBytes = config.getSegmentBytes();
+        this.segmentMs = config.getSegmentMs();
+        this.nextOffset = baseOffset;
+        this.segmentFile = openSegmentFile(file, config);
+        this.offsetIndex = new OffsetIndex(indexFile, baseOffset, config.getMaxIndexSize());
+        this.timeIndex = new TimeIndex(timeIndexFile, baseOffset, config.getMaxIndexSize());
+        this.offsetOfMaxTimestamp = baseOffset;
+    }
+
+    private static SegmentFile openSegmentFile(File file, LogConfig config) throws IOException {
+        switch (config.getIoMode()) {
+            case DIRECT:
+                return new DirectSegmentFile(file, config.getDirectBufferSize());
+            case ASYNC:
+                return new AsyncSegmentFile(file, config.getAsyncMaxOutstanding());
+            default:
+                return new ChannelSegmentFile(file, new RandomAccessFile(file, "rw").getChannel());
+        }
+    }
+
+    static LogSegment create(File dir, long baseOffset, LogConfig config) throws IOException {
+        return create(dir, baseOffset, config, null);
+    }
+
+    /**
+     * Creates a segment, taking over the file preallocated for it ahead
+     * of time if there is one, see {@link #nextSegmentFile(File)}.
+     */
+    static LogSegment create(File dir, long baseOffset, LogConfig config, File preallocated) throws IOException {
+        File file = logFile(dir, baseOffset);
+        if (preallocated != null) {
+            Files.move(preallocated.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } else if (config.isPreallocate()) {
+            preallocate(file, config.getSegmentBytes());
+        }
+        return new LogSegment(file, OffsetIndex.indexFile(dir, baseOffset),
+                TimeIndex.indexFile(dir, baseOffset), baseOffset, System.currentTimeMillis(), config);
+    }
+
+    //The file preallocated for the next segment of the log in dir, before
+    // its base offset is known.
+    static File nextSegmentFile(File dir) {
+        return new File(dir, "next" + LogFileSuffix + PreallocatedFileSuffix);
+    }
+
+    /**
+     * Extends the file to size, so appends don't change the file size and
+     * syncing them does not have to write it too. The end of the segment
+     * is kept in size, the space after it is trimmed once the segment is
+     * inactive or closed, and by recovery after a crash.
+     */
+    static void preallocate(File file, long size) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            if (raf.length() < size) {
+                raf.setLength(size);
+            }
+        }
+    }
+
+    //The caller needs to recover the segment before using it.
+    static LogSegment open(File file, LogConfig config) throws IOException {
+        long baseOffset = baseOffsetOf(file);
+        File dir = file.getParentFile();
+        LogSegment segment = new LogSegment(file, OffsetIndex.indexFile(dir, baseOffset),
+                TimeIndex.indexFile(dir, baseOffset), baseOffset, file.lastModified(), config);
+        segment.keyIndex = KeyIndex.open(KeyIndex.indexFile(dir, baseOffset), baseOffset);
+        return segment;
+    }
+
+    //A segment for the log cleaner to copy the retained batches of a
+    // segment to. It is written with append, and swapped in for the
+    // original segment once complete.
+    static LogSegment createCleaned(File dir, long baseOffset, LogConfig config) throws IOException {
+        File file = withSuffix(logFile(dir, baseOffset), CleanedFileSuffix);
+        File indexFile = withSuffix(OffsetIndex.indexFile(dir, baseOffset), CleanedFileSuffix);
+        File timeIndexFile = withSuffix(TimeIndex.indexFile(dir, baseOffset), CleanedFileSuffix);
+        Files.deleteIfExists(file.toPath());
+        Files.deleteIfExists(indexFile.toPath());
+        Files.deleteIfExists(timeIndexFile.toPath());
+        return new LogSegment(file, indexFile, timeIndexFile, baseOffset, System.currentTimeMillis(), config);
+    }
+
+    static File logFile(File dir, long baseOffset) {
+        return new File(dir, String.format("%020d", baseOffset) + LogFileSuffix);
+    }
+
+    static File withSuffix(File file, String suffix) {
+        return new File(file.getPath() + suffix);
+    }
+
+    //The files a segment can have in dir: the log, the offset, time and
+    // key indexes.
+    static List<File> files(File dir, long baseOffset) {
+        return List.of(logFile(dir, baseOffset), OffsetIndex.indexFile(dir, baseOffset),
+                TimeIndex.indexFile(dir, baseOffset), KeyIndex.indexFile(dir, baseOffset));
+    }
+
+    static void deleteFiles(File dir, long baseOffset) throws IOException {
+        for (File file : files(dir, baseOffset)) {
+            Files.deleteIfExists(file.toPath());
+        }
+    }
+
+    static long baseOffsetOf(File file) {
+        String name = file.getName();
+        return Long.parseLong(name.substring(0, name.length() - LogFileSuffix.length()));
+    }
+
+    /**
+     * Reserves offsetCount offsets and size bytes for a batch.
+     * @return the packed reservation, see {@link #reservedOffset(long)}
+     * and {@link #reservedPosition(long)}, or {@link #Sealed} or
+     * {@link #Roll} if the batch does not fit in this segment.
+     */
+    long reserve(int offsetCount, int size) {
+        while (true) {
+            long current = reservations.get();
+            if ((current & SealedBit) != 0) {
+                return Sealed;
+            }
+            long position = current & PositionMask;
+            long relativeOffset = current >>> 32;
+            boolean fits = position == 0 //an empty segment takes any batch.
+                    || (position + size <= segmentBytes && relativeOffset + offsetCount <= Integer.MAX_VALUE);
+            if (!fits) {
+                return reservations.compareAndSet(current, current | SealedBit) ? Roll : Sealed;
+            }
+            long next = ((relativeOffset + offsetCount) << 32) | (position + size);
+            if (reservations.compareAndSet(current, next)) {
+                return current;
+            }
+        }
+    }
+
+    /**
+     * Stops any further reservations, used to roll on time.
+     * @return true if this call sealed the segment.
+     */
+    boolean seal() {
+        while (true) {
+            long current = reservations.get();
+            if ((current & SealedBit) != 0) {
+                return false;
+            }
+            if (reservations.compareAndSet(current, current | SealedBit)) {
+                return true;
+            }
+        }
+    }
+
+    //Takes reservations again, after a truncation or a seal which did not
+    // roll the segment.
+    void unseal() {
+        reservations.getAndUpdate(current -> current & ~SealedBit);
+    }
+
+    boolean isSealed() {
+        return (reservations.get() & SealedBit) != 0;
+    }
+
+    long reservedOffset(long reservation) {
+        return baseOffset + (reservation >>> 32);
+    }
+
+    static long reservedPosition(long reservation) {
+        return reservation & PositionMask;
+    }
+
+    //The offset the next segment starts at once this one is sealed.
+    long nextSegmentOffset() {
+        return reservedOffset(reservations.get() & ~SealedBit);
+    }
+
+    boolean isTimeToRoll(long now) {
+        return reservedPosition(reservations.get()) > 0
+                && (now - created > segmentMs || offsetIndex.isFull() || timeIndex.isFull());
+    }
+
+    //Positional write, safe to call from multiple threads for different
+    // reservations.
+    void write(long position, ByteBuffer batch) throws IOException {
+        segmentFile.write(position, batch);
+    }
+
+    //Like write, completing the future once the batch is written. The
+    // batch buffer must not be reused before.
+    CompletableFuture<Void> writeAsync(long position, ByteBuffer batch) {
+        return segmentFile.writeAsync(position, batch);
+    }
+
+    //Whether the log has to write batches one at a time in offset order.
+    boolean requiresOrderedWrites() {
+        return segmentFile.requiresOrderedWrites();
+    }
+
+    //Makes a written batch visible to readers. Called in offset order,
+    // one batch at a time.
+    void publish(long baseOffset, long lastOffset, long batchMaxTimestamp, int batchSize, long position) {
+        if (batchMaxTimestamp > maxTimestamp) {
+            offsetOfMaxTimestamp = baseOffset;
+            maxTimestamp = batchMaxTimestamp;
+        }
+        if (bytesSinceLastIndexEntry > indexIntervalBytes) {
+            if (!offsetIndex.isFull()) {
+                offsetIndex.append(baseOffset, (int) position);
+            }
+            timeIndex.maybeAppend(maxTimestamp, offsetOfMaxTimestamp);
+            bytesSinceLastIndexEntry = 0;
+        }
+        bytesSinceLastIndexEntry += batchSize;
+        size = position + batchSize;
+        nextOffset = lastOffset + 1;
+    }
+
+    //Appends at the end of the segment, for a segment with a single
+    // writer which is not visible to the log yet.
+    void append(RecordBatch batch) throws IOException {
+        long position = size;
+        write(position, batch.buffer());
+        publish(batch.baseOffset(), batch.lastOffset(), batch.maxTimestamp(), batch.sizeInBytes(), position);
+        reservations.set(((nextOffset - baseOffset) << 32) | size);
+    }
+
+    Log.Message read(long offset) throws IOException {
+        if (offset < baseOffset || offset >= nextOffset) {
+            throw new OffsetOutOfRangeException(offset);
+        }
+        RecordBatch batch = readBatch(positionOf(offset));
+        for (Log.Message message : batch) {
+            if (message.offset == offset) {
+                return message;
+            }
+        }
+        throw new OffsetOutOfRangeException(offset);
+    }
+
+    /**
+     * The complete batches from the one containing startOffset, adding
+     * batches while they fit in maxBytes, but at least one batch.
+     * @return null if there are no batches after startOffset.
+     */
+    FileRegion region(long startOffset, int maxBytes) throws IOException {
+        long start = positionOf(Math.max(startOffset, baseOffset));
+        long end = size;
+        long position = start;
+        long lastOffset = -1;
+        while (position < end) {
+            ByteBuffer header = readFully(position, RecordBatch.HeaderSize);
+            int batchSize = RecordBatch.LogOverhead + header.getInt(RecordBatch.LengthOffset);
+            if (position > start && position + batchSize - start > maxBytes) {
+                break;
+            }
+            lastOffset = header.getLong(RecordBatch.BaseOffsetOffset) + header.getInt(RecordBatch.LastOffsetDeltaOffset);
+            position += batchSize;
+        }
+        if (position == start) {
+            return null;
+        }
+        segmentFile.writeOut();
+        return new FileRegion(segmentFile.channel(), start, position - start, startOffset, lastOffset);
+    }
+
+    /**
+     * Removes the batches from the one containing offset onwards. The
+     * indexes are rebuilt past the last kept index entry as in recovery.
+     * A sealed segment stays sealed, the log unseals it once it is ready
+     * to take appends again.
+     */
+    void truncateTo(long offset) throws IOException {
+        long position = positionOf(Math.max(offset, baseOffset));
+        long truncatedOffset = position < size
+                ? readFully(position, RecordBatch.HeaderSize).getLong(RecordBatch.BaseOffsetOffset)
+                : nextOffset;
+        unmap();
+        deleteKeyIndex();
+        segmentFile.truncate(position);
+        offsetIndex.expand();
+        timeIndex.expand();
+        recover(truncatedOffset);
+    }
+
+    /**
+     * Reads the complete batches from the one containing startOffset, up
+     * to maxBytes of batches but at least one, without waiting for the
+     * disk. The offset index gives a position close before the batch,
+     * which is read in a single chunk along with the batches after it.
+     * Batches which don't fit the chunk are read with further reads.
+     * @return the batches, empty if there are none after startOffset.
+     */
+    CompletableFuture<List<RecordBatch>> readAsync(long startOffset, int maxBytes) {
+        long position = offsetIndex.lookup(startOffset).position;
+        int chunkSize = Math.min(maxBytes, LogReader.DefaultChunkSize) + indexIntervalBytes;
+        return readBatchesAsync(position, size, startOffset, maxBytes, chunkSize);
+    }
+
+    private CompletableFuture<List<RecordBatch>> readBatchesAsync(long position, long end, long startOffset,
+                                                                 int maxBytes, int chunkSize) {
+        if (position >= end) {
+            return CompletableFuture.completedFuture(List.of());
+        }
+        return segmentFile.readAsync(position, (int) Math.min(end - position, chunkSize)).thenCompose(chunk -> {
+            List<RecordBatch> batches = new ArrayList<>();
+            long bytes = 0;
+            int at = 0;
+            while (at + RecordBatch.HeaderSize <= chunk.limit()) {
+                int batchSize = RecordBatch.LogOverhead + chunk.getInt(at + RecordBatch.LengthOffset);
+                long lastOffset = chunk.getLong(at + RecordBatch.BaseOffsetOffset)
+                        + chunk.getInt(at + RecordBatch.LastOffsetDeltaOffset);
+                if (lastOffset >= startOffset) {
+                    if ((!batches.isEmpty() && bytes + batchSize > maxBytes) || at + batchSize > chunk.limit()) {
+                        break;
+                    }
+                    RecordBatch batch = new RecordBatch(chunk.slice(at, batchSize));
+                    batch.ensureValid();
+                    batches.add(batch);
+                    bytes += batchSize;
+                }
+                at += batchSize;
+            }
+            if (!batches.isEmpty()) {
+                return CompletableFuture.completedFuture(batches);
+            }
+            if (at == 0 && chunk.limit() == end - position) {
+                return CompletableFuture.completedFuture(List.of()); //no complete batch till the end.
+            }
+            //the chunk ended before a complete batch to return.
+            int nextBatchSize = at + RecordBatch.HeaderSize <= chunk.limit()
+                    ? RecordBatch.LogOverhead + chunk.getInt(at + RecordBatch.LengthOffset) : 0;
+            return readBatchesAsync(position + at, end, startOffset, maxBytes, Math.max(chunkSize, nextBatchSize));
+        });
+    }
+
+    void flush() throws IOException {
+        segmentFile.flush();
+        offsetIndex.flush();
+        timeIndex.flush();
+    }
+
+    //No more appends once the log has rolled to a new segment. The time
+    // index gets a last entry for the largest timestamp, so it is known
+    // without reading the segment when it is opened again.
+    void onBecomeInactive() throws IOException {
+        timeIndex.maybeAppend(maxTimestamp, offsetOfMaxTimestamp);
+        offsetIndex.trimToValidSize();
+        timeIndex.trimToValidSize();
+        trimToSize();
+    }
+
+    /**
+     * The offset of the first message with a timestamp at or after the
+     * given one. The time index gives the batch to start from, and batches
+     * whose max timestamp is smaller are skipped by their header.
+     * @return -1 if there is no such message in this segment.
+     */
+    long findOffsetForTime(long timestamp) throws IOException {
+        if (maxTimestamp < timestamp) {
+            return -1;
+        }
+        long position = positionOf(timeIndex.lookup(timestamp).offset);
+        long end = size;
+        while (position < end) {
+            ByteBuffer header = readFully(position, RecordBatch.HeaderSize);
+            if (header.getLong(RecordBatch.MaxTimestampOffset) >= timestamp) {
+                for (Log.Message message : readBatch(position)) {
+                    if (message.timestamp >= timestamp) {
+                        return message.offset;
+                    }
+                }
+            }
+            position += RecordBatch.LogOverhead + header.getInt(RecordBatch.LengthOffset);
+        }
+        return -1;
+    }
+
+    /**
+     * The latest message with the given key in this segment. With a key
+     * index, the Bloom filter rules out most segments without the key and
+     * otherwise the index gives the offset to read. Segments without an
+     * index, like the active one, are scanned.
+     * @return null if there is no message with the key.
+     */
+    Log.Message findLatest(byte[] key) throws IOException {
+        KeyIndex index = keyIndex;
+        if (index != null) {
+            if (!index.mightContain(key)) {
+                return null;
+            }
+            long offset = index.lookup(key);
+            if (offset < 0) {
+                return null;
+            }
+            Log.Message message = read(offset);
+            if (Arrays.equals(message.key, key)) {
+                return message;
+            }
+            //another key with the same hash, the index has no entry for
+            // this one.
+        }
+        Log.Message latest = null;
+        long position = 0;
+        long end = size;
+        while (position < end) {
+            RecordBatch batch = readBatch(position);
+            for (Log.Message message : batch) {
+                if (Arrays.equals(message.key, key)) {
+                    latest = message;
+                }
+            }
+            position += batch.sizeInBytes();
+        }
+        return latest;
+    }
+
+    /**
+     * Writes the key index of a sealed segment, reading all its batches.
+     * Called off the append path, it is discarded if the segment is
+     * deleted meanwhile.
+     */
+    void buildKeyIndex() throws IOException {
+        KeyIndex.Builder builder = new KeyIndex.Builder(baseOffset);
+        long position = 0;
+        long end = size;
+        while (position < end) {
+            RecordBatch batch = readBatch(position);
+            for (Log.Message message : batch) {
+                builder.add(message.key, message.offset);
+            }
+            position += batch.sizeInBytes();
+        }
+        KeyIndex index = builder.write(KeyIndex.indexFile(file.getParentFile(), baseOffset));
+        synchronized (this) {
+            if (deleted) {
+                index.delete();
+            } else {
+                keyIndex = index;
+            }
+        }
+    }
+
+    boolean hasKeyIndex() {
+        return keyIndex != null;
+    }
+
+    //Drops the key index, e.g. when the segment is appended to again.
+    synchronized void deleteKeyIndex() throws IOException {
+        KeyIndex index = keyIndex;
+        keyIndex = null;
+        if (index != null) {
+            index.delete();
+        }
+    }
+
+    //Used for time based retention. Falls back to the file modification
+    // time for a segment without timestamps.
+    long largestTimestamp() {
+        long timestamp = maxTimestamp;
+        return timestamp == RecordBatch.NoTimestamp ? lastModified() : timestamp;
+    }
+
+    /**
+     * Memory maps the segment file. An active segment is mapped up to
+     * segmentBytes so appends land in the mapping, an inactive one just
+     * up to its size.
+     */
+    void map(boolean active) throws IOException {
+        if (!isMapped()) {
+            int mapSize = (int) (active ? Math.max(segmentBytes, size) : size);
+            segmentFile = new MappedSegmentFile(file, segmentFile.channel(), mapSize);
+        }
+    }
+
+    //Goes back to reading through the channel. The mapping is released
+    // once no reader holds a slice of it.
+    void unmap() {
+        SegmentFile current = segmentFile;
+        if (current instanceof MappedSegmentFile) {
+            segmentFile = ((MappedSegmentFile) current).unmapped();
+        }
+    }
+
+    boolean isMapped() {
+        return segmentFile instanceof MappedSegmentFile;
+    }
+
+    //Drops the space a mapping preallocated after the last batch.
+    private void trimToSize() throws IOException {
+        if (segmentFile.channel().isOpen() && segmentFile.size() > size) {
+            segmentFile.truncate(size);
+        }
+    }
+
+    long baseOffset() {
+        return baseOffset;
+    }
+
+    long nextOffset() {
+        return nextOffset;
+    }
+
+    long size() {
+        return size;
+    }
+
+    long lastModified() {
+        return file.lastModified();
+    }
+
+    File file() {
+        return file;
+    }
+
+    void setLastModified(long lastModified) {
+        file.setLastModified(lastModified);
+    }
+
+    /**
+     * Renames the log and index files, e.g. from .log.cleaned to
+     * .log.swap. The open channel and index mapping stay valid.
+     */
+    void changeFileSuffixes(String oldSuffix, String newSuffix) throws IOException {
+        File target = withChangedSuffix(file, oldSuffix, newSuffix);
+        Files.move(file.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        file = target;
+        offsetIndex.renameTo(withChangedSuffix(offsetIndex.file(), oldSuffix, newSuffix));
+        timeIndex.renameTo(withChangedSuffix(timeIndex.file(), oldSuffix, newSuffix));
+    }
+
+    private static File withChangedSuffix(File file, String oldSuffix, String newSuffix) {
+        String path = file.getPath();
+        if (!path.endsWith(oldSuffix)) {
+            throw new IllegalArgumentException(file + " does not end with " + oldSuffix);
+        }
+        return new File(path.substring(0, path.length() - oldSuffix.length()) + newSuffix);
+    }
+
+    /**
+     * Copies the files of a segment which is not appended to anymore to
+     * another directory and syncs them, to move the log. An index the
+     * segment does not have, like a key index not built yet, is removed
+     * from the target, so copying a segment again replaces all of an
+     * earlier copy.
+     */
+    void copyTo(File targetDir) throws IOException {
+        segmentFile.writeOut();
+        List<File> sources = files(file.getParentFile(), baseOffset);
+        List<File> targets = files(targetDir, baseOffset);
+        for (int i = 0; i < sources.size(); i++) {
+            Path source = sources.get(i).toPath();
+            Path target = targets.get(i).toPath();
+            if (i > 0 && !Files.exists(source)) {
+                Files.deleteIfExists(target);
+                continue;
+            }
+            Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+            try (FileChannel channel = FileChannel.open(target, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+        }
+    }
+
+    void close() throws IOException {
+        timeIndex.maybeAppend(maxTimestamp, offsetOfMaxTimestamp);
+        offsetIndex.close();
+        timeIndex.close();
+        trimToSize();
+        segmentFile.close();
+        unmap();
+    }
+
+    void delete() throws IOException {
+        synchronized (this) {
+            deleted = true;
+        }
+        close();
+        deleteKeyIndex();
+        offsetIndex.delete();
+        timeIndex.delete();
+        Files.deleteIfExists(file.toPath());
+    }
+
+    /**
+     * Finds the end of the segment by validating the batches from
+     * fromOffset onwards. Batches before fromOffset are known to be
+     * flushed, so only the index entries after it are rebuilt. Everything
+     * after the first invalid batch, typically a torn write at the end
+     * of the file, is truncated. Zeroes after the last batch are space
+     * preallocated by a mapping or with {@link LogConfig#isPreallocate()}
+     * which was not trimmed before a crash, they are truncated too but
+     * don't count as invalid.
+     * @return true if the segment had to be truncated.
+     */
+    boolean recover(long fromOffset) throws IOException {
+        long fileSize = segmentFile.size();
+        offsetIndex.truncateTo(fromOffset);
+        timeIndex.truncateTo(fromOffset);
+        TimeIndex.TimestampOffset lastTimeEntry = timeIndex.lastEntry();
+        maxTimestamp = lastTimeEntry.timestamp;
+        offsetOfMaxTimestamp = lastTimeEntry.offset;
+        while (offsetIndex.lastEntry().position > fileSize) {
+            offsetIndex.truncateTo(offsetIndex.lastEntry().offset);
+        }
+        OffsetIndex.IndexEntry lastEntry = offsetIndex.lastEntry();
+        long position = lastEntry.position;
+        long offset = lastEntry.offset;
+        bytesSinceLastIndexEntry = 0;
+        RecordBatch batch;
+        while ((batch = validBatchAt(position, fileSize, offset)) != null) {
+            if (batch.maxTimestamp() > maxTimestamp) {
+                offsetOfMaxTimestamp = batch.baseOffset();
+                maxTimestamp = batch.maxTimestamp();
+            }
+            if (bytesSinceLastIndexEntry > indexIntervalBytes) {
+                offsetIndex.append(batch.baseOffset(), (int) position);
+                timeIndex.maybeAppend(maxTimestamp, offsetOfMaxTimestamp);
+                bytesSinceLastIndexEntry = 0;
+            }
+            bytesSinceLastIndexEntry += batch.sizeInBytes();
+            offset = batch.lastOffset() + 1;
+            position += batch.sizeInBytes();
+        }
+        size = position;
+        nextOffset = offset;
+        reservations.set(((nextOffset - baseOffset) << 32) | size | (reservations.get() & SealedBit));
+        if (position < fileSize) {
+            boolean preallocated = isZeroHeaderAt(position, fileSize);
+            segmentFile.truncate(position);
+            if (!preallocated) {
+                deleteKeyIndex(); //it has keys of the truncated messages.
+            }
+            return !preallocated;
+        }
+        return false;
+    }
+
+    private boolean isZeroHeaderAt(long position, long fileSize) throws IOException {
+        if (position + RecordBatch.LogOverhead > fileSize) {
+            return false;
+        }
+        ByteBuffer header = readFully(position, RecordBatch.LogOverhead);
+        return header.getLong(RecordBatch.BaseOffsetOffset) == 0 && header.getInt(RecordBatch.LengthOffset) == 0;
+    }
+
+    //Returns the batch at the given position or null if there is no
+    // complete batch with a matching checksum there.
+    private RecordBatch validBatchAt(long position, long fileSize, long expectedMinOffset) throws IOException {
+        if (position + RecordBatch.HeaderSize > fileSize) {
+            return null;
+        }
+        ByteBuffer header = readFully(position, RecordBatch.LogOverhead);
+        long batchBaseOffset = header.getLong(RecordBatch.BaseOffsetOffset);
+        int batchSize = RecordBatch.LogOverhead + header.getInt(RecordBatch.LengthOffset);
+        if (batchBaseOffset < expectedMinOffset
+                || batchSize < RecordBatch.HeaderSize
+                || position + batchSize > fileSize) {
+            return null;
+        }
+        RecordBatch batch = new RecordBatch(readFully(position, batchSize));
+        return batch.isValid() ? batch : null;
+    }
+
+    //The index is sparse, so walk the batch headers from the closest
+    // indexed offset till we reach the batch containing the offset.
+    long positionOf(long offset) throws IOException {
+        OffsetIndex.IndexEntry entry = offsetIndex.lookup(offset);
+        long position = entry.position;
+        long end = size;
+        while (position < end) {
+            ByteBuffer header = readFully(position, RecordBatch.HeaderSize);
+            long lastOffset = header.getLong(RecordBatch.BaseOffsetOffset)
+                    + header.getInt(RecordBatch.LastOffsetDeltaOffset);
+            if (lastOffset >= offset) {
+                break;
+            }
+            position += RecordBatch.LogOverhead + header.getInt(RecordBatch.LengthOffset);
+        }
+        return position;
+    }
+
+    RecordBatch readBatch(long position) throws IOException {
+        int batchSize = RecordBatch.LogOverhead
+                + readFully(position, RecordBatch.LogOverhead).getInt(RecordBatch.LengthOffset);
+        RecordBatch batch = new RecordBatch(readFully(position, batchSize));
+        batch.ensureValid();
+        return batch;
+    }
+
+    //A slice of the mapping when the segment is mapped, else a copy.
+    ByteBuffer readFully(long position, int size) throws IOException {
+        return segmentFile.read(position, size);
+    }
+
+    //Fills the remaining space of the buffer from the given position.
+    void readFully(long position, ByteBuffer buffer) throws IOException {
+        segmentFile.read(position, buffer);
+    }
+}
@@ -0,0 +1,167 @@
+package com.dist.simplekafka;
+
+import java.util.Arrays;
+
+/**
+ * A fast LZ77 style codec in the spirit of LZ4. It trades compression
+ * ratio for speed: a single hash table lookup per position to find a
+ * match, and no entropy coding. The output is a sequence of
+ *   1. token byte, 4 bits of literal length and 4 bits of match length - 4
+ *   2. more literal length bytes if the literal length is 15 or more
+ *   3. the literals
+ *   4. 2 byte little endian distance back to the match
+ *   5. more match length bytes if the match length - 4 is 15 or more
+ * Longer lengths are continued with bytes of 255 until a byte below 255.
+ * The last sequence only has literals.
+ */
+class LzCodec implements CompressionCodec {
+    static final int Id = 2;
+
+    private static final int MinMatch = 4;
+    private static final int MaxDistance = 65535;
+    private static final int HashLog = 14;
+    //no matches are started in the last bytes, so the match check never
+    // reads past the end.
+    private static final int LastLiterals = 5;
+
+    @Override
+    public int id() {
+        return Id;
+    }
+
+    @Override
+    public String name() {
+        return "lz";
+    }
+
+    @Override
+    public byte[] compress(byte[] src, int offset, int length) {
+        byte[] out = new byte[length + length / 255 + 16];
+        int[] table = new int[1 << HashLog];
+        Arrays.fill(table, -1);
+        int end = offset + length;
+        int matchLimit = end - LastLiterals;
+        int anchor = offset;
+        int i = offset;
+        int o = 0;
+        while (i < matchLimit) {
+            int sequence = readInt(src, i);
+            int h = hash(sequence);
+            int ref = table[h];
+            table[h] = i;
+            if (ref < 0 || i - ref > MaxDistance || readInt(src, ref) != sequence) {
+                i++;
+                continue;
+            }
+            int matchLength = MinMatch;
+            while (i + matchLength < end && src[ref + matchLength] == src[i + matchLength]) {
+                matchLength++;
+            }
+            o = writeSequence(out, o, src, anchor, i - anchor, i - ref, matchLength);
+            i += matchLength;
+            anchor = i;
+        }
+        o = writeLastLiterals(out, o, src, anchor, end - anchor);
+        return Arrays.copyOf(out, o);
+    }
+
+    @Override
+    public byte[] decompress(byte[] src, int offset, int length, int uncompressedSize) {
+        byte[] out = new byte[uncompressedSize];
+        int end = offset + length;
+        int i = offset;
+        int o = 0;
+        try {
+            while (i < end) {
+                int token = src[i++] & 0xff;
+                int literalLength = token >>> 4;
+                if (literalLength == 15) {
+                    int b;
+                    do {
+                        b = src[i++] & 0xff;
+                        literalLength += b;
+                    } while (b == 255);
+                }
+                if (i + literalLength > end) {
+                    throw new CorruptRecordException("Literals run past the end of the input");
+                }
+                System.arraycopy(src, i, out, o, literalLength);
+                i += literalLength;
+                o += literalLength;
+                if (i == end) {
+                    break; //last sequence.
+                }
+                if (i + 2 > end) {
+                    throw new CorruptRecordException("Match distance runs past the end of the input");
+                }
+                int distance = (src[i] & 0xff) | ((src[i + 1] & 0xff) << 8);
+                i += 2;
+                int matchLength = token & 0x0f;
+                if (matchLength == 15) {
+                    int b;
+                    do {
+                        b = src[i++] & 0xff;
+                        matchLength += b;
+                    } while (b == 255);
+                }
+                matchLength += MinMatch;
+                int ref = o - distance;
+                if (distance == 0 || ref < 0) {
+                    throw new CorruptRecordException("Invalid match distance " + distance);
+                }
+                //byte by byte, the match can overlap the bytes being written.
+                for (int n = 0; n < matchLength; n++) {
+                    out[o++] = out[ref + n];
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new CorruptRecordException("Invalid lz data: " + e.getMessage());
+        }
+        if (o != uncompressedSize) {
+            throw new CorruptRecordException("Expected " + uncompressedSize + " bytes after decompression, got " + o);
+        }
+        return out;
+    }
+
+    private static int writeSequence(byte[] out, int o, byte[] src, int literalStart, int literalLength,
+                                     int distance, int matchLength) {
+        int tokenPosition = o++;
+        int extraMatchLength = matchLength - MinMatch;
+        out[tokenPosition] = (byte) ((Math.min(literalLength, 15) << 4) | Math.min(extraMatchLength, 15));
+        o = writeLength(out, o, literalLength);
+        System.arraycopy(src, literalStart, out, o, literalLength);
+        o += literalLength;
+        out[o++] = (byte) distance;
+        out[o++] = (byte) (distance >>> 8);
+        return writeLength(out, o, extraMatchLength);
+    }
+
+    private static int writeLastLiterals(byte[] out, int o, byte[] src, int literalStart, int literalLength) {
+        out[o++] = (byte) (Math.min(literalLength, 15) << 4);
+        o = writeLength(out, o, literalLength);
+        System.arraycopy(src, literalStart, out, o, literalLength);
+        return o + literalLength;
+    }
+
+    //Lengths of 15 or more continue after the token.
+    private static int writeLength(byte[] out, int o, int length) {
+        if (length < 15) {
+            return o;
+        }
+        length -= 15;
+        while (length >= 255) {
+            out[o++] = (byte) 255;
+            length -= 255;
+        }
+        out[o++] = (byte) length;
+        return o;
+    }
+
+    private static int readInt(byte[] src, int i) {
+        return (src[i] & 0xff) | (src[i + 1] & 0xff) << 8 | (src[i + 2] & 0xff) << 16 | (src[i + 3] & 0xff) << 24;
+    }
+
+    private static int hash(int sequence) {
+        return (sequence * -1640531535) >>> (32 - HashLog);
+    }
+}
@@ -0,0 +1,108 @@
+package com.dist.simplekafka;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads and writes a segment through a memory mapping of its file.
+ * Appends are copies into the mapping and reads return read-only slices
+ * of it, so reading the tail of the log costs no syscalls and no copies.
+ * The active segment is mapped up to segmentBytes, which extends the file;
+ * the segment trims it to its size when it becomes inactive or is closed.
+ * Anything beyond the mapping, e.g. a single batch larger than
+ * segmentBytes, goes through the channel instead.
+ *
+ * The mapping is never unmapped explicitly. Readers can hold slices of
+ * it, and touching an unmapped slice crashes the JVM, so when a segment
+ * stops being mapped or is deleted it just drops its reference and the
+ * JVM unmaps once the last slice is garbage collected.
+ */
+class MappedSegmentFile implements SegmentFile {
+    private final ChannelSegmentFile channelFile;
+    private final MappedByteBuffer mmap;
+
+    MappedSegmentFile(File file, FileChannel channel, int mapSize) throws IOException {
+        this.channelFile = new ChannelSegmentFile(file, channel);
+        this.mmap = channel.map(FileChannel.MapMode.READ_WRITE, 0, mapSize);
+    }
+
+    //The same file without the mapping.
+    SegmentFile unmapped() {
+        return channelFile;
+    }
+
+    @Override
+    public void write(long position, ByteBuffer src) throws IOException {
+        int length = src.remaining();
+        if (!isMapped(position, length)) {
+            channelFile.write(position, src);
+            return;
+        }
+        mmap.put((int) position, src, src.position(), length);
+        src.position(src.limit());
+    }
+
+    @Override
+    public void read(long position, ByteBuffer dst) throws IOException {
+        int length = dst.remaining();
+        if (!isMapped(position, length)) {
+            channelFile.read(position, dst);
+            return;
+        }
+        dst.put(dst.position(), mmap, (int) position, length);
+        dst.position(dst.limit());
+    }
+
+    @Override
+    public ByteBuffer read(long position, int size) throws IOException {
+        if (!isMapped(position, size)) {
+            return channelFile.read(position, size);
+        }
+        return mmap.slice((int) position, size).asReadOnlyBuffer();
+    }
+
+    private boolean isMapped(long position, int length) {
+        return position + length <= mmap.capacity();
+    }
+
+    @Override
+    public long size() throws IOException {
+        return channelFile.size();
+    }
+
+    //Only ever truncates past the end of the segment, which readers don't
+    // touch, so the mapping stays valid.
+    @Override
+    public void truncate(long size) throws IOException {
+        channelFile.truncate(size);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        mmap.force();
+        channelFile.flush();
+    }
+
+    @Override
+    public FileChannel channel() {
+        return channelFile.channel();
+    }
+
+    @Override
+    public void writeOut() {
+        //the mapping shares the page cache with the channel.
+    }
+
+    @Override
+    public boolean requiresOrderedWrites() {
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channelFile.close();
+    }
+}
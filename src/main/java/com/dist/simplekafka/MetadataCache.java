@@ -0,0 +1,51 @@
+package com.dist.simplekafka;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The brokers and the replica assignments of the topics, as registered in
+ * ZooKeeper, to answer {@link MetadataRequest}s without going to
+ * ZooKeeper. The broker refreshes it from its ZooKeeper watches, and
+ * requests read an immutable snapshot.
+ */
+public class MetadataCache {
+    private volatile Snapshot snapshot = new Snapshot(List.of(), Map.of());
+
+    public void update(Collection<Broker> brokers, Map<String, List<PartitionReplicas>> topics) {
+        snapshot = new Snapshot(new ArrayList<>(brokers), new HashMap<>(topics));
+    }
+
+    public List<Broker> brokers() {
+        return snapshot.brokers;
+    }
+
+    public Map<String, List<PartitionReplicas>> topics() {
+        return snapshot.topics;
+    }
+
+    public MetadataResponse metadata(List<String> topics) {
+        Snapshot current = snapshot;
+        List<MetadataResponse.TopicMetadata> metadata = new ArrayList<>();
+        for (String topic : topics.isEmpty() ? current.topics.keySet() : topics) {
+            List<PartitionReplicas> partitions = current.topics.get(topic);
+            metadata.add(partitions == null
+                    ? new MetadataResponse.TopicMetadata(topic, Errors.UnknownTopicOrPartition, List.of())
+                    : new MetadataResponse.TopicMetadata(topic, Errors.None, partitions));
+        }
+        return new MetadataResponse(current.brokers, metadata);
+    }
+
+    private static class Snapshot {
+        final List<Broker> brokers;
+        final Map<String, List<PartitionReplicas>> topics;
+
+        Snapshot(List<Broker> brokers, Map<String, List<PartitionReplicas>> topics) {
+            this.brokers = brokers;
+            this.topics = topics;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.dist.simplekafka;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Asks for the brokers of the cluster and the replicas of the given
+ * topics, all topics if none are given:
+ *   [int count]{topic}
+ */
+public class MetadataRequest implements ApiRequest {
+    private final List<String> topics;
+
+    public MetadataRequest(List<String> topics) {
+        this.topics = topics;
+    }
+
+    public static MetadataRequest parse(ByteBuffer buffer) {
+        int count = buffer.getInt();
+        List<String> topics = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            topics.add(Protocol.readString(buffer));
+        }
+        return new MetadataRequest(topics);
+    }
+
+    public List<String> topics() {
+        return topics;
+    }
+
+    @Override
+    public short apiKey() {
+        return ApiKeys.Metadata;
+    }
+
+    @Override
+    public int sizeInBytes() {
+        int size = 4;
+        for (String topic : topics) {
+            size += Protocol.sizeOf(topic);
+        }
+        return size;
+    }
+
+    @Override
+    public void writeTo(ByteBuffer buffer) {
+        buffer.putInt(topics.size());
+        for (String topic : topics) {
+            Protocol.writeString(topic, buffer);
+        }
+    }
+}
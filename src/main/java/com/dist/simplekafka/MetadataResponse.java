@@ -0,0 +1,117 @@
+package com.dist.simplekafka;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The brokers and the topics asked for in a {@link MetadataRequest}:
+ *   [int count]{int id, host, int port}
+ *   [int count]{topic, short error, [int count]{int partition,
+ *   [int count]{int brokerId}}}
+ * A topic the broker doesn't know has the UnknownTopicOrPartition error
+ * and no partitions. The first replica of a partition is its leader, see
+ * {@link TopicMetadata#leader}.
+ */
+public class MetadataResponse implements ApiResponse {
+    private final List<Broker> brokers;
+    private final List<TopicMetadata> topics;
+
+    public MetadataResponse(List<Broker> brokers, List<TopicMetadata> topics) {
+        this.brokers = brokers;
+        this.topics = topics;
+    }
+
+    public static MetadataResponse parse(ByteBuffer buffer) {
+        int brokerCount = buffer.getInt();
+        List<Broker> brokers = new ArrayList<>(brokerCount);
+        for (int i = 0; i < brokerCount; i++) {
+            brokers.add(new Broker(buffer.getInt(), Protocol.readString(buffer), buffer.getInt()));
+        }
+        int topicCount = buffer.getInt();
+        List<TopicMetadata> topics = new ArrayList<>(topicCount);
+        for (int i = 0; i < topicCount; i++) {
+            String topic = Protocol.readString(buffer);
+            short error = buffer.getShort();
+            int partitionCount = buffer.getInt();
+            List<PartitionReplicas> partitions = new ArrayList<>(partitionCount);
+            for (int j = 0; j < partitionCount; j++) {
+                int partitionId = buffer.getInt();
+                int replicaCount = buffer.getInt();
+                List<Integer> brokerIds = new ArrayList<>(replicaCount);
+                for (int k = 0; k < replicaCount; k++) {
+                    brokerIds.add(buffer.getInt());
+                }
+                partitions.add(new PartitionReplicas(partitionId, brokerIds));
+            }
+            topics.add(new TopicMetadata(topic, error, partitions));
+        }
+        return new MetadataResponse(brokers, topics);
+    }
+
+    public List<Broker> brokers() {
+        return brokers;
+    }
+
+    public List<TopicMetadata> topics() {
+        return topics;
+    }
+
+    @Override
+    public int sizeInBytes() {
+        int size = 4;
+        for (Broker broker : brokers) {
+            size += 4 + Protocol.sizeOf(broker.host()) + 4;
+        }
+        size += 4;
+        for (TopicMetadata topic : topics) {
+            size += Protocol.sizeOf(topic.topic) + 2 + 4;
+            for (PartitionReplicas partition : topic.partitions) {
+                size += 4 + 4 + 4 * partition.getBrokerIds().size();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public void writeTo(ByteBuffer buffer) {
+        buffer.putInt(brokers.size());
+        for (Broker broker : brokers) {
+            buffer.putInt(broker.id());
+            Protocol.writeString(broker.host(), buffer);
+            buffer.putInt(broker.port());
+        }
+        buffer.putInt(topics.size());
+        for (TopicMetadata topic : topics) {
+            Protocol.writeString(topic.topic, buffer);
+            buffer.putShort(topic.error);
+            buffer.putInt(topic.partitions.size());
+            for (PartitionReplicas partition : topic.partitions) {
+                buffer.putInt(partition.getPartitionId());
+                buffer.putInt(partition.getBrokerIds().size());
+                for (int brokerId : partition.getBrokerIds()) {
+                    buffer.putInt(brokerId);
+                }
+            }
+        }
+    }
+
+    public static class TopicMetadata {
+        public final String topic;
+        public final short error;
+        public final List<PartitionReplicas> partitions;
+
+        public TopicMetadata(String topic, short error, List<PartitionReplicas> partitions) {
+            this.topic = topic;
+            this.error = error;
+            this.partitions = partitions;
+        }
+
+        //The broker the partition is produced to and fetched from, -1 if
+        // the partition has no replicas.
+        public static int leader(PartitionReplicas partition) {
+            List<Integer> brokerIds = partition.getBrokerIds();
+            return brokerIds.isEmpty() ? -1 : brokerIds.get(0);
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package com.dist.simplekafka;
+
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends requests to brokers, keeping a connection to each of them. A
+ * single IO thread does the socket IO of all the connections with a
+ * selector, and up to maxInFlightPerConnection requests are sent on a
+ * connection without waiting for their responses, which are matched to
+ * the requests by correlation ID, see {@link RequestHeader}.
+ * Requests are encoded on the calling thread. The futures are completed
+ * on the IO thread, so callbacks on them must not block.
+ * A connection is closed if a request on it takes longer than
+ * requestTimeoutMs, and its requests fail, as the broker may be stuck.
+ * They also fail if the connection breaks, and are not retried, as a
+ * produce request may have been appended.
+ */
+public class NetworkClient implements Closeable {
+    private static final Logger logger = Logger.getLogger(NetworkClient.class);
+    private static final long SelectTimeoutMs = 100;
+
+    private final String clientId;
+    private final int maxInFlightPerConnection;
+    private final long requestTimeoutMs;
+    private final Selector selector;
+    private final Thread ioThread;
+    private final AtomicInteger correlationIds = new AtomicInteger();
+    private final Queue<Request> submitted = new ConcurrentLinkedQueue<>();
+    private final Map<InetSocketAddress, Connection> connections = new HashMap<>(); //IO thread only.
+    private volatile boolean running = true;
+
+    public NetworkClient(String clientId) throws IOException {
+        this(clientId, 5, 30_000);
+    }
+
+    public NetworkClient(String clientId, int maxInFlightPerConnection, long requestTimeoutMs) throws IOException {
+        this.clientId = clientId;
+        this.maxInFlightPerConnection = maxInFlightPerConnection;
+        this.requestTimeoutMs = requestTimeoutMs;
+        this.selector = Selector.open();
+        this.ioThread = new Thread(this::run, "network-client-" + clientId);
+        this.ioThread.setDaemon(true);
+        this.ioThread.start();
+    }
+
+    /**
+     * Sends the request to the broker at the address, connecting to it if
+     * needed.
+     * @return the response after the correlation ID, to be parsed by the
+     * response class of the request.
+     */
+    public CompletableFuture<ByteBuffer> send(InetSocketAddress address, ApiRequest request) {
+        int correlationId = correlationIds.getAndIncrement();
+        Request pending = new Request(address, correlationId, request.toFrame(correlationId, clientId),
+                System.currentTimeMillis() + requestTimeoutMs);
+        if (!running) {
+            pending.future.completeExceptionally(new IOException("Client is closed"));
+            return pending.future;
+        }
+        submitted.add(pending);
+        selector.wakeup();
+        if (!running && submitted.remove(pending)) { //closed meanwhile.
+            pending.future.completeExceptionally(new IOException("Client is closed"));
+        }
+        return pending.future;
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        selector.wakeup();
+        try {
+            ioThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                addSubmitted();
+                selector.select(SelectTimeoutMs);
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isConnectable()) {
+                            connection.channel.finishConnect();
+                        }
+                        if (key.isReadable()) {
+                            read(connection);
+                        }
+                        if (key.isValid() && connection.channel.isConnected()) {
+                            write(connection);
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        disconnect(connection, e);
+                    }
+                }
+                expireRequests();
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            logger.error("Network client " + clientId + " failed", e);
+        } finally {
+            closeAll();
+        }
+    }
+
+    private void addSubmitted() {
+        Request request;
+        while ((request = submitted.poll()) != null) {
+            Connection connection = connections.get(request.address);
+            try {
+                if (connection == null) {
+                    connection = connect(request.address);
+                }
+                connection.queued.add(request);
+                if (connection.channel.isConnected()) {
+                    write(connection);
+                }
+            } catch (IOException | RuntimeException e) {
+                request.future.completeExceptionally(e);
+                if (connection != null) {
+                    disconnect(connection, e);
+                }
+            }
+        }
+    }
+
+    private Connection connect(InetSocketAddress address) throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        try {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            channel.connect(address);
+            Connection connection = new Connection(address, channel);
+            connection.key = channel.register(selector, SelectionKey.OP_CONNECT, connection);
+            connections.put(address, connection);
+            return connection;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    //Sends the queued requests while fewer than maxInFlightPerConnection
+    // are waiting for their responses.
+    private void write(Connection connection) throws IOException {
+        while (true) {
+            if (connection.sending == null) {
+                if (connection.queued.isEmpty() || connection.inFlight.size() >= maxInFlightPerConnection) {
+                    break;
+                }
+                Request request = connection.queued.poll();
+                connection.inFlight.put(request.correlationId, request);
+                connection.sending = request.frame;
+            }
+            connection.channel.write(connection.sending);
+            if (connection.sending.hasRemaining()) {
+                break;
+            }
+            connection.sending = null;
+        }
+        connection.key.interestOps(SelectionKey.OP_READ | (connection.sending != null ? SelectionKey.OP_WRITE : 0));
+    }
+
+    private void read(Connection connection) throws IOException {
+        while (true) {
+            if (connection.response == null) {
+                if (connection.channel.read(connection.size) < 0) {
+                    throw new IOException("Connection to " + connection.address + " closed by the broker");
+                }
+                if (connection.size.hasRemaining()) {
+                    return;
+                }
+                int size = connection.size.getInt(0);
+                if (size < 4) {
+                    throw new IOException("Invalid response size " + size + " from " + connection.address);
+                }
+                connection.response = ByteBuffer.allocate(size);
+            }
+            if (connection.channel.read(connection.response) < 0) {
+                throw new IOException("Connection to " + connection.address + " closed by the broker");
+            }
+            if (connection.response.hasRemaining()) {
+                return;
+            }
+            ByteBuffer response = connection.response.flip();
+            connection.response = null;
+            connection.size.clear();
+            int correlationId = response.getInt();
+            Request request = connection.inFlight.remove(correlationId);
+            if (request == null) {
+                throw new IOException("Unexpected correlation ID " + correlationId + " from " + connection.address);
+            }
+            request.future.complete(response.slice());
+        }
+    }
+
+    //The requests of a connection are sent in order, so the oldest one is
+    // the first in flight, or the first queued.
+    private void expireRequests() {
+        long now = System.currentTimeMillis();
+        for (Connection connection : connections.values().toArray(new Connection[0])) {
+            Request oldest = connection.inFlight.isEmpty()
+                    ? connection.queued.peek()
+                    : connection.inFlight.values().iterator().next();
+            if (oldest != null && oldest.deadlineMs < now) {
+                disconnect(connection, new TimeoutException("Request " + oldest.correlationId + " to "
+                        + connection.address + " timed out after " + requestTimeoutMs + "ms"));
+            }
+        }
+    }
+
+    private void disconnect(Connection connection, Throwable cause) {
+        logger.debug("Closing connection to " + connection.address, cause);
+        connections.remove(connection.address);
+        connection.key.cancel();
+        try {
+            connection.channel.close();
+        } catch (IOException e) {
+            //nothing to do.
+        }
+        for (Request request : connection.inFlight.values()) {
+            request.future.completeExceptionally(cause);
+        }
+        for (Request request : connection.queued) {
+            request.future.completeExceptionally(cause);
+        }
+    }
+
+    private void closeAll() {
+        IOException closed = new IOException("Client is closed");
+        for (Connection connection : connections.values().toArray(new Connection[0])) {
+            disconnect(connection, closed);
+        }
+        Request request;
+        while ((request = submitted.poll()) != null) {
+            request.future.completeExceptionally(closed);
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close the selector of network client " + clientId, e);
+        }
+    }
+
+    private static class Request {
+        final InetSocketAddress address;
+        final int correlationId;
+        final ByteBuffer frame;
+        final long deadlineMs;
+        final CompletableFuture<ByteBuffer> future = new CompletableFuture<>();
+
+        Request(InetSocketAddress address, int correlationId, ByteBuffer frame, long deadlineMs) {
+            this.address = address;
+            this.correlationId = correlationId;
+            this.frame = frame;
+            this.deadlineMs = deadlineMs;
+        }
+    }
+
+    private static class Connection {
+        final InetSocketAddress address;
+        final SocketChannel channel;
+        final Queue<Request> queued = new ArrayDeque<>();
+        //in the order sent, so the first one is the oldest.
+        final Map<Integer, Request> inFlight = new LinkedHashMap<>();
+        final ByteBuffer size = ByteBuffer.allocate(4);
+        SelectionKey key;
+        ByteBuffer sending; //frame of the request being written.
+        ByteBuffer response; //null till the size is read.
+
+        Connection(InetSocketAddress address, SocketChannel channel) {
+            this.address = address;
+            this.channel = channel;
+        }
+    }
+}
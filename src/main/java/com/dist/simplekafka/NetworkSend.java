@@ -0,0 +1,78 @@
+package com.dist.simplekafka;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A response frame being written to a socket, as a sequence of buffers
+ * and regions of segment files. The regions are sent with zero copy, see
+ * {@link FileRegion}, so a fetch of several partitions copies none of
+ * their records.
+ */
+class NetworkSend {
+    private final Object[] parts; //ByteBuffers and FileRegions.
+    private int current = 0;
+
+    NetworkSend(ByteBuffer buffer) {
+        this(new Object[] {buffer});
+    }
+
+    NetworkSend(ByteBuffer header, FileRegion region) {
+        this(new Object[] {header, region});
+    }
+
+    private NetworkSend(Object[] parts) {
+        this.parts = parts;
+    }
+
+    /**
+     * Writes as many bytes as the socket takes, a blocking socket takes
+     * them all.
+     * @return true once the whole frame is written.
+     */
+    boolean writeTo(WritableByteChannel channel) throws IOException {
+        while (current < parts.length) {
+            Object part = parts[current];
+            if (part instanceof ByteBuffer) {
+                ByteBuffer buffer = (ByteBuffer) part;
+                channel.write(buffer);
+                if (buffer.hasRemaining()) {
+                    return false;
+                }
+            } else {
+                FileRegion region = (FileRegion) part;
+                region.transferTo(channel);
+                if (!region.isComplete()) {
+                    return false;
+                }
+            }
+            current++;
+        }
+        return true;
+    }
+
+    static class Builder {
+        private final List<Object> parts = new ArrayList<>();
+
+        Builder add(ByteBuffer buffer) {
+            if (buffer.hasRemaining()) {
+                parts.add(buffer);
+            }
+            return this;
+        }
+
+        Builder add(FileRegion region) {
+            if (region.size() > 0) {
+                parts.add(region);
+            }
+            return this;
+        }
+
+        NetworkSend build() {
+            return new NetworkSend(parts.toArray());
+        }
+    }
+}
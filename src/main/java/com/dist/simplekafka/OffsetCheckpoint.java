@@ -0,0 +1,46 @@
+package com.dist.simplekafka;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+/**
+ * A file holding a single offset, e.g. the recovery point of a log.
+ * The file has a version line followed by the offset. It is written to a
+ * temporary file, synced and then renamed, so a crash never leaves a
+ * partially written checkpoint behind.
+ */
+class OffsetCheckpoint {
+    private static final int CurrentVersion = 0;
+
+    private final File file;
+
+    OffsetCheckpoint(File file) {
+        this.file = file;
+    }
+
+    synchronized void write(long offset) throws IOException {
+        File tmp = new File(file.getAbsolutePath() + ".tmp");
+        try (FileOutputStream os = new FileOutputStream(tmp)) {
+            os.write((CurrentVersion + "\n" + offset + "\n").getBytes(StandardCharsets.UTF_8));
+            os.flush();
+            os.getFD().sync();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    synchronized long read(long defaultOffset) throws IOException {
+        if (!file.exists()) {
+            return defaultOffset;
+        }
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        if (lines.size() < 2 || Integer.parseInt(lines.get(0).trim()) != CurrentVersion) {
+            throw new IOException("Malformed checkpoint file " + file);
+        }
+        return Long.parseLong(lines.get(1).trim());
+    }
+}
@@ -0,0 +1,206 @@
+package com.dist.simplekafka;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * A sparse, memory mapped index from offsets to file positions in a
+ * segment. Every entry is 8 bytes:
+ *   1. 4 byte offset relative to the base offset of the segment
+ *   2. 4 byte position of the message in the segment file
+ * Entries are only added every indexIntervalBytes, so a lookup finds the
+ * largest indexed offset less than or equal to the target and the caller
+ * scans the log forward from that position.
+ * The file is preallocated to maxIndexSize and trimmed to the entries
+ * actually written when the segment is closed or rolled.
+ */
+class OffsetIndex {
+    static final String IndexFileSuffix = ".index";
+    private static final int EntrySize = 8;
+
+    private volatile File file;
+    private final long baseOffset;
+    private final int maxEntries;
+    private volatile MappedByteBuffer mmap;
+    private volatile int entries;
+
+    OffsetIndex(File file, long baseOffset, int maxIndexSize) throws IOException {
+        this.file = file;
+        this.baseOffset = baseOffset;
+        boolean newlyCreated = !file.exists();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            int existingLength = (int) raf.length();
+            int mapSize = Math.max(roundDownToEntrySize(maxIndexSize), roundDownToEntrySize(existingLength));
+            raf.setLength(mapSize);
+            this.maxEntries = mapSize / EntrySize;
+            this.mmap = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, mapSize);
+            this.entries = newlyCreated ? 0 : existingLength / EntrySize;
+        }
+        sanityCheck();
+    }
+
+    static File indexFile(File dir, long baseOffset) {
+        return new File(dir, String.format("%020d", baseOffset) + IndexFileSuffix);
+    }
+
+    //Called with the log's append lock held. Offsets must be appended in
+    // increasing order.
+    void append(long offset, int position) {
+        if (isFull()) {
+            throw new IllegalStateException("Index " + file + " is full");
+        }
+        int n = entries;
+        mmap.putInt(n * EntrySize, relativeOffset(offset));
+        mmap.putInt(n * EntrySize + 4, position);
+        entries = n + 1; //publishes the entry to readers.
+    }
+
+    /**
+     * Finds the largest indexed offset less than or equal to targetOffset
+     * with a binary search over the mapped entries. If there is no such
+     * entry, the start of the segment is returned.
+     */
+    IndexEntry lookup(long targetOffset) {
+        MappedByteBuffer buffer = mmap;
+        int n = entries;
+        int relativeTarget = clampedRelativeOffset(targetOffset);
+        int low = 0;
+        int high = n - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midOffset = buffer.getInt(mid * EntrySize);
+            if (midOffset <= relativeTarget) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if (found == -1) {
+            return new IndexEntry(baseOffset, 0);
+        }
+        return entryAt(buffer, found);
+    }
+
+    IndexEntry lastEntry() {
+        int n = entries;
+        if (n == 0) {
+            return new IndexEntry(baseOffset, 0);
+        }
+        return entryAt(mmap, n - 1);
+    }
+
+    /**
+     * Removes all the entries for offsets greater than or equal to the
+     * given offset.
+     */
+    void truncateTo(long offset) {
+        MappedByteBuffer buffer = mmap;
+        int relativeTarget = clampedRelativeOffset(offset);
+        int n = entries;
+        while (n > 0 && buffer.getInt((n - 1) * EntrySize) >= relativeTarget) {
+            n--;
+        }
+        entries = n;
+    }
+
+    void flush() {
+        mmap.force();
+    }
+
+    boolean isFull() {
+        return entries >= maxEntries;
+    }
+
+    int entries() {
+        return entries;
+    }
+
+    /**
+     * Shrinks the file to the entries actually written, so that the
+     * number of entries can be derived from the file size when the
+     * index is opened again.
+     */
+    void trimToValidSize() throws IOException {
+        resize(entries * EntrySize);
+    }
+
+    //Grows a trimmed index back to its preallocated size, for a segment
+    // appended to again after it was truncated.
+    void expand() throws IOException {
+        resize(maxEntries * EntrySize);
+    }
+
+    void close() throws IOException {
+        trimToValidSize();
+    }
+
+    void delete() throws IOException {
+        Files.deleteIfExists(file.toPath());
+    }
+
+    File file() {
+        return file;
+    }
+
+    void renameTo(File target) throws IOException {
+        Files.move(file.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        file = target;
+    }
+
+    //An unclean shutdown leaves the file at its preallocated size, with
+    // zeroes after the last entry. Drop everything from the first entry
+    // which does not increase the offset.
+    private void sanityCheck() {
+        int lastOffset = -1;
+        for (int i = 0; i < entries; i++) {
+            int relativeOffset = mmap.getInt(i * EntrySize);
+            if (relativeOffset <= lastOffset) {
+                entries = i;
+                return;
+            }
+            lastOffset = relativeOffset;
+        }
+    }
+
+    private void resize(int size) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            //map the new size before shrinking the file, readers holding
+            // the old mapping only look at valid entries.
+            mmap = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            raf.setLength(size);
+        }
+    }
+
+    private IndexEntry entryAt(MappedByteBuffer buffer, int n) {
+        return new IndexEntry(baseOffset + buffer.getInt(n * EntrySize), buffer.getInt(n * EntrySize + 4));
+    }
+
+    private int relativeOffset(long offset) {
+        return (int) (offset - baseOffset);
+    }
+
+    private int clampedRelativeOffset(long offset) {
+        return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, offset - baseOffset));
+    }
+
+    private static int roundDownToEntrySize(int size) {
+        return size - (size % EntrySize);
+    }
+
+    static class IndexEntry {
+        final long offset;
+        final int position;
+
+        IndexEntry(long offset, int position) {
+            this.offset = offset;
+            this.position = position;
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.dist.simplekafka;
+
+public class OffsetOutOfRangeException extends RuntimeException {
+    private final long offset;
+
+    public OffsetOutOfRangeException(long offset) {
+        super("Offset " + offset + " is not in the log");
+        this.offset = offset;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+}
@@ -8,7 +8,7 @@ public final class PartitionReplicas {
     private final int partitionId;
     private final List<Integer> brokerIds;
 
-    PartitionReplicas(int partitionId, List<Integer> brokerIds) {
+    public PartitionReplicas(int partitionId, List<Integer> brokerIds) {
         this.partitionId = partitionId;
         this.brokerIds = brokerIds;
     }
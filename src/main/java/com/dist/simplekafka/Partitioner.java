@@ -0,0 +1,78 @@
+package com.dist.simplekafka;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Picks the partition of a record. Records with a key go to the partition
+ * of the murmur2 hash of the key, so the records of a key stay in order.
+ * Records without a key stick to one partition of the topic till its
+ * batch is complete, then move on to another one at random, so they make
+ * full batches rather than a small batch per partition, while spreading
+ * over the partitions over time.
+ */
+class Partitioner {
+    private final Map<String, Integer> stickyPartitions = new ConcurrentHashMap<>();
+
+    //The index of the partition, from 0 to numPartitions - 1.
+    int partition(String topic, byte[] key, int numPartitions) {
+        if (key != null) {
+            return toPositive(murmur2(key)) % numPartitions;
+        }
+        return stickyPartitions.computeIfAbsent(topic, t -> ThreadLocalRandom.current().nextInt(numPartitions))
+                % numPartitions;
+    }
+
+    //The batch of the sticky partition is complete, records without a key
+    // move on to another partition.
+    void onNewBatch(String topic, int previousPartition, int numPartitions) {
+        if (numPartitions < 2) {
+            return;
+        }
+        int next = ThreadLocalRandom.current().nextInt(numPartitions - 1);
+        if (next >= previousPartition) {
+            next++;
+        }
+        stickyPartitions.replace(topic, previousPartition, next);
+    }
+
+    static int toPositive(int number) {
+        return number & 0x7fffffff;
+    }
+
+    //The 32 bit murmur2 hash, as the partitioners of Kafka clients use.
+    // The cases for the trailing bytes fall through on purpose.
+    @SuppressWarnings("fallthrough")
+    static int murmur2(byte[] data) {
+        int length = data.length;
+        int seed = 0x9747b28c;
+        final int m = 0x5bd1e995;
+        final int r = 24;
+        int h = seed ^ length;
+        int length4 = length / 4;
+        for (int i = 0; i < length4; i++) {
+            int i4 = i * 4;
+            int k = (data[i4] & 0xff) + ((data[i4 + 1] & 0xff) << 8)
+                    + ((data[i4 + 2] & 0xff) << 16) + ((data[i4 + 3] & 0xff) << 24);
+            k *= m;
+            k ^= k >>> r;
+            k *= m;
+            h *= m;
+            h ^= k;
+        }
+        switch (length % 4) {
+            case 3:
+                h ^= (data[(length & ~3) + 2] & 0xff) << 16;
+            case 2:
+                h ^= (data[(length & ~3) + 1] & 0xff) << 8;
+            case 1:
+                h ^= data[length & ~3] & 0xff;
+                h *= m;
+        }
+        h ^= h >>> 13;
+        h *= m;
+        h ^= h >>> 15;
+        return h;
+    }
+}
@@ -0,0 +1,242 @@
+package com.dist.simplekafka;
+
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * A network thread of the {@link SocketServer}, doing all the socket IO
+ * of its connections with a single selector. Complete request frames are
+ * handed to the request handler threads, and the responses come back to
+ * be written by this thread.
+ * A connection is not read while its request is being handled, so the
+ * requests of a connection are handled one at a time in order, and a
+ * client sending several requests gets the responses in the same order.
+ * An idle connection costs a selection key and a 4 byte size buffer, so
+ * a processor holds thousands of them.
+ */
+class Processor implements Runnable {
+    private static final Logger logger = Logger.getLogger(Processor.class);
+    private static final long SelectTimeoutMs = 300;
+
+    private final int id;
+    private final Selector selector;
+    private final RequestHandler handler;
+    private final ExecutorService requestHandlers;
+    private final int maxRequestBytes;
+    private final Queue<SocketChannel> newConnections = new ConcurrentLinkedQueue<>();
+    private final Queue<Connection> responded = new ConcurrentLinkedQueue<>();
+    private volatile boolean running = true;
+    private int connections = 0;
+
+    Processor(int id, RequestHandler handler, ExecutorService requestHandlers, int maxRequestBytes) throws IOException {
+        this.id = id;
+        this.selector = Selector.open();
+        this.handler = handler;
+        this.requestHandlers = requestHandlers;
+        this.maxRequestBytes = maxRequestBytes;
+    }
+
+    //Called by the acceptor, the connection is registered by this thread.
+    void accept(SocketChannel channel) {
+        newConnections.add(channel);
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                registerNewConnections();
+                sendResponses();
+                selector.select(SelectTimeoutMs);
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            read(connection);
+                        } else if (key.isWritable()) {
+                            write(connection);
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        logger.debug("Closing connection " + connection.channel + " after an error", e);
+                        close(connection);
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            if (running) {
+                logger.error("Processor " + id + " failed", e);
+            }
+        } finally {
+            closeAll();
+        }
+    }
+
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    //Only accurate on the processor thread, for monitoring.
+    int connectionCount() {
+        return connections;
+    }
+
+    private void registerNewConnections() {
+        SocketChannel channel;
+        while ((channel = newConnections.poll()) != null) {
+            try {
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                Connection connection = new Connection(channel);
+                connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                connections++;
+            } catch (IOException e) {
+                logger.warn("Failed to register connection " + channel, e);
+                closeQuietly(channel);
+            }
+        }
+    }
+
+    /**
+     * Reads the size, then the rest of the frame. Once the frame is
+     * complete, the connection stops reading till the response is sent.
+     */
+    private void read(Connection connection) throws IOException {
+        if (connection.request == null) {
+            if (connection.channel.read(connection.size) < 0) {
+                close(connection);
+                return;
+            }
+            if (connection.size.hasRemaining()) {
+                return;
+            }
+            int size = connection.size.getInt(0);
+            if (size <= 0 || size > maxRequestBytes) {
+                throw new IOException("Invalid request size " + size + " from " + connection.channel);
+            }
+            connection.request = ByteBuffer.allocate(size);
+        }
+        if (connection.channel.read(connection.request) < 0) {
+            close(connection);
+            return;
+        }
+        if (connection.request.hasRemaining()) {
+            return;
+        }
+        ByteBuffer request = connection.request.flip();
+        connection.key.interestOps(0);
+        try {
+            requestHandlers.execute(() -> handle(connection, request));
+        } catch (RejectedExecutionException e) {
+            close(connection); //shutting down.
+        }
+    }
+
+    //Runs on a request handler thread. Whatever fails the request closes
+    // the connection, and errors are rethrown once it is queued for
+    // closing.
+    private void handle(Connection connection, ByteBuffer request) {
+        try {
+            connection.response = handler.handle(request);
+        } catch (Throwable e) {
+            logger.warn("Failed to handle a request from " + connection.channel + ", closing it", e);
+            connection.response = null;
+            if (e instanceof Error) {
+                throw (Error) e;
+            }
+        } finally {
+            responded.add(connection);
+            selector.wakeup();
+        }
+    }
+
+    private void sendResponses() {
+        Connection connection;
+        while ((connection = responded.poll()) != null) {
+            if (connection.response == null) {
+                close(connection);
+                continue;
+            }
+            try {
+                write(connection);
+            } catch (IOException | RuntimeException e) {
+                logger.debug("Closing connection " + connection.channel + " after an error", e);
+                close(connection);
+            }
+        }
+    }
+
+    private void write(Connection connection) throws IOException {
+        if (!connection.key.isValid()) {
+            return;
+        }
+        if (!connection.response.writeTo(connection.channel)) {
+            connection.key.interestOps(SelectionKey.OP_WRITE);
+            return;
+        }
+        connection.response = null;
+        connection.request = null;
+        connection.size.clear();
+        connection.key.interestOps(SelectionKey.OP_READ);
+    }
+
+    private void close(Connection connection) {
+        if (connection.key != null && connection.key.isValid()) {
+            connection.key.cancel();
+            connections--;
+        }
+        closeQuietly(connection.channel);
+    }
+
+    private void closeAll() {
+        for (SelectionKey key : selector.keys()) {
+            closeQuietly((SocketChannel) key.channel());
+        }
+        SocketChannel channel;
+        while ((channel = newConnections.poll()) != null) {
+            closeQuietly(channel);
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close the selector of processor " + id, e);
+        }
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            //nothing to do.
+        }
+    }
+
+    private static class Connection {
+        final SocketChannel channel;
+        final ByteBuffer size = ByteBuffer.allocate(4);
+        SelectionKey key;
+        ByteBuffer request; //null till the size is read.
+        //set by the request handler thread, read by the processor after
+        // taking the connection from the responded queue.
+        volatile NetworkSend response;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+}
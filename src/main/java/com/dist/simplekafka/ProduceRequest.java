@@ -0,0 +1,67 @@
+package com.dist.simplekafka;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Appends a record batch to each of the given partitions:
+ *   [int count]{topic, int partition, bytes records}
+ * The batches are appended as encoded by the producer, see
+ * {@link Log#appendRecordBatch}.
+ */
+public class ProduceRequest implements ApiRequest {
+    private final List<PartitionData> partitions;
+
+    public ProduceRequest(List<PartitionData> partitions) {
+        this.partitions = partitions;
+    }
+
+    public static ProduceRequest parse(ByteBuffer buffer) {
+        int count = buffer.getInt();
+        List<PartitionData> partitions = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            TopicPartition topicPartition = new TopicPartition(Protocol.readString(buffer), buffer.getInt());
+            partitions.add(new PartitionData(topicPartition, Protocol.readBytes(buffer)));
+        }
+        return new ProduceRequest(partitions);
+    }
+
+    public List<PartitionData> partitions() {
+        return partitions;
+    }
+
+    @Override
+    public short apiKey() {
+        return ApiKeys.Produce;
+    }
+
+    @Override
+    public int sizeInBytes() {
+        int size = 4;
+        for (PartitionData partition : partitions) {
+            size += Protocol.sizeOf(partition.topicPartition.topic()) + 4 + Protocol.sizeOf(partition.records);
+        }
+        return size;
+    }
+
+    @Override
+    public void writeTo(ByteBuffer buffer) {
+        buffer.putInt(partitions.size());
+        for (PartitionData partition : partitions) {
+            Protocol.writeString(partition.topicPartition.topic(), buffer);
+            buffer.putInt(partition.topicPartition.partition());
+            Protocol.writeBytes(partition.records, buffer);
+        }
+    }
+
+    public static class PartitionData {
+        public final TopicPartition topicPartition;
+        public final ByteBuffer records;
+
+        public PartitionData(TopicPartition topicPartition, ByteBuffer records) {
+            this.topicPartition = topicPartition;
+            this.records = records;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.dist.simplekafka;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The result of a {@link ProduceRequest} for each of its partitions:
+ *   [int count]{topic, int partition, short error, long baseOffset}
+ * The base offset is the offset of the first record of the batch, -1 if
+ * the append failed, see {@link Errors}.
+ */
+public class ProduceResponse implements ApiResponse {
+    private final List<PartitionResponse> responses;
+
+    public ProduceResponse(List<PartitionResponse> responses) {
+        this.responses = responses;
+    }
+
+    public static ProduceResponse parse(ByteBuffer buffer) {
+        int count = buffer.getInt();
+        List<PartitionResponse> responses = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            TopicPartition topicPartition = new TopicPartition(Protocol.readString(buffer), buffer.getInt());
+            responses.add(new PartitionResponse(topicPartition, buffer.getShort(), buffer.getLong()));
+        }
+        return new ProduceResponse(responses);
+    }
+
+    public List<PartitionResponse> responses() {
+        return responses;
+    }
+
+    @Override
+    public int sizeInBytes() {
+        int size = 4;
+        for (PartitionResponse response : responses) {
+            size += Protocol.sizeOf(response.topicPartition.topic()) + 4 + 2 + 8;
+        }
+        return size;
+    }
+
+    @Override
+    public void writeTo(ByteBuffer buffer) {
+        buffer.putInt(responses.size());
+        for (PartitionResponse response : responses) {
+            Protocol.writeString(response.topicPartition.topic(), buffer);
+            buffer.putInt(response.topicPartition.partition());
+            buffer.putShort(response.error);
+            buffer.putLong(response.baseOffset);
+        }
+    }
+
+    public static class PartitionResponse {
+        public final TopicPartition topicPartition;
+        public final short error;
+        public final long baseOffset;
+
+        public PartitionResponse(TopicPartition topicPartition, short error, long baseOffset) {
+            this.topicPartition = topicPartition;
+            this.error = error;
+            this.baseOffset = baseOffset;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.dist.simplekafka;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Sends records to the leaders of their partitions in batches. A send
+ * appends the record to the batch of its partition in the
+ * {@link RecordAccumulator} and returns, and the {@link Sender} thread
+ * sends the batches once full or after lingerMs, so the network and disk
+ * costs are paid per batch rather than per record. The partition is
+ * picked by the {@link Partitioner}, from the partitions in the
+ * {@link ClientMetadata}.
+ * All the batches are allocated from a {@link BufferPool} of
+ * bufferMemory bytes, and sends block while it is in use, so a producer
+ * faster than the brokers is slowed down rather than running out of
+ * memory.
+ * The records of a batch share its timestamp, the time its first record
+ * was sent.
+ * Safe to use from many threads.
+ */
+public class Producer implements Closeable {
+    private static final byte[] Empty = new byte[0];
+
+    private final ProducerConfig config;
+    private final NetworkClient client;
+    private final ClientMetadata metadata;
+    private final Partitioner partitioner = new Partitioner();
+    private final RecordAccumulator accumulator;
+    private final Sender sender;
+    private final Thread senderThread;
+
+    public Producer(ProducerConfig config) throws IOException {
+        this.config = config;
+        this.client = new NetworkClient(config.getClientId(), config.getMaxInFlightRequestsPerBroker(),
+                config.getRequestTimeoutMs());
+        this.metadata = new ClientMetadata(client, config.getBootstrapServers(), config.getRetryBackoffMs());
+        this.accumulator = new RecordAccumulator(config.getBatchBytes(), config.getLingerMs(), config.getMaxBlockMs(),
+                new BufferPool(config.getBufferMemory(), config.getBatchBytes()));
+        this.sender = new Sender(accumulator, metadata, client, config.getMaxRequestBytes(),
+                config.getMaxInFlightRequestsPerBroker(), config.getRetryBackoffMs());
+        this.senderThread = new Thread(sender, "producer-sender-" + config.getClientId());
+        this.senderThread.setDaemon(true);
+        this.senderThread.start();
+    }
+
+    /**
+     * Sends a record to the topic, blocking up to maxBlockMs for the
+     * metadata of the topic and for memory. Callbacks on the future run on
+     * the network thread of the producer, so they must not block.
+     * @return the offset of the record once appended. Fails with a
+     * {@link TimeoutException} if the send blocked for too long, or with
+     * an {@link ApiException} if the broker failed to append it.
+     */
+    public CompletableFuture<Long> send(String topic, byte[] key, byte[] value) {
+        byte[] valueBytes = value == null ? Empty : value;
+        int size = RecordBatch.Builder.sizeInBytes(key == null ? Empty : key, valueBytes);
+        if (size > config.getMaxRequestBytes() || size > config.getBufferMemory()) {
+            throw new IllegalArgumentException("A record of " + size + " bytes is larger than the max request size "
+                    + config.getMaxRequestBytes() + " or the buffer memory " + config.getBufferMemory());
+        }
+        try {
+            List<PartitionReplicas> partitions = metadata.awaitPartitions(topic, config.getMaxBlockMs());
+            int partition = partitioner.partition(topic, key, partitions.size());
+            RecordAccumulator.AppendResult result = append(topic, partitions, partition, key, valueBytes, key == null);
+            if (result == null) {
+                //the sticky partition's batch is complete, a new batch is
+                // started on another partition.
+                partitioner.onNewBatch(topic, partition, partitions.size());
+                partition = partitioner.partition(topic, null, partitions.size());
+                result = append(topic, partitions, partition, null, valueBytes, false);
+            }
+            if (result.batchIsFull || result.newBatchCreated) {
+                sender.wakeup();
+            }
+            return result.future;
+        } catch (TimeoutException e) {
+            return CompletableFuture.failedFuture(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private RecordAccumulator.AppendResult append(String topic, List<PartitionReplicas> partitions, int partition,
+                                                  byte[] key, byte[] value, boolean abortOnNewBatch)
+            throws InterruptedException, TimeoutException {
+        TopicPartition topicPartition = new TopicPartition(topic, partitions.get(partition).getPartitionId());
+        return accumulator.append(topicPartition, key == null ? Empty : key, value, System.currentTimeMillis(),
+                abortOnNewBatch);
+    }
+
+    //Sends all the batches right away and waits for the records sent so far.
+    public void flush() {
+        accumulator.beginFlush();
+        sender.wakeup();
+        accumulator.awaitFlushCompletion();
+    }
+
+    /**
+     * Sends the records sent so far, waiting up to requestTimeoutMs for
+     * them, and stops the producer. Records not sent by then fail.
+     */
+    @Override
+    public void close() {
+        accumulator.close();
+        sender.initiateClose(false);
+        try {
+            senderThread.join(config.getRequestTimeoutMs());
+            if (senderThread.isAlive()) {
+                sender.initiateClose(true);
+                senderThread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        client.close();
+    }
+}
@@ -0,0 +1,80 @@
+package com.dist.simplekafka;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Records of a partition collected by the {@link RecordAccumulator} to be
+ * sent as a single record batch. The records are encoded as they are
+ * appended, into a buffer from the {@link BufferPool}, which is returned
+ * to the pool once the broker answers.
+ * Appends and closing happen under the lock of the partition's queue of
+ * batches in the accumulator.
+ */
+class ProducerBatch {
+    final TopicPartition topicPartition;
+    final long createdMs;
+    final ByteBuffer buffer;
+    //completed once the records are appended or failed, e.g. for a flush.
+    final CompletableFuture<Void> done = new CompletableFuture<>();
+    private final RecordBatch.Builder builder;
+    private final List<CompletableFuture<Long>> futures = new ArrayList<>();
+    private boolean closed = false;
+
+    ProducerBatch(TopicPartition topicPartition, ByteBuffer buffer, long createdMs) {
+        this.topicPartition = topicPartition;
+        this.buffer = buffer;
+        this.createdMs = createdMs;
+        this.builder = new RecordBatch.Builder(buffer, createdMs);
+    }
+
+    /**
+     * @return the offset of the record once appended, null if the record
+     * doesn't fit or the batch is being sent.
+     */
+    CompletableFuture<Long> tryAppend(byte[] key, byte[] value) {
+        if (closed || !builder.tryAppend(key, value)) {
+            return null;
+        }
+        CompletableFuture<Long> future = new CompletableFuture<>();
+        futures.add(future);
+        return future;
+    }
+
+    //Full once the next record of the same size wouldn't fit.
+    boolean isFull() {
+        int recordCount = builder.recordCount();
+        return recordCount > 0 && buffer.capacity() - builder.sizeInBytes()
+                < (builder.sizeInBytes() - RecordBatch.HeaderSize) / recordCount;
+    }
+
+    int sizeInBytes() {
+        return builder.sizeInBytes();
+    }
+
+    int recordCount() {
+        return builder.recordCount();
+    }
+
+    //No more appends, the encoded batch to send.
+    ByteBuffer close() {
+        closed = true;
+        return builder.build();
+    }
+
+    void complete(long baseOffset) {
+        for (int i = 0; i < futures.size(); i++) {
+            futures.get(i).complete(baseOffset + i);
+        }
+        done.complete(null);
+    }
+
+    void fail(Throwable e) {
+        for (CompletableFuture<Long> future : futures) {
+            future.completeExceptionally(e);
+        }
+        done.complete(null);
+    }
+}
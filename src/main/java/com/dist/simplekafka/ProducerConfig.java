@@ -0,0 +1,116 @@
+package com.dist.simplekafka;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class ProducerConfig {
+    //brokers asked for the metadata, any one of the cluster will do.
+    private final List<InetSocketAddress> bootstrapServers;
+    private String clientId = "producer";
+    //a batch of a partition is sent once it has this many bytes...
+    private int batchBytes = 16 * 1024;
+    //...or has waited this long for more records.
+    private long lingerMs = 5;
+    //memory of all the batches, sends block once it is in use.
+    private long bufferMemory = 32 * 1024 * 1024;
+    //how long a send blocks for metadata or memory before failing.
+    private long maxBlockMs = TimeUnit.MINUTES.toMillis(1);
+    private int maxRequestBytes = 1024 * 1024;
+    //produce requests sent to a broker without waiting for their responses.
+    private int maxInFlightRequestsPerBroker = 5;
+    private long requestTimeoutMs = TimeUnit.SECONDS.toMillis(30);
+    private long retryBackoffMs = 100;
+
+    public ProducerConfig(List<InetSocketAddress> bootstrapServers) {
+        if (bootstrapServers.isEmpty()) {
+            throw new IllegalArgumentException("bootstrapServers cannot be empty");
+        }
+        this.bootstrapServers = bootstrapServers;
+    }
+
+    public List<InetSocketAddress> getBootstrapServers() {
+        return bootstrapServers;
+    }
+
+    public String getClientId() {
+        return clientId;
+    }
+
+    public ProducerConfig setClientId(String clientId) {
+        this.clientId = clientId;
+        return this;
+    }
+
+    public int getBatchBytes() {
+        return batchBytes;
+    }
+
+    public ProducerConfig setBatchBytes(int batchBytes) {
+        this.batchBytes = batchBytes;
+        return this;
+    }
+
+    public long getLingerMs() {
+        return lingerMs;
+    }
+
+    public ProducerConfig setLingerMs(long lingerMs) {
+        this.lingerMs = lingerMs;
+        return this;
+    }
+
+    public long getBufferMemory() {
+        return bufferMemory;
+    }
+
+    public ProducerConfig setBufferMemory(long bufferMemory) {
+        this.bufferMemory = bufferMemory;
+        return this;
+    }
+
+    public long getMaxBlockMs() {
+        return maxBlockMs;
+    }
+
+    public ProducerConfig setMaxBlockMs(long maxBlockMs) {
+        this.maxBlockMs = maxBlockMs;
+        return this;
+    }
+
+    public int getMaxRequestBytes() {
+        return maxRequestBytes;
+    }
+
+    public ProducerConfig setMaxRequestBytes(int maxRequestBytes) {
+        this.maxRequestBytes = maxRequestBytes;
+        return this;
+    }
+
+    public int getMaxInFlightRequestsPerBroker() {
+        return maxInFlightRequestsPerBroker;
+    }
+
+    public ProducerConfig setMaxInFlightRequestsPerBroker(int maxInFlightRequestsPerBroker) {
+        this.maxInFlightRequestsPerBroker = maxInFlightRequestsPerBroker;
+        return this;
+    }
+
+    public long getRequestTimeoutMs() {
+        return requestTimeoutMs;
+    }
+
+    public ProducerConfig setRequestTimeoutMs(long requestTimeoutMs) {
+        this.requestTimeoutMs = requestTimeoutMs;
+        return this;
+    }
+
+    public long getRetryBackoffMs() {
+        return retryBackoffMs;
+    }
+
+    public ProducerConfig setRetryBackoffMs(long retryBackoffMs) {
+        this.retryBackoffMs = retryBackoffMs;
+        return this;
+    }
+}
@@ -0,0 +1,109 @@
+package com.dist.simplekafka;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encoding helpers shared by the requests and responses, see
+ * {@link RequestHeader} for the framing.
+ */
+final class Protocol {
+
+    private Protocol() {
+    }
+
+    static void writeString(String value, ByteBuffer buffer) {
+        if (value == null) {
+            buffer.putShort((short) -1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("String of " + bytes.length + " bytes is longer than "
+                    + Short.MAX_VALUE + " bytes");
+        }
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    static String readString(ByteBuffer buffer) {
+        short length = buffer.getShort();
+        if (length < 0) {
+            return null;
+        }
+        ensureRemaining(buffer, length);
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length,
+                StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    //A size read from a request can't be trusted to be within the buffer.
+    private static void ensureRemaining(ByteBuffer buffer, int size) {
+        if (size > buffer.remaining()) {
+            throw new IllegalArgumentException("Size " + size + " is past the end of the buffer, "
+                    + buffer.remaining() + " bytes remain");
+        }
+    }
+
+    static int sizeOf(String value) {
+        return 2 + (value == null ? 0 : utf8Length(value));
+    }
+
+    //Bytes and records are a 4 byte size followed by the bytes, -1 for
+    // null. Reading returns a view of the buffer, not a copy.
+    static void writeBytes(ByteBuffer value, ByteBuffer buffer) {
+        if (value == null) {
+            buffer.putInt(-1);
+            return;
+        }
+        buffer.putInt(value.remaining());
+        buffer.put(value.duplicate());
+    }
+
+    static ByteBuffer readBytes(ByteBuffer buffer) {
+        int size = buffer.getInt();
+        if (size < 0) {
+            return null;
+        }
+        ensureRemaining(buffer, size);
+        ByteBuffer value = buffer.slice(buffer.position(), size);
+        buffer.position(buffer.position() + size);
+        return value;
+    }
+
+    static int sizeOf(ByteBuffer value) {
+        return 4 + (value == null ? 0 : value.remaining());
+    }
+
+    /**
+     * A response frame with the size and correlation ID written, for the
+     * caller to add bodySize bytes. The frame continues with trailingBytes
+     * sent separately, e.g. from a segment file.
+     */
+    static ByteBuffer responseFrame(int correlationId, int bodySize, int trailingBytes) {
+        ByteBuffer buffer = ByteBuffer.allocate(4 + 4 + bodySize);
+        buffer.putInt(4 + bodySize + trailingBytes);
+        buffer.putInt(correlationId);
+        return buffer;
+    }
+
+    //Topic names are mostly ASCII, counted without encoding them.
+    private static int utf8Length(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+}
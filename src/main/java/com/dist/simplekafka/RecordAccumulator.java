@@ -0,0 +1,225 @@
+package com.dist.simplekafka;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Collects the records of a producer into a queue of batches per
+ * partition, for the {@link Sender} to send. Records are appended to the
+ * last batch of their partition, and a new batch is started from the
+ * {@link BufferPool} once it is full, so the network and disk costs are
+ * paid per batch rather than per record.
+ * The first batch of a partition is ready to send once it is full, or has
+ * waited lingerMs for more records, or right away while a flush is in
+ * progress, the producer is closing or allocations wait for memory.
+ * The queue of a partition is locked by the appending threads and the
+ * sender, the accumulator itself is not.
+ */
+class RecordAccumulator {
+    private final int batchBytes;
+    private final long lingerMs;
+    private final long maxBlockMs;
+    private final BufferPool pool;
+    private final Map<TopicPartition, Deque<ProducerBatch>> batches = new ConcurrentHashMap<>();
+    private final Set<ProducerBatch> incomplete = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger flushesInProgress = new AtomicInteger();
+    private volatile boolean closed = false;
+
+    RecordAccumulator(int batchBytes, long lingerMs, long maxBlockMs, BufferPool pool) {
+        this.batchBytes = batchBytes;
+        this.lingerMs = lingerMs;
+        this.maxBlockMs = maxBlockMs;
+        this.pool = pool;
+    }
+
+    /**
+     * Appends the record to the last batch of the partition, or a new one,
+     * waiting up to maxBlockMs for its memory.
+     * @param abortOnNewBatch returns null rather than starting a new batch,
+     *                        for the sticky partitioner to move on to
+     *                        another partition.
+     */
+    AppendResult append(TopicPartition topicPartition, byte[] key, byte[] value, long now, boolean abortOnNewBatch)
+            throws InterruptedException, TimeoutException {
+        Deque<ProducerBatch> queue = batches.computeIfAbsent(topicPartition, tp -> new ArrayDeque<>());
+        synchronized (queue) {
+            ensureOpen();
+            AppendResult result = tryAppend(queue, key, value);
+            if (result != null || abortOnNewBatch) {
+                return result;
+            }
+        }
+        ByteBuffer buffer = pool.allocate(Math.max(batchBytes, RecordBatch.Builder.sizeInBytes(key, value)), maxBlockMs);
+        try {
+            synchronized (queue) {
+                ensureOpen();
+                AppendResult result = tryAppend(queue, key, value);
+                if (result != null) { //another thread started a batch meanwhile.
+                    pool.deallocate(buffer);
+                    return result;
+                }
+                ProducerBatch batch = new ProducerBatch(topicPartition, buffer, now);
+                CompletableFuture<Long> future = batch.tryAppend(key, value);
+                queue.addLast(batch);
+                incomplete.add(batch);
+                batch.done.whenComplete((ignored, e) -> incomplete.remove(batch));
+                return new AppendResult(future, queue.size() > 1 || batch.isFull(), true);
+            }
+        } catch (RuntimeException e) {
+            pool.deallocate(buffer);
+            throw e;
+        }
+    }
+
+    private static AppendResult tryAppend(Deque<ProducerBatch> queue, byte[] key, byte[] value) {
+        ProducerBatch last = queue.peekLast();
+        if (last == null) {
+            return null;
+        }
+        CompletableFuture<Long> future = last.tryAppend(key, value);
+        return future == null ? null : new AppendResult(future, queue.size() > 1 || last.isFull(), false);
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("Producer is closed");
+        }
+    }
+
+    /**
+     * The partitions with a batch ready to send, and the time till the
+     * next batch is ready if none is sent meanwhile.
+     */
+    ReadyCheck ready(long now) {
+        Set<TopicPartition> ready = new HashSet<>();
+        long nextReadyCheckDelayMs = Long.MAX_VALUE;
+        boolean sendAll = closed || flushesInProgress.get() > 0 || pool.queued() > 0;
+        for (Map.Entry<TopicPartition, Deque<ProducerBatch>> entry : batches.entrySet()) {
+            Deque<ProducerBatch> queue = entry.getValue();
+            synchronized (queue) {
+                ProducerBatch first = queue.peekFirst();
+                if (first == null) {
+                    continue;
+                }
+                long waitedMs = now - first.createdMs;
+                if (sendAll || queue.size() > 1 || first.isFull() || waitedMs >= lingerMs) {
+                    ready.add(entry.getKey());
+                } else {
+                    nextReadyCheckDelayMs = Math.min(nextReadyCheckDelayMs, lingerMs - waitedMs);
+                }
+            }
+        }
+        return new ReadyCheck(ready, nextReadyCheckDelayMs);
+    }
+
+    /**
+     * Takes the first batch of each of the partitions, up to maxBytes in
+     * total but at least one batch, closing them for appends.
+     */
+    List<ProducerBatch> drain(Collection<TopicPartition> partitions, int maxBytes) {
+        List<ProducerBatch> drained = new ArrayList<>();
+        int size = 0;
+        for (TopicPartition topicPartition : partitions) {
+            Deque<ProducerBatch> queue = batches.get(topicPartition);
+            synchronized (queue) {
+                ProducerBatch first = queue.peekFirst();
+                if (first == null) {
+                    continue;
+                }
+                if (!drained.isEmpty() && size + first.sizeInBytes() > maxBytes) {
+                    break;
+                }
+                queue.pollFirst();
+                first.close();
+                drained.add(first);
+                size += first.sizeInBytes();
+            }
+        }
+        return drained;
+    }
+
+    //The broker answered, the batch memory goes back to the pool.
+    void deallocate(ProducerBatch batch) {
+        pool.deallocate(batch.buffer);
+    }
+
+    boolean hasUndrained() {
+        for (Deque<ProducerBatch> queue : batches.values()) {
+            synchronized (queue) {
+                if (!queue.isEmpty()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    void beginFlush() {
+        flushesInProgress.incrementAndGet();
+    }
+
+    //Waits for the records of the batches started before the flush to
+    // complete, successfully or not.
+    void awaitFlushCompletion() {
+        try {
+            for (ProducerBatch batch : incomplete.toArray(new ProducerBatch[0])) {
+                batch.done.join();
+            }
+        } finally {
+            flushesInProgress.decrementAndGet();
+        }
+    }
+
+    //Stops appends, the batches already started are still sent.
+    void close() {
+        closed = true;
+    }
+
+    //Fails the batches left when the producer is closed without sending
+    // them.
+    void abortBatches(Throwable cause) {
+        for (Deque<ProducerBatch> queue : batches.values()) {
+            synchronized (queue) {
+                ProducerBatch batch;
+                while ((batch = queue.pollFirst()) != null) {
+                    batch.fail(cause);
+                    deallocate(batch);
+                }
+            }
+        }
+    }
+
+    static class AppendResult {
+        final CompletableFuture<Long> future;
+        //the sender should be woken up as a batch is ready.
+        final boolean batchIsFull;
+        final boolean newBatchCreated;
+
+        AppendResult(CompletableFuture<Long> future, boolean batchIsFull, boolean newBatchCreated) {
+            this.future = future;
+            this.batchIsFull = batchIsFull;
+            this.newBatchCreated = newBatchCreated;
+        }
+    }
+
+    static class ReadyCheck {
+        final Set<TopicPartition> readyPartitions;
+        final long nextReadyCheckDelayMs;
+
+        ReadyCheck(Set<TopicPartition> readyPartitions, long nextReadyCheckDelayMs) {
+            this.readyPartitions = readyPartitions;
+            this.nextReadyCheckDelayMs = nextReadyCheckDelayMs;
+        }
+    }
+}
@@ -0,0 +1,496 @@
+package com.dist.simplekafka;
+
+import com.dist.common.ByteUtils;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.zip.CRC32C;
+
+/**
+ * The unit of storage in the log. Messages are appended and read as
+ * batches sharing a single header, so a small message does not pay for a
+ * full header of its own.
+ *   1. 8 byte base offset, the offset of the first record
+ *   2. 4 byte batch length, the number of bytes following this field
+ *   3. 4 byte CRC32C of everything after this field
+ *   4. 2 byte attributes, the lowest 3 bits are the compression codec id
+ *   5. 4 byte last offset delta
+ *   6. 8 byte max timestamp, the largest timestamp of the records
+ *   7. 4 byte record count
+ *   8. records
+ * Every record is
+ *   1. varint length of the rest of the record
+ *   2. varint offset delta from the base offset
+ *   3. zigzag varlong timestamp delta from the max timestamp
+ *   4. varint key length K, followed by K bytes of key
+ *   5. varint value length V, followed by V bytes of value
+ * The max timestamp lets a time based lookup skip a batch by its header.
+ * The base offset is not covered by the CRC, so a batch can be encoded
+ * before the log assigns its offset.
+ * When compressed, the records are stored as the varint size of the
+ * uncompressed records followed by the compressed bytes. Offset deltas are
+ * inside the compressed records, so the log assigns offsets to a
+ * compressed batch without decompressing it. Records are only
+ * decompressed when the batch is iterated.
+ */
+class RecordBatch implements Iterable<Log.Message> {
+    static final int BaseOffsetOffset = 0;
+    static final int LengthOffset = BaseOffsetOffset + 8;
+    static final int CrcOffset = LengthOffset + 4;
+    static final int AttributesOffset = CrcOffset + 4;
+    static final int LastOffsetDeltaOffset = AttributesOffset + 2;
+    static final int MaxTimestampOffset = LastOffsetDeltaOffset + 4;
+    static final int RecordCountOffset = MaxTimestampOffset + 8;
+    static final int RecordsOffset = RecordCountOffset + 4;
+
+    static final int LogOverhead = CrcOffset; //base offset and length.
+    static final int HeaderSize = RecordsOffset;
+    static final long NoTimestamp = -1;
+    //bound on the declared uncompressed size of the records of a batch.
+    static final int MaxUncompressedSize = 64 * 1024 * 1024;
+
+    private static final int CompressionCodecMask = 0x07;
+    //appends encode into a direct buffer per thread, which grows up to
+    // this size. Larger batches get a heap buffer of their own.
+    private static final int MaxReusableBufferSize = 1024 * 1024;
+    private static final int InitialReusableBufferSize = 16 * 1024;
+    private static final ThreadLocal<ReusableBuffer> reusableBuffers = ThreadLocal.withInitial(ReusableBuffer::new);
+    private static final ThreadLocal<CRC32C> checksums = ThreadLocal.withInitial(CRC32C::new);
+
+    private final ByteBuffer buffer;
+
+    //The buffer is expected to contain exactly one batch from its
+    // position to its limit.
+    RecordBatch(ByteBuffer buffer) {
+        this.buffer = buffer.slice();
+    }
+
+    static RecordBatch of(long baseOffset, byte[] key, byte[] value) {
+        return of(baseOffset, List.of(new Log.Message(key, value)));
+    }
+
+    static RecordBatch of(long baseOffset, List<Log.Message> messages) {
+        return of(baseOffset, messages, null);
+    }
+
+    /**
+     * @param codec codec to compress the records with, null for no
+     *              compression. Records which do not get any smaller are
+     *              stored uncompressed.
+     */
+    static RecordBatch of(long baseOffset, List<Log.Message> messages, CompressionCodec codec) {
+        return new RecordBatch(encode(baseOffset, messages, false, codec, false));
+    }
+
+    /**
+     * A batch keeping the offsets the messages already have, which need
+     * not be contiguous, e.g. the messages retained by the log cleaner.
+     */
+    static RecordBatch withOffsets(List<Log.Message> messages, CompressionCodec codec) {
+        if (messages.isEmpty()) {
+            throw new IllegalArgumentException("A batch needs at least one message");
+        }
+        return new RecordBatch(encode(messages.get(0).offset, messages, true, codec, false));
+    }
+
+    /**
+     * Encodes a batch to be appended, with the base offset left to the log.
+     * Uncompressed batches are encoded in a direct buffer reused by the
+     * calling thread, so an append allocates nothing, and the channel
+     * writes the batch without first copying it to a temporary direct
+     * buffer. The buffer is only valid till the next call from the same
+     * thread.
+     */
+    static ByteBuffer encodeForAppend(List<Log.Message> messages, CompressionCodec codec) {
+        return encode(0, messages, false, codec, true);
+    }
+
+    static ByteBuffer encodeForAppend(byte[] key, byte[] value) {
+        long timestamp = System.currentTimeMillis();
+        ByteBuffer buffer = allocate(HeaderSize + sizeOf(0, 0, key, value), true);
+        writeHeader(buffer, 0, CompressionCodecs.NoCompression, 0, timestamp, 1);
+        writeRecord(buffer, 0, 0, key, value);
+        return seal(buffer);
+    }
+
+    //Number of offsets taken by the encoded batch at the buffer position.
+    static int offsetCount(ByteBuffer batch) {
+        return batch.getInt(batch.position() + LastOffsetDeltaOffset) + 1;
+    }
+
+    static int recordCount(ByteBuffer batch) {
+        return batch.getInt(batch.position() + RecordCountOffset);
+    }
+
+    static long maxTimestamp(ByteBuffer batch) {
+        return batch.getLong(batch.position() + MaxTimestampOffset);
+    }
+
+    private static ByteBuffer encode(long baseOffset, List<Log.Message> messages, boolean keepOffsets,
+                                     CompressionCodec codec, boolean reusable) {
+        if (messages.isEmpty()) {
+            throw new IllegalArgumentException("A batch needs at least one message");
+        }
+        long maxTimestamp = NoTimestamp;
+        for (Log.Message message : messages) {
+            maxTimestamp = Math.max(maxTimestamp, message.timestamp);
+        }
+        int recordsSize = 0;
+        for (int i = 0; i < messages.size(); i++) {
+            Log.Message message = messages.get(i);
+            recordsSize += sizeOf(offsetDelta(baseOffset, messages, i, keepOffsets),
+                    message.timestamp - maxTimestamp, message.key, message.value);
+        }
+        if (codec != null) {
+            ByteBuffer compressed = compressed(baseOffset, messages, keepOffsets, maxTimestamp, recordsSize, codec);
+            if (compressed != null) {
+                return compressed;
+            }
+        }
+        ByteBuffer buffer = allocate(HeaderSize + recordsSize, reusable);
+        writeHeader(buffer, baseOffset, CompressionCodecs.NoCompression,
+                offsetDelta(baseOffset, messages, messages.size() - 1, keepOffsets), maxTimestamp, messages.size());
+        writeRecords(buffer, baseOffset, messages, keepOffsets, maxTimestamp);
+        return seal(buffer);
+    }
+
+    private static ByteBuffer compressed(long baseOffset, List<Log.Message> messages, boolean keepOffsets,
+                                         long maxTimestamp, int recordsSize, CompressionCodec codec) {
+        ByteBuffer records = ByteBuffer.allocate(recordsSize);
+        writeRecords(records, baseOffset, messages, keepOffsets, maxTimestamp);
+        byte[] compressed = codec.compress(records.array(), 0, recordsSize);
+        int compressedSize = ByteUtils.sizeOfUnsignedVarint(recordsSize) + compressed.length;
+        if (compressedSize >= recordsSize) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(HeaderSize + compressedSize);
+        writeHeader(buffer, baseOffset, codec.id(),
+                offsetDelta(baseOffset, messages, messages.size() - 1, keepOffsets), maxTimestamp, messages.size());
+        ByteUtils.writeUnsignedVarint(recordsSize, buffer);
+        buffer.put(compressed);
+        return seal(buffer);
+    }
+
+    private static int offsetDelta(long baseOffset, List<Log.Message> messages, int i, boolean keepOffsets) {
+        return keepOffsets ? Math.toIntExact(messages.get(i).offset - baseOffset) : i;
+    }
+
+    private static void writeRecords(ByteBuffer buffer, long baseOffset, List<Log.Message> messages,
+                                     boolean keepOffsets, long maxTimestamp) {
+        for (int i = 0; i < messages.size(); i++) {
+            Log.Message message = messages.get(i);
+            writeRecord(buffer, offsetDelta(baseOffset, messages, i, keepOffsets),
+                    message.timestamp - maxTimestamp, message.key, message.value);
+        }
+    }
+
+    private static void writeHeader(ByteBuffer buffer, long baseOffset, int codecId, int lastOffsetDelta,
+                                    long maxTimestamp, int recordCount) {
+        buffer.putLong(baseOffset);
+        buffer.putInt(buffer.limit() - LogOverhead);
+        buffer.putInt(0); //crc is computed once the records are written.
+        buffer.putShort((short) (codecId & CompressionCodecMask));
+        buffer.putInt(lastOffsetDelta);
+        buffer.putLong(maxTimestamp);
+        buffer.putInt(recordCount);
+    }
+
+    private static ByteBuffer seal(ByteBuffer buffer) {
+        buffer.flip();
+        buffer.putInt(CrcOffset, computeChecksum(buffer));
+        return buffer;
+    }
+
+    //A buffer with exactly size bytes remaining.
+    private static ByteBuffer allocate(int size, boolean reusable) {
+        if (!reusable || size > MaxReusableBufferSize) {
+            return ByteBuffer.allocate(size);
+        }
+        ReusableBuffer reusableBuffer = reusableBuffers.get();
+        if (reusableBuffer.buffer == null || reusableBuffer.buffer.capacity() < size) {
+            reusableBuffer.buffer = ByteBuffer.allocateDirect(Math.max(size, InitialReusableBufferSize));
+        }
+        ByteBuffer buffer = reusableBuffer.buffer;
+        buffer.clear().limit(size);
+        return buffer;
+    }
+
+    long baseOffset() {
+        return buffer.getLong(BaseOffsetOffset);
+    }
+
+    //The log assigns offsets only once it has reserved space for the batch.
+    void setBaseOffset(long baseOffset) {
+        buffer.putLong(BaseOffsetOffset, baseOffset);
+    }
+
+    long lastOffset() {
+        return baseOffset() + buffer.getInt(LastOffsetDeltaOffset);
+    }
+
+    int recordCount() {
+        return buffer.getInt(RecordCountOffset);
+    }
+
+    long maxTimestamp() {
+        return buffer.getLong(MaxTimestampOffset);
+    }
+
+    //Number of offsets the batch takes in the log.
+    int offsetCount() {
+        return buffer.getInt(LastOffsetDeltaOffset) + 1;
+    }
+
+    int compressionCodecId() {
+        return buffer.getShort(AttributesOffset) & CompressionCodecMask;
+    }
+
+    boolean isCompressed() {
+        return compressionCodecId() != CompressionCodecs.NoCompression;
+    }
+
+    int sizeInBytes() {
+        return buffer.limit();
+    }
+
+    long checksum() {
+        return Integer.toUnsignedLong(buffer.getInt(CrcOffset));
+    }
+
+    boolean isValid() {
+        return sizeInBytes() >= HeaderSize
+                && buffer.getInt(LengthOffset) == sizeInBytes() - LogOverhead
+                && buffer.getInt(LastOffsetDeltaOffset) >= 0
+                && buffer.getInt(CrcOffset) == computeChecksum(buffer.duplicate());
+    }
+
+    void ensureValid() {
+        if (!isValid()) {
+            throw new CorruptRecordException("Record batch at offset " + baseOffset()
+                    + " is corrupt (stored crc = " + checksum() + ")");
+        }
+    }
+
+    /**
+     * Checks a batch from a client before it is stored as is, on top of
+     * {@link #ensureValid()}. The CRC only shows that the batch arrived
+     * as it was sent, so the records are walked, decompressed if needed,
+     * to check that the attributes have only a known codec, the
+     * uncompressed size is at most {@link #MaxUncompressedSize}, and
+     * there are recordCount records with offset deltas increasing from 0
+     * to the last offset delta. Reads, the key index and the cleaner rely
+     * on these.
+     */
+    void ensureValidRecords() {
+        ensureValid();
+        short attributes = buffer.getShort(AttributesOffset);
+        if ((attributes & ~CompressionCodecMask) != 0) {
+            throw corrupt("has unknown attributes " + attributes);
+        }
+        int count = recordCount();
+        int lastOffsetDelta = buffer.getInt(LastOffsetDeltaOffset);
+        if (count <= 0 || count > lastOffsetDelta + 1L) {
+            throw corrupt("has " + count + " records for a last offset delta of " + lastOffsetDelta);
+        }
+        try {
+            ByteBuffer records = records(MaxUncompressedSize);
+            int previousDelta = -1;
+            for (int i = 0; i < count; i++) {
+                int length = ByteUtils.readUnsignedVarint(records);
+                if (length < 0 || length > records.remaining()) {
+                    throw corrupt("has record " + i + " running past the end of the batch");
+                }
+                int end = records.position() + length;
+                int offsetDelta = ByteUtils.readUnsignedVarint(records);
+                if (i == 0 ? offsetDelta != 0 : offsetDelta <= previousDelta) {
+                    throw corrupt("has offset delta " + offsetDelta + " after " + previousDelta);
+                }
+                ByteUtils.readVarlong(records); //timestamp delta.
+                skipBytes(records, end); //key.
+                skipBytes(records, end); //value.
+                if (records.position() != end) {
+                    throw corrupt("has record " + i + " with a wrong length");
+                }
+                previousDelta = offsetDelta;
+            }
+            if (previousDelta != lastOffsetDelta) {
+                throw corrupt("ends at offset delta " + previousDelta + " instead of " + lastOffsetDelta);
+            }
+            if (records.hasRemaining()) {
+                throw corrupt("has " + records.remaining() + " bytes after its records");
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw corrupt("has malformed records: " + e.getMessage());
+        }
+    }
+
+    private static void skipBytes(ByteBuffer records, int end) {
+        int length = ByteUtils.readUnsignedVarint(records);
+        if (length < 0 || length > end - records.position()) {
+            throw new IllegalArgumentException("Field of " + length + " bytes runs past the end of its record");
+        }
+        records.position(records.position() + length);
+    }
+
+    private CorruptRecordException corrupt(String message) {
+        return new CorruptRecordException("Record batch at offset " + baseOffset() + " " + message);
+    }
+
+    //A read only view of the batch bytes, ready to be written.
+    ByteBuffer buffer() {
+        return buffer.asReadOnlyBuffer();
+    }
+
+    @Override
+    public Iterator<Log.Message> iterator() {
+        ByteBuffer records = records();
+        long baseOffset = baseOffset();
+        long maxTimestamp = maxTimestamp();
+        int count = recordCount();
+        return new Iterator<>() {
+            int read = 0;
+
+            @Override
+            public boolean hasNext() {
+                return read < count;
+            }
+
+            @Override
+            public Log.Message next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                read++;
+                return readRecord(records, baseOffset, maxTimestamp);
+            }
+        };
+    }
+
+    private ByteBuffer records() {
+        return records(Integer.MAX_VALUE);
+    }
+
+    private ByteBuffer records(int maxUncompressedSize) {
+        ByteBuffer records = buffer.duplicate();
+        records.position(RecordsOffset);
+        if (!isCompressed()) {
+            return records;
+        }
+        CompressionCodec codec = CompressionCodecs.forId(compressionCodecId());
+        int uncompressedSize = ByteUtils.readUnsignedVarint(records);
+        if (uncompressedSize < 0 || uncompressedSize > maxUncompressedSize) {
+            throw corrupt("declares " + Integer.toUnsignedString(uncompressedSize) + " bytes of uncompressed records");
+        }
+        if (records.hasArray()) {
+            return ByteBuffer.wrap(codec.decompress(records.array(), records.arrayOffset() + records.position(),
+                    records.remaining(), uncompressedSize));
+        }
+        byte[] compressed = new byte[records.remaining()];
+        records.get(compressed);
+        return ByteBuffer.wrap(codec.decompress(compressed, 0, compressed.length, uncompressedSize));
+    }
+
+    private static Log.Message readRecord(ByteBuffer records, long baseOffset, long maxTimestamp) {
+        ByteUtils.readUnsignedVarint(records); //record length.
+        int offsetDelta = ByteUtils.readUnsignedVarint(records);
+        long timestampDelta = ByteUtils.readVarlong(records);
+        byte[] key = new byte[ByteUtils.readUnsignedVarint(records)];
+        records.get(key);
+        byte[] value = new byte[ByteUtils.readUnsignedVarint(records)];
+        records.get(value);
+        return new Log.Message(baseOffset + offsetDelta, maxTimestamp + timestampDelta, key, value);
+    }
+
+    private static void writeRecord(ByteBuffer buffer, int offsetDelta, long timestampDelta, byte[] key, byte[] value) {
+        ByteUtils.writeUnsignedVarint(bodySizeOf(offsetDelta, timestampDelta, key, value), buffer);
+        ByteUtils.writeUnsignedVarint(offsetDelta, buffer);
+        ByteUtils.writeVarlong(timestampDelta, buffer);
+        ByteUtils.writeUnsignedVarint(key.length, buffer);
+        buffer.put(key);
+        ByteUtils.writeUnsignedVarint(value.length, buffer);
+        buffer.put(value);
+    }
+
+    private static int sizeOf(int offsetDelta, long timestampDelta, byte[] key, byte[] value) {
+        int bodySize = bodySizeOf(offsetDelta, timestampDelta, key, value);
+        return ByteUtils.sizeOfUnsignedVarint(bodySize) + bodySize;
+    }
+
+    private static int bodySizeOf(int offsetDelta, long timestampDelta, byte[] key, byte[] value) {
+        return ByteUtils.sizeOfUnsignedVarint(offsetDelta)
+                + ByteUtils.sizeOfVarlong(timestampDelta)
+                + ByteUtils.sizeOfUnsignedVarint(key.length) + key.length
+                + ByteUtils.sizeOfUnsignedVarint(value.length) + value.length;
+    }
+
+    //Covers everything from the attributes to the end of the batch.
+    private static int computeChecksum(ByteBuffer batch) {
+        CRC32C crc = checksums.get();
+        crc.reset();
+        int position = batch.position();
+        batch.position(position + AttributesOffset);
+        crc.update(batch);
+        batch.position(position);
+        return (int) crc.getValue();
+    }
+
+    private static class ReusableBuffer {
+        ByteBuffer buffer;
+    }
+
+    /**
+     * Encodes records one at a time straight into a buffer given up front,
+     * e.g. one from the {@link BufferPool} of a producer, till it is full.
+     * The records share the timestamp of the batch, so their timestamp
+     * deltas are known before the batch is complete.
+     */
+    static class Builder {
+        private final ByteBuffer buffer;
+        private final long timestamp;
+        private int recordCount = 0;
+
+        Builder(ByteBuffer buffer, long timestamp) {
+            this.buffer = buffer;
+            this.timestamp = timestamp;
+            buffer.clear().position(HeaderSize);
+        }
+
+        //The buffer size a batch of just this record needs.
+        static int sizeInBytes(byte[] key, byte[] value) {
+            return HeaderSize + sizeOf(0, 0, key, value);
+        }
+
+        //Returns false if the record doesn't fit in the rest of the buffer.
+        boolean tryAppend(byte[] key, byte[] value) {
+            if (sizeOf(recordCount, 0, key, value) > buffer.remaining()) {
+                return false;
+            }
+            writeRecord(buffer, recordCount, 0, key, value);
+            recordCount++;
+            return true;
+        }
+
+        int recordCount() {
+            return recordCount;
+        }
+
+        int sizeInBytes() {
+            return buffer.position();
+        }
+
+        //The batch so far, with the header written, as a view of the buffer.
+        ByteBuffer build() {
+            if (recordCount == 0) {
+                throw new IllegalStateException("A batch needs at least one message");
+            }
+            ByteBuffer batch = buffer.duplicate().flip();
+            writeHeader(batch, 0, CompressionCodecs.NoCompression, recordCount - 1, timestamp, recordCount);
+            batch.position(0);
+            batch.putInt(CrcOffset, computeChecksum(batch));
+            return batch;
+        }
+    }
+}
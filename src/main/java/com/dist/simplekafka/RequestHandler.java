@@ -0,0 +1,157 @@
+package com.dist.simplekafka;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Serves the requests of clients against the logs of the broker. A
+ * request frame is the 4 byte size of the rest of the frame, the
+ * {@link RequestHeader} and the request, and a response frame is the 4
+ * byte size, the correlation ID of the request and the response.
+ * Produce: {@link ProduceRequest}, partitions are created by their first
+ *   produce request. Topic names are checked by {@link LogManager}, and
+ *   a topic in the metadata only gets the partitions assigned to it.
+ * Fetch: {@link FetchRequest}, the batches are sent as stored, from the
+ *   segment files of logs with zero copy.
+ * ListOffsets: {@link ListOffsetsRequest}.
+ * Metadata: {@link MetadataRequest}, answered from the
+ *   {@link MetadataCache}.
+ * Errors of a partition are returned as its error code, see
+ * {@link Errors}. Malformed requests and unsupported API keys or versions
+ * throw, and the connection is closed.
+ */
+class RequestHandler {
+    private final LogManager logManager;
+    private final MetadataCache metadataCache;
+
+    RequestHandler(LogManager logManager, MetadataCache metadataCache) {
+        this.logManager = logManager;
+        this.metadataCache = metadataCache;
+    }
+
+    NetworkSend handle(ByteBuffer request) {
+        RequestHeader header = RequestHeader.parse(request);
+        if (!ApiKeys.isSupported(header.apiKey(), header.apiVersion())) {
+            throw new IllegalArgumentException("Unsupported API key " + header.apiKey()
+                    + " version " + header.apiVersion());
+        }
+        switch (header.apiKey()) {
+            case ApiKeys.Produce:
+                return produce(ProduceRequest.parse(request)).toSend(header.correlationId());
+            case ApiKeys.Fetch:
+                return fetch(FetchRequest.parse(request)).toSend(header.correlationId());
+            case ApiKeys.ListOffsets:
+                return listOffsets(ListOffsetsRequest.parse(request)).toSend(header.correlationId());
+            case ApiKeys.Metadata:
+                return metadataCache.metadata(MetadataRequest.parse(request).topics()).toSend(header.correlationId());
+            default:
+                throw new IllegalArgumentException("Unknown API key " + header.apiKey());
+        }
+    }
+
+    private ProduceResponse produce(ProduceRequest request) {
+        List<ProduceResponse.PartitionResponse> responses = new ArrayList<>(request.partitions().size());
+        for (ProduceRequest.PartitionData partition : request.partitions()) {
+            TopicPartition topicPartition = partition.topicPartition;
+            try {
+                StorageEngine storage = getOrCreateStorage(topicPartition);
+                long baseOffset = storage.appendRecordBatch(partition.records);
+                responses.add(new ProduceResponse.PartitionResponse(topicPartition, Errors.None, baseOffset));
+            } catch (IOException | RuntimeException e) {
+                responses.add(new ProduceResponse.PartitionResponse(topicPartition, Errors.forException(e), -1));
+            }
+        }
+        return new ProduceResponse(responses);
+    }
+
+    private StorageEngine getOrCreateStorage(TopicPartition topicPartition) throws IOException {
+        StorageEngine storage = logManager.getStorage(topicPartition.topic(), topicPartition.partition());
+        if (storage != null) {
+            return storage;
+        }
+        List<PartitionReplicas> assigned = metadataCache.topics().get(topicPartition.topic());
+        if (assigned != null && assigned.stream().noneMatch(p -> p.getPartitionId() == topicPartition.partition())) {
+            throw new UnknownTopicOrPartitionException("Partition " + topicPartition.partition() + " of "
+                    + topicPartition.topic() + " is not assigned");
+        }
+        return logManager.getOrCreateStorage(topicPartition.topic(), topicPartition.partition());
+    }
+
+    private FetchResponse fetch(FetchRequest request) {
+        List<FetchResponse.PartitionResponse> responses = new ArrayList<>(request.partitions().size());
+        long remaining = request.maxBytes();
+        boolean hasRecords = false;
+        for (FetchRequest.PartitionData partition : request.partitions()) {
+            TopicPartition topicPartition = partition.topicPartition;
+            StorageEngine storage = logManager.getStorage(topicPartition.topic(), topicPartition.partition());
+            if (storage == null) {
+                responses.add(error(topicPartition, Errors.UnknownTopicOrPartition));
+                continue;
+            }
+            //only the first partition with records can exceed maxBytes.
+            int maxBytes = (int) Math.min(partition.maxBytes, hasRecords ? remaining : Integer.MAX_VALUE);
+            if (hasRecords && maxBytes <= 0) {
+                responses.add(new FetchResponse.PartitionResponse(topicPartition, Errors.None,
+                        storage.lastOffset(), ByteBuffer.allocate(0)));
+                continue;
+            }
+            try {
+                FetchResponse.PartitionResponse response = read(storage, topicPartition,
+                        partition.fetchOffset, maxBytes);
+                int size = response.recordsSize();
+                remaining -= size;
+                hasRecords |= size > 0;
+                responses.add(response);
+            } catch (IOException | RuntimeException e) {
+                responses.add(error(topicPartition, Errors.forException(e)));
+            }
+        }
+        return new FetchResponse(responses);
+    }
+
+    //Storage keeping its batches in files sends them with zero copy.
+    private static FetchResponse.PartitionResponse read(StorageEngine storage, TopicPartition topicPartition,
+                                                        long offset, int maxBytes) throws IOException {
+        long lastOffset = storage.lastOffset();
+        FileRegion region = storage.fileRegion(offset, maxBytes);
+        return region != null
+                ? new FetchResponse.PartitionResponse(topicPartition, Errors.None, lastOffset, region)
+                : new FetchResponse.PartitionResponse(topicPartition, Errors.None, lastOffset,
+                        storage.readBatches(offset, maxBytes));
+    }
+
+    private static FetchResponse.PartitionResponse error(TopicPartition topicPartition, short error) {
+        return new FetchResponse.PartitionResponse(topicPartition, error, -1, ByteBuffer.allocate(0));
+    }
+
+    private ListOffsetsResponse listOffsets(ListOffsetsRequest request) {
+        List<ListOffsetsResponse.PartitionResponse> responses = new ArrayList<>(request.partitions().size());
+        for (ListOffsetsRequest.PartitionData partition : request.partitions()) {
+            TopicPartition topicPartition = partition.topicPartition;
+            StorageEngine storage = logManager.getStorage(topicPartition.topic(), topicPartition.partition());
+            if (storage == null) {
+                responses.add(new ListOffsetsResponse.PartitionResponse(topicPartition, Errors.UnknownTopicOrPartition, -1));
+                continue;
+            }
+            try {
+                responses.add(new ListOffsetsResponse.PartitionResponse(topicPartition, Errors.None,
+                        offsetFor(storage, partition.timestamp)));
+            } catch (IOException | RuntimeException e) {
+                responses.add(new ListOffsetsResponse.PartitionResponse(topicPartition, Errors.forException(e), -1));
+            }
+        }
+        return new ListOffsetsResponse(responses);
+    }
+
+    private static long offsetFor(StorageEngine storage, long timestamp) throws IOException {
+        if (timestamp == ListOffsetsRequest.Latest) {
+            return storage.lastOffset() + 1;
+        }
+        if (timestamp == ListOffsetsRequest.Earliest) {
+            return storage.logStartOffset();
+        }
+        return storage.offsetForTime(timestamp);
+    }
+}
@@ -0,0 +1,60 @@
+package com.dist.simplekafka;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The header of every request frame:
+ *   1. 2 byte API key, see {@link ApiKeys}
+ *   2. 2 byte API version
+ *   3. 4 byte correlation ID, chosen by the client
+ *   4. client ID string
+ * A response frame starts with the correlation ID of its request, so a
+ * client can have several requests in flight on a connection and match
+ * the responses to them.
+ * Frames are prefixed with their 4 byte size. Strings are a 2 byte
+ * length, -1 for null, followed by the UTF-8 bytes.
+ */
+public class RequestHeader {
+    private final short apiKey;
+    private final short apiVersion;
+    private final int correlationId;
+    private final String clientId;
+
+    public RequestHeader(short apiKey, short apiVersion, int correlationId, String clientId) {
+        this.apiKey = apiKey;
+        this.apiVersion = apiVersion;
+        this.correlationId = correlationId;
+        this.clientId = clientId;
+    }
+
+    public static RequestHeader parse(ByteBuffer buffer) {
+        return new RequestHeader(buffer.getShort(), buffer.getShort(), buffer.getInt(), Protocol.readString(buffer));
+    }
+
+    public int sizeInBytes() {
+        return 2 + 2 + 4 + Protocol.sizeOf(clientId);
+    }
+
+    public void writeTo(ByteBuffer buffer) {
+        buffer.putShort(apiKey);
+        buffer.putShort(apiVersion);
+        buffer.putInt(correlationId);
+        Protocol.writeString(clientId, buffer);
+    }
+
+    public short apiKey() {
+        return apiKey;
+    }
+
+    public short apiVersion() {
+        return apiVersion;
+    }
+
+    public int correlationId() {
+        return correlationId;
+    }
+
+    public String clientId() {
+        return clientId;
+    }
+}
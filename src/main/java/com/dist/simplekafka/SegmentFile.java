@@ -0,0 +1,73 @@
+package com.dist.simplekafka;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The file of a segment, hiding how its bytes are read and written.
+ * Writes and reads are positional, so concurrent appenders can write
+ * their reserved ranges in parallel.
+ */
+interface SegmentFile {
+
+    //Writes all the remaining bytes of src at the given position.
+    void write(long position, ByteBuffer src) throws IOException;
+
+    //Fills the remaining space of dst from the given position.
+    void read(long position, ByteBuffer dst) throws IOException;
+
+    /**
+     * The size bytes at the given position, as a buffer positioned at 0.
+     * It can be a view of the file instead of a copy, so it must not be
+     * written to.
+     */
+    ByteBuffer read(long position, int size) throws IOException;
+
+    /**
+     * Writes all the remaining bytes of src at the given position without
+     * waiting for the disk, for files which support it. The buffer must
+     * not be touched till the future completes. By default the write is
+     * made on the caller thread.
+     */
+    default CompletableFuture<Void> writeAsync(long position, ByteBuffer src) {
+        try {
+            write(position, src);
+            return CompletableFuture.completedFuture(null);
+        } catch (IOException | RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    //Like read(long, int) without waiting for the disk, by default the
+    // read is made on the caller thread.
+    default CompletableFuture<ByteBuffer> readAsync(long position, int size) {
+        try {
+            return CompletableFuture.completedFuture(read(position, size));
+        } catch (IOException | RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    //The length of the file, which can include preallocated space after
+    // the end of the segment.
+    long size() throws IOException;
+
+    void truncate(long size) throws IOException;
+
+    void flush() throws IOException;
+
+    //The underlying channel, for zero copy transfers.
+    FileChannel channel();
+
+    //Makes all the bytes written so far readable through the channel,
+    // for files which buffer writes in memory.
+    void writeOut() throws IOException;
+
+    //Whether writes have to be made one at a time in file order instead
+    // of in parallel at reserved positions.
+    boolean requiresOrderedWrites();
+
+    void close() throws IOException;
+}
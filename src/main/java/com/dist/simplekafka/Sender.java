@@ -0,0 +1,165 @@
+package com.dist.simplekafka;
+
+import org.apache.log4j.Logger;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The thread of a {@link Producer} sending the ready batches of the
+ * {@link RecordAccumulator}. The batches going to the same leader are
+ * sent in a single produce request, with up to maxInFlightPerBroker
+ * requests to a broker waiting for their responses. A broker handles the
+ * requests of a connection in order, so the batches of a partition are
+ * appended in the order they were sent.
+ * Failed batches are not retried, their records fail, as the broker may
+ * have appended them before the connection broke.
+ */
+class Sender implements Runnable {
+    private static final Logger logger = Logger.getLogger(Sender.class);
+
+    private final RecordAccumulator accumulator;
+    private final ClientMetadata metadata;
+    private final NetworkClient client;
+    private final int maxRequestBytes;
+    private final int maxInFlightPerBroker;
+    private final long retryBackoffMs;
+    private final Map<InetSocketAddress, Integer> inFlightRequests = new ConcurrentHashMap<>();
+    private final Object wakeups = new Object();
+    private boolean wakeupPending = false;
+    private volatile boolean running = true;
+    private volatile boolean forceClose = false;
+
+    Sender(RecordAccumulator accumulator, ClientMetadata metadata, NetworkClient client,
+           int maxRequestBytes, int maxInFlightPerBroker, long retryBackoffMs) {
+        this.accumulator = accumulator;
+        this.metadata = metadata;
+        this.client = client;
+        this.maxRequestBytes = maxRequestBytes;
+        this.maxInFlightPerBroker = maxInFlightPerBroker;
+        this.retryBackoffMs = retryBackoffMs;
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            runOnce();
+        }
+        //send what was appended before the close.
+        while (!forceClose && (accumulator.hasUndrained() || !inFlightRequests.isEmpty())) {
+            runOnce();
+        }
+        accumulator.abortBatches(new IllegalStateException("Producer is closed"));
+    }
+
+    //Stops once the batches appended so far are sent, or right away.
+    void initiateClose(boolean force) {
+        running = false;
+        forceClose = force;
+        wakeup();
+    }
+
+    void wakeup() {
+        synchronized (wakeups) {
+            wakeupPending = true;
+            wakeups.notify();
+        }
+    }
+
+    private void runOnce() {
+        long now = System.currentTimeMillis();
+        RecordAccumulator.ReadyCheck check = accumulator.ready(now);
+        Map<InetSocketAddress, List<TopicPartition>> partitionsByLeader = new HashMap<>();
+        boolean unknownLeader = false;
+        for (TopicPartition topicPartition : check.readyPartitions) {
+            InetSocketAddress leader = metadata.leader(topicPartition);
+            if (leader == null) {
+                unknownLeader = true;
+                continue;
+            }
+            partitionsByLeader.computeIfAbsent(leader, l -> new ArrayList<>()).add(topicPartition);
+        }
+        if (unknownLeader) {
+            metadata.requestUpdate();
+        }
+        for (Map.Entry<InetSocketAddress, List<TopicPartition>> entry : partitionsByLeader.entrySet()) {
+            InetSocketAddress leader = entry.getKey();
+            if (inFlightRequests.getOrDefault(leader, 0) >= maxInFlightPerBroker) {
+                continue; //woken up once a response comes.
+            }
+            List<ProducerBatch> batches = accumulator.drain(entry.getValue(), maxRequestBytes);
+            if (!batches.isEmpty()) {
+                send(leader, batches);
+            }
+        }
+        awaitWakeup(unknownLeader ? retryBackoffMs : check.nextReadyCheckDelayMs);
+    }
+
+    private void send(InetSocketAddress leader, List<ProducerBatch> batches) {
+        List<ProduceRequest.PartitionData> partitions = new ArrayList<>(batches.size());
+        for (ProducerBatch batch : batches) {
+            partitions.add(new ProduceRequest.PartitionData(batch.topicPartition, batch.close()));
+        }
+        inFlightRequests.merge(leader, 1, Integer::sum);
+        client.send(leader, new ProduceRequest(partitions)).whenComplete((response, error) -> {
+            //the memory is freed before the callbacks of the records run, as
+            // they may send more records.
+            for (ProducerBatch batch : batches) {
+                accumulator.deallocate(batch);
+            }
+            inFlightRequests.computeIfPresent(leader, (l, count) -> count == 1 ? null : count - 1);
+            wakeup();
+            if (error != null) {
+                logger.debug("Failed to produce to " + leader, error);
+                metadata.requestUpdate(); //the leader may have moved.
+                for (ProducerBatch batch : batches) {
+                    batch.fail(error);
+                }
+            } else {
+                try {
+                    complete(batches, response);
+                } catch (RuntimeException e) { //a malformed response.
+                    for (ProducerBatch batch : batches) {
+                        batch.fail(e);
+                    }
+                }
+            }
+        });
+    }
+
+    private static void complete(List<ProducerBatch> batches, ByteBuffer responseBuffer) {
+        Map<TopicPartition, ProduceResponse.PartitionResponse> responses = new HashMap<>();
+        for (ProduceResponse.PartitionResponse response : ProduceResponse.parse(responseBuffer).responses()) {
+            responses.put(response.topicPartition, response);
+        }
+        for (ProducerBatch batch : batches) {
+            ProduceResponse.PartitionResponse response = responses.get(batch.topicPartition);
+            if (response == null) {
+                batch.fail(new IllegalStateException("No response for " + batch.topicPartition));
+            } else if (response.error != Errors.None) {
+                batch.fail(new ApiException(response.error, "Failed to produce to " + batch.topicPartition));
+            } else {
+                batch.complete(response.baseOffset);
+            }
+        }
+    }
+
+    private void awaitWakeup(long timeoutMs) {
+        synchronized (wakeups) {
+            try {
+                if (!wakeupPending && timeoutMs > 0) {
+                    wakeups.wait(timeoutMs == Long.MAX_VALUE ? 0 : timeoutMs);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                running = false;
+            }
+            wakeupPending = false;
+        }
+    }
+}
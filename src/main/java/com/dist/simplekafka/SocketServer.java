@@ -0,0 +1,173 @@
+package com.dist.simplekafka;
+
+import com.dist.common.Config;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serves the requests of clients on the port of the broker, see
+ * {@link RequestHandler} for the protocol. In the
+ * {@link Config.NetworkMode#SELECTOR} mode the thread count is fixed,
+ * however many clients connect:
+ *   1. an acceptor thread hands new connections to the processors in
+ *      turn,
+ *   2. numNetworkThreads {@link Processor}s each do the socket IO of
+ *      their connections with a selector,
+ *   3. numIoThreads request handler threads run the requests against
+ *      the logs, as appends and reads can block on the disk.
+ * In the {@link Config.NetworkMode#THREAD_PER_CONNECTION} mode the
+ * acceptor starts a thread for every connection, which does its socket
+ * IO and runs its requests with blocking calls, see
+ * {@link BlockingConnection}. The broker builds on JDK 17, so these are
+ * platform threads with a small stack, which only suits a few hundred
+ * connections. Virtual threads, with
+ * Executors.newVirtualThreadPerTaskExecutor, have to wait till the build
+ * targets JDK 21.
+ */
+public class SocketServer {
+    private static final Logger logger = Logger.getLogger(SocketServer.class);
+    private static final int AcceptBacklog = 1024;
+    private static final long PlatformConnectionThreadStackBytes = 256 * 1024;
+
+    private final Config config;
+    private final RequestHandler handler;
+    private final List<Processor> processors = new ArrayList<>();
+    private final List<Thread> threads = new ArrayList<>();
+    private final Set<BlockingConnection> blockingConnections = ConcurrentHashMap.newKeySet();
+    private ExecutorService requestHandlers; //runs the connections in thread per connection mode.
+    private ServerSocketChannel serverChannel;
+    private volatile boolean running = false;
+
+    public SocketServer(Config config, LogManager logManager, MetadataCache metadataCache) {
+        this.config = config;
+        this.handler = new RequestHandler(logManager, metadataCache);
+    }
+
+    public synchronized void startup() throws IOException {
+        boolean threadPerConnection = config.getNetworkMode() == Config.NetworkMode.THREAD_PER_CONNECTION;
+        requestHandlers = threadPerConnection
+                ? Executors.newCachedThreadPool(daemonThreads("connection-", PlatformConnectionThreadStackBytes))
+                : Executors.newFixedThreadPool(config.getNumIoThreads(), daemonThreads("request-handler-", 0));
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(config.getHostName(), config.getPort()), AcceptBacklog);
+        running = true;
+        if (!threadPerConnection) {
+            for (int i = 0; i < config.getNumNetworkThreads(); i++) {
+                Processor processor = new Processor(i, handler, requestHandlers, config.getSocketRequestMaxBytes());
+                processors.add(processor);
+                start(processor, "network-processor-" + i);
+            }
+        }
+        start(this::acceptConnections, "socket-acceptor");
+        logger.info("Listening on " + serverChannel.getLocalAddress());
+    }
+
+    //The port listened on, which is picked by the OS if configured as 0.
+    public int port() throws IOException {
+        return ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+    }
+
+    public synchronized void shutdown() {
+        running = false;
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close the server socket", e);
+        }
+        for (Processor processor : processors) {
+            processor.shutdown();
+        }
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            //the acceptor has stopped, so no connections are added.
+            for (BlockingConnection connection : blockingConnections) {
+                connection.close(); //unblocks its thread.
+            }
+            requestHandlers.shutdown();
+            requestHandlers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            requestHandlers.shutdown();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void start(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        thread.start();
+        threads.add(thread);
+    }
+
+    private void acceptConnections() {
+        int next = 0;
+        while (running) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                if (processors.isEmpty()) {
+                    startConnectionThread(channel);
+                    continue;
+                }
+                processors.get(next).accept(channel);
+                next = (next + 1) % processors.size();
+            } catch (ClosedChannelException e) {
+                return; //shut down.
+            } catch (IOException e) {
+                //e.g. out of file descriptors, keep serving the existing
+                // connections.
+                logger.error("Failed to accept a connection", e);
+                backoff();
+            }
+        }
+    }
+
+    private void startConnectionThread(SocketChannel channel) {
+        BlockingConnection connection = new BlockingConnection(channel, handler, config.getSocketRequestMaxBytes());
+        blockingConnections.add(connection);
+        try {
+            requestHandlers.execute(() -> {
+                try {
+                    connection.run();
+                } finally {
+                    blockingConnections.remove(connection);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            blockingConnections.remove(connection);
+            connection.close(); //shutting down.
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String prefix, long stackBytes) {
+        AtomicInteger ids = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(null, r, prefix + ids.getAndIncrement(), stackBytes);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static void backoff() {
+        try {
+            Thread.sleep(100);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.dist.simplekafka;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Stores the messages of a partition. {@link Log} keeps them in segment
+ * files, {@link InMemoryLog} in off-heap memory for ephemeral topics which
+ * don't need to survive a restart. The engine of a topic is chosen with
+ * {@link LogConfig#setStorage(LogConfig.Storage)}.
+ * Offsets start at {@link Log#InitialOffset} and are assigned
+ * contiguously, in the order the appends happen.
+ */
+public interface StorageEngine {
+
+    //Returns the offset of the message.
+    long append(byte[] key, byte[] value) throws IOException;
+
+    /**
+     * Appends the messages as a single batch.
+     * @return offset of the first message.
+     */
+    long append(List<Log.Message> messages) throws IOException;
+
+    /**
+     * Appends a batch encoded by a producer as it is, only the base
+     * offset is assigned.
+     * @return offset of the first message.
+     * @throws CorruptRecordException if the batch or its records are
+     * malformed.
+     */
+    long appendRecordBatch(ByteBuffer batch) throws IOException;
+
+    //The messages from startOffset up to maxOffset, or the end of the log.
+    List<Log.Message> read(long startOffset, long maxOffset) throws IOException;
+
+    /**
+     * The batches from the one containing startOffset, exactly as stored,
+     * for fetches. They hold up to maxBytes, but at least one batch.
+     * @return an empty buffer if there are no messages after startOffset.
+     */
+    ByteBuffer readBatches(long startOffset, int maxBytes) throws IOException;
+
+    /**
+     * Like {@link #readBatches}, as a region of a file sent with zero
+     * copy.
+     * @return null if the engine doesn't keep its batches in files.
+     */
+    default FileRegion fileRegion(long startOffset, int maxBytes) throws IOException {
+        return null;
+    }
+
+    Log.Message readSingleMessage(long offset) throws IOException;
+
+    /**
+     * Removes the messages from offset onwards, e.g. for a follower whose
+     * log diverged from the leader's. Batches are removed as a whole, so
+     * the log ends before offset if offset is in the middle of a batch.
+     * Appends have to be stopped meanwhile.
+     */
+    void truncateTo(long offset) throws IOException;
+
+    //Makes all the messages appended so far durable, if the engine is.
+    void flush() throws IOException;
+
+    long lastOffset();
+
+    long logStartOffset();
+
+    /**
+     * The offset of the first message with a timestamp at or after the
+     * given one.
+     * @return the offset the next append gets if there is no such message.
+     */
+    long offsetForTime(long timestamp) throws IOException;
+
+    void close() throws IOException;
+}
@@ -0,0 +1,218 @@
+package com.dist.simplekafka;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * A bounded, off-heap ring buffer holding copies of the most recently
+ * appended batches of a log, so consumers tailing the log are served
+ * from memory instead of the segment files.
+ * Batches are added in offset order as they are published, evicting the
+ * oldest ones, so the cache always holds a contiguous range of offsets
+ * up to the end of the log. A batch larger than the whole cache empties
+ * it.
+ * Byte positions are logical and only grow, a batch at logical position
+ * p is at p % capacity in the ring, and never wraps around its end.
+ * Lookups are optimistic reads of a {@link StampedLock}, validated after
+ * copying the batch out, so readers don't block the appender.
+ */
+class TailCache {
+    private final ByteBuffer ring;
+    private final int capacity;
+    private final int maxEntries;
+    //one entry per cached batch, entry n is in slot n % maxEntries.
+    private final long[] baseOffsets;
+    private final long[] lastOffsets;
+    private final long[] positions;
+    private final int[] sizes;
+    private long firstEntry = 0;
+    private long nextEntry = 0;
+    private long head = 0; //logical position of the oldest cached byte.
+    private long tail = 0; //logical position after the newest cached byte.
+    private final StampedLock lock = new StampedLock();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    TailCache(int capacity) {
+        this.capacity = capacity;
+        this.ring = ByteBuffer.allocateDirect(capacity);
+        //entries for batches of at least 128 bytes on average, smaller
+        // batches are evicted by count before the ring is full.
+        this.maxEntries = Math.max(16, capacity / 128);
+        this.baseOffsets = new long[maxEntries];
+        this.lastOffsets = new long[maxEntries];
+        this.positions = new long[maxEntries];
+        this.sizes = new int[maxEntries];
+    }
+
+    /**
+     * Adds a published batch. Called in offset order, by one appender at
+     * a time. The position of the batch buffer is left unchanged.
+     */
+    void append(long baseOffset, long lastOffset, ByteBuffer batch) {
+        int size = batch.remaining();
+        long stamp = lock.writeLock();
+        try {
+            if (size > capacity) {
+                firstEntry = nextEntry; //keeps the cached offsets contiguous.
+                head = tail;
+                return;
+            }
+            long start = tail;
+            if (start % capacity + size > capacity) {
+                start += capacity - start % capacity; //wrap to the ring start.
+            }
+            while (firstEntry < nextEntry
+                    && (start + size - head > capacity || nextEntry - firstEntry == maxEntries)) {
+                int oldest = slot(firstEntry++);
+                head = positions[oldest] + sizes[oldest];
+            }
+            if (firstEntry == nextEntry) {
+                head = start;
+            }
+            ring.put((int) (start % capacity), batch, batch.position(), size);
+            int slot = slot(nextEntry++);
+            baseOffsets[slot] = baseOffset;
+            lastOffsets[slot] = lastOffset;
+            positions[slot] = start;
+            sizes[slot] = size;
+            tail = start + size;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    //Drops the batches from the one containing the offset onwards, when
+    // the log is truncated.
+    void truncateTo(long offset) {
+        long stamp = lock.writeLock();
+        try {
+            while (nextEntry > firstEntry && lastOffsets[slot(nextEntry - 1)] >= offset) {
+                nextEntry--;
+            }
+            if (nextEntry > firstEntry) {
+                int newest = slot(nextEntry - 1);
+                tail = positions[newest] + sizes[newest];
+            } else {
+                tail = head;
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * A copy of the cached batch containing the offset.
+     * @return null if the offset is not cached.
+     */
+    RecordBatch read(long offset) {
+        long stamp = lock.tryOptimisticRead();
+        ByteBuffer copy = null;
+        try {
+            copy = copyBatch(offset);
+        } catch (RuntimeException e) {
+            //a concurrent append changed the entries under the read.
+        }
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                copy = copyBatch(offset);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return record(copy == null ? null : new RecordBatch(copy));
+    }
+
+    /**
+     * Copies of the cached batches from the one containing startOffset up
+     * to maxOffset, adding batches while they fit in maxBytes, but at
+     * least one batch.
+     * @return null if startOffset is before the cached offsets.
+     */
+    List<RecordBatch> read(long startOffset, long maxOffset, int maxBytes) {
+        long stamp = lock.readLock();
+        try {
+            long entry = find(startOffset);
+            if (entry < 0) {
+                return record(null);
+            }
+            List<RecordBatch> batches = new ArrayList<>();
+            long bytes = 0;
+            for (long n = entry; n < nextEntry; n++) {
+                int slot = slot(n);
+                if (baseOffsets[slot] > maxOffset || (!batches.isEmpty() && bytes + sizes[slot] > maxBytes)) {
+                    break;
+                }
+                batches.add(new RecordBatch(copy(slot)));
+                bytes += sizes[slot];
+            }
+            return record(batches);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    //Share of the reads served from the cache.
+    double hitRatio() {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    long hits() {
+        return hits.sum();
+    }
+
+    long misses() {
+        return misses.sum();
+    }
+
+    private <T> T record(T result) {
+        if (result == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return result;
+    }
+
+    private ByteBuffer copyBatch(long offset) {
+        long entry = find(offset);
+        return entry < 0 ? null : copy(slot(entry));
+    }
+
+    //Binary search for the entry of the batch containing the offset, -1
+    // if it is not cached.
+    private long find(long offset) {
+        long low = firstEntry;
+        long high = nextEntry - 1;
+        while (low <= high) {
+            long mid = (low + high) >>> 1;
+            int slot = slot(mid);
+            if (lastOffsets[slot] < offset) {
+                low = mid + 1;
+            } else if (baseOffsets[slot] > offset) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private ByteBuffer copy(int slot) {
+        int position = (int) (positions[slot] % capacity);
+        int size = sizes[slot];
+        ByteBuffer copy = ByteBuffer.allocate(size);
+        copy.put(0, ring, position, size);
+        return copy;
+    }
+
+    private int slot(long entry) {
+        return (int) (entry % maxEntries);
+    }
+}
@@ -0,0 +1,43 @@
+package com.dist.simplekafka;
+
+import org.apache.log4j.Logger;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the rate of some work, e.g. the bytes the log cleaner reads and
+ * writes, so that it does not take the disk bandwidth needed by producers
+ * and consumers. The caller reports the work it did, and is put to sleep
+ * if it is running faster than the allowed rate.
+ */
+class Throttler {
+    private static final Logger logger = Logger.getLogger(Throttler.class);
+    private static final long CheckIntervalNs = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final double maxPerSecond;
+    private long periodStartNs = System.nanoTime();
+    private long observedSoFar = 0;
+
+    Throttler(double maxPerSecond) {
+        this.maxPerSecond = maxPerSecond;
+    }
+
+    void maybeThrottle(long observed) throws InterruptedException {
+        observedSoFar += observed;
+        long elapsedNs = System.nanoTime() - periodStartNs;
+        if (elapsedNs < CheckIntervalNs) {
+            return;
+        }
+        double rate = observedSoFar * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNs;
+        if (rate > maxPerSecond) {
+            long desiredNs = (long) (observedSoFar / maxPerSecond * TimeUnit.SECONDS.toNanos(1));
+            long sleepMs = TimeUnit.NANOSECONDS.toMillis(desiredNs - elapsedNs);
+            if (sleepMs > 0) {
+                logger.debug("Throttling for " + sleepMs + "ms at " + (long) rate + " per second");
+                Thread.sleep(sleepMs);
+            }
+        }
+        periodStartNs = System.nanoTime();
+        observedSoFar = 0;
+    }
+}
@@ -0,0 +1,192 @@
+package com.dist.simplekafka;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * A sparse, memory mapped index from timestamps to offsets in a segment,
+ * written alongside the {@link OffsetIndex}. Every entry is 12 bytes:
+ *   1. 8 byte timestamp, the largest timestamp in the segment so far
+ *   2. 4 byte offset of the batch holding that timestamp, relative to the
+ *      base offset of the segment
+ * An entry is only added when the largest timestamp grows, so timestamps
+ * and offsets both increase and a lookup is a binary search. All the
+ * messages before an entry's batch have a timestamp no larger than the
+ * entry's, so a search for the first message at or after a timestamp can
+ * start from the last entry with a smaller timestamp.
+ * Like the offset index, the file is preallocated to maxIndexSize and
+ * trimmed when the segment is closed or rolled.
+ */
+class TimeIndex {
+    static final String TimeIndexFileSuffix = ".timeindex";
+    private static final int EntrySize = 12;
+
+    private volatile File file;
+    private final long baseOffset;
+    private final int maxEntries;
+    private volatile MappedByteBuffer mmap;
+    private volatile int entries;
+
+    TimeIndex(File file, long baseOffset, int maxIndexSize) throws IOException {
+        this.file = file;
+        this.baseOffset = baseOffset;
+        boolean newlyCreated = !file.exists();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            int existingLength = (int) raf.length();
+            int mapSize = Math.max(roundDownToEntrySize(maxIndexSize), roundDownToEntrySize(existingLength));
+            raf.setLength(mapSize);
+            this.maxEntries = mapSize / EntrySize;
+            this.mmap = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, mapSize);
+            this.entries = newlyCreated ? 0 : existingLength / EntrySize;
+        }
+        sanityCheck();
+    }
+
+    static File indexFile(File dir, long baseOffset) {
+        return new File(dir, String.format("%020d", baseOffset) + TimeIndexFileSuffix);
+    }
+
+    //Called in offset order, with the log's append lock held. Only adds
+    // an entry if the timestamp is larger than the last one.
+    void maybeAppend(long timestamp, long offset) {
+        if (isFull() || timestamp <= lastEntry().timestamp) {
+            return;
+        }
+        int n = entries;
+        mmap.putLong(n * EntrySize, timestamp);
+        mmap.putInt(n * EntrySize + 8, (int) (offset - baseOffset));
+        entries = n + 1; //publishes the entry to readers.
+    }
+
+    /**
+     * Finds the last entry with a timestamp smaller than targetTimestamp.
+     * If there is no such entry, the start of the segment is returned.
+     */
+    TimestampOffset lookup(long targetTimestamp) {
+        MappedByteBuffer buffer = mmap;
+        int low = 0;
+        int high = entries - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (buffer.getLong(mid * EntrySize) < targetTimestamp) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if (found == -1) {
+            return new TimestampOffset(RecordBatch.NoTimestamp, baseOffset);
+        }
+        return entryAt(buffer, found);
+    }
+
+    TimestampOffset lastEntry() {
+        int n = entries;
+        if (n == 0) {
+            return new TimestampOffset(RecordBatch.NoTimestamp, baseOffset);
+        }
+        return entryAt(mmap, n - 1);
+    }
+
+    /**
+     * Removes all the entries for offsets greater than or equal to the
+     * given offset.
+     */
+    void truncateTo(long offset) {
+        MappedByteBuffer buffer = mmap;
+        int n = entries;
+        while (n > 0 && baseOffset + buffer.getInt((n - 1) * EntrySize + 8) >= offset) {
+            n--;
+        }
+        entries = n;
+    }
+
+    void flush() {
+        mmap.force();
+    }
+
+    boolean isFull() {
+        return entries >= maxEntries;
+    }
+
+    int entries() {
+        return entries;
+    }
+
+    void trimToValidSize() throws IOException {
+        resize(entries * EntrySize);
+    }
+
+    //Grows a trimmed index back to its preallocated size, for a segment
+    // appended to again after it was truncated.
+    void expand() throws IOException {
+        resize(maxEntries * EntrySize);
+    }
+
+    void close() throws IOException {
+        trimToValidSize();
+    }
+
+    void delete() throws IOException {
+        Files.deleteIfExists(file.toPath());
+    }
+
+    File file() {
+        return file;
+    }
+
+    void renameTo(File target) throws IOException {
+        Files.move(file.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        file = target;
+    }
+
+    //An unclean shutdown leaves zeroes after the last entry. Drop
+    // everything from the first entry which does not increase the
+    // timestamp, timestamps before the epoch are not indexed.
+    private void sanityCheck() {
+        long lastTimestamp = 0;
+        int lastOffset = -1;
+        for (int i = 0; i < entries; i++) {
+            long timestamp = mmap.getLong(i * EntrySize);
+            int relativeOffset = mmap.getInt(i * EntrySize + 8);
+            if (timestamp <= lastTimestamp || relativeOffset < lastOffset) {
+                entries = i;
+                return;
+            }
+            lastTimestamp = timestamp;
+            lastOffset = relativeOffset;
+        }
+    }
+
+    private void resize(int size) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            mmap = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            raf.setLength(size);
+        }
+    }
+
+    private TimestampOffset entryAt(MappedByteBuffer buffer, int n) {
+        return new TimestampOffset(buffer.getLong(n * EntrySize), baseOffset + buffer.getInt(n * EntrySize + 8));
+    }
+
+    private static int roundDownToEntrySize(int size) {
+        return size - (size % EntrySize);
+    }
+
+    static class TimestampOffset {
+        final long timestamp;
+        final long offset;
+
+        TimestampOffset(long timestamp, long offset) {
+            this.timestamp = timestamp;
+            this.offset = offset;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.dist.simplekafka;
+
+import java.util.Objects;
+
+public final class TopicPartition {
+    private final String topic;
+    private final int partition;
+
+    public TopicPartition(String topic, int partition) {
+        this.topic = topic;
+        this.partition = partition;
+    }
+
+    public String topic() {
+        return topic;
+    }
+
+    public int partition() {
+        return partition;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this) return true;
+        if (obj == null || obj.getClass() != this.getClass()) return false;
+        var that = (TopicPartition) obj;
+        return this.partition == that.partition &&
+                Objects.equals(this.topic, that.topic);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(topic, partition);
+    }
+
+    @Override
+    public String toString() {
+        return topic + "-" + partition;
+    }
+}
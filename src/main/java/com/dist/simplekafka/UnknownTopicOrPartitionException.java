@@ -0,0 +1,8 @@
+package com.dist.simplekafka;
+
+public class UnknownTopicOrPartitionException extends RuntimeException {
+
+    public UnknownTopicOrPartitionException(String message) {
+        super(message);
+    }
+}
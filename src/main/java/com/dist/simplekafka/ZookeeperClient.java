@@ -130,6 +130,9 @@ public class ZookeeperClient {
 
 
     public Map<String, List<PartitionReplicas>> getAllTopics() throws Exception {
+        if (!zkClient.exists(BrokerTopicsPath)) {
+            return new HashMap<>(); //no topic created yet.
+        }
         List<String> topics = zkClient.getChildren(BrokerTopicsPath); // Assuming zkClient is available
         Map<String, List<PartitionReplicas>> topicPartitionMap = new HashMap<>();
         for (String topicName : topics) {
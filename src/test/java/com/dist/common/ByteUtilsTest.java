@@ -0,0 +1,48 @@
+package com.dist.common;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+
+public class ByteUtilsTest {
+
+    @Test
+    public void roundTripsUnsignedVarints() {
+        int[] values = {0, 1, 127, 128, 16383, 16384, 1 << 21, Integer.MAX_VALUE};
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        for (int value : values) {
+            ByteUtils.writeUnsignedVarint(value, buffer);
+        }
+        buffer.flip();
+        for (int value : values) {
+            assertEquals(value, ByteUtils.readUnsignedVarint(buffer));
+        }
+    }
+
+    @Test
+    public void usesOneByteForSmallValues() {
+        assertEquals(1, ByteUtils.sizeOfUnsignedVarint(127));
+        assertEquals(2, ByteUtils.sizeOfUnsignedVarint(128));
+        assertEquals(5, ByteUtils.sizeOfUnsignedVarint(Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void roundTripsSignedVarlongs() {
+        long[] values = {0, -1, 1, -64, 64, -1000, Integer.MIN_VALUE, Long.MAX_VALUE, Long.MIN_VALUE};
+        ByteBuffer buffer = ByteBuffer.allocate(128);
+        for (long value : values) {
+            ByteUtils.writeVarlong(value, buffer);
+        }
+        buffer.flip();
+        for (long value : values) {
+            int start = buffer.position();
+            assertEquals(value, ByteUtils.readVarlong(buffer));
+            assertEquals(ByteUtils.sizeOfVarlong(value), buffer.position() - start);
+        }
+        assertEquals(1, ByteUtils.sizeOfVarlong(-64));
+        assertEquals(2, ByteUtils.sizeOfVarlong(64));
+        assertEquals(10, ByteUtils.sizeOfVarlong(Long.MIN_VALUE));
+    }
+}
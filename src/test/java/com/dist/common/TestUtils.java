@@ -2,15 +2,14 @@ package com.dist.common;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.ServerSocket;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Random;
 
 public class TestUtils {
 
-    private static final Random random = new Random();
-
     public static String hostName() {
         return new Networks().hostname();
     }
@@ -56,12 +55,19 @@ public class TestUtils {
         return f;
     }
 
+    /**
+     * Create a new empty directory, deleted with its contents when the JVM
+     * exits. Names are never reused, so a test doesn't see the files of
+     * an earlier run.
+     */
     public static File tempDir(String prefix) {
-        String ioDir = System.getProperty("java.io.tmpdir");
-        File f = new File(ioDir, prefix + random.nextInt(1000000));
-        f.mkdirs();
-        f.deleteOnExit();
-        return f;
+        try {
+            File f = Files.createTempDirectory(prefix).toFile();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> Utils.rm(f)));
+            return f;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to create a temporary directory", e);
+        }
     }
 
     public static File tempDir() {
@@ -0,0 +1,40 @@
+package com.dist.perf;
+
+import com.dist.common.TestUtils;
+import com.dist.simplekafka.Log;
+
+import java.lang.management.ManagementFactory;
+
+//Measures the bytes allocated on the heap per append, with the allocation
+// counter the JVM keeps for every thread.
+public class AppendAllocationPerformanceTest {
+
+    private static final int WRITE_SIZE = 1024; // Size of each write in bytes
+    private static final int WARMUP_APPENDS = 200_000;
+    private static final int APPENDS = 1_000_000;
+
+    public static void main(String[] args) throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        byte[] key = "key".getBytes();
+        byte[] data = new byte[WRITE_SIZE];
+        Log log = new Log(TestUtils.tempDir("perf"));
+        System.out.println("Writing data to = " + log.dir());
+
+        for (int i = 0; i < WARMUP_APPENDS; i++) {
+            log.append(key, data);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int i = 0; i < APPENDS; i++) {
+            log.append(key, data);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        log.close();
+
+        System.out.println("Appends per second: " + (long) (APPENDS / seconds));
+        System.out.println("Bytes allocated per append: " + (double) allocated / APPENDS);
+    }
+}
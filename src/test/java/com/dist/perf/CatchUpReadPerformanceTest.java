@@ -0,0 +1,66 @@
+package com.dist.perf;
+
+import com.dist.common.TestUtils;
+import com.dist.simplekafka.Log;
+import com.dist.simplekafka.LogConfig;
+import com.dist.simplekafka.LogReader;
+
+import java.io.IOException;
+
+//Reads a log from the start, as a consumer catching up would. Compares a
+// read per offset with the chunked streaming reader, with channel reads
+// and with memory mapped segments.
+public class CatchUpReadPerformanceTest {
+
+    private static final int MESSAGES = 200_000;
+    private static final int MESSAGE_SIZE = 100;
+
+    public static void main(String[] args) throws Exception {
+        for (LogConfig.IoMode ioMode : LogConfig.IoMode.values()) {
+            System.out.println("IO mode " + ioMode);
+            run(new LogConfig().setIoMode(ioMode));
+        }
+    }
+
+    private static void run(LogConfig config) throws IOException {
+        Log log = new Log(TestUtils.tempDir("perf"), config);
+        byte[] data = new byte[MESSAGE_SIZE];
+        for (int i = 0; i < MESSAGES; i++) {
+            log.append("key".getBytes(), data);
+        }
+        System.out.println("Reading " + MESSAGES + " messages, " + log.size() / (1024 * 1024) + " MB from " + log.dir());
+
+        for (int run = 0; run < 3; run++) {
+            report("readSingleMessage per offset", readPerOffset(log));
+            report("streaming reader", readStreaming(log));
+        }
+        log.close();
+    }
+
+    private static long readPerOffset(Log log) throws IOException {
+        long start = System.nanoTime();
+        for (long offset = 1; offset <= log.lastOffset(); offset++) {
+            log.readSingleMessage(offset);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long readStreaming(Log log) {
+        long start = System.nanoTime();
+        LogReader reader = log.reader(1, log.lastOffset(), Integer.MAX_VALUE);
+        long read = 0;
+        while (reader.hasNext()) {
+            reader.next();
+            read++;
+        }
+        if (read != MESSAGES) {
+            throw new IllegalStateException("Read " + read + " messages");
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static void report(String name, long nanos) {
+        double seconds = nanos / 1e9;
+        System.out.println(name + ": " + (long) (MESSAGES / seconds) + " messages per second");
+    }
+}
@@ -0,0 +1,53 @@
+package com.dist.perf;
+
+import com.dist.common.TestUtils;
+import com.dist.simplekafka.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+//Appends to a single log from an increasing number of threads.
+//Throughput should grow with the threads, as appenders only share an
+//atomic reservation and write in parallel.
+public class ConcurrentAppendPerformanceTest {
+
+    private static final int WRITE_SIZE = 1024; // Size of each write in bytes
+    private static final int DURATION_IN_SECONDS = 10; // Duration of each run in seconds
+    private static final int[] THREAD_COUNTS = {1, 2, 4, 8, 16, 32};
+
+    public static void main(String[] args) throws Exception {
+        byte[] data = new byte[WRITE_SIZE];
+        for (int threads : THREAD_COUNTS) {
+            Log log = new Log(TestUtils.tempDir("perf"));
+            long appends = appendFromThreads(log, data, threads);
+            log.close();
+            System.out.println(threads + " threads: " + appends / DURATION_IN_SECONDS + " appends per second");
+        }
+    }
+
+    private static long appendFromThreads(Log log, byte[] data, int threads) throws InterruptedException {
+        AtomicLong appends = new AtomicLong();
+        long endTime = System.currentTimeMillis() + DURATION_IN_SECONDS * 1000L;
+        List<Thread> appenders = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    while (System.currentTimeMillis() < endTime) {
+                        log.append("key".getBytes(), data);
+                        appends.incrementAndGet();
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            thread.start();
+            appenders.add(thread);
+        }
+        for (Thread thread : appenders) {
+            thread.join();
+        }
+        return appends.get();
+    }
+}
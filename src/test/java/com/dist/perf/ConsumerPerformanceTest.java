@@ -0,0 +1,114 @@
+package com.dist.perf;
+
+import com.dist.common.Config;
+import com.dist.common.TestUtils;
+import com.dist.simplekafka.Broker;
+import com.dist.simplekafka.Consumer;
+import com.dist.simplekafka.ConsumerConfig;
+import com.dist.simplekafka.ConsumerRecord;
+import com.dist.simplekafka.LogConfig;
+import com.dist.simplekafka.LogManager;
+import com.dist.simplekafka.MetadataCache;
+import com.dist.simplekafka.PartitionReplicas;
+import com.dist.simplekafka.Producer;
+import com.dist.simplekafka.ProducerConfig;
+import com.dist.simplekafka.SocketServer;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+//Consumes a topic spread over two brokers with an application doing some
+//work per record, with the fetches ahead of the polls, and with a
+//partition fetched again only once its records are polled, as a consumer
+//doing one round trip per poll would. With prefetching the fetch round
+//trips overlap with the work, so the throughput should be close to what
+//the work per record allows.
+public class ConsumerPerformanceTest {
+
+    private static final int BROKERS = 2;
+    private static final int PARTITIONS = 8;
+    private static final int RECORDS = 200_000;
+    private static final int RECORD_SIZE = 100;
+
+    public static void main(String[] args) throws Exception {
+        List<LogManager> logManagers = new ArrayList<>();
+        List<SocketServer> servers = new ArrayList<>();
+        List<Broker> brokers = new ArrayList<>();
+        List<MetadataCache> caches = new ArrayList<>();
+        for (int id = 1; id <= BROKERS; id++) {
+            Config config = new Config(id, "localhost", 0, "", List.of(TestUtils.tempDir("perf").getAbsolutePath()));
+            LogManager logManager = new LogManager(config, new LogConfig());
+            for (int partition = 0; partition < PARTITIONS; partition++) {
+                if (partition % BROKERS == id - 1) {
+                    logManager.getOrCreateLog("perf", partition);
+                }
+            }
+            MetadataCache cache = new MetadataCache();
+            SocketServer server = new SocketServer(config, logManager, cache);
+            server.startup();
+            logManagers.add(logManager);
+            servers.add(server);
+            caches.add(cache);
+            brokers.add(new Broker(id, "localhost", server.port()));
+        }
+        List<PartitionReplicas> partitions = new ArrayList<>();
+        for (int partition = 0; partition < PARTITIONS; partition++) {
+            partitions.add(new PartitionReplicas(partition, List.of(partition % BROKERS + 1)));
+        }
+        for (MetadataCache cache : caches) {
+            cache.update(brokers, Map.of("perf", partitions));
+        }
+        List<InetSocketAddress> bootstrap = List.of(new InetSocketAddress("localhost", brokers.get(0).port()));
+        try {
+            produce(bootstrap);
+            for (long workNs : new long[]{0, 1_000, 5_000}) {
+                for (int round = 0; round < 2; round++) { //the first round warms up the JIT.
+                    consume(bootstrap, true, workNs);
+                    consume(bootstrap, false, workNs);
+                }
+            }
+        } finally {
+            for (SocketServer server : servers) {
+                server.shutdown();
+            }
+            for (LogManager logManager : logManagers) {
+                logManager.shutdown();
+            }
+        }
+    }
+
+    private static void produce(List<InetSocketAddress> bootstrap) throws Exception {
+        try (Producer producer = new Producer(new ProducerConfig(bootstrap).setLingerMs(10))) {
+            for (int i = 0; i < RECORDS; i++) {
+                producer.send("perf", null, new byte[RECORD_SIZE]);
+            }
+            producer.flush();
+        }
+    }
+
+    private static void consume(List<InetSocketAddress> bootstrap, boolean prefetch, long workNs) throws Exception {
+        ConsumerConfig config = new ConsumerConfig(bootstrap).setMaxPartitionFetchBytes(64 * 1024);
+        if (!prefetch) {
+            config.setMaxBufferedBytesPerPartition(1);
+        }
+        try (Consumer consumer = new Consumer(config)) {
+            consumer.assign(consumer.partitionsFor("perf"));
+            int count = 0;
+            long start = System.nanoTime();
+            while (count < RECORDS) {
+                for (ConsumerRecord record : consumer.poll(1000)) {
+                    long until = System.nanoTime() + workNs;
+                    while (System.nanoTime() < until) {
+                        //the work of the application.
+                    }
+                    count++;
+                }
+            }
+            long elapsedNs = System.nanoTime() - start;
+            System.out.println((prefetch ? "prefetch   " : "no prefetch") + " work=" + workNs + "ns/record "
+                    + (long) (count / (elapsedNs / 1e9)) + " records/s");
+        }
+    }
+}
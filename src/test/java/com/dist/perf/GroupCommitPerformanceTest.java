@@ -0,0 +1,57 @@
+package com.dist.perf;
+
+import com.dist.common.TestUtils;
+import com.dist.simplekafka.Log;
+import com.dist.simplekafka.LogConfig;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+//Compare with DiskWritePerformanceTest, which syncs every write.
+//Durable appends here are synced by a group commit every few ms.
+public class GroupCommitPerformanceTest {
+
+    private static final int WRITE_SIZE = 1024; // Size of each write in bytes
+    private static final int DURATION_IN_SECONDS = 20; // Duration of the test in seconds
+    private static final int MAX_IN_FLIGHT = 10_000; // Appends waiting for a flush
+
+    public static void main(String[] args) throws Exception {
+        byte[] data = new byte[WRITE_SIZE];
+        Log log = new Log(TestUtils.tempDir("perf"), new LogConfig()
+                .setFlushIntervalMs(5));
+
+        System.out.println("Writing data to = " + log.dir());
+
+        Instant startTime = Instant.now();
+        long durableWrites = writeUntil(startTime.plus(Duration.ofSeconds(DURATION_IN_SECONDS)), log, data);
+        double seconds = Duration.between(startTime, Instant.now()).toMillis() / 1000.0;
+        log.close();
+
+        double mbWritten = (durableWrites * WRITE_SIZE) / (1024.0 * 1024.0);
+        System.out.println("Total durable writes: " + durableWrites);
+        System.out.println("Total time: " + seconds + " seconds");
+        System.out.println("Durable writes per second: " + durableWrites / seconds);
+        System.out.println("MB per second: " + mbWritten / seconds);
+    }
+
+    private static long writeUntil(Instant endTime, Log log, byte[] data) throws IOException, InterruptedException {
+        AtomicLong durableWrites = new AtomicLong();
+        Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+        while (Instant.now().isBefore(endTime)) {
+            inFlight.acquire();
+            CompletableFuture<Long> durable = log.appendAsync("key".getBytes(), data);
+            durable.whenComplete((offset, error) -> {
+                if (error == null) {
+                    durableWrites.incrementAndGet();
+                }
+                inFlight.release();
+            });
+        }
+        inFlight.acquire(MAX_IN_FLIGHT);
+        return durableWrites.get();
+    }
+}
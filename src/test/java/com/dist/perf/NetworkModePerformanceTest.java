@@ -0,0 +1,166 @@
+package com.dist.perf;
+
+import com.dist.common.Config;
+import com.dist.common.TestUtils;
+import com.dist.simplekafka.FetchRequest;
+import com.dist.simplekafka.FetchResponse;
+import com.dist.simplekafka.LogConfig;
+import com.dist.simplekafka.LogManager;
+import com.dist.simplekafka.MetadataCache;
+import com.dist.simplekafka.ProduceRequest;
+import com.dist.simplekafka.SocketServer;
+import com.dist.simplekafka.TopicPartition;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+//Holds 10k connections to the broker, all of them active, in selector and
+//thread per connection mode. In every round each connection sends one
+//request, a produce or a fetch, so 10k requests are in flight at once, and
+//the latency is from writing a request to reading its response.
+//Client and broker share the process, so the connections need twice the
+//file descriptors, e.g. ulimit -n 25000, or pass a smaller count.
+//The thread per connection mode runs on platform threads till the build
+//targets JDK 21, so its results are labelled as such and say nothing about
+//virtual threads.
+public class NetworkModePerformanceTest {
+
+    private static final int PARTITIONS = 16;
+    private static final int CLIENT_THREADS = 4;
+    private static final int ROUNDS = 20;
+    private static final int MESSAGE_SIZE = 100;
+
+    public static void main(String[] args) throws Exception {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        for (Config.NetworkMode mode : Config.NetworkMode.values()) {
+            run(mode, connections);
+        }
+    }
+
+    private static void run(Config.NetworkMode mode, int connectionCount) throws Exception {
+        int threadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+        Config config = new Config(1, "localhost", 0, "", List.of(TestUtils.tempDir("perf").getAbsolutePath()))
+                .setNetworkMode(mode);
+        LogManager logManager = new LogManager(config, new LogConfig());
+        for (int partition = 0; partition < PARTITIONS; partition++) {
+            logManager.getOrCreateLog("perf", partition).append("key".getBytes(), new byte[MESSAGE_SIZE]);
+        }
+        SocketServer server = new SocketServer(config, logManager, new MetadataCache());
+        server.startup();
+        InetSocketAddress address = new InetSocketAddress("localhost", server.port());
+        List<SocketChannel> connections = new ArrayList<>();
+        ExecutorService clients = Executors.newFixedThreadPool(CLIENT_THREADS);
+        try {
+            ByteBuffer batch = storedBatch(address);
+            for (int i = 0; i < connectionCount; i++) {
+                connections.add(SocketChannel.open(address));
+            }
+            int threads = ManagementFactory.getThreadMXBean().getThreadCount() - threadsBefore;
+
+            long[] latencies = new long[connectionCount * ROUNDS];
+            long start = System.nanoTime();
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < CLIENT_THREADS; t++) {
+                int first = t;
+                futures.add(clients.submit(() -> {
+                    drive(connections, first, CLIENT_THREADS, batch, latencies);
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            long elapsedNs = System.nanoTime() - start;
+
+            Arrays.sort(latencies);
+            System.out.println(label(mode) + " connections=" + connectionCount
+                    + " threads=" + threads
+                    + " throughput=" + (long) (latencies.length / (elapsedNs / 1e9)) + " req/s"
+                    + " p50=" + micros(latencies, 0.5) + "us"
+                    + " p99=" + micros(latencies, 0.99) + "us"
+                    + " max=" + latencies[latencies.length - 1] / 1000 + "us");
+        } finally {
+            for (SocketChannel connection : connections) {
+                connection.close();
+            }
+            clients.shutdown();
+            server.shutdown();
+            logManager.shutdown();
+        }
+    }
+
+    private static String label(Config.NetworkMode mode) {
+        return mode == Config.NetworkMode.THREAD_PER_CONNECTION ? mode + " (platform threads)" : mode.toString();
+    }
+
+    //Sends a request on each of the connections of this client thread, then
+    // reads the responses, for every round.
+    private static void drive(List<SocketChannel> connections, int first, int step,
+                              ByteBuffer batch, long[] latencies) throws IOException {
+        long[] sentAt = new long[connections.size()];
+        ByteBuffer size = ByteBuffer.allocate(4);
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int i = first; i < connections.size(); i += step) {
+                ByteBuffer frame = request(i, batch);
+                sentAt[i] = System.nanoTime();
+                while (frame.hasRemaining()) {
+                    connections.get(i).write(frame);
+                }
+            }
+            for (int i = first; i < connections.size(); i += step) {
+                SocketChannel connection = connections.get(i);
+                readFully(connection, size.clear());
+                readFully(connection, ByteBuffer.allocate(size.getInt(0)));
+                latencies[round * connections.size() + i] = System.nanoTime() - sentAt[i];
+            }
+        }
+    }
+
+    //Even connections produce, odd ones fetch the first message.
+    private static ByteBuffer request(int connection, ByteBuffer batch) {
+        TopicPartition topicPartition = new TopicPartition("perf", connection % PARTITIONS);
+        if (connection % 2 == 0) {
+            return new ProduceRequest(List.of(new ProduceRequest.PartitionData(topicPartition, batch)))
+                    .toFrame(connection, "perf");
+        }
+        return new FetchRequest(1024 * 1024, List.of(new FetchRequest.PartitionData(topicPartition, 1, 1024)))
+                .toFrame(connection, "perf");
+    }
+
+    //A batch as stored by the broker, which a produce request can resend.
+    private static ByteBuffer storedBatch(InetSocketAddress address) throws IOException {
+        try (SocketChannel channel = SocketChannel.open(address)) {
+            ByteBuffer frame = new FetchRequest(1024 * 1024, List.of(
+                    new FetchRequest.PartitionData(new TopicPartition("perf", 0), 1, 1024))).toFrame(0, "perf");
+            while (frame.hasRemaining()) {
+                channel.write(frame);
+            }
+            ByteBuffer size = readFully(channel, ByteBuffer.allocate(4));
+            ByteBuffer response = readFully(channel, ByteBuffer.allocate(size.getInt(0)));
+            response.getInt(); //correlation ID.
+            return FetchResponse.parse(response).responses().get(0).records;
+        }
+    }
+
+    private static ByteBuffer readFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException("Connection closed");
+            }
+        }
+        return buffer.flip();
+    }
+
+    private static long micros(long[] sorted, double percentile) {
+        return sorted[(int) (sorted.length * percentile)] / 1000;
+    }
+}
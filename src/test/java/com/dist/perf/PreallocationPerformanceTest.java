@@ -0,0 +1,44 @@
+package com.dist.perf;
+
+import com.dist.common.TestUtils;
+import com.dist.simplekafka.Log;
+import com.dist.simplekafka.LogConfig;
+
+import java.util.Arrays;
+
+//Appends small batches, syncing every one of them, with and without
+//preallocated segments. Growing the file makes every sync write the file
+//size too, and rolling creates a new file on the append path, so the
+//sync latency should drop with preallocation on ext4 or xfs.
+public class PreallocationPerformanceTest {
+
+    private static final int WRITE_SIZE = 100; // Size of each write in bytes
+    private static final int APPENDS = 20_000;
+    private static final int SEGMENT_BYTES = 1024 * 1024; // Rolls every ~8000 appends
+
+    public static void main(String[] args) throws Exception {
+        byte[] data = new byte[WRITE_SIZE];
+        for (boolean preallocate : new boolean[] {false, true}) {
+            Log log = new Log(TestUtils.tempDir("perf"), new LogConfig()
+                    .setSegmentBytes(SEGMENT_BYTES)
+                    .setFlushPolicy(LogConfig.FlushPolicy.ALWAYS)
+                    .setPreallocate(preallocate));
+            long[] latencies = new long[APPENDS];
+            for (int i = 0; i < APPENDS; i++) {
+                long start = System.nanoTime();
+                log.append("key".getBytes(), data);
+                latencies[i] = System.nanoTime() - start;
+            }
+            log.close();
+            Arrays.sort(latencies);
+            System.out.println("preallocate=" + preallocate
+                    + " p50=" + micros(latencies, 0.5) + "us"
+                    + " p99=" + micros(latencies, 0.99) + "us"
+                    + " max=" + latencies[APPENDS - 1] / 1000 + "us");
+        }
+    }
+
+    private static long micros(long[] sorted, double percentile) {
+        return sorted[(int) (sorted.length * percentile)] / 1000;
+    }
+}
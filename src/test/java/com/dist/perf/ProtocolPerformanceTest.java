@@ -0,0 +1,71 @@
+package com.dist.perf;
+
+import com.dist.simplekafka.FetchRequest;
+import com.dist.simplekafka.ProduceRequest;
+import com.dist.simplekafka.RequestHeader;
+import com.dist.simplekafka.TopicPartition;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+//Encodes and decodes the requests a client sends most, a produce of one
+//batch and a fetch of several partitions, to check the protocol costs a
+//few hundred nanoseconds per request rather than microseconds.
+public class ProtocolPerformanceTest {
+
+    private static final int ITERATIONS = 5_000_000;
+    private static final int FETCH_PARTITIONS = 10;
+
+    public static void main(String[] args) {
+        ProduceRequest produce = new ProduceRequest(List.of(
+                new ProduceRequest.PartitionData(new TopicPartition("topic1", 0), ByteBuffer.allocate(1024))));
+        List<FetchRequest.PartitionData> partitions = new ArrayList<>();
+        for (int i = 0; i < FETCH_PARTITIONS; i++) {
+            partitions.add(new FetchRequest.PartitionData(new TopicPartition("topic1", i), 1000, 1024 * 1024));
+        }
+        FetchRequest fetch = new FetchRequest(50 * 1024 * 1024, partitions);
+
+        for (int round = 0; round < 3; round++) { //the first rounds warm up the JIT.
+            long sink = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                sink += produce.toFrame(i, "producer-1").remaining();
+            }
+            long produceEncode = System.nanoTime() - start;
+
+            ByteBuffer produceFrame = produce.toFrame(1, "producer-1");
+            start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                ByteBuffer frame = produceFrame.duplicate();
+                frame.getInt();
+                sink += RequestHeader.parse(frame).correlationId();
+                sink += ProduceRequest.parse(frame).partitions().size();
+            }
+            long produceDecode = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                sink += fetch.toFrame(i, "consumer-1").remaining();
+            }
+            long fetchEncode = System.nanoTime() - start;
+
+            ByteBuffer fetchFrame = fetch.toFrame(1, "consumer-1");
+            start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                ByteBuffer frame = fetchFrame.duplicate();
+                frame.getInt();
+                sink += RequestHeader.parse(frame).correlationId();
+                sink += FetchRequest.parse(frame).partitions().size();
+            }
+            long fetchDecode = System.nanoTime() - start;
+
+            System.out.println("round " + round
+                    + " produce encode=" + produceEncode / ITERATIONS + "ns"
+                    + " decode=" + produceDecode / ITERATIONS + "ns"
+                    + " fetch(" + FETCH_PARTITIONS + " partitions) encode=" + fetchEncode / ITERATIONS + "ns"
+                    + " decode=" + fetchDecode / ITERATIONS + "ns"
+                    + " (" + sink + ")");
+        }
+    }
+}
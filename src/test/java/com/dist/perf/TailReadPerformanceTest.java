@@ -0,0 +1,48 @@
+package com.dist.perf;
+
+import com.dist.common.TestUtils;
+import com.dist.simplekafka.Log;
+import com.dist.simplekafka.LogConfig;
+
+import java.util.Arrays;
+
+//A consumer tailing the log, reading every message right after it is
+// appended. Compares read latency with and without the tail cache.
+public class TailReadPerformanceTest {
+
+    private static final int MESSAGES = 200_000;
+    private static final int MESSAGE_SIZE = 100;
+
+    public static void main(String[] args) throws Exception {
+        for (int run = 0; run < 2; run++) {
+            report("segment files", tail(new LogConfig()));
+            report("tail cache", tail(new LogConfig().setTailCacheBytes(4 * 1024 * 1024)));
+        }
+    }
+
+    private static long[] tail(LogConfig config) throws Exception {
+        Log log = new Log(TestUtils.tempDir("perf"), config);
+        byte[] key = "key".getBytes();
+        byte[] data = new byte[MESSAGE_SIZE];
+        long[] latencies = new long[MESSAGES];
+        for (int i = 0; i < MESSAGES; i++) {
+            long offset = log.append(key, data);
+            long start = System.nanoTime();
+            log.readSingleMessage(offset);
+            latencies[i] = System.nanoTime() - start;
+        }
+        System.out.println("hit ratio " + log.tailCacheHitRatio());
+        log.close();
+        return latencies;
+    }
+
+    private static void report(String name, long[] latencies) {
+        Arrays.sort(latencies);
+        long total = 0;
+        for (long latency : latencies) {
+            total += latency;
+        }
+        System.out.println(name + ": mean " + total / latencies.length + "ns, p50 "
+                + latencies[latencies.length / 2] + "ns, p99 " + latencies[latencies.length * 99 / 100] + "ns");
+    }
+}
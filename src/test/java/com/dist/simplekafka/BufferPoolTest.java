@@ -0,0 +1,74 @@
+package com.dist.simplekafka;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class BufferPoolTest {
+
+    @Test
+    public void reusesFreedBuffersOfTheBatchSize() throws Exception {
+        BufferPool pool = new BufferPool(1024, 256);
+        ByteBuffer buffer = pool.allocate(256, 0);
+        assertEquals(768, pool.availableMemory());
+        buffer.putInt(42);
+        pool.deallocate(buffer);
+        assertEquals(1024, pool.availableMemory());
+
+        ByteBuffer reused = pool.allocate(256, 0);
+        assertSame(buffer, reused);
+        assertEquals(0, reused.position());
+    }
+
+    @Test
+    public void countsBiggerBuffersAgainstTheTotal() throws Exception {
+        BufferPool pool = new BufferPool(1024, 256);
+        pool.deallocate(pool.allocate(256, 0));
+        ByteBuffer big = pool.allocate(1000, 0);
+        assertEquals(24, pool.availableMemory());
+        pool.deallocate(big);
+        assertEquals(1024, pool.availableMemory());
+    }
+
+    @Test
+    public void blocksTillMemoryIsFreed() throws Exception {
+        BufferPool pool = new BufferPool(512, 256);
+        ByteBuffer first = pool.allocate(256, 0);
+        pool.allocate(256, 0);
+
+        CompletableFuture<ByteBuffer> waiting = CompletableFuture.supplyAsync(() -> {
+            try {
+                return pool.allocate(256, 10_000);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        Thread.sleep(100);
+        assertFalse(waiting.isDone());
+        assertEquals(1, pool.queued());
+
+        pool.deallocate(first);
+        assertSame(first, waiting.get(10, TimeUnit.SECONDS));
+        assertEquals(0, pool.queued());
+    }
+
+    @Test
+    public void timesOutWhenMemoryIsNotFreed() throws Exception {
+        BufferPool pool = new BufferPool(512, 256);
+        pool.allocate(512, 0);
+        try {
+            pool.allocate(256, 50);
+            fail("Expected the allocation to time out");
+        } catch (TimeoutException e) {
+            assertEquals(0, pool.queued());
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.dist.simplekafka;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CompressionCodecTest {
+
+    @Test
+    public void roundTripsCompressibleData() {
+        byte[] data = ("{\"user\":\"someone\",\"event\":\"page_view\",\"page\":\"/index.html\"}"
+                .repeat(200)).getBytes();
+        for (CompressionCodec codec : codecs()) {
+            byte[] compressed = codec.compress(data, 0, data.length);
+            assertTrue(codec.name(), compressed.length * 5 < data.length);
+            assertArrayEquals(codec.name(), data, codec.decompress(compressed, 0, compressed.length, data.length));
+        }
+    }
+
+    @Test
+    public void roundTripsIncompressibleAndTinyData() {
+        byte[] random = new byte[10_000];
+        new Random(42).nextBytes(random);
+        for (CompressionCodec codec : codecs()) {
+            for (byte[] data : new byte[][]{random, new byte[0], "a".getBytes(), "aaaaaaaa".getBytes()}) {
+                byte[] compressed = codec.compress(data, 0, data.length);
+                assertArrayEquals(codec.name(), data, codec.decompress(compressed, 0, compressed.length, data.length));
+            }
+        }
+    }
+
+    @Test
+    public void roundTripsLongMatchesAndLiterals() {
+        byte[] data = new byte[100_000];
+        Random random = new Random(7);
+        random.nextBytes(data);
+        Arrays.fill(data, 1_000, 20_000, (byte) 'x'); //overlapping match longer than the token length.
+        System.arraycopy(data, 30_000, data, 60_000, 5_000);
+        byte[] compressed = CompressionCodecs.Lz.compress(data, 0, data.length);
+        assertArrayEquals(data, CompressionCodecs.Lz.decompress(compressed, 0, compressed.length, data.length));
+    }
+
+    @Test(expected = CorruptRecordException.class)
+    public void rejectsTruncatedData() {
+        byte[] data = "hello hello hello hello hello".repeat(10).getBytes();
+        byte[] compressed = CompressionCodecs.Lz.compress(data, 0, data.length);
+        CompressionCodecs.Lz.decompress(compressed, 0, compressed.length - 3, data.length);
+    }
+
+    @Test
+    public void findsCodecsById() {
+        assertSame(CompressionCodecs.Deflate, CompressionCodecs.forId(DeflateCodec.Id));
+        assertSame(CompressionCodecs.Lz, CompressionCodecs.forId(LzCodec.Id));
+    }
+
+    private static CompressionCodec[] codecs() {
+        return new CompressionCodec[]{CompressionCodecs.Deflate, CompressionCodecs.Lz};
+    }
+}
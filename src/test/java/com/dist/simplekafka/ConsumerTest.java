@@ -0,0 +1,188 @@
+package com.dist.simplekafka;
+
+import com.dist.common.Config;
+import com.dist.common.TestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ConsumerTest {
+    private static final int Partitions = 3;
+
+    private LogManager logManager;
+    private SocketServer server;
+    private InetSocketAddress address;
+
+    @Before
+    public void startServer() throws IOException {
+        Config config = new Config(1, "localhost", 0, "", List.of(TestUtils.tempDir("logs").getAbsolutePath()));
+        logManager = new LogManager(config, new LogConfig());
+        MetadataCache metadataCache = new MetadataCache();
+        server = new SocketServer(config, logManager, metadataCache);
+        server.startup();
+        List<PartitionReplicas> partitions = new ArrayList<>();
+        for (int i = 0; i < Partitions; i++) {
+            partitions.add(new PartitionReplicas(i, List.of(1)));
+            logManager.getOrCreateLog("topic1", i);
+        }
+        metadataCache.update(List.of(new Broker(1, "localhost", server.port())), Map.of("topic1", partitions));
+        address = new InetSocketAddress("localhost", server.port());
+    }
+
+    @After
+    public void stopServer() {
+        server.shutdown();
+        logManager.shutdown();
+    }
+
+    @Test
+    public void consumesAllPartitionsFromTheEarliestOffset() throws Exception {
+        for (int i = 0; i < 300; i++) {
+            logManager.getLog("topic1", i % Partitions).append(("key" + i).getBytes(), ("value" + i).getBytes());
+        }
+        try (Consumer consumer = new Consumer(new ConsumerConfig(List.of(address)).setMaxPollRecords(50))) {
+            consumer.assign(consumer.partitionsFor("topic1"));
+            Map<Integer, Long> lastOffsets = new HashMap<>();
+            int count = 0;
+            while (count < 300) {
+                List<ConsumerRecord> records = consumer.poll(5000);
+                assertTrue("no records polled after " + count, !records.isEmpty());
+                assertTrue(records.size() <= 50);
+                for (ConsumerRecord record : records) {
+                    long expected = lastOffsets.getOrDefault(record.partition(), 0L) + 1;
+                    assertEquals(expected, record.offset());
+                    lastOffsets.put(record.partition(), record.offset());
+                    int i = (int) (record.offset() - 1) * Partitions + record.partition();
+                    assertEquals("value" + i, new String(record.value()));
+                    count++;
+                }
+            }
+            assertEquals(Map.of(0, 100L, 1, 100L, 2, 100L), lastOffsets);
+            assertEquals(101, consumer.position(new TopicPartition("topic1", 0)));
+        }
+    }
+
+    @Test
+    public void startsFromTheLatestOffsetWhenConfigured() throws Exception {
+        Log log = logManager.getLog("topic1", 0);
+        log.append("key".getBytes(), "old".getBytes());
+        TopicPartition topicPartition = new TopicPartition("topic1", 0);
+        ConsumerConfig config = new ConsumerConfig(List.of(address)).setAutoOffsetReset(ListOffsetsRequest.Latest);
+        try (Consumer consumer = new Consumer(config)) {
+            consumer.assign(List.of(topicPartition));
+            awaitPosition(consumer, topicPartition, 2);
+            assertTrue(consumer.poll(100).isEmpty());
+
+            log.append("key".getBytes(), "new".getBytes());
+            List<ConsumerRecord> records = consumer.poll(5000);
+            assertEquals(1, records.size());
+            assertEquals(2, records.get(0).offset());
+            assertEquals("new", new String(records.get(0).value()));
+        }
+    }
+
+    @Test
+    public void seeksWithinAFetchedBatch() throws Exception {
+        try (Producer producer = new Producer(new ProducerConfig(List.of(address)).setLingerMs(60_000))) {
+            for (int i = 0; i < 10; i++) {
+                producer.send("topic1", "key".getBytes(), ("value" + i).getBytes());
+            }
+            producer.flush();
+        }
+        TopicPartition topicPartition = null;
+        for (int i = 0; i < Partitions; i++) {
+            if (logManager.getLog("topic1", i).lastOffset() == 10) {
+                topicPartition = new TopicPartition("topic1", i);
+            }
+        }
+        try (Consumer consumer = new Consumer(new ConsumerConfig(List.of(address)))) {
+            consumer.assign(List.of(topicPartition));
+            consumer.seek(topicPartition, 6);
+            List<ConsumerRecord> records = pollAtLeast(consumer, 5);
+            assertEquals(5, records.size());
+            assertEquals(6, records.get(0).offset());
+            assertEquals("value5", new String(records.get(0).value()));
+
+            consumer.seek(topicPartition, 2);
+            assertEquals(2, pollAtLeast(consumer, 1).get(0).offset());
+        }
+    }
+
+    @Test
+    public void resetsPositionsOutOfRange() throws Exception {
+        logManager.getLog("topic1", 1).append("key".getBytes(), "value".getBytes());
+        TopicPartition topicPartition = new TopicPartition("topic1", 1);
+        try (Consumer consumer = new Consumer(new ConsumerConfig(List.of(address)))) {
+            consumer.assign(List.of(topicPartition));
+            consumer.seek(topicPartition, 1000);
+            List<ConsumerRecord> records = pollAtLeast(consumer, 1);
+            assertEquals(1, records.get(0).offset());
+        }
+    }
+
+    @Test
+    public void boundsTheRecordsFetchedAheadOfThePolls() throws Exception {
+        Log log = logManager.getLog("topic1", 0);
+        for (int i = 0; i < 200; i++) {
+            log.append("key".getBytes(), new byte[100]);
+        }
+        TopicPartition topicPartition = new TopicPartition("topic1", 0);
+        ConsumerConfig config = new ConsumerConfig(List.of(address))
+                .setMaxPartitionFetchBytes(1024)
+                .setMaxBufferedBytesPerPartition(2048)
+                .setMaxPollRecords(1);
+        try (Consumer consumer = new Consumer(config)) {
+            consumer.assign(List.of(topicPartition));
+            assertEquals(1, pollAtLeast(consumer, 1).size());
+            Thread.sleep(200); //time to fetch ahead.
+            int buffered = consumer.bufferedBytes(topicPartition);
+            assertTrue("buffered " + buffered, buffered > 0 && buffered < 2048 + 1024);
+            int count = 1;
+            while (count < 200) {
+                count += pollAtLeast(consumer, 1).size();
+            }
+            assertEquals(201, consumer.position(topicPartition));
+        }
+    }
+
+    @Test
+    public void failsToFindUnknownTopics() throws Exception {
+        try (Consumer consumer = new Consumer(new ConsumerConfig(List.of(address)).setRequestTimeoutMs(300))) {
+            consumer.partitionsFor("missing");
+            fail("Expected TimeoutException");
+        } catch (TimeoutException e) {
+            //expected.
+        }
+    }
+
+    private static List<ConsumerRecord> pollAtLeast(Consumer consumer, int count) {
+        List<ConsumerRecord> records = new ArrayList<>();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (records.size() < count && System.currentTimeMillis() < deadline) {
+            records.addAll(consumer.poll(100));
+        }
+        return records;
+    }
+
+    private static void awaitPosition(Consumer consumer, TopicPartition topicPartition, long position)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+        while (consumer.position(topicPartition) != position && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(position, consumer.position(topicPartition));
+    }
+}
@@ -0,0 +1,104 @@
+package com.dist.simplekafka;
+
+import com.dist.common.TestUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FileRegionTest {
+
+    @Test
+    public void transfersStoredBatchesToAChannel() throws IOException {
+        Log log = new Log(TestUtils.tempDir("log"));
+        for (int i = 0; i < 100; i++) {
+            log.append(("key" + i).getBytes(), ("value" + i).getBytes());
+        }
+        File target = new File(TestUtils.tempDir("target"), "out");
+
+        FileRegion region = log.fileRegion(1, Integer.MAX_VALUE);
+        try (FileChannel channel = FileChannel.open(target.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            assertEquals(log.size(), region.transferTo(channel));
+        }
+
+        assertTrue(region.isComplete());
+        assertEquals(100, region.lastOffset());
+        List<Log.Message> messages = parse(ByteBuffer.wrap(Files.readAllBytes(target.toPath())));
+        assertEquals(100, messages.size());
+        assertEquals("value42", new String(messages.get(42).value));
+    }
+
+    @Test
+    public void regionsFollowEachOtherAcrossSegments() throws IOException {
+        Log log = new Log(TestUtils.tempDir("log"), new LogConfig().setSegmentBytes(500));
+        for (int i = 0; i < 100; i++) {
+            log.append(("key" + i).getBytes(), ("value" + i).getBytes());
+        }
+
+        List<Log.Message> messages = new ArrayList<>();
+        long offset = 1;
+        int regions = 0;
+        FileRegion region;
+        while ((region = log.fileRegion(offset, 200)).size() > 0) {
+            assertTrue(region.size() <= 200);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            region.transferTo(Channels.newChannel(out));
+            messages.addAll(parse(ByteBuffer.wrap(out.toByteArray())));
+            offset = region.lastOffset() + 1;
+            regions++;
+        }
+
+        assertTrue(regions > log.numberOfSegments());
+        assertEquals(100, messages.size());
+        for (int i = 0; i < messages.size(); i++) {
+            assertEquals(i + 1, messages.get(i).offset);
+        }
+    }
+
+    @Test
+    public void returnsAtLeastOneBatch() throws IOException {
+        Log log = new Log(TestUtils.tempDir("log"));
+        log.append("key".getBytes(), new byte[1000]);
+        log.append("key".getBytes(), new byte[1000]);
+
+        FileRegion region = log.fileRegion(1, 10);
+        assertEquals(1, region.lastOffset());
+        assertTrue(region.size() > 1000);
+        assertEquals(0, log.fileRegion(3, 10).size());
+    }
+
+    @Test(expected = IOException.class)
+    public void failsIfTheSegmentIsTruncatedUnderTheRegion() throws IOException {
+        File file = new File(TestUtils.tempDir("segment"), "00000000000000000000.log");
+        Files.write(file.toPath(), new byte[100]);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            FileRegion region = new FileRegion(channel, 0, 200, 1, 10);
+            region.transferTo(Channels.newChannel(new ByteArrayOutputStream()));
+        }
+    }
+
+    private static List<Log.Message> parse(ByteBuffer bytes) {
+        List<Log.Message> messages = new ArrayList<>();
+        while (bytes.hasRemaining()) {
+            int size = RecordBatch.LogOverhead + bytes.getInt(bytes.position() + RecordBatch.LengthOffset);
+            ByteBuffer batchBuffer = bytes.slice();
+            batchBuffer.limit(size);
+            RecordBatch batch = new RecordBatch(batchBuffer);
+            batch.ensureValid();
+            batch.forEach(messages::add);
+            bytes.position(bytes.position() + size);
+        }
+        return messages;
+    }
+}
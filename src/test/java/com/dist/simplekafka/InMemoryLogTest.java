@@ -0,0 +1,39 @@
+package com.dist.simplekafka;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class InMemoryLogTest extends StorageEngineTest {
+
+    @Override
+    protected StorageEngine createEngine(LogConfig config) {
+        return new InMemoryLog(config);
+    }
+
+    @Test
+    public void dropsOldestChunksBeyondRetentionBytes() {
+        InMemoryLog log = new InMemoryLog(new LogConfig()
+                .setMemoryChunkBytes(100)
+                .setRetentionBytes(300));
+        for (int i = 0; i < 100; i++) {
+            log.append(("key" + i).getBytes(), ("value" + i).getBytes());
+        }
+
+        assertTrue(log.size() <= 300 + 100);
+        assertTrue(log.logStartOffset() > 1);
+        assertEquals(100, log.lastOffset());
+        assertEquals("value99", new String(log.readSingleMessage(100).value));
+    }
+
+    @Test
+    public void storesBatchesLargerThanAChunk() {
+        InMemoryLog log = new InMemoryLog(new LogConfig().setMemoryChunkBytes(100));
+        log.append("key".getBytes(), new byte[1000]);
+        log.append("key".getBytes(), "value".getBytes());
+
+        assertEquals(1000, log.readSingleMessage(1).value.length);
+        assertEquals("value", new String(log.readSingleMessage(2).value));
+    }
+}
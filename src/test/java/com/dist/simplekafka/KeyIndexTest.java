@@ -0,0 +1,60 @@
+package com.dist.simplekafka;
+
+import com.dist.common.TestUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class KeyIndexTest {
+
+    @Test
+    public void keepsTheLatestOffsetOfEveryKey() throws IOException {
+        File file = KeyIndex.indexFile(TestUtils.tempDir("index"), 100);
+        KeyIndex.Builder builder = new KeyIndex.Builder(100);
+        for (int i = 0; i < 1000; i++) {
+            builder.add(("key" + i % 100).getBytes(), 100 + i);
+        }
+        KeyIndex index = builder.write(file);
+
+        assertEquals(100, index.entries());
+        assertTrue(index.mightContain("key7".getBytes()));
+        assertEquals(1007, index.lookup("key7".getBytes()));
+        assertEquals(1099, index.lookup("key99".getBytes()));
+        assertEquals(-1, index.lookup("key100".getBytes()));
+    }
+
+    @Test
+    public void bloomFilterRulesOutMostMissingKeys() throws IOException {
+        File file = KeyIndex.indexFile(TestUtils.tempDir("index"), 1);
+        KeyIndex.Builder builder = new KeyIndex.Builder(1);
+        for (int i = 0; i < 10_000; i++) {
+            builder.add(("key" + i).getBytes(), 1 + i);
+        }
+        builder.write(file);
+        KeyIndex index = KeyIndex.open(file, 1);
+
+        int falsePositives = 0;
+        for (int i = 0; i < 10_000; i++) {
+            assertTrue(index.mightContain(("key" + i).getBytes()));
+            if (index.mightContain(("missing" + i).getBytes())) {
+                falsePositives++;
+            }
+        }
+        assertTrue("false positives " + falsePositives, falsePositives < 300);
+    }
+
+    @Test
+    public void ignoresMissingOrCorruptIndexFile() throws IOException {
+        File file = KeyIndex.indexFile(TestUtils.tempDir("index"), 1);
+        assertNull(KeyIndex.open(file, 1));
+
+        assertTrue(file.createNewFile());
+        assertNull(KeyIndex.open(file, 1));
+        assertTrue(!file.exists());
+    }
+}
@@ -0,0 +1,37 @@
+package com.dist.simplekafka;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class KeyOffsetMapTest {
+
+    @Test
+    public void keepsTheLatestOffsetForAKey() {
+        KeyOffsetMap map = new KeyOffsetMap(1024 * 1024);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(map.put(("key" + (i % 100)).getBytes(), i));
+        }
+        assertEquals(100, map.size());
+        assertEquals(999, map.get("key99".getBytes()));
+        assertEquals(900, map.get("key0".getBytes()));
+        assertEquals(-1, map.get("unknown".getBytes()));
+        map.clear();
+        assertEquals(0, map.size());
+        assertEquals(-1, map.get("key99".getBytes()));
+    }
+
+    @Test
+    public void rejectsNewKeysOnceFull() {
+        KeyOffsetMap map = new KeyOffsetMap(24 * 10); //10 slots, 9 usable.
+        for (int i = 0; i < 9; i++) {
+            assertTrue(map.put(("key" + i).getBytes(), i));
+        }
+        assertTrue(map.isFull());
+        assertFalse(map.put("key9".getBytes(), 9));
+        assertTrue(map.put("key0".getBytes(), 10)); //existing keys can still be updated.
+        assertEquals(10, map.get("key0".getBytes()));
+    }
+}
@@ -0,0 +1,126 @@
+package com.dist.simplekafka;
+
+import com.dist.common.TestUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LogCleanerTest {
+
+    @Test
+    public void keepsOnlyTheLatestMessageForEveryKey() throws Exception {
+        LogConfig config = compactedConfig();
+        Log log = new Log(TestUtils.tempDir("log"), config);
+        appendRounds(log, 20, 10);
+        long sizeBefore = log.size();
+
+        LogCleaner cleaner = new LogCleaner(() -> List.of(log), config);
+        assertTrue(cleaner.dirtyRatio(log) > config.getMinCleanableDirtyRatio());
+        cleaner.clean(log);
+
+        assertTrue(log.size() < sizeBefore / 2);
+        assertEquals(0, cleaner.dirtyRatio(log), 0);
+        assertEquals(200, log.lastOffset());
+        assertLatestValues(log, 20, 10);
+    }
+
+    @Test
+    public void cleansInSeveralPassesWhenKeysDoNotFitTheMap() throws Exception {
+        LogConfig config = compactedConfig().setCleanerDedupeBufferSize(24 * 10);
+        Log log = new Log(TestUtils.tempDir("log"), config);
+        appendRounds(log, 10, 30);
+
+        LogCleaner cleaner = new LogCleaner(() -> List.of(log), config);
+        int passes = 0;
+        while (cleaner.dirtyRatio(log) > 0) {
+            cleaner.clean(log);
+            passes++;
+        }
+
+        assertTrue(passes > 1);
+        assertLatestValues(log, 10, 30);
+    }
+
+    @Test
+    public void cleanedLogIsReadAfterReopen() throws Exception {
+        File dir = TestUtils.tempDir("log");
+        LogConfig config = compactedConfig();
+        Log log = new Log(dir, config);
+        appendRounds(log, 20, 10);
+        new LogCleaner(() -> List.of(log), config).clean(log);
+        long lastOffset = log.lastOffset();
+        log.close();
+
+        Log reopened = new Log(dir, config);
+        assertEquals(lastOffset, reopened.lastOffset());
+        assertLatestValues(reopened, 20, 10);
+        assertEquals(201, reopened.append("key0".getBytes(), "new".getBytes()));
+    }
+
+    @Test
+    public void completesSwapInterruptedByACrash() throws Exception {
+        File dir = TestUtils.tempDir("log");
+        LogConfig config = compactedConfig();
+        Log log = new Log(dir, config);
+        appendRounds(log, 20, 10);
+        new LogCleaner(() -> List.of(log), config).clean(log);
+        log.close();
+        //crash after the original is deleted, before the swap file is renamed.
+        LogSegment first = log.inactiveSegments().get(0);
+        File swapFile = LogSegment.withSuffix(first.file(), LogSegment.SwapFileSuffix);
+        Files.move(first.file().toPath(), swapFile.toPath());
+        Files.delete(OffsetIndex.indexFile(dir, first.baseOffset()).toPath());
+        //and a cleaning in progress.
+        File partiallyCleaned = LogSegment.withSuffix(LogSegment.logFile(dir, 5000), LogSegment.CleanedFileSuffix);
+        Files.write(partiallyCleaned.toPath(), new byte[10]);
+
+        Log reopened = new Log(dir, config);
+        assertFalse(swapFile.exists());
+        assertFalse(partiallyCleaned.exists());
+        assertLatestValues(reopened, 20, 10);
+    }
+
+    @Test
+    public void compactedLogsAreNotDeletedByRetention() throws IOException {
+        Log log = new Log(TestUtils.tempDir("log"), compactedConfig().setRetentionBytes(0));
+        appendRounds(log, 5, 10);
+        assertEquals(0, log.deleteOldSegments());
+    }
+
+    private static LogConfig compactedConfig() {
+        return new LogConfig()
+                .setSegmentBytes(500)
+                .setCleanupPolicy(LogConfig.CleanupPolicy.COMPACT);
+    }
+
+    private static void appendRounds(Log log, int rounds, int keys) throws IOException {
+        for (int round = 0; round < rounds; round++) {
+            for (int key = 0; key < keys; key++) {
+                log.append(("key" + key).getBytes(), ("value" + round).getBytes());
+            }
+        }
+    }
+
+    //Every key has its value of the last round, at its original offset.
+    private static void assertLatestValues(Log log, int rounds, int keys) throws IOException {
+        Map<String, Log.Message> latest = new HashMap<>();
+        for (Log.Message message : log.read(Log.InitialOffset, log.lastOffset())) {
+            latest.put(new String(message.key), message);
+        }
+        assertEquals(keys, latest.size());
+        for (int key = 0; key < keys; key++) {
+            Log.Message message = latest.get("key" + key);
+            assertEquals("value" + (rounds - 1), new String(message.value));
+            assertEquals((long) (rounds - 1) * keys + key + 1, message.offset);
+        }
+    }
+}
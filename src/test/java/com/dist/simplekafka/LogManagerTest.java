@@ -0,0 +1,263 @@
+package com.dist.simplekafka;
+
+import com.dist.common.Config;
+import com.dist.common.TestUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LogManagerTest {
+
+    @Test
+    public void appliesRetentionInTheBackground() throws IOException {
+        Config config = new Config(1, "localhost", TestUtils.choosePort(), "", List.of(TestUtils.tempDir("logs").getAbsolutePath()));
+        LogManager logManager = new LogManager(config, new LogConfig()
+                .setSegmentBytes(100)
+                .setRetentionBytes(100)
+                .setRetentionCheckIntervalMs(10));
+        Log log = logManager.getOrCreateLog("topic1", 0);
+        assertSame(log, logManager.getOrCreateLog("topic1", 0));
+        for (int i = 0; i < 50; i++) {
+            log.append(("key" + i).getBytes(), ("value" + i).getBytes());
+        }
+        int segments = log.numberOfSegments();
+
+        logManager.startup();
+        TestUtils.waitUntilTrue(() -> log.numberOfSegments() < segments, "Waiting for retention to delete segments");
+        assertTrue(log.logStartOffset() > 1);
+        logManager.shutdown();
+    }
+
+    @Test
+    public void compactsLogsInTheBackground() throws IOException {
+        Config config = new Config(1, "localhost", TestUtils.choosePort(), "", List.of(TestUtils.tempDir("logs").getAbsolutePath()));
+        LogManager logManager = new LogManager(config, new LogConfig()
+                .setSegmentBytes(200)
+                .setCleanupPolicy(LogConfig.CleanupPolicy.COMPACT)
+                .setCleanerBackoffMs(10));
+        Log log = logManager.getOrCreateLog("changelog", 0);
+        for (int i = 0; i < 100; i++) {
+            log.append(("key" + (i % 5)).getBytes(), ("value" + i).getBytes());
+        }
+        long size = log.size();
+
+        logManager.startup();
+        TestUtils.waitUntilTrue(() -> log.size() < size / 2, "Waiting for the cleaner to compact the log");
+        logManager.shutdown();
+    }
+
+    @Test
+    public void compactsTopicsConfiguredForCompactionUnderADeleteDefault() throws IOException {
+        Config config = new Config(1, "localhost", TestUtils.choosePort(), "", List.of(TestUtils.tempDir("logs").getAbsolutePath()));
+        LogManager logManager = new LogManager(config, new LogConfig().setCleanerBackoffMs(10));
+        logManager.setTopicConfig("changelog", new LogConfig()
+                .setSegmentBytes(200)
+                .setCleanupPolicy(LogConfig.CleanupPolicy.COMPACT));
+        Log log = logManager.getOrCreateLog("changelog", 0);
+        for (int i = 0; i < 100; i++) {
+            log.append(("key" + (i % 5)).getBytes(), ("value" + i).getBytes());
+        }
+        long size = log.size();
+
+        logManager.startup();
+        TestUtils.waitUntilTrue(() -> log.size() < size / 2, "Waiting for the cleaner to compact the log");
+        logManager.shutdown();
+    }
+
+    @Test
+    public void keepsTopicsConfiguredForMemoryStorageOutOfTheLogDir() throws IOException {
+        File logDir = TestUtils.tempDir("logs");
+        Config config = new Config(1, "localhost", TestUtils.choosePort(), "", List.of(logDir.getAbsolutePath()));
+        LogManager logManager = new LogManager(config, new LogConfig());
+        logManager.setTopicConfig("ephemeral", new LogConfig().setStorage(LogConfig.Storage.MEMORY));
+
+        StorageEngine memory = logManager.getOrCreateStorage("ephemeral", 0);
+        StorageEngine file = logManager.getOrCreateStorage("durable", 0);
+        assertTrue(memory instanceof InMemoryLog);
+        assertTrue(file instanceof Log);
+        assertSame(memory, logManager.getStorage("ephemeral", 0));
+        memory.append("key".getBytes(), "value".getBytes());
+
+        assertEquals("value", new String(memory.readSingleMessage(1).value));
+        assertFalse(new File(logDir, "ephemeral-0").exists());
+        logManager.shutdown();
+    }
+
+    @Test
+    public void topicConfigsCanOnlyBeSetBeforeThePartitionsAreCreated() throws IOException {
+        File logDir = TestUtils.tempDir("logs");
+        Config config = new Config(1, "localhost", TestUtils.choosePort(), "", List.of(logDir.getAbsolutePath()));
+        LogManager logManager = new LogManager(config, new LogConfig());
+        logManager.setTopicConfig("ephemeral", new LogConfig().setStorage(LogConfig.Storage.MEMORY));
+        logManager.setTopicConfig("ephemeral", new LogConfig().setStorage(LogConfig.Storage.MEMORY)
+                .setMemoryChunkBytes(100));
+        assertTrue(logManager.getOrCreateStorage("ephemeral", 0) instanceof InMemoryLog);
+        Log log = logManager.getOrCreateLog("durable", 0);
+        log.append("key".getBytes(), "value".getBytes());
+
+        for (String topic : List.of("ephemeral", "durable")) {
+            try {
+                logManager.setTopicConfig(topic, new LogConfig().setStorage(LogConfig.Storage.FILE));
+                fail("Expected the config of " + topic + " to be rejected");
+            } catch (IllegalStateException e) {
+                //expected.
+            }
+        }
+        try {
+            logManager.setTopicConfig("durable", new LogConfig().setStorage(LogConfig.Storage.MEMORY));
+            fail("Expected durable to stay in files");
+        } catch (IllegalStateException e) {
+            //expected.
+        }
+        assertSame(log, logManager.getStorage("durable", 0));
+        assertTrue(logManager.getOrCreateStorage("durable", 1) instanceof Log);
+        assertTrue(logManager.getOrCreateStorage("ephemeral", 1) instanceof InMemoryLog);
+        assertFalse(new File(logDir, "durable" + LogManager.TopicConfigSuffix).exists());
+        logManager.shutdown();
+    }
+
+    @Test
+    public void reopensLogsWithTheConfigOfTheirTopicAfterARestart() throws IOException {
+        File logDir1 = TestUtils.tempDir("logs1");
+        File logDir2 = TestUtils.tempDir("logs2");
+        Config config = new Config(1, "localhost", TestUtils.choosePort(), "",
+                List.of(logDir1.getAbsolutePath(), logDir2.getAbsolutePath()));
+        LogManager logManager = new LogManager(config, new LogConfig());
+        logManager.setTopicConfig("changelog", new LogConfig()
+                .setSegmentBytes(200)
+                .setCleanupPolicy(LogConfig.CleanupPolicy.COMPACT)
+                .setCompressionCodec(CompressionCodecs.Lz));
+        logManager.setTopicConfig("ephemeral", new LogConfig().setStorage(LogConfig.Storage.MEMORY));
+        logManager.getOrCreateLog("changelog", 0).append("key".getBytes(), "value".getBytes());
+        logManager.shutdown();
+
+        LogManager reloaded = new LogManager(config, new LogConfig());
+        LogConfig reloadedConfig = reloaded.getLog("changelog", 0).config();
+        assertEquals(200, reloadedConfig.getSegmentBytes());
+        assertEquals(LogConfig.CleanupPolicy.COMPACT, reloadedConfig.getCleanupPolicy());
+        assertSame(CompressionCodecs.Lz, reloadedConfig.getCompressionCodec());
+        assertEquals("value", new String(reloaded.getLog("changelog", 0).readSingleMessage(1).value));
+        assertTrue(reloaded.getOrCreateStorage("ephemeral", 0) instanceof InMemoryLog);
+        reloaded.shutdown();
+    }
+
+    @Test
+    public void rejectsTopicNamesWhichAreNotSafeFileNames() throws IOException {
+        File logDir = TestUtils.tempDir("logs");
+        Config config = new Config(1, "localhost", TestUtils.choosePort(), "", List.of(logDir.getAbsolutePath()));
+        LogManager logManager = new LogManager(config, new LogConfig());
+        for (String topic : Arrays.asList(null, "", ".", "..", "../../x", "a/b", "a b", "x".repeat(250))) {
+            try {
+                logManager.getOrCreateStorage(topic, 0);
+                fail("Expected " + topic + " to be rejected");
+            } catch (InvalidTopicException e) {
+                //expected.
+            }
+        }
+        try {
+            logManager.setTopicConfig("../x", new LogConfig());
+            fail("Expected a topic config for ../x to be rejected");
+        } catch (InvalidTopicException e) {
+            //expected.
+        }
+        try {
+            logManager.getOrCreateLog("t", -1);
+            fail("Expected a negative partition to be rejected");
+        } catch (UnknownTopicOrPartitionException e) {
+            //expected.
+        }
+
+        assertTrue(logManager.getOrCreateStorage("a-valid.topic_" + "x".repeat(235), 0) instanceof Log);
+        assertEquals(1, logDir.listFiles(File::isDirectory).length);
+        logManager.shutdown();
+    }
+
+    @Test
+    public void placesLogsAcrossLogDirs() throws IOException {
+        File logDir1 = TestUtils.tempDir("logs1");
+        File logDir2 = TestUtils.tempDir("logs2");
+        Config config = new Config(1, "localhost", TestUtils.choosePort(), "",
+                List.of(logDir1.getAbsolutePath(), logDir2.getAbsolutePath()));
+        LogManager logManager = new LogManager(config, new LogConfig());
+        Log busy = logManager.getOrCreateLog("topic1", 0);
+        for (int i = 0; i < 100; i++) {
+            busy.append(("key" + i).getBytes(), ("value" + i).getBytes());
+        }
+        logManager.sampleBytesInRates();
+
+        Log log1 = logManager.getOrCreateLog("topic1", 1);
+        Log log2 = logManager.getOrCreateLog("topic1", 2);
+        //both go to the dir without the busy log, as it takes no bytes.
+        assertFalse(busy.dir().getParentFile().equals(log1.dir().getParentFile()));
+        assertEquals(log1.dir().getParentFile(), log2.dir().getParentFile());
+        logManager.shutdown();
+
+        LogManager reloaded = new LogManager(config, new LogConfig());
+        assertEquals(3, reloaded.allLogs().size());
+        assertEquals(100, reloaded.getLog("topic1", 0).lastOffset());
+        reloaded.shutdown();
+    }
+
+    @Test
+    public void movesLogBetweenLogDirs() throws Exception {
+        File logDir1 = TestUtils.tempDir("logs1");
+        File logDir2 = TestUtils.tempDir("logs2");
+        Config config = new Config(1, "localhost", TestUtils.choosePort(), "",
+                List.of(logDir1.getAbsolutePath(), logDir2.getAbsolutePath()));
+        LogManager logManager = new LogManager(config, new LogConfig().setSegmentBytes(512));
+        Log log = logManager.getOrCreateLog("topic1", 0);
+        for (int i = 0; i < 100; i++) {
+            log.append(("key" + i).getBytes(), ("value" + i).getBytes());
+        }
+        File source = log.dir().getParentFile();
+        File target = source.equals(logDir1) ? logDir2 : logDir1;
+
+        logManager.moveLog("topic1", 0, target).get(30, TimeUnit.SECONDS);
+
+        assertEquals(new File(target, "topic1-0"), log.dir());
+        assertFalse(new File(source, "topic1-0").exists());
+        log.append("key100".getBytes(), "value100".getBytes());
+        logManager.shutdown();
+
+        LogManager reloaded = new LogManager(config, new LogConfig().setSegmentBytes(512));
+        Log reloadedLog = reloaded.getLog("topic1", 0);
+        assertEquals(new File(target, "topic1-0"), reloadedLog.dir());
+        assertEquals(101, reloadedLog.read(1, 101).size());
+        reloaded.shutdown();
+    }
+
+    @Test
+    public void completesMoveInterruptedAfterTheCutOver() throws IOException {
+        File logDir1 = TestUtils.tempDir("logs1");
+        File logDir2 = TestUtils.tempDir("logs2");
+        Log log = new Log(new File(logDir1, "topic1-0"));
+        log.append("key".getBytes(), "value".getBytes());
+        log.close();
+        //a crash between renaming the original dir and the copy.
+        Files.move(new File(logDir1, "topic1-0").toPath(),
+                new File(logDir2, "topic1-0" + Log.FutureDirSuffix).toPath());
+        assertTrue(new File(logDir1, "topic1-0" + Log.DeleteDirSuffix).mkdirs());
+        assertTrue(new File(logDir1, "topic1-1" + Log.FutureDirSuffix).mkdirs()); //an unfinished copy.
+
+        Config config = new Config(1, "localhost", TestUtils.choosePort(), "",
+                List.of(logDir1.getAbsolutePath(), logDir2.getAbsolutePath()));
+        LogManager logManager = new LogManager(config, new LogConfig());
+
+        assertEquals(1, logManager.allLogs().size());
+        assertEquals(new File(logDir2, "topic1-0"), logManager.getLog("topic1", 0).dir());
+        assertEquals("value", new String(logManager.getLog("topic1", 0).readSingleMessage(1).value));
+        assertEquals(0, logDir1.listFiles().length);
+        logManager.shutdown();
+    }
+}
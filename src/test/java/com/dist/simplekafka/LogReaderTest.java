@@ -0,0 +1,97 @@
+package com.dist.simplekafka;
+
+import com.dist.common.TestUtils;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class LogReaderTest {
+
+    @Test
+    public void readsBatchesSpanningChunksAndSegments() throws IOException {
+        Log log = new Log(TestUtils.tempDir("log"), new LogConfig().setSegmentBytes(1000));
+        for (int i = 0; i < 200; i++) {
+            log.append(("key" + i).getBytes(), ("value" + i).getBytes());
+        }
+        List<LogSegment> segments = log.inactiveSegments();
+
+        //a chunk smaller than a batch has to grow.
+        for (int chunkSize : new int[]{10, 100, 4096}) {
+            LogReader reader = new LogReader(segments, 5, 150, Integer.MAX_VALUE, chunkSize);
+            List<Log.Message> messages = new ArrayList<>();
+            reader.forEachRemaining(messages::add);
+            assertEquals(146, messages.size());
+            for (int i = 0; i < messages.size(); i++) {
+                assertEquals(5 + i, messages.get(i).offset);
+                assertEquals("value" + (4 + i), new String(messages.get(i).value));
+            }
+        }
+    }
+
+    @Test
+    public void readsMappedAndUnmappedSegments() throws IOException {
+        Log log = new Log(TestUtils.tempDir("log"), new LogConfig()
+                .setSegmentBytes(1000)
+                .setIoMode(LogConfig.IoMode.MMAP)
+                .setMappedSegments(3));
+        for (int i = 0; i < 200; i++) {
+            log.append(("key" + i).getBytes(), ("value" + i).getBytes());
+        }
+
+        List<Log.Message> messages = log.reader(5, 200, Integer.MAX_VALUE).stream().collect(Collectors.toList());
+        assertEquals(196, messages.size());
+        for (int i = 0; i < messages.size(); i++) {
+            assertEquals(5 + i, messages.get(i).offset);
+            assertEquals("value" + (4 + i), new String(messages.get(i).value));
+        }
+    }
+
+    @Test
+    public void stopsAfterMaxBytesButReturnsAtLeastOneBatch() throws IOException {
+        Log log = new Log(TestUtils.tempDir("log"));
+        for (int i = 0; i < 10; i++) {
+            List<Log.Message> batch = new ArrayList<>();
+            for (int j = 0; j < 10; j++) {
+                batch.add(new Log.Message("key".getBytes(), new byte[100]));
+            }
+            log.append(batch);
+        }
+        int batchSize = (int) log.size() / 10;
+
+        assertEquals(10, count(log.reader(1, 100, 1)));
+        assertEquals(30, count(log.reader(1, 100, 3 * batchSize)));
+        assertEquals(35, count(log.reader(6, 100, 4 * batchSize))); //starts in the middle of a batch.
+        assertEquals(100, count(log.reader(1, 100, Integer.MAX_VALUE)));
+    }
+
+    @Test
+    public void streamsMessagesLazily() throws IOException {
+        Log log = new Log(TestUtils.tempDir("log"));
+        for (int i = 0; i < 1000; i++) {
+            log.append(("key" + i).getBytes(), ("value" + i).getBytes());
+        }
+
+        List<String> values = log.reader(1, log.lastOffset(), Integer.MAX_VALUE).stream()
+                .filter(m -> m.offset % 100 == 0)
+                .map(m -> new String(m.value))
+                .collect(Collectors.toList());
+        assertEquals(10, values.size());
+        assertEquals("value99", values.get(0));
+        assertFalse(log.reader(log.lastOffset() + 1, Long.MAX_VALUE, Integer.MAX_VALUE).hasNext());
+    }
+
+    private static int count(LogReader reader) {
+        int count = 0;
+        while (reader.hasNext()) {
+            reader.next();
+            count++;
+        }
+        return count;
+    }
+}
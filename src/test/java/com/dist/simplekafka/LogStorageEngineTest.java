@@ -0,0 +1,13 @@
+package com.dist.simplekafka;
+
+import com.dist.common.TestUtils;
+
+import java.io.IOException;
+
+public class LogStorageEngineTest extends StorageEngineTest {
+
+    @Override
+    protected StorageEngine createEngine(LogConfig config) throws IOException {
+        return new Log(TestUtils.tempDir("log"), config);
+    }
+}
@@ -1,17 +1,39 @@
 package com.dist.simplekafka;
 
+import com.dist.common.ByteUtils;
 import com.dist.common.TestUtils;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
 
 public class LogTest {
 
     @Test
     public void appendsMessages() throws IOException {
-        Log log = new Log(TestUtils.tempFile());
+        Log log = new Log(TestUtils.tempDir("log"));
         long offset = log.append("key".getBytes(), "value".getBytes());
         System.out.println("offset = " + offset);
 
@@ -30,4 +52,792 @@ public class LogTest {
         assertEquals("value2", new String(message3.value));
     }
 
-}
\ No newline at end of file
+    @Test
+    public void appendsBatchOfMessages() throws IOException {
+        Log log = new Log(TestUtils.tempDir("log"));
+        log.append("key0".getBytes(), "value0".getBytes());
+        long firstOffset = log.append(List.of(
+                new Log.Message("key1".getBytes(), "value1".getBytes()),
+                new Log.Message("key2".getBytes(), "value2".getBytes()),
+                new Log.Message("key3".getBytes(), "value3".getBytes())));
+
+        assertEquals(2, firstOffset);
+        assertEquals(4, log.lastOffset());
+        assertEquals("value2", new String(log.readSingleMessage(3).value));
+        List<Log.Message> messages = log.read(2, 3);
+        assertEquals(2, messages.size());
+        assertEquals(2, messages.get(0).offset);
+        assertEquals("value2", new String(messages.get(1).value));
+    }
+
+    @Test(expected = CorruptRecordException.class)
+    public void detectsCorruptionOnRead() throws IOException {
+        File dir = TestUtils.tempDir("log");
+        Log log = new Log(dir);
+        log.append("key".getBytes(), "value".getBytes());
+        File segmentFile = LogSegment.logFile(dir, Log.InitialOffset);
+        try (RandomAccessFile file = new RandomAccessFile(segmentFile, "rw")) {
+            file.seek(segmentFile.length() - 1);
+            file.write('X');
+        }
+
+        log.readSingleMessage(1);
+    }
+
+    @Test
+    public void rollsSegmentsWhenSegmentBytesIsReached() throws IOException {
+        File dir = TestUtils.tempDir("log");
+        Log log = new Log(dir, new LogConfig().setSegmentBytes(100));
+        for (int i = 0; i < 20; i++) {
+            log.append(("key" + i).getBytes(), ("value" + i).getBytes());
+        }
+
+        assertTrue(log.numberOfSegments() > 1);
+        List<Log.Message> messages = log.read(1, 20);
+        for (int i = 0; i < 20; i++) {
+            assertEquals("value" + i, new String(messages.get(i).value));
+        }
+        assertEquals(log.numberOfSegments(), dir.list((d, name) -> name.endsWith(LogSegment.LogFileSuffix)).length);
+        assertEquals(log.numberOfSegments(), dir.list((d, name) -> name.endsWith(OffsetIndex.IndexFileSuffix)).length);
+    }
+
+    @Test
+    public void continuesOffsetsFromExistingSegmentsOnReopen() throws IOException {
+        File dir = TestUtils.tempDir("log");
+        Log log = new Log(dir, new LogConfig().setSegmentBytes(100));
+        for (int i = 0; i < 10; i++) {
+            log.append(("key" + i).getBytes(), ("value" + i).getBytes());
+        }
+        log.close();
+
+        Log reopened = new Log(dir, new LogConfig().setSegmentBytes(100));
+        assertEquals(10, reopened.lastOffset());
+        assertEquals("value3", new String(reopened.readSingleMessage(4).value));
+        assertEquals(11, reopened.append("key".getBytes(), "value".getBytes()));
+    }
+
+    @Test
+    public void readsThroughSparseIndexAfterReopen() throws IOException {
+        File dir = TestUtils.tempDir("log");
+        LogConfig config = new LogConfig().setIndexIntervalBytes(64);
+        Log log = new Log(dir, config);
+        for (int i = 0; i < 1000; i++) {
+            log.append(("key" + i).getBytes(), ("value" + i).getBytes());
+        }
+        log.close();
+
+        File indexFile = OffsetIndex.indexFile(dir, Log.InitialOffset);
+        assertTrue(indexFile.length() > 0);
+        assertTrue(indexFile.length() < 1000 * 8);
+
+        Log reopened = new Log(dir, config);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("value" + i, new String(reopened.readSingleMessage(i + 1).value));
+        }
+    }
+
+    @Test
+    public void truncatesTornWriteAtTheEndAfterUncleanShutdown() throws IOException {
+        File dir = TestUtils.tempDir("log");
+        Log log = new Log(dir);
+        for (int i = 0; i < 10; i++) {
+            log.append(("key" + i).getBytes(), ("value" + i).getBytes());
+        }
+        //simulate a crash in the middle of writing the next message.
+        File segmentFile = LogSegment.logFile(dir, Log.InitialOffset);
+        long validSize = segmentFile.length();
+        try (RandomAccessFile file = new RandomAccessFile(segmentFile, "rw")) {
+            file.seek(validSize);
+            file.writeInt(100);
+            file.writeInt(3);
+            file.write("key".getBytes());
+        }
+
+        Log recovered = new Log(dir);
+        assertEquals(10, recovered.lastOffset());
+        assertEquals(validSize, segmentFile.length());
+        assertEquals(11, recovered.append("key10".getBytes(), "value10".getBytes()));
+        assertEquals("value10", new String(recovered.readSingleMessage(11).value));
+    }
+
+    @Test
+    public void deletesTheSegmentsAfterATruncatedSegmentBeforeTheRecoveryPoint() throws IOException {
+        File dir = TestUtils.tempDir("log");
+        LogConfig config = new LogConfig().setSegmentBytes(100);
+        Log log = new Log(dir, config);
+        for (int i = 0; i < 10; i++) {
+            log.append(("key" + i).getBytes(), ("value" + i).getBytes());
+        }
+        log.flush();
+        assertTrue(log.numberOfSegments() > 2);
+        //the first segment lost the end of its last batch despite the flush.
+        File segmentFile = LogSegment.logFile(dir, Log.InitialOffset);
+        try (RandomAccessFile file = new RandomAccessFile(segmentFile, "rw")) {
+            file.setLength(file.length() - 5);
+        }
+
+        Log recovered = new Log(dir, config);
+        assertEquals(1, recovered.numberOfSegments());
+        long lastOffset = recovered.lastOffset();
+        assertTrue(lastOffset < 10);
+        assertEquals(lastOffset, recovered.read(1, Long.MAX_VALUE).size());
+        assertEquals(lastOffset + 1, recovered.append("key".getBytes(), "value".getBytes()));
+    }
+
+    @Test
+    public void mapsTheNewestSegmentsInMmapMode() throws IOException {
+        File dir = TestUtils.tempDir("log");
+        LogConfig config = new LogConfig()
+                .setSegmentBytes(100)
+                .setIoMode(LogConfig.IoMode.MMAP)
+                .setMappedSegments(2);
+        Log log = new Log(dir, config);
+        for (int i = 0; i < 20; i++) {
+            log.append(("key" + i).getBytes(), ("value" + i).getBytes());
+        }
+
+        List<LogSegment> inactive = log.inactiveSegments();
+        assertTrue(inactive.size() > 2);
+        assertTrue(inactive.get(inactive.size() - 1).isMapped());
+        assertFalse(inactive.get(0).isMapped());
+        for (LogSegment segment : inactive) {
+            assertEquals(segment.size(), segment.file().length()); //trimmed on roll.
+        }
+        List<Log.Message> messages = log.read(1, 20);
+        for (int i = 0; i < 20; i++) {
+            assertEquals("value" + i, new String(messages.get(i).value));
+            assertEquals("value" + i, new String(log.readSingleMessage(i + 1).value));
+        }
+    }
+
+    @Test
+    public void recoversPreallocatedMappedSegmentAfterUncleanShutdown() throws IOException {
+        File dir = TestUtils.tempDir("log");
+        LogConfig config = new LogConfig()
+                .setSegmentBytes(4096)
+                .setIoMode(LogConfig.IoMode.MMAP);
+        Log log = new Log(dir, config);
+        for (int i = 0; i < 10; i++) {
+            log.append(("key" + i).getBytes(), ("value" + i).getBytes());
+        }
+        File segmentFile = LogSegment.logFile(dir, Log.InitialOffset);
+        assertEquals(4096, segmentFile.length());
+
+        //not closed, so the zeroes after the last batch are not trimmed.
+        Log recovered = new Log(dir, config);
+        assertEquals(10, recovered.lastOffset());
+        assertEquals(11, recovered.append("key10".getBytes(), "value10".getBytes()));
+        assertEquals("value10", new String(recovered.readSingleMessage(11).value));
+        long size = recovered.size();
+        recovered.close();
+        assertEquals(size, segmentFile.length());
+    }
+
+    @Test
+    public void preallocatesSegmentsAndTrimsThemWhenInactive() throws IOException {
+        File dir = TestUtils.tempDir("log");
+        LogConfig config = new LogConfig()
+                .setSegmentBytes(4096)
+                .setPreallocate(true);
+        Log log = new Log(dir, config);
+        File firstSegment = LogSegment.logFile(dir, Log.InitialOffset);
+        assertEquals(4096, firstSegment.length());
+        TestUtils.waitUntilTrue(() -> LogSegment.nextSegmentFile(dir).length() == 4096,
+                "Waiting for the next segment to be preallocated");
+
+        while (log.numberOfSegments() < 3) {
+            log.append("key".getBytes(), new byte[100]);
+        }
+        File[] segmentFiles = dir.listFiles((d, name) -> name.endsWith(LogSegment.LogFileSuffix));
+        Arrays.sort(segmentFiles);
+        File activeSegment = segmentFiles[segmentFiles.length - 1];
+        assertEquals(4096, activeSegment.length());
+        assertTrue(firstSegment.length() < 4096);
+        long lastOffset = log.lastOffset();
+        log.close();
+        assertTrue(activeSegment.length() < 4096);
+
+        Log reopened = new Log(dir, config);
+        assertEquals(lastOffset, reopened.lastOffset());
+        assertEquals(4096, activeSegment.length());
+        reopened.append("key".getBytes(), "value".getBytes());
+        assertEquals("value", new String(reopened.readSingleMessage(lastOffset + 1).value));
+    }
+
+    @Test
+    public void recoversPreallocatedSegmentAfterUncleanShutdown() throws IOException {
+        File dir = TestUtils.tempDir("log");
+        LogConfig config = new LogConfig()
+                .setSegmentBytes(4096)
+                .setPreallocate(true);
+        Log log = new Log(dir, config);
+        for (int i = 0; i < 10; i++) {
+            log.append(("key" + i).getBytes(), ("value" + i).getBytes());
+        }
+
+        //not closed, so the preallocated space is not trimmed.
+        Log recovered = new Log(dir, config);
+        assertEquals(10, recovered.lastOffset());
+        assertEquals(11, recovered.append("key10".getBytes(), "value10".getBytes()));
+        assertEquals("value10", new String(recovered.readSingleMessage(11).value));
+    }
+
+    @Test
+    public void appendsAndReadsWithDirectIo() throws Exception {
+        File dir = TestUtils.tempDir("log");
+        assumeTrue(DirectSegmentFile.isSupported(dir));
+        LogConfig config = new LogConfig()
+                .setSegmentBytes(20_000)
+                .setIoMode(LogConfig.IoMode.DIRECT)
+                .setDirectBufferSize(4096);
+        Log log = new Log(dir, config);
+        for (int i = 0; i < 1000; i++) {
+            log.append(("key" + i).getBytes(), ("value" + i).getBytes());
+        }
+
+        assertTrue(log.numberOfSegments() > 1);
+        List<Log.Message> messages = log.read(1, 1000);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("value" + i, new String(messages.get(i).value));
+            assertEquals("value" + i, new String(log.readSingleMessage(i + 1).value));
+        }
+        FileRegion region = log.fileRegion(log.lastOffset(), Integer.MAX_VALUE);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        region.transferTo(Channels.newChannel(out));
+        RecordBatch transferred = new RecordBatch(ByteBuffer.wrap(out.toByteArray()));
+        assertEquals("value999", new String(transferred.iterator().next().value));
+        for (LogSegment segment : log.inactiveSegments()) {
+            assertEquals(segment.size(), segment.file().length()); //padding trimmed on roll.
+        }
+        log.close();
+
+        Log reopened = new Log(dir, config);
+        assertEquals(1000, reopened.lastOffset());
+        assertEquals("value500", new String(reopened.readSingleMessage(501).value));
+    }
+
+    @Test
+    public void continuesAppendingAfterUncleanShutdownWithDirectIo() throws IOException {
+        File dir = TestUtils.tempDir("log");
+        assumeTrue(DirectSegmentFile.isSupported(dir));
+        LogConfig config = new LogConfig().setIoMode(LogConfig.IoMode.DIRECT);
+        Log log = new Log(dir, config);
+        for (int i = 0; i < 10; i++) {
+            log.append(("key" + i).getBytes(), ("value" + i).getBytes());
+        }
+        log.flush();
+        //not closed, so the last block is padded with zeroes.
+        File segmentFile = LogSegment.logFile(dir, Log.InitialOffset);
+        assertEquals(0, segmentFile.length() % 512);
+
+        Log recovered = new Log(dir, config);
+        assertEquals(10, recovered.lastOffset());
+        assertEquals(11, recovered.append("key10".getBytes(), "value10".getBytes()));
+        recovered.flush();
+        List<Log.Message> messages = recovered.read(1, 11);
+        for (int i = 0; i < 11; i++) {
+            assertEquals("value" + i, new String(messages.get(i).value));
+        }
+    }
+
+    @Test
+    public void concurrentAppendsAreWrittenInOrderWithDirectIo() throws Exception {
+        File dir = TestUtils.tempDir("log");
+        assumeTrue(DirectSegmentFile.isSupported(dir));
+        Log log = new Log(dir, new LogConfig()
+                .setSegmentBytes(8192)
+                .setIoMode(LogConfig.IoMode.DIRECT)
+                .setDirectBufferSize(4096));
+        int threads = 4;
+        int appendsPerThread = 250;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> results = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            results.add(executor.submit(() -> {
+                for (int i = 0; i < appendsPerThread; i++) {
+                    log.append(("key" + thread).getBytes(), (thread + "-" + i).getBytes());
+                }
+                return null;
+            }));
+        }
+        for (Future<?> result : results) {
+            result.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        assertEquals(threads * appendsPerThread, log.read(1, log.lastOffset()).size());
+    }
+
+    @Test
+    public void servesTailReadsFromTheTailCache() throws IOException {
+        Log log = new Log(TestUtils.tempDir("log"), new LogConfig()
+                .setSegmentBytes(1000)
+                .setTailCacheBytes(2048));
+        for (int i = 0; i < 200; i++) {
+            log.append(("key" + i).getBytes(), ("value" + i).getBytes());
+            assertEquals("value" + i, new String(log.readSingleMessage(i + 1).value));
+        }
+        assertEquals(1.0, log.tailCacheHitRatio(), 0.0001);
+
+        //the oldest messages were evicted, and are read from the segments.
+        assertEquals("value0", new String(log.readSingleMessage(1).value));
+        assertTrue(log.tailCacheHitRatio() < 1.0);
+        List<Log.Message> tail = log.read(190, 200);
+        assertEquals(11, tail.size());
+        assertEquals("value199", new String(tail.get(10).value));
+        assertEquals(200, log.read(1, 200).size());
+    }
+
+    @Test
+    public void checkpointsRecoveryPointOnFlush() throws IOException {
+        File dir = TestUtils.tempDir("log");
+        LogConfig config = new LogConfig().setSegmentBytes(100);
+        Log log = new Log(dir, config);
+        for (int i = 0; i < 10; i++) {
+            log.append(("key" + i).getBytes(), ("value" + i).getBytes());
+        }
+        log.flush();
+        assertEquals(11, log.recoveryPoint());
+        log.append("key10".getBytes(), "value10".getBytes());
+
+        Log recovered = new Log(dir, config);
+        assertEquals(11, recovered.recoveryPoint());
+        assertEquals(11, recovered.lastOffset());
+        assertEquals("value10", new String(recovered.readSingleMessage(11).value));
+    }
+
+    @Test
+    public void appendAsyncCompletesOnceMessagesAreFlushed() throws Exception {
+        Log log = new Log(TestUtils.tempDir("log"));
+        log.append("key0".getBytes(), "value0".getBytes());
+        CompletableFuture<Long> durable = log.appendAsync("key1".getBytes(), "value1".getBytes());
+
+        assertEquals(2, (long) durable.get(5, TimeUnit.SECONDS));
+        assertTrue(log.recoveryPoint() > 2);
+        log.close();
+    }
+
+    @Test
+    public void groupCommitMakesConcurrentAppendsDurable() throws Exception {
+        Log log = new Log(TestUtils.tempDir("log"), new LogConfig()
+                .setFlushPolicy(LogConfig.FlushPolicy.GROUP_COMMIT)
+                .setFlushIntervalMs(2));
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Long>> offsets = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            byte[] value = ("value" + i).getBytes();
+            offsets.add(executor.submit(() -> {
+                long offset = log.append("key".getBytes(), value);
+                assertTrue(log.recoveryPoint() > offset);
+                return offset;
+            }));
+        }
+        for (Future<Long> offset : offsets) {
+            offset.get(10, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+        assertEquals(log.lastOffset() + 1, log.recoveryPoint());
+        log.close();
+    }
+
+    @Test
+    public void concurrentAppendsGetContiguousOffsetsAcrossRolls() throws Exception {
+        Log log = new Log(TestUtils.tempDir("log"), new LogConfig().setSegmentBytes(4096));
+        int threads = 8;
+        int appendsPerThread = 500;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<List<Long>>> results = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            results.add(executor.submit(() -> {
+                List<Long> offsets = new ArrayList<>();
+                for (int i = 0; i < appendsPerThread; i++) {
+                    offsets.add(log.append(("key" + thread).getBytes(), (thread + "-" + i).getBytes()));
+                }
+                return offsets;
+            }));
+        }
+        Set<Long> allOffsets = new HashSet<>();
+        for (int t = 0; t < threads; t++) {
+            List<Long> offsets = results.get(t).get(30, TimeUnit.SECONDS);
+            for (int i = 0; i < appendsPerThread; i++) {
+                allOffsets.add(offsets.get(i));
+                assertEquals(t + "-" + i, new String(log.readSingleMessage(offsets.get(i)).value));
+            }
+        }
+        executor.shutdown();
+
+        assertEquals(threads * appendsPerThread, allOffsets.size());
+        assertEquals(threads * appendsPerThread, log.lastOffset());
+        assertTrue(log.numberOfSegments() > 1);
+        assertEquals(threads * appendsPerThread, log.read(1, log.lastOffset()).size());
+    }
+
+    @Test
+    public void storesCompressedBatches() throws IOException {
+        File dir = TestUtils.tempDir("log");
+        Log log = new Log(dir, new LogConfig().setCompressionCodec(CompressionCodecs.Deflate));
+        List<Log.Message> messages = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            messages.add(new Log.Message(("key" + i).getBytes(), ("some repetitive value " + i).getBytes()));
+        }
+        log.append(messages);
+        log.close();
+
+        Log reopened = new Log(dir);
+        assertTrue(reopened.size() < RecordBatch.of(0, messages).sizeInBytes() / 2);
+        assertEquals("some repetitive value 41", new String(reopened.readSingleMessage(42).value));
+        assertEquals(100, reopened.read(1, 1000).size());
+    }
+
+    @Test
+    public void appendsEncodedBatchOnlyAssigningOffsets() throws IOException {
+        Log log = new Log(TestUtils.tempDir("log"));
+        log.append("key0".getBytes(), "value0".getBytes());
+        RecordBatch encoded = RecordBatch.of(0, List.of(
+                new Log.Message("key1".getBytes(), "value1".repeat(10).getBytes()),
+                new Log.Message("key2".getBytes(), "value2".repeat(10).getBytes())), CompressionCodecs.Lz);
+        long sizeBefore = log.size();
+
+        ByteBuffer producerBuffer = ByteBuffer.allocate(encoded.sizeInBytes());
+        producerBuffer.put(encoded.buffer()).flip();
+
+        assertEquals(2, log.appendRecordBatch(producerBuffer));
+        assertEquals(3, log.lastOffset());
+        assertEquals(sizeBefore + encoded.sizeInBytes(), log.size());
+        assertEquals("value2".repeat(10), new String(log.readSingleMessage(3).value));
+    }
+
+    @Test
+    public void rejectsForgedBatchesWithAValidChecksum() throws IOException {
+        Log log = new Log(TestUtils.tempDir("log"));
+        List<Log.Message> messages = List.of(new Log.Message("key1".getBytes(), "value1".getBytes()),
+                new Log.Message("key2".getBytes(), "value2".getBytes()));
+        int secondRecord = RecordBatch.RecordsOffset + 1 + copyOf(RecordBatch.of(0, messages)).get(RecordBatch.RecordsOffset);
+        ByteBuffer hugeUncompressedSize = ByteBuffer.allocate(RecordBatch.HeaderSize + 9);
+        hugeUncompressedSize.putLong(0).putInt(hugeUncompressedSize.capacity() - RecordBatch.LogOverhead).putInt(0)
+                .putShort((short) LzCodec.Id).putInt(0).putLong(0).putInt(1);
+        ByteUtils.writeUnsignedVarint(Integer.MAX_VALUE, hugeUncompressedSize);
+        hugeUncompressedSize.flip();
+        List<ByteBuffer> forged = List.of(
+                copyOf(RecordBatch.of(0, messages)).putInt(RecordBatch.RecordCountOffset, 3),
+                copyOf(RecordBatch.of(0, messages)).putInt(RecordBatch.LastOffsetDeltaOffset, 1000),
+                copyOf(RecordBatch.of(0, messages)).putShort(RecordBatch.AttributesOffset, (short) 0x10),
+                copyOf(RecordBatch.of(0, messages)).put(secondRecord + 1, (byte) 0), //repeats offset delta 0.
+                hugeUncompressedSize);
+
+        for (ByteBuffer batch : forged) {
+            try {
+                log.appendRecordBatch(withChecksum(batch));
+                fail("Expected the forged batch to be rejected");
+            } catch (CorruptRecordException e) {
+                //expected.
+            }
+        }
+        assertEquals(0, log.size());
+        assertEquals(1, log.appendRecordBatch(copyOf(RecordBatch.of(0, messages))));
+    }
+
+    private static ByteBuffer copyOf(RecordBatch batch) {
+        ByteBuffer copy = ByteBuffer.allocate(batch.sizeInBytes());
+        return copy.put(batch.buffer()).flip();
+    }
+
+    private static ByteBuffer withChecksum(ByteBuffer batch) {
+        CRC32C crc = new CRC32C();
+        crc.update(batch.slice(RecordBatch.AttributesOffset, batch.limit() - RecordBatch.AttributesOffset));
+        return batch.putInt(RecordBatch.CrcOffset, (int) crc.getValue());
+    }
+
+    @Test
+    public void alwaysFlushPolicySyncsEveryAppend() throws IOException {
+        Log log = new Log(TestUtils.tempDir("log"), new LogConfig()
+                .setFlushPolicy(LogConfig.FlushPolicy.ALWAYS));
+        long offset = log.append("key".getBytes(), "value".getBytes());
+        assertEquals(offset + 1, log.recoveryPoint());
+    }
+
+    @Test
+    public void deletesOldestSegmentsBeyondRetentionBytes() throws IOException {
+        Log log = new Log(TestUtils.tempDir("log"), new LogConfig()
+                .setSegmentBytes(100)
+                .setRetentionBytes(200));
+        for (int i = 0; i < 50; i++) {
+            log.append(("key" + i).getBytes(), ("value" + i).getBytes());
+        }
+
+        assertTrue(log.deleteOldSegments() > 0);
+        assertTrue(log.size() <= 200 + 100);
+        assertTrue(log.logStartOffset() > 1);
+        assertEquals(50, log.lastOffset());
+        assertEquals("value49", new String(log.readSingleMessage(50).value));
+    }
+
+    @Test(expected = OffsetOutOfRangeException.class)
+    public void deletesSegmentsOlderThanRetentionMs() throws IOException {
+        Log log = new Log(TestUtils.tempDir("log"), new LogConfig()
+                .setSegmentBytes(100)
+                .setRetentionMs(60_000));
+        long old = System.currentTimeMillis() - 120_000;
+        log.append(List.of(new Log.Message(-1, old, "key".getBytes(), new byte[100])));
+        for (int i = 0; i < 20; i++) {
+            log.append(("key" + i).getBytes(), ("value" + i).getBytes());
+        }
+
+        assertEquals(1, log.deleteOldSegments());
+        log.readSingleMessage(1);
+    }
+
+    @Test
+    public void findsOffsetForTimeThroughTheTimeIndex() throws IOException {
+        File dir = TestUtils.tempDir("log");
+        LogConfig config = new LogConfig()
+                .setSegmentBytes(2000)
+                .setIndexIntervalBytes(100);
+        Log log = new Log(dir, config);
+        long start = 1_000_000;
+        for (int i = 0; i < 500; i++) {
+            //two messages per millisecond.
+            log.append(List.of(new Log.Message(-1, start + i / 2, ("key" + i).getBytes(), ("value" + i).getBytes())));
+        }
+        assertTrue(log.numberOfSegments() > 2);
+
+        assertEquals(1, log.offsetForTime(0));
+        assertEquals(1, log.offsetForTime(start));
+        assertEquals(201, log.offsetForTime(start + 100));
+        assertEquals(499, log.offsetForTime(start + 249));
+        assertEquals(501, log.offsetForTime(start + 250));
+        log.close();
+
+        Log reopened = new Log(dir, config);
+        assertEquals(201, reopened.offsetForTime(start + 100));
+        assertEquals(start + 100, reopened.readSingleMessage(201).timestamp);
+    }
+
+    @Test
+    public void findsOffsetForTimeWithTimestampsOutOfOrder() throws IOException {
+        Log log = new Log(TestUtils.tempDir("log"), new LogConfig().setIndexIntervalBytes(10));
+        long[] timestamps = {1000, 3000, 2000, 4000, 2500};
+        for (long timestamp : timestamps) {
+            log.append(List.of(new Log.Message(-1, timestamp, "key".getBytes(), "value".getBytes())));
+        }
+
+        assertEquals(2, log.offsetForTime(1500)); //3000 is the first at or after 1500.
+        assertEquals(2, log.offsetForTime(2000));
+        assertEquals(4, log.offsetForTime(3500));
+    }
+
+    @Test
+    public void findsLatestValueForKeyThroughKeyIndexes() throws IOException {
+        File dir = TestUtils.tempDir("log");
+        LogConfig config = new LogConfig()
+                .setSegmentBytes(1000)
+                .setKeyIndexEnabled(true);
+        Log log = new Log(dir, config);
+        for (int i = 0; i < 300; i++) {
+            log.append(("key" + i % 50).getBytes(), ("value" + i).getBytes());
+        }
+        int sealed = log.numberOfSegments() - 1;
+        assertTrue(sealed > 2);
+        TestUtils.waitUntilTrue(() -> keyIndexFiles(dir) == sealed, "Waiting for key indexes to be built");
+
+        assertEquals("value299", new String(log.findLatest("key49".getBytes()).value));
+        assertEquals("value250", new String(log.findLatest("key0".getBytes()).value));
+        assertNull(log.findLatest("missing".getBytes()));
+        log.close();
+
+        //the active segment is scanned, older ones use the stored indexes.
+        Log reopened = new Log(dir, config);
+        reopened.append("key0".getBytes(), "latest".getBytes());
+        assertEquals("latest", new String(reopened.findLatest("key0".getBytes()).value));
+        assertEquals("value298", new String(reopened.findLatest("key48".getBytes()).value));
+        reopened.close();
+    }
+
+    @Test
+    public void findsLatestValueForKeyWithoutKeyIndexes() throws IOException {
+        Log log = new Log(TestUtils.tempDir("log"), new LogConfig().setSegmentBytes(1000));
+        for (int i = 0; i < 100; i++) {
+            log.append(("key" + i % 10).getBytes(), ("value" + i).getBytes());
+        }
+
+        assertEquals("value93", new String(log.findLatest("key3".getBytes()).value));
+        assertNull(log.findLatest("key10".getBytes()));
+    }
+
+    @Test
+    public void truncatesMappedSegmentsAndRecoversTheTruncatedLog() throws IOException {
+        File dir = TestUtils.tempDir("log");
+        LogConfig config = new LogConfig()
+                .setSegmentBytes(1000)
+                .setIoMode(LogConfig.IoMode.MMAP)
+                .setTailCacheBytes(4096);
+        Log log = new Log(dir, config);
+        for (int i = 0; i < 100; i++) {
+            log.append(("key" + i).getBytes(), ("value" + i).getBytes());
+        }
+        log.flush();
+        int segments = log.numberOfSegments();
+
+        log.truncateTo(30);
+        assertEquals(29, log.lastOffset());
+        assertTrue(log.numberOfSegments() < segments);
+        assertTrue(log.recoveryPoint() <= 30);
+        for (int i = 0; i < 50; i++) {
+            log.append(("new" + i).getBytes(), ("value" + i).getBytes());
+        }
+        assertEquals("new0", new String(log.readSingleMessage(30).key));
+        log.close();
+
+        Log reopened = new Log(dir, config);
+        assertEquals(79, reopened.lastOffset());
+        assertEquals("key28", new String(reopened.readSingleMessage(29).key));
+        assertEquals("new49", new String(reopened.readSingleMessage(79).key));
+    }
+
+    @Test
+    public void truncatesWhileAppendsAreInFlight() throws Exception {
+        File dir = TestUtils.tempDir("log");
+        LogConfig config = new LogConfig().setSegmentBytes(2000);
+        Log log = new Log(dir, config);
+        int threads = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> results = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            results.add(executor.submit(() -> {
+                for (int i = 0; i < 2000; i++) {
+                    log.append(("key" + thread).getBytes(), (thread + "-" + i).getBytes());
+                }
+                return null;
+            }));
+        }
+        for (int i = 0; i < 20; i++) {
+            Thread.sleep(5);
+            log.truncateTo(log.lastOffset() / 2 + 1);
+        }
+        for (Future<?> result : results) {
+            result.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        List<Log.Message> messages = log.read(1, log.lastOffset());
+        assertEquals(log.lastOffset(), messages.size());
+        for (int i = 0; i < messages.size(); i++) {
+            assertEquals(i + 1, messages.get(i).offset);
+        }
+        long lastOffset = log.lastOffset();
+        log.close();
+        assertEquals(lastOffset, new Log(dir, config).lastOffset());
+    }
+
+    @Test
+    public void appendsAndReadsWithAsyncIo() throws Exception {
+        File dir = TestUtils.tempDir("log");
+        LogConfig config = new LogConfig()
+                .setSegmentBytes(4096)
+                .setIoMode(LogConfig.IoMode.ASYNC)
+                .setAsyncMaxOutstanding(2);
+        Log log = new Log(dir, config);
+        List<CompletableFuture<Long>> durable = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            if (i % 2 == 0) {
+                durable.add(log.appendAsync(("key" + i).getBytes(), ("value" + i).getBytes()));
+            } else {
+                assertEquals(i + 1, log.append(("key" + i).getBytes(), ("value" + i).getBytes()));
+            }
+        }
+        for (int i = 0; i < durable.size(); i++) {
+            assertEquals(2 * i + 1, (long) durable.get(i).get(5, TimeUnit.SECONDS));
+        }
+        assertTrue(log.numberOfSegments() > 1);
+
+        List<Log.Message> messages = new ArrayList<>();
+        long next = 1;
+        while (next <= log.lastOffset()) {
+            List<Log.Message> read = log.readAsync(next, Long.MAX_VALUE, 1024).get(5, TimeUnit.SECONDS);
+            assertFalse(read.isEmpty());
+            messages.addAll(read);
+            next = read.get(read.size() - 1).offset + 1;
+        }
+        assertEquals(300, messages.size());
+        assertEquals("value199", new String(messages.get(199).value));
+        log.close();
+
+        Log reopened = new Log(dir, config);
+        assertEquals(300, reopened.lastOffset());
+        assertEquals("value299", new String(reopened.readAsync(300, 300, 1024).get(5, TimeUnit.SECONDS).get(0).value));
+    }
+
+    @Test
+    public void concurrentAsyncAppendsArePublishedInOrder() throws Exception {
+        Log log = new Log(TestUtils.tempDir("log"), new LogConfig()
+                .setSegmentBytes(8192)
+                .setIoMode(LogConfig.IoMode.ASYNC));
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> appenders = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int thread = t;
+            appenders.add(executor.submit(() -> {
+                for (int i = 0; i < 250; i++) {
+                    log.append(("key" + thread).getBytes(), (thread + "-" + i).getBytes());
+                }
+                return null;
+            }));
+        }
+        for (Future<?> appender : appenders) {
+            appender.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        assertEquals(1000, log.lastOffset());
+        List<Log.Message> messages = log.read(1, 1000);
+        assertEquals(1000, messages.size());
+        for (int i = 0; i < messages.size(); i++) {
+            assertEquals(i + 1, messages.get(i).offset);
+        }
+    }
+
+    @Test
+    public void movesToAnotherDirWhileAppendsContinue() throws Exception {
+        File dir = new File(TestUtils.tempDir("logs1"), "topic-0");
+        File otherLogDir = TestUtils.tempDir("logs2");
+        LogConfig config = new LogConfig().setSegmentBytes(1024).setKeyIndexEnabled(true);
+        Log log = new Log(dir, config);
+        for (int i = 0; i < 200; i++) {
+            log.append(("key" + i).getBytes(), ("value" + i).getBytes());
+        }
+        ExecutorService appender = Executors.newSingleThreadExecutor();
+        Future<?> appends = appender.submit(() -> {
+            for (int i = 200; i < 400; i++) {
+                log.append(("key" + i).getBytes(), ("value" + i).getBytes());
+            }
+            return null;
+        });
+
+        log.moveTo(otherLogDir);
+        appends.get(30, TimeUnit.SECONDS);
+        appender.shutdown();
+
+        File moved = new File(otherLogDir, "topic-0");
+        assertEquals(moved, log.dir());
+        assertFalse(dir.exists());
+        assertFalse(new File(otherLogDir, "topic-0" + Log.FutureDirSuffix).exists());
+        List<Log.Message> messages = log.read(1, 400);
+        assertEquals(400, messages.size());
+        assertEquals("value399", new String(messages.get(399).value));
+        log.append("key400".getBytes(), "value400".getBytes());
+        assertEquals("value5", new String(log.findLatest("key5".getBytes()).value));
+        log.close();
+
+        Log reopened = new Log(moved, config);
+        assertEquals(401, reopened.lastOffset());
+        assertEquals("value400", new String(reopened.readSingleMessage(401).value));
+        reopened.close();
+    }
+
+    private static int keyIndexFiles(File dir) {
+        return dir.listFiles((d, name) -> name.endsWith(KeyIndex.KeyIndexFileSuffix)).length;
+    }
+}
@@ -0,0 +1,129 @@
+package com.dist.simplekafka;
+
+import com.dist.common.Config;
+import com.dist.common.TestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class NetworkClientTest {
+    private LogManager logManager;
+    private SocketServer server;
+    private InetSocketAddress address;
+
+    @Before
+    public void startServer() throws IOException {
+        Config config = new Config(1, "localhost", 0, "", List.of(TestUtils.tempDir("logs").getAbsolutePath()));
+        logManager = new LogManager(config, new LogConfig());
+        MetadataCache metadataCache = new MetadataCache();
+        metadataCache.update(List.of(new Broker(1, "localhost", 0)),
+                Map.of("topic1", List.of(new PartitionReplicas(0, List.of(1)))));
+        server = new SocketServer(config, logManager, metadataCache);
+        server.startup();
+        address = new InetSocketAddress("localhost", server.port());
+    }
+
+    @After
+    public void stopServer() {
+        server.shutdown();
+        logManager.shutdown();
+    }
+
+    @Test
+    public void pipelinesRequestsAndMatchesResponses() throws Exception {
+        try (NetworkClient client = new NetworkClient("test", 5, 30_000)) {
+            List<CompletableFuture<ByteBuffer>> futures = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                futures.add(client.send(address, produce("value" + i)));
+            }
+            for (int i = 0; i < 100; i++) {
+                ProduceResponse response = ProduceResponse.parse(futures.get(i).get(10, TimeUnit.SECONDS));
+                assertEquals(Errors.None, response.responses().get(0).error);
+                assertEquals(i + 1, response.responses().get(0).baseOffset);
+            }
+
+            FetchResponse fetched = FetchResponse.parse(client.send(address, new FetchRequest(1024 * 1024, List.of(
+                    new FetchRequest.PartitionData(new TopicPartition("topic1", 0), 1, 1024 * 1024))))
+                    .get(10, TimeUnit.SECONDS));
+            assertEquals(100, fetched.responses().get(0).lastOffset);
+            MetadataResponse metadata = MetadataResponse.parse(client.send(address, new MetadataRequest(List.of()))
+                    .get(10, TimeUnit.SECONDS));
+            assertEquals("topic1", metadata.topics().get(0).topic);
+        }
+    }
+
+    @Test
+    public void failsRequestsWhenTheBrokerIsUnreachable() throws Exception {
+        InetSocketAddress closed;
+        try (ServerSocketChannel channel = ServerSocketChannel.open()) {
+            channel.bind(new InetSocketAddress("localhost", 0));
+            closed = (InetSocketAddress) channel.getLocalAddress();
+        }
+        try (NetworkClient client = new NetworkClient("test")) {
+            assertFails(client.send(closed, produce("value")), IOException.class);
+            //reconnects for the next request.
+            assertFails(client.send(closed, produce("value")), IOException.class);
+            assertEquals(Errors.None, ProduceResponse.parse(client.send(address, produce("value"))
+                    .get(10, TimeUnit.SECONDS)).responses().get(0).error);
+        }
+    }
+
+    @Test
+    public void timesOutRequestsToAStuckBroker() throws Exception {
+        try (ServerSocketChannel stuck = ServerSocketChannel.open();
+             NetworkClient client = new NetworkClient("test", 5, 200)) {
+            stuck.bind(new InetSocketAddress("localhost", 0));
+            CompletableFuture<ByteBuffer> future = client.send((InetSocketAddress) stuck.getLocalAddress(), produce("value"));
+            //accepted, but never answered.
+            SocketChannel accepted = stuck.accept();
+            try {
+                assertFails(future, TimeoutException.class);
+            } finally {
+                accepted.close();
+            }
+        }
+    }
+
+    @Test
+    public void failsPendingRequestsOnClose() throws Exception {
+        try (ServerSocketChannel stuck = ServerSocketChannel.open()) {
+            stuck.bind(new InetSocketAddress("localhost", 0));
+            NetworkClient client = new NetworkClient("test");
+            CompletableFuture<ByteBuffer> future = client.send((InetSocketAddress) stuck.getLocalAddress(), produce("value"));
+            client.close();
+            assertFails(future, IOException.class);
+            assertFails(client.send(address, produce("value")), IOException.class);
+        }
+    }
+
+    private static ProduceRequest produce(String value) {
+        ByteBuffer batch = RecordBatch.of(0, List.of(new Log.Message("key".getBytes(), value.getBytes()))).buffer();
+        return new ProduceRequest(List.of(new ProduceRequest.PartitionData(new TopicPartition("topic1", 0), batch)));
+    }
+
+    private static void assertFails(CompletableFuture<ByteBuffer> future, Class<? extends Throwable> cause) throws Exception {
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail("Expected " + cause.getSimpleName());
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause().toString(), cause.isInstance(e.getCause()));
+        }
+    }
+}
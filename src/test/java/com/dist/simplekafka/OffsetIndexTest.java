@@ -0,0 +1,54 @@
+package com.dist.simplekafka;
+
+import com.dist.common.TestUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+public class OffsetIndexTest {
+
+    @Test
+    public void looksUpLargestOffsetLessThanOrEqualToTarget() throws IOException {
+        OffsetIndex index = new OffsetIndex(new File(TestUtils.tempDir("index"), "00000000000000000100.index"), 100, 1024);
+        index.append(110, 1000);
+        index.append(120, 2000);
+        index.append(130, 3000);
+
+        assertEquals(100, index.lookup(105).offset);
+        assertEquals(0, index.lookup(105).position);
+        assertEquals(110, index.lookup(110).offset);
+        assertEquals(2000, index.lookup(129).position);
+        assertEquals(3000, index.lookup(500).position);
+    }
+
+    @Test
+    public void reloadsEntriesAfterTrim() throws IOException {
+        File file = new File(TestUtils.tempDir("index"), "00000000000000000001.index");
+        OffsetIndex index = new OffsetIndex(file, 1, 1024);
+        index.append(10, 100);
+        index.append(20, 200);
+        index.close();
+        assertEquals(16, file.length());
+
+        OffsetIndex reopened = new OffsetIndex(file, 1, 1024);
+        assertEquals(2, reopened.entries());
+        assertEquals(200, reopened.lookup(25).position);
+    }
+
+    @Test
+    public void dropsTrailingZeroEntriesAfterUncleanShutdown() throws IOException {
+        File file = new File(TestUtils.tempDir("index"), "00000000000000000001.index");
+        OffsetIndex index = new OffsetIndex(file, 1, 1024);
+        index.append(10, 100);
+        index.append(20, 200);
+        //not closed, so the file still has its preallocated size.
+        assertEquals(1024, file.length());
+
+        OffsetIndex reopened = new OffsetIndex(file, 1, 1024);
+        assertEquals(2, reopened.entries());
+        assertEquals(20, reopened.lastEntry().offset);
+    }
+}
@@ -0,0 +1,155 @@
+package com.dist.simplekafka;
+
+import com.dist.common.Config;
+import com.dist.common.TestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ProducerTest {
+    private static final int Partitions = 3;
+
+    private LogManager logManager;
+    private SocketServer server;
+    private InetSocketAddress address;
+
+    @Before
+    public void startServer() throws IOException {
+        Config config = new Config(1, "localhost", 0, "", List.of(TestUtils.tempDir("logs").getAbsolutePath()));
+        logManager = new LogManager(config, new LogConfig());
+        MetadataCache metadataCache = new MetadataCache();
+        server = new SocketServer(config, logManager, metadataCache);
+        server.startup();
+        List<PartitionReplicas> partitions = new ArrayList<>();
+        for (int i = 0; i < Partitions; i++) {
+            partitions.add(new PartitionReplicas(i, List.of(1)));
+        }
+        metadataCache.update(List.of(new Broker(1, "localhost", server.port())), Map.of("topic1", partitions));
+        address = new InetSocketAddress("localhost", server.port());
+    }
+
+    @After
+    public void stopServer() {
+        server.shutdown();
+        logManager.shutdown();
+    }
+
+    @Test
+    public void batchesRecordsWithoutKeysIntoOnePartition() throws Exception {
+        try (Producer producer = new Producer(new ProducerConfig(List.of(address)).setLingerMs(100))) {
+            List<CompletableFuture<Long>> offsets = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                offsets.add(producer.send("topic1", null, ("value" + i).getBytes()));
+            }
+            for (int i = 0; i < 50; i++) {
+                assertEquals(i + 1, (long) offsets.get(i).get(10, TimeUnit.SECONDS));
+            }
+        }
+        //the sticky partition got all of them, as a single batch.
+        int partitionsWithRecords = 0;
+        for (int i = 0; i < Partitions; i++) {
+            Log log = logManager.getLog("topic1", i);
+            if (log != null && log.lastOffset() > 0) {
+                partitionsWithRecords++;
+                assertEquals(50, log.lastOffset());
+                assertEquals("value49", new String(log.readSingleMessage(50).value));
+            }
+        }
+        assertEquals(1, partitionsWithRecords);
+    }
+
+    @Test
+    public void sendsRecordsWithTheSameKeyToTheSamePartition() throws Exception {
+        try (Producer producer = new Producer(new ProducerConfig(List.of(address)).setLingerMs(0))) {
+            for (int i = 0; i < 30; i++) {
+                producer.send("topic1", ("key" + i % 3).getBytes(), ("value" + i).getBytes());
+            }
+            producer.flush();
+        }
+        Set<String> seenKeys = new HashSet<>();
+        int total = 0;
+        for (int i = 0; i < Partitions; i++) {
+            Log log = logManager.getLog("topic1", i);
+            if (log == null) {
+                continue;
+            }
+            List<Log.Message> messages = log.read(1, log.lastOffset());
+            total += messages.size();
+            Set<String> keys = new HashSet<>();
+            for (Log.Message message : messages) {
+                keys.add(new String(message.key));
+            }
+            for (String key : keys) {
+                assertTrue("key " + key + " in two partitions", seenKeys.add(key));
+            }
+        }
+        assertEquals(30, total);
+        assertEquals(Partitioner.toPositive(Partitioner.murmur2("key0".getBytes())) % Partitions,
+                new Partitioner().partition("topic1", "key0".getBytes(), Partitions));
+    }
+
+    @Test
+    public void lingersTillTheBatchIsFullOrFlushed() throws Exception {
+        ProducerConfig config = new ProducerConfig(List.of(address))
+                .setLingerMs(60_000)
+                .setBatchBytes(1024);
+        try (Producer producer = new Producer(config)) {
+            CompletableFuture<Long> lingering = producer.send("topic1", "key".getBytes(), "value".getBytes());
+            Thread.sleep(200);
+            assertFalse(lingering.isDone());
+
+            producer.flush();
+            assertTrue(lingering.isDone());
+            assertEquals(1, (long) lingering.get());
+
+            //a full batch doesn't wait for the linger time.
+            List<CompletableFuture<Long>> offsets = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                offsets.add(producer.send("topic1", "key".getBytes(), new byte[100]));
+            }
+            offsets.get(0).get(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void failsSendsToUnknownTopics() throws Exception {
+        try (Producer producer = new Producer(new ProducerConfig(List.of(address)).setMaxBlockMs(300))) {
+            assertFails(producer.send("missing", null, "value".getBytes()), TimeoutException.class);
+        }
+    }
+
+    @Test
+    public void sendsPendingRecordsOnClose() throws Exception {
+        CompletableFuture<Long> offset;
+        try (Producer producer = new Producer(new ProducerConfig(List.of(address)).setLingerMs(60_000))) {
+            offset = producer.send("topic1", "key".getBytes(), "value".getBytes());
+        }
+        assertEquals(1, (long) offset.get(10, TimeUnit.SECONDS));
+    }
+
+    private static void assertFails(CompletableFuture<Long> future, Class<? extends Throwable> cause) throws Exception {
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail("Expected " + cause.getSimpleName());
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause().toString(), cause.isInstance(e.getCause()));
+        }
+    }
+}
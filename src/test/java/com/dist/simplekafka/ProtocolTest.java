@@ -0,0 +1,128 @@
+package com.dist.simplekafka;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ProtocolTest {
+
+    @Test
+    public void encodesAndDecodesRequestFrames() {
+        ByteBuffer batch = RecordBatch.of(0, List.of(new Log.Message("key".getBytes(), "value".getBytes()))).buffer();
+        ProduceRequest request = new ProduceRequest(List.of(
+                new ProduceRequest.PartitionData(new TopicPartition("topic1", 3), batch)));
+
+        ByteBuffer frame = request.toFrame(42, "client1");
+        assertEquals(frame.remaining() - 4, frame.getInt());
+        RequestHeader header = RequestHeader.parse(frame);
+        assertEquals(ApiKeys.Produce, header.apiKey());
+        assertEquals(ApiKeys.latestVersion(ApiKeys.Produce), header.apiVersion());
+        assertEquals(42, header.correlationId());
+        assertEquals("client1", header.clientId());
+
+        ProduceRequest parsed = ProduceRequest.parse(frame);
+        assertFalse(frame.hasRemaining());
+        assertEquals(new TopicPartition("topic1", 3), parsed.partitions().get(0).topicPartition);
+        assertEquals(batch, parsed.partitions().get(0).records);
+    }
+
+    @Test
+    public void encodesNullAndNonAsciiStrings() {
+        RequestHeader header = new RequestHeader(ApiKeys.Metadata, (short) 0, 1, null);
+        ByteBuffer buffer = ByteBuffer.allocate(header.sizeInBytes());
+        header.writeTo(buffer);
+        assertNull(RequestHeader.parse(buffer.flip()).clientId());
+
+        MetadataRequest request = new MetadataRequest(List.of("t\u00f3pico-\ud83d\ude00", "\u65e5\u672c"));
+        buffer = ByteBuffer.allocate(request.sizeInBytes());
+        request.writeTo(buffer);
+        assertFalse(buffer.hasRemaining());
+        assertEquals(request.topics(), MetadataRequest.parse(buffer.flip()).topics());
+    }
+
+    @Test
+    public void rejectsStringsWhichDoNotFitTheirLengthField() {
+        try {
+            Protocol.writeString("x".repeat(Short.MAX_VALUE + 1), ByteBuffer.allocate(Short.MAX_VALUE + 3));
+            fail("Expected a string over " + Short.MAX_VALUE + " bytes to be rejected");
+        } catch (IllegalArgumentException e) {
+            //expected.
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(5).putShort((short) 100).put("abc".getBytes());
+        try {
+            Protocol.readString(buffer.flip());
+            fail("Expected a length past the end of the buffer to be rejected");
+        } catch (IllegalArgumentException e) {
+            //expected.
+        }
+    }
+
+    @Test
+    public void encodesAndDecodesFetches() {
+        TopicPartition topicPartition = new TopicPartition("topic1", 0);
+        FetchRequest request = FetchRequest.parse(encode(new FetchRequest(1000, List.of(
+                new FetchRequest.PartitionData(topicPartition, 5, 100)))));
+        assertEquals(1000, request.maxBytes());
+        assertEquals(5, request.partitions().get(0).fetchOffset);
+        assertEquals(100, request.partitions().get(0).maxBytes);
+
+        ByteBuffer batch = RecordBatch.of(5, List.of(new Log.Message("key".getBytes(), "value".getBytes()))).buffer();
+        FetchResponse response = FetchResponse.parse(encode(new FetchResponse(List.of(
+                new FetchResponse.PartitionResponse(topicPartition, Errors.None, 5, batch),
+                new FetchResponse.PartitionResponse(topicPartition, Errors.OffsetOutOfRange, -1, ByteBuffer.allocate(0))))));
+        assertEquals(5, response.responses().get(0).lastOffset);
+        assertEquals(batch, response.responses().get(0).records);
+        assertEquals(Errors.OffsetOutOfRange, response.responses().get(1).error);
+        assertEquals(0, response.responses().get(1).records.remaining());
+    }
+
+    @Test
+    public void encodesAndDecodesOffsetsAndMetadata() {
+        TopicPartition topicPartition = new TopicPartition("topic1", 1);
+        ListOffsetsRequest request = ListOffsetsRequest.parse(encode(new ListOffsetsRequest(List.of(
+                new ListOffsetsRequest.PartitionData(topicPartition, ListOffsetsRequest.Earliest)))));
+        assertEquals(ListOffsetsRequest.Earliest, request.partitions().get(0).timestamp);
+        ListOffsetsResponse offsets = ListOffsetsResponse.parse(encode(new ListOffsetsResponse(List.of(
+                new ListOffsetsResponse.PartitionResponse(topicPartition, Errors.None, 7)))));
+        assertEquals(topicPartition, offsets.responses().get(0).topicPartition);
+        assertEquals(7, offsets.responses().get(0).offset);
+
+        MetadataResponse metadata = MetadataResponse.parse(encode(new MetadataResponse(
+                List.of(new Broker(1, "host1", 9093), new Broker(2, "host2", 9094)),
+                List.of(new MetadataResponse.TopicMetadata("topic1", Errors.None,
+                        List.of(new PartitionReplicas(0, List.of(2, 1)), new PartitionReplicas(1, List.of(1, 2))))))));
+        assertEquals(List.of(new Broker(1, "host1", 9093), new Broker(2, "host2", 9094)), metadata.brokers());
+        List<PartitionReplicas> partitions = metadata.topics().get(0).partitions;
+        assertEquals(new PartitionReplicas(1, List.of(1, 2)), partitions.get(1));
+        assertEquals(2, MetadataResponse.TopicMetadata.leader(partitions.get(0)));
+    }
+
+    @Test
+    public void supportsKnownApiVersionsOnly() {
+        assertTrue(ApiKeys.isSupported(ApiKeys.Fetch, (short) 0));
+        assertFalse(ApiKeys.isSupported(ApiKeys.Fetch, (short) 1));
+        assertFalse(ApiKeys.isSupported((short) 99, (short) 0));
+        assertFalse(ApiKeys.isSupported((short) -1, (short) 0));
+    }
+
+    private static ByteBuffer encode(ApiRequest request) {
+        ByteBuffer buffer = ByteBuffer.allocate(request.sizeInBytes());
+        request.writeTo(buffer);
+        assertFalse(buffer.hasRemaining());
+        return buffer.flip();
+    }
+
+    private static ByteBuffer encode(ApiResponse response) {
+        ByteBuffer buffer = ByteBuffer.allocate(response.sizeInBytes());
+        response.writeTo(buffer);
+        assertFalse(buffer.hasRemaining());
+        return buffer.flip();
+    }
+}
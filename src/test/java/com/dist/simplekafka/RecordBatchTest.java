@@ -0,0 +1,175 @@
+package com.dist.simplekafka;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RecordBatchTest {
+
+    @Test
+    public void encodesAndDecodesRecordsWithOffsetDeltas() {
+        List<Log.Message> messages = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            messages.add(new Log.Message(("key" + i).getBytes(), ("value" + i).getBytes()));
+        }
+        RecordBatch batch = RecordBatch.of(100, messages);
+
+        assertTrue(batch.isValid());
+        assertEquals(100, batch.baseOffset());
+        assertEquals(109, batch.lastOffset());
+        assertEquals(10, batch.recordCount());
+        int i = 0;
+        for (Log.Message message : batch) {
+            assertEquals(100 + i, message.offset);
+            assertEquals("key" + i, new String(message.key));
+            assertEquals("value" + i, new String(message.value));
+            i++;
+        }
+        assertEquals(10, i);
+    }
+
+    @Test
+    public void buildsBatchesRecordByRecordInAGivenBuffer() {
+        ByteBuffer buffer = ByteBuffer.allocate(200);
+        RecordBatch.Builder builder = new RecordBatch.Builder(buffer, 1000);
+        int appended = 0;
+        while (builder.tryAppend(("key" + appended).getBytes(), ("value" + appended).getBytes())) {
+            appended++;
+        }
+        assertTrue(appended > 1);
+        assertEquals(appended, builder.recordCount());
+
+        RecordBatch batch = new RecordBatch(builder.build());
+        assertTrue(batch.isValid());
+        assertEquals(appended, batch.offsetCount());
+        assertEquals(1000, batch.maxTimestamp());
+        int i = 0;
+        for (Log.Message message : batch) {
+            assertEquals(i, message.offset);
+            assertEquals(1000, message.timestamp);
+            assertEquals("value" + i, new String(message.value));
+            i++;
+        }
+        assertEquals(appended, i);
+    }
+
+    @Test
+    public void sharesTheHeaderAcrossRecords() {
+        List<Log.Message> messages = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            messages.add(new Log.Message(-1, 1000, new byte[8], new byte[100]));
+        }
+        RecordBatch batch = RecordBatch.of(1, messages);
+        //1 byte each for the record length, offset delta, timestamp delta,
+        // key and value length on top of the 108 bytes of data.
+        assertEquals(RecordBatch.HeaderSize + 100 * (108 + 5), batch.sizeInBytes());
+    }
+
+    @Test
+    public void storesTimestampsAsDeltasFromTheMaxTimestamp() {
+        long now = System.currentTimeMillis();
+        List<Log.Message> messages = List.of(
+                new Log.Message(-1, now - 10, "a".getBytes(), "1".getBytes()),
+                new Log.Message(-1, now, "b".getBytes(), "2".getBytes()),
+                new Log.Message(-1, now - 5000, "c".getBytes(), "3".getBytes()));
+        for (CompressionCodec codec : new CompressionCodec[]{null, CompressionCodecs.Deflate}) {
+            RecordBatch batch = RecordBatch.of(1, messages, codec);
+
+            assertEquals(now, batch.maxTimestamp());
+            List<Log.Message> decoded = new ArrayList<>();
+            batch.forEach(decoded::add);
+            assertEquals(now - 10, decoded.get(0).timestamp);
+            assertEquals(now, decoded.get(1).timestamp);
+            assertEquals(now - 5000, decoded.get(2).timestamp);
+        }
+    }
+
+    @Test
+    public void detectsCorruptedRecords() {
+        RecordBatch batch = RecordBatch.of(1, "key".getBytes(), "value".getBytes());
+        ByteBuffer corrupted = ByteBuffer.allocate(batch.sizeInBytes());
+        corrupted.put(batch.buffer());
+        corrupted.put(corrupted.limit() - 1, (byte) 'X');
+        corrupted.flip();
+
+        assertFalse(new RecordBatch(corrupted).isValid());
+    }
+
+    @Test(expected = CorruptRecordException.class)
+    public void ensureValidThrowsForCorruptBatch() {
+        RecordBatch batch = RecordBatch.of(1, "key".getBytes(), "value".getBytes());
+        ByteBuffer corrupted = ByteBuffer.allocate(batch.sizeInBytes());
+        corrupted.put(batch.buffer());
+        corrupted.putInt(RecordBatch.RecordCountOffset, 2);
+        corrupted.flip();
+
+        new RecordBatch(corrupted).ensureValid();
+    }
+
+    @Test
+    public void compressesRecordsWithTheGivenCodec() {
+        List<Log.Message> messages = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            messages.add(new Log.Message(("key" + i).getBytes(), ("some repetitive value " + i).getBytes()));
+        }
+        RecordBatch uncompressed = RecordBatch.of(1, messages);
+        RecordBatch compressed = RecordBatch.of(1, messages, CompressionCodecs.Lz);
+
+        assertTrue(compressed.isValid());
+        assertTrue(compressed.isCompressed());
+        assertTrue(compressed.sizeInBytes() < uncompressed.sizeInBytes());
+        assertEquals(100, compressed.recordCount());
+        assertEquals(100, compressed.lastOffset());
+        int i = 0;
+        for (Log.Message message : compressed) {
+            assertEquals(1 + i, message.offset);
+            assertEquals("some repetitive value " + i, new String(message.value));
+            i++;
+        }
+        assertEquals(100, i);
+    }
+
+    @Test
+    public void keepsRecordsUncompressedIfTheyDoNotShrink() {
+        RecordBatch batch = RecordBatch.of(1, List.of(new Log.Message("k".getBytes(), "v".getBytes())),
+                CompressionCodecs.Deflate);
+        assertFalse(batch.isCompressed());
+        assertEquals("v", new String(batch.iterator().next().value));
+    }
+
+    @Test
+    public void encodesAppendsIntoABufferReusedByTheThread() {
+        ByteBuffer first = RecordBatch.encodeForAppend("key".getBytes(), "value".getBytes());
+        assertTrue(first.isDirect());
+        assertTrue(new RecordBatch(first).isValid());
+        assertEquals(1, RecordBatch.offsetCount(first));
+
+        ByteBuffer second = RecordBatch.encodeForAppend(List.of(
+                new Log.Message("key1".getBytes(), "value1".getBytes()),
+                new Log.Message("key2".getBytes(), "value2".getBytes())), null);
+        assertSame(first, second);
+        assertEquals(2, RecordBatch.offsetCount(second));
+        assertEquals(2, RecordBatch.recordCount(second));
+        List<Log.Message> messages = new ArrayList<>();
+        new RecordBatch(second).forEach(messages::add);
+        assertEquals("value2", new String(messages.get(1).value));
+    }
+
+    @Test
+    public void checksumCoversAttributes() {
+        RecordBatch batch = RecordBatch.of(1, "key".getBytes(), "value".getBytes());
+        ByteBuffer corrupted = ByteBuffer.allocate(batch.sizeInBytes());
+        corrupted.put(batch.buffer());
+        corrupted.putShort(RecordBatch.AttributesOffset, (short) LzCodec.Id);
+        corrupted.flip();
+
+        assertFalse(new RecordBatch(corrupted).isValid());
+    }
+}
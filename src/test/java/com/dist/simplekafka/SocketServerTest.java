@@ -0,0 +1,238 @@
+package com.dist.simplekafka;
+
+import com.dist.common.Config;
+import com.dist.common.TestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class SocketServerTest {
+    private LogManager logManager;
+    private SocketServer server;
+
+    @Before
+    public void startServer() throws IOException {
+        Config config = new Config(1, "localhost", 0, "", List.of(TestUtils.tempDir("logs").getAbsolutePath()))
+                .setNumNetworkThreads(2)
+                .setNumIoThreads(2)
+                .setSocketRequestMaxBytes(1024 * 1024)
+                .setNetworkMode(networkMode());
+        logManager = new LogManager(config, new LogConfig());
+        MetadataCache metadataCache = new MetadataCache();
+        metadataCache.update(List.of(new Broker(1, "localhost", 0)),
+                Map.of("topic1", List.of(new PartitionReplicas(0, List.of(1)), new PartitionReplicas(1, List.of(1)),
+                        new PartitionReplicas(2, List.of(1)))));
+        server = new SocketServer(config, logManager, metadataCache);
+        server.startup();
+    }
+
+    protected Config.NetworkMode networkMode() {
+        return Config.NetworkMode.SELECTOR;
+    }
+
+    @After
+    public void stopServer() {
+        server.shutdown();
+        logManager.shutdown();
+    }
+
+    @Test
+    public void producesAndFetchesOverTheNetwork() throws IOException {
+        try (SocketChannel channel = connect()) {
+            channel.write(produce(1, "topic1", 0, List.of(new Log.Message("key1".getBytes(), "value1".getBytes()),
+                    new Log.Message("key2".getBytes(), "value2".getBytes()))));
+            ProduceResponse.PartitionResponse produced = ProduceResponse.parse(readResponse(channel, 1)).responses().get(0);
+            assertEquals(Errors.None, produced.error);
+            assertEquals(1, produced.baseOffset);
+
+            channel.write(fetch(2, "topic1", 0, 1));
+            FetchResponse.PartitionResponse fetched = FetchResponse.parse(readResponse(channel, 2)).responses().get(0);
+            assertEquals(Errors.None, fetched.error);
+            assertEquals(2, fetched.lastOffset);
+            List<Log.Message> messages = messagesIn(fetched.records);
+            assertEquals(2, messages.size());
+            assertEquals("value2", new String(messages.get(1).value));
+        }
+    }
+
+    @Test
+    public void answersPipelinedRequestsWithTheirCorrelationIds() throws IOException {
+        try (SocketChannel channel = connect()) {
+            for (int i = 0; i < 10; i++) {
+                channel.write(produce(100 + i, "topic1", 0, List.of(new Log.Message("key".getBytes(), ("value" + i).getBytes()))));
+            }
+            for (int i = 0; i < 10; i++) {
+                ProduceResponse.PartitionResponse response = ProduceResponse.parse(readResponse(channel, 100 + i)).responses().get(0);
+                assertEquals(Errors.None, response.error);
+                assertEquals(i + 1, response.baseOffset);
+            }
+        }
+    }
+
+    @Test
+    public void returnsErrorsForUnknownPartitionsAndOffsets() throws IOException {
+        try (SocketChannel channel = connect()) {
+            channel.write(fetch(1, "missing", 0, 1));
+            assertEquals(Errors.UnknownTopicOrPartition, FetchResponse.parse(readResponse(channel, 1)).responses().get(0).error);
+
+            channel.write(produce(2, "topic1", 0, List.of(new Log.Message("key".getBytes(), "value".getBytes()))));
+            readResponse(channel, 2);
+            channel.write(fetch(3, "topic1", 0, 100));
+            assertEquals(Errors.OffsetOutOfRange, FetchResponse.parse(readResponse(channel, 3)).responses().get(0).error);
+        }
+    }
+
+    @Test
+    public void rejectsProducesToInvalidTopicsAndUnassignedPartitions() throws IOException {
+        try (SocketChannel channel = connect()) {
+            List<Log.Message> messages = List.of(new Log.Message("key".getBytes(), "value".getBytes()));
+            channel.write(produce(1, "../../escaped", 0, messages));
+            assertEquals(Errors.InvalidTopic, ProduceResponse.parse(readResponse(channel, 1)).responses().get(0).error);
+            channel.write(produce(2, "topic2", -1, messages));
+            assertEquals(Errors.UnknownTopicOrPartition, ProduceResponse.parse(readResponse(channel, 2)).responses().get(0).error);
+            channel.write(produce(3, "topic1", 3, messages));
+            assertEquals(Errors.UnknownTopicOrPartition, ProduceResponse.parse(readResponse(channel, 3)).responses().get(0).error);
+        }
+        assertEquals(null, logManager.getStorage("topic1", 3));
+        assertEquals(null, logManager.getStorage("topic2", -1));
+    }
+
+    @Test
+    public void servesClientsWhileHoldingManyIdleConnections() throws IOException {
+        List<SocketChannel> idle = new ArrayList<>();
+        try {
+            for (int i = 0; i < 1000; i++) {
+                idle.add(connect());
+            }
+            try (SocketChannel channel = connect()) {
+                channel.write(produce(1, "topic1", 0, List.of(new Log.Message("key".getBytes(), "value".getBytes()))));
+                assertEquals(Errors.None, ProduceResponse.parse(readResponse(channel, 1)).responses().get(0).error);
+            }
+            SocketChannel last = idle.get(idle.size() - 1);
+            last.write(fetch(2, "topic1", 0, 1));
+            assertEquals(Errors.None, FetchResponse.parse(readResponse(last, 2)).responses().get(0).error);
+        } finally {
+            for (SocketChannel channel : idle) {
+                channel.close();
+            }
+        }
+    }
+
+    @Test
+    public void closesConnectionsSendingOversizedRequests() throws IOException {
+        try (SocketChannel channel = connect()) {
+            channel.write(ByteBuffer.allocate(4).putInt(0, 2 * 1024 * 1024));
+            assertEquals(-1, channel.read(ByteBuffer.allocate(4)));
+        }
+    }
+
+    @Test
+    public void fetchesSeveralPartitionsInOneRequest() throws IOException {
+        try (SocketChannel channel = connect()) {
+            for (int partition = 0; partition < 3; partition++) {
+                channel.write(produce(partition, "topic1", partition,
+                        List.of(new Log.Message("key".getBytes(), ("value" + partition).getBytes()))));
+                readResponse(channel, partition);
+            }
+            List<FetchRequest.PartitionData> partitions = new ArrayList<>();
+            for (int partition = 0; partition < 3; partition++) {
+                partitions.add(new FetchRequest.PartitionData(new TopicPartition("topic1", partition), 1, 1024));
+            }
+            channel.write(new FetchRequest(1024 * 1024, partitions).toFrame(10, "test"));
+            List<FetchResponse.PartitionResponse> responses = FetchResponse.parse(readResponse(channel, 10)).responses();
+            assertEquals(3, responses.size());
+            for (int partition = 0; partition < 3; partition++) {
+                assertEquals(new TopicPartition("topic1", partition), responses.get(partition).topicPartition);
+                assertEquals("value" + partition, new String(messagesIn(responses.get(partition).records).get(0).value));
+            }
+        }
+    }
+
+    @Test
+    public void listsOffsetsAndMetadata() throws IOException {
+        try (SocketChannel channel = connect()) {
+            channel.write(produce(1, "topic1", 0, List.of(new Log.Message("key1".getBytes(), "value1".getBytes()),
+                    new Log.Message("key2".getBytes(), "value2".getBytes()))));
+            readResponse(channel, 1);
+            TopicPartition topicPartition = new TopicPartition("topic1", 0);
+            channel.write(new ListOffsetsRequest(List.of(
+                    new ListOffsetsRequest.PartitionData(topicPartition, ListOffsetsRequest.Earliest),
+                    new ListOffsetsRequest.PartitionData(topicPartition, ListOffsetsRequest.Latest)))
+                    .toFrame(2, "test"));
+            List<ListOffsetsResponse.PartitionResponse> offsets = ListOffsetsResponse.parse(readResponse(channel, 2)).responses();
+            assertEquals(1, offsets.get(0).offset);
+            assertEquals(3, offsets.get(1).offset);
+
+            channel.write(new MetadataRequest(List.of("topic1", "missing")).toFrame(3, "test"));
+            MetadataResponse metadata = MetadataResponse.parse(readResponse(channel, 3));
+            assertEquals(List.of(new Broker(1, "localhost", 0)), metadata.brokers());
+            assertEquals(Errors.None, metadata.topics().get(0).error);
+            assertEquals(1, MetadataResponse.TopicMetadata.leader(metadata.topics().get(0).partitions.get(0)));
+            assertEquals(Errors.UnknownTopicOrPartition, metadata.topics().get(1).error);
+        }
+    }
+
+    @Test
+    public void closesConnectionsSendingUnsupportedVersions() throws IOException {
+        try (SocketChannel channel = connect()) {
+            RequestHeader header = new RequestHeader(ApiKeys.Metadata, (short) 99, 1, "test");
+            ByteBuffer frame = ByteBuffer.allocate(4 + header.sizeInBytes() + 4);
+            frame.putInt(frame.capacity() - 4);
+            header.writeTo(frame);
+            channel.write(frame.putInt(0).flip());
+            assertEquals(-1, channel.read(ByteBuffer.allocate(4)));
+        }
+    }
+
+    private SocketChannel connect() throws IOException {
+        return SocketChannel.open(new InetSocketAddress("localhost", server.port()));
+    }
+
+    private static ByteBuffer produce(int correlationId, String topic, int partition, List<Log.Message> messages) {
+        ByteBuffer batch = RecordBatch.of(0, messages).buffer();
+        return new ProduceRequest(List.of(new ProduceRequest.PartitionData(new TopicPartition(topic, partition), batch)))
+                .toFrame(correlationId, "test");
+    }
+
+    private static ByteBuffer fetch(int correlationId, String topic, int partition, long offset) {
+        return new FetchRequest(1024 * 1024, List.of(
+                new FetchRequest.PartitionData(new TopicPartition(topic, partition), offset, 1024 * 1024)))
+                .toFrame(correlationId, "test");
+    }
+
+    private static ByteBuffer readResponse(SocketChannel channel, int correlationId) throws IOException {
+        ByteBuffer size = readFully(channel, ByteBuffer.allocate(4));
+        ByteBuffer response = readFully(channel, ByteBuffer.allocate(size.getInt(0)));
+        assertEquals(correlationId, response.getInt());
+        return response;
+    }
+
+    private static ByteBuffer readFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException("Connection closed");
+            }
+        }
+        return buffer.flip();
+    }
+
+    private static List<Log.Message> messagesIn(ByteBuffer batches) {
+        List<Log.Message> messages = new ArrayList<>();
+        while (batches.hasRemaining()) {
+            int batchSize = RecordBatch.LogOverhead + batches.getInt(batches.position() + RecordBatch.LengthOffset);
+            new RecordBatch(batches.slice(batches.position(), batchSize)).forEach(messages::add);
+            batches.position(batches.position() + batchSize);
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,247 @@
+package com.dist.simplekafka;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * The behaviour every {@link StorageEngine} has to conform to. Subclasses
+ * create the engine under test, with small segments so that tests cross
+ * segment boundaries.
+ */
+public abstract class StorageEngineTest {
+    private final List<StorageEngine> engines = new ArrayList<>();
+
+    protected abstract StorageEngine createEngine(LogConfig config) throws IOException;
+
+    private StorageEngine engine() throws IOException {
+        StorageEngine engine = createEngine(new LogConfig()
+                .setSegmentBytes(1000)
+                .setMemoryChunkBytes(1000));
+        engines.add(engine);
+        return engine;
+    }
+
+    @After
+    public void closeEngines() throws IOException {
+        for (StorageEngine engine : engines) {
+            engine.close();
+        }
+    }
+
+    @Test
+    public void assignsContiguousOffsetsFromTheInitialOffset() throws IOException {
+        StorageEngine engine = engine();
+        assertEquals(Log.InitialOffset - 1, engine.lastOffset());
+        assertEquals(Log.InitialOffset, engine.logStartOffset());
+
+        assertEquals(1, engine.append("key0".getBytes(), "value0".getBytes()));
+        assertEquals(2, engine.append(List.of(
+                new Log.Message("key1".getBytes(), "value1".getBytes()),
+                new Log.Message("key2".getBytes(), "value2".getBytes()))));
+        assertEquals(4, engine.append("key3".getBytes(), "value3".getBytes()));
+        assertEquals(4, engine.lastOffset());
+    }
+
+    @Test
+    public void readsMessagesAcrossSegments() throws IOException {
+        StorageEngine engine = engine();
+        appendMessages(engine, 100);
+
+        List<Log.Message> messages = engine.read(10, 60);
+        assertEquals(51, messages.size());
+        for (int i = 0; i < messages.size(); i++) {
+            assertEquals(10 + i, messages.get(i).offset);
+            assertEquals("value" + (9 + i), new String(messages.get(i).value));
+        }
+        assertEquals(100, engine.read(1, Long.MAX_VALUE).size());
+        assertEquals(0, engine.read(101, Long.MAX_VALUE).size());
+        assertEquals("key41", new String(engine.readSingleMessage(42).key));
+    }
+
+    @Test(expected = OffsetOutOfRangeException.class)
+    public void readingPastTheEndFails() throws IOException {
+        StorageEngine engine = engine();
+        appendMessages(engine, 10);
+        engine.readSingleMessage(11);
+    }
+
+    @Test(expected = OffsetOutOfRangeException.class)
+    public void readingFromPastTheEndFails() throws IOException {
+        StorageEngine engine = engine();
+        appendMessages(engine, 10);
+        engine.read(12, 20);
+    }
+
+    @Test
+    public void truncatesAndContinuesAppendingFromTheTruncationOffset() throws IOException {
+        StorageEngine engine = engine();
+        appendMessages(engine, 100);
+
+        engine.truncateTo(40);
+        assertEquals(39, engine.lastOffset());
+        assertEquals(39, engine.read(1, Long.MAX_VALUE).size());
+        assertEquals(40, engine.append("new".getBytes(), "value".getBytes()));
+        assertEquals("new", new String(engine.readSingleMessage(40).key));
+        assertEquals("value38", new String(engine.readSingleMessage(39).value));
+        assertEquals(41, engine.append("next".getBytes(), "value".getBytes()));
+    }
+
+    @Test
+    public void truncationRemovesWholeBatches() throws IOException {
+        StorageEngine engine = engine();
+        appendMessages(engine, 5);
+        List<Log.Message> batch = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            batch.add(new Log.Message(("batch" + i).getBytes(), "value".getBytes()));
+        }
+        engine.append(batch);
+
+        engine.truncateTo(8);
+        assertEquals(5, engine.lastOffset());
+    }
+
+    @Test
+    public void truncatingPastTheEndKeepsAllMessages() throws IOException {
+        StorageEngine engine = engine();
+        appendMessages(engine, 10);
+
+        engine.truncateTo(11);
+        engine.truncateTo(100);
+        assertEquals(10, engine.lastOffset());
+    }
+
+    @Test
+    public void truncatesToAnEmptyLog() throws IOException {
+        StorageEngine engine = engine();
+        appendMessages(engine, 100);
+
+        engine.truncateTo(Log.InitialOffset);
+        assertEquals(Log.InitialOffset - 1, engine.lastOffset());
+        assertEquals(Log.InitialOffset, engine.logStartOffset());
+        assertEquals(0, engine.read(Log.InitialOffset, Long.MAX_VALUE).size());
+        assertEquals(Log.InitialOffset, engine.append("key".getBytes(), "value".getBytes()));
+    }
+
+    @Test
+    public void flushKeepsAllMessagesReadable() throws IOException {
+        StorageEngine engine = engine();
+        appendMessages(engine, 20);
+        engine.flush();
+
+        assertEquals(20, engine.read(1, Long.MAX_VALUE).size());
+    }
+
+    @Test
+    public void concurrentAppendsGetDistinctOffsets() throws Exception {
+        StorageEngine engine = engine();
+        int threads = 4;
+        int appendsPerThread = 200;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<List<Long>>> results = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            results.add(executor.submit(() -> {
+                List<Long> offsets = new ArrayList<>();
+                for (int i = 0; i < appendsPerThread; i++) {
+                    offsets.add(engine.append(("key" + thread).getBytes(), (thread + "-" + i).getBytes()));
+                }
+                return offsets;
+            }));
+        }
+        Set<Long> offsets = new HashSet<>();
+        for (Future<List<Long>> result : results) {
+            offsets.addAll(result.get(30, TimeUnit.SECONDS));
+        }
+        executor.shutdown();
+
+        assertEquals(threads * appendsPerThread, offsets.size());
+        assertEquals(threads * appendsPerThread, engine.lastOffset());
+        assertEquals(threads * appendsPerThread, engine.read(1, Long.MAX_VALUE).size());
+    }
+
+    @Test
+    public void appendsProducerBatchesAsTheyAre() throws IOException {
+        StorageEngine engine = engine();
+        appendMessages(engine, 2);
+        ByteBuffer batch = RecordBatch.encodeForAppend(List.of(
+                new Log.Message("key2".getBytes(), "value2".getBytes()),
+                new Log.Message("key3".getBytes(), "value3".getBytes())), null);
+
+        assertEquals(3, engine.appendRecordBatch(batch));
+        assertEquals(4, engine.lastOffset());
+        assertEquals("value3", new String(engine.readSingleMessage(4).value));
+    }
+
+    @Test
+    public void rejectsCorruptProducerBatches() throws IOException {
+        StorageEngine engine = engine();
+        ByteBuffer batch = RecordBatch.encodeForAppend("key".getBytes(), "value".getBytes());
+        batch.put(batch.limit() - 1, (byte) 'X');
+        try {
+            engine.appendRecordBatch(batch);
+            fail("Expected CorruptRecordException");
+        } catch (CorruptRecordException e) {
+            //expected.
+        }
+        assertEquals(Log.InitialOffset - 1, engine.lastOffset());
+    }
+
+    @Test
+    public void readsStoredBatchesUpToMaxBytes() throws IOException {
+        StorageEngine engine = engine();
+        appendMessages(engine, 100);
+
+        assertEquals(List.of(10L), baseOffsets(engine.readBatches(10, 1)));
+        ByteBuffer batches = engine.readBatches(10, 200);
+        assertTrue(batches.remaining() <= 200);
+        List<Long> offsets = baseOffsets(batches);
+        assertTrue(offsets.size() > 1);
+        for (int i = 0; i < offsets.size(); i++) {
+            assertEquals(10L + i, (long) offsets.get(i));
+        }
+        assertEquals(0, engine.readBatches(101, 200).remaining());
+    }
+
+    @Test
+    public void findsOffsetsForTimestamps() throws IOException {
+        StorageEngine engine = engine();
+        for (int i = 1; i <= 3; i++) {
+            engine.append(List.of(new Log.Message(-1, i * 1000L, "key".getBytes(), ("value" + i).getBytes())));
+        }
+
+        assertEquals(1, engine.offsetForTime(0));
+        assertEquals(2, engine.offsetForTime(1500));
+        assertEquals(3, engine.offsetForTime(3000));
+        assertEquals(4, engine.offsetForTime(3001));
+    }
+
+    private static List<Long> baseOffsets(ByteBuffer batches) {
+        List<Long> offsets = new ArrayList<>();
+        for (int position = batches.position(); position < batches.limit();
+             position += RecordBatch.LogOverhead + batches.getInt(position + RecordBatch.LengthOffset)) {
+            offsets.add(batches.getLong(position + RecordBatch.BaseOffsetOffset));
+        }
+        return offsets;
+    }
+
+    private static void appendMessages(StorageEngine engine, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            engine.append(("key" + i).getBytes(), ("value" + i).getBytes());
+        }
+    }
+}
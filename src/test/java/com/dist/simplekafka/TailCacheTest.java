@@ -0,0 +1,75 @@
+package com.dist.simplekafka;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class TailCacheTest {
+
+    @Test
+    public void evictsOldestBatchesWhenTheRingIsFull() {
+        TailCache cache = new TailCache(1024);
+        for (long offset = 1; offset <= 100; offset++) {
+            append(cache, offset, "value" + offset);
+        }
+
+        assertNull(cache.read(1));
+        RecordBatch latest = cache.read(100);
+        assertNotNull(latest);
+        assertEquals("value100", new String(latest.iterator().next().value));
+        List<RecordBatch> tail = cache.read(95, 100, Integer.MAX_VALUE);
+        assertEquals(6, tail.size());
+        assertEquals(95, tail.get(0).baseOffset());
+        assertEquals(100, tail.get(5).baseOffset());
+    }
+
+    @Test
+    public void dropsTruncatedBatches() {
+        TailCache cache = new TailCache(1024);
+        for (long offset = 1; offset <= 10; offset++) {
+            append(cache, offset, "value" + offset);
+        }
+
+        cache.truncateTo(6);
+        assertNotNull(cache.read(5));
+        assertNull(cache.read(6));
+        append(cache, 6, "new");
+        assertEquals("new", new String(cache.read(6).iterator().next().value));
+        assertEquals(6, cache.read(1, 100, Integer.MAX_VALUE).size());
+    }
+
+    @Test
+    public void batchLargerThanTheCacheEmptiesIt() {
+        TailCache cache = new TailCache(256);
+        append(cache, 1, "small");
+        append(cache, 2, new String(new byte[300]));
+
+        assertNull(cache.read(1));
+        assertNull(cache.read(2));
+        append(cache, 3, "small");
+        assertNotNull(cache.read(3));
+    }
+
+    @Test
+    public void reportsHitRatio() {
+        TailCache cache = new TailCache(1024);
+        append(cache, 1, "value");
+        cache.read(1);
+        cache.read(1);
+        cache.read(1);
+        cache.read(5);
+
+        assertEquals(3, cache.hits());
+        assertEquals(1, cache.misses());
+        assertEquals(0.75, cache.hitRatio(), 0.0001);
+    }
+
+    private static void append(TailCache cache, long offset, String value) {
+        RecordBatch batch = RecordBatch.of(offset, "key".getBytes(), value.getBytes());
+        cache.append(batch.baseOffset(), batch.lastOffset(), batch.buffer());
+    }
+}
@@ -0,0 +1,12 @@
+package com.dist.simplekafka;
+
+import com.dist.common.Config;
+
+//Runs the socket server tests with a thread per connection.
+public class ThreadPerConnectionSocketServerTest extends SocketServerTest {
+
+    @Override
+    protected Config.NetworkMode networkMode() {
+        return Config.NetworkMode.THREAD_PER_CONNECTION;
+    }
+}
@@ -0,0 +1,52 @@
+package com.dist.simplekafka;
+
+import com.dist.common.TestUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+public class TimeIndexTest {
+
+    @Test
+    public void looksUpLastEntryWithSmallerTimestamp() throws IOException {
+        TimeIndex index = new TimeIndex(new File(TestUtils.tempDir("index"), "00000000000000000100.timeindex"), 100, 1200);
+        index.maybeAppend(1000, 110);
+        index.maybeAppend(2000, 120);
+        index.maybeAppend(3000, 130);
+
+        assertEquals(100, index.lookup(1000).offset);
+        assertEquals(110, index.lookup(1001).offset);
+        assertEquals(120, index.lookup(3000).offset);
+        assertEquals(130, index.lookup(5000).offset);
+    }
+
+    @Test
+    public void onlyAddsEntriesForLargerTimestamps() throws IOException {
+        TimeIndex index = new TimeIndex(new File(TestUtils.tempDir("index"), "00000000000000000001.timeindex"), 1, 1200);
+        index.maybeAppend(1000, 10);
+        index.maybeAppend(1000, 20);
+        index.maybeAppend(900, 30);
+
+        assertEquals(1, index.entries());
+        assertEquals(10, index.lastEntry().offset);
+    }
+
+    @Test
+    public void dropsTrailingZeroEntriesAfterUncleanShutdown() throws IOException {
+        File file = new File(TestUtils.tempDir("index"), "00000000000000000001.timeindex");
+        TimeIndex index = new TimeIndex(file, 1, 1200);
+        index.maybeAppend(1000, 10);
+        index.maybeAppend(2000, 20);
+        //not closed, so the file still has its preallocated size.
+        assertEquals(1200, file.length());
+
+        TimeIndex reopened = new TimeIndex(file, 1, 1200);
+        assertEquals(2, reopened.entries());
+        assertEquals(2000, reopened.lastEntry().timestamp);
+        reopened.close();
+        assertEquals(24, file.length());
+    }
+}